@@ -0,0 +1,684 @@
+/*******************************************************************************
+ * $Id$
+ * 
+ * Copyright 2009 Steven Jardine, MJN Services, Inc. <steve@mjnservices.com>
+ * 
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the GNU Lesser Public License v2.1 which 
+ * accompanies this distribution, and is available at
+ * 	http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the HylaFAX Fax Server please see
+ * 	HylaFAX  - http://www.hylafax.org or 
+ * 	Hylafax+ - http://hylafax.sourceforge.net
+ * 
+ * Contributors:
+ * 	Steven Jardine - Initial API and implementation
+ ******************************************************************************/
+package gnu.hylafax;
+
+import gnu.inet.ftp.TransferExecutor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import EDU.oswego.cs.dl.util.concurrent.Callable;
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+import EDU.oswego.cs.dl.util.concurrent.FutureResult;
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+
+/**
+ * An asynchronous facade over a Client. Every operation is queued and returns
+ * a FutureResult immediately. The queued operations of one AsyncClient are
+ * run in order, one at a time, on a shared Executor, so no thread is tied up
+ * per connection or per operation in flight.
+ * <P>
+ * Exceptions thrown by the client are reported by FutureResult.get() as an
+ * InvocationTargetException. Operations that are not covered by a method of
+ * this class can be queued with submit(Callable).
+ * 
+ * <pre>
+ * AsyncClient async = new AsyncClient(client);
+ * FutureResult file = async.putTemporary(in);
+ * FutureResult job = async.createJob();
+ * ...
+ * String document = (String) file.get();
+ * </pre>
+ * 
+ * @version $Revision$
+ * @author Steven Jardine <steve@mjnservices.com>
+ */
+public class AsyncClient {
+
+    private final static Log log = LogFactory.getLog(AsyncClient.class);
+
+    /**
+     * number of threads of the default executor.
+     */
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    /**
+     * time in milliseconds an idle thread of the default executor is kept.
+     */
+    public static final long DEFAULT_KEEP_ALIVE = 60 * 1000;
+
+    private static Executor defaultExecutor = null;
+
+    /**
+     * @return the executor shared by all AsyncClients that were created
+     *         without one.
+     */
+    public static synchronized Executor getDefaultExecutor() {
+	if (defaultExecutor == null) {
+	    PooledExecutor pool = TransferExecutor.newDaemonExecutor(
+		    "AsyncClient", DEFAULT_POOL_SIZE);
+	    pool.setKeepAliveTime(DEFAULT_KEEP_ALIVE);
+	    defaultExecutor = pool;
+	}
+	return defaultExecutor;
+    }
+
+    /**
+     * replace the shared executor. Clients created before keep using the old
+     * executor.
+     * 
+     * @param executor
+     *            the new default executor
+     */
+    public static synchronized void setDefaultExecutor(Executor executor) {
+	defaultExecutor = executor;
+    }
+
+    private final Client client;
+
+    private final Executor executor;
+
+    private final LinkedList queue = new LinkedList();
+
+    private boolean draining = false;
+
+    private final Runnable drainer = new Runnable() {
+	public void run() {
+	    drain();
+	}
+    };
+
+    /**
+     * create an AsyncClient using the default executor.
+     * 
+     * @param client
+     *            the client to run the operations on
+     */
+    public AsyncClient(Client client) {
+	this(client, getDefaultExecutor());
+    }
+
+    /**
+     * @param client
+     *            the client to run the operations on
+     * @param executor
+     *            the executor that runs the queued operations
+     */
+    public AsyncClient(Client client, Executor executor) {
+	this.client = client;
+	this.executor = executor;
+    }
+
+    /**
+     * @return the client the operations are run on.
+     */
+    public Client getClient() {
+	return client;
+    }
+
+    /**
+     * @return the number of operations that have not been started yet.
+     */
+    public synchronized int getPendingCount() {
+	return queue.size();
+    }
+
+    /**
+     * queue an operation. The operation is run after all previously queued
+     * operations of this AsyncClient have completed.
+     * 
+     * @param task
+     *            the operation
+     * @return the future result of the operation
+     */
+    public FutureResult submit(Callable task) {
+	FutureResult result = new FutureResult();
+	Runnable command = result.setter(task);
+	boolean start;
+	synchronized (this) {
+	    queue.addLast(command);
+	    start = !draining;
+	    draining = true;
+	}
+	if (start) {
+	    try {
+		executor.execute(drainer);
+	    } catch (InterruptedException e) {
+		synchronized (this) {
+		    queue.remove(command);
+		    draining = false;
+		}
+		Thread.currentThread().interrupt();
+		result.setException(e);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * run the queued operations until the queue is empty.
+     */
+    private void drain() {
+	while (true) {
+	    Runnable command;
+	    synchronized (this) {
+		if (queue.isEmpty()) {
+		    draining = false;
+		    return;
+		}
+		command = (Runnable) queue.removeFirst();
+	    }
+	    try {
+		command.run();
+	    } catch (RuntimeException e) {
+		// FutureResult.setter() records all exceptions, this is a bug.
+		log.error("Queued operation failed", e);
+	    }
+	}
+    }
+
+    /**
+     * create a new job, see Client.createJob().
+     * 
+     * @return the future result
+     */
+    public FutureResult createJob() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.createJob();
+	    }
+	});
+    }
+
+    /**
+     * delete a job, see Client.delete(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult delete(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.delete(job);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * execute a pipeline of job commands, see
+     * ClientProtocol.execute(Pipeline).
+     * 
+     * @return the future result
+     */
+    public FutureResult execute(final Pipeline pipeline) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.execute(pipeline);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * retrieve a file, see Client.get(String, OutputStream).
+     * 
+     * @return the future result
+     */
+    public FutureResult get(final String path, final OutputStream out) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.get(path, out);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * get a job by id, see Client.getJob(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult getJob(final long id) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.getJob(id);
+	    }
+	});
+    }
+
+    /**
+     * list the current directory, see Client.getList().
+     * 
+     * @return the future result
+     */
+    public FutureResult getList() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.getList();
+	    }
+	});
+    }
+
+    /**
+     * list a directory, see Client.getList(String).
+     * 
+     * @return the future result
+     */
+    public FutureResult getList(final String path) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.getList(path);
+	    }
+	});
+    }
+
+    /**
+     * list the file names of the current directory, see Client.getNameList().
+     * 
+     * @return the future result
+     */
+    public FutureResult getNameList() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.getNameList();
+	    }
+	});
+    }
+
+    /**
+     * list the file names of a directory, see Client.getNameList(String).
+     * 
+     * @return the future result
+     */
+    public FutureResult getNameList(final String path) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.getNameList(path);
+	    }
+	});
+    }
+
+    /**
+     * interrupt a job, see Client.interrupt(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult interrupt(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.interrupt(job);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * delete a job by id, see ClientProtocol.jdele(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jdele(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jdele(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * interrupt a job by id, see ClientProtocol.jintr(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jintr(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jintr(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * kill a job by id, see ClientProtocol.jkill(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jkill(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jkill(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * create a new job, see ClientProtocol.jnew().
+     * 
+     * @return the future result
+     */
+    public FutureResult jnew() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jnew();
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * create a new job, see ClientProtocol.jnew(boolean).
+     * 
+     * @return the future result
+     */
+    public FutureResult jnew(final boolean inheritDefault) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jnew(inheritDefault);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * get the current job id as a Long, see ClientProtocol.job().
+     * 
+     * @return the future result
+     */
+    public FutureResult job() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return new Long(client.job());
+	    }
+	});
+    }
+
+    /**
+     * select a job, see ClientProtocol.job(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult job(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.job(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * get all parameters of the current job as a List, see
+     * ClientProtocol.jparm().
+     * 
+     * @return the future result
+     */
+    public FutureResult jparm() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.jparm();
+	    }
+	});
+    }
+
+    /**
+     * get a parameter of the current job as a String, see
+     * ClientProtocol.jparm(String).
+     * 
+     * @return the future result
+     */
+    public FutureResult jparm(final String parm) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.jparm(parm);
+	    }
+	});
+    }
+
+    /**
+     * set a parameter of the current job, see ClientProtocol.jparm(String,
+     * String).
+     * 
+     * @return the future result
+     */
+    public FutureResult jparm(final String parm, final String value) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jparm(parm, value);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * set a parameter of the current job, see ClientProtocol.jparm(String,
+     * Object).
+     * 
+     * @return the future result
+     */
+    public FutureResult jparm(final String parm, final Object value) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jparm(parm, value);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * submit the current job, the result is the job id as a Long. See
+     * ClientProtocol.jsubm().
+     * 
+     * @return the future result
+     */
+    public FutureResult jsubm() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return new Long(client.jsubm());
+	    }
+	});
+    }
+
+    /**
+     * submit a job by id, the result is the job id as an Integer. See
+     * ClientProtocol.jsubm(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jsubm(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return new Integer(client.jsubm(jobid));
+	    }
+	});
+    }
+
+    /**
+     * suspend a job by id, see ClientProtocol.jsusp(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jsusp(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jsusp(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * wait for a job by id, see ClientProtocol.jwait(long).
+     * 
+     * @return the future result
+     */
+    public FutureResult jwait(final long jobid) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.jwait(jobid);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * kill a job, see Client.kill(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult kill(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.kill(job);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * send a keep-alive, see ClientProtocol.noop().
+     * 
+     * @return the future result
+     */
+    public FutureResult noop() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.noop();
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * store a file with a unique name, the result is the file name. See
+     * Client.put(InputStream).
+     * 
+     * @return the future result
+     */
+    public FutureResult put(final InputStream in) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.put(in);
+	    }
+	});
+    }
+
+    /**
+     * store a file, see Client.put(InputStream, String).
+     * 
+     * @return the future result
+     */
+    public FutureResult put(final InputStream in, final String pathname) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.put(in, pathname);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * store a temporary file, the result is the file name. See
+     * Client.putTemporary(InputStream).
+     * 
+     * @return the future result
+     */
+    public FutureResult putTemporary(final InputStream data) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return client.putTemporary(data);
+	    }
+	});
+    }
+
+    /**
+     * end the session, see ClientProtocol.quit().
+     * 
+     * @return the future result
+     */
+    public FutureResult quit() {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.quit();
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * get the size of a file as a Long, see ClientProtocol.size(String).
+     * 
+     * @return the future result
+     */
+    public FutureResult size(final String pathname) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		return new Long(client.size(pathname));
+	    }
+	});
+    }
+
+    /**
+     * submit a job, see Client.submit(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult submit(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.submit(job);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * suspend a job, see Client.suspend(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult suspend(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.suspend(job);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * wait for a job, see Client.wait(Job).
+     * 
+     * @return the future result
+     */
+    public FutureResult wait(final Job job) {
+	return submit(new Callable() {
+	    public Object call() throws Exception {
+		client.wait(job);
+		return null;
+	    }
+	});
+    }
+
+}
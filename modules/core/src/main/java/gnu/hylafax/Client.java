@@ -18,13 +18,16 @@
 package gnu.hylafax;
 
 import gnu.inet.ftp.ConnectionEventSource;
+import gnu.inet.ftp.ListingHandler;
 import gnu.inet.ftp.ServerResponseException;
 import gnu.inet.ftp.TransferEventSource;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.Vector;
 
 /**
@@ -74,6 +77,67 @@ public interface Client extends ClientProtocol, TransferEventSource,
     public void get(String path, OutputStream out) throws IOException,
 	    FileNotFoundException, ServerResponseException;
 
+    /**
+     * GET the named file into a local file, FTP style. The file is truncated
+     * first.
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param file
+     *            the local file to write the data to
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public void get(String path, File file) throws IOException,
+	    FileNotFoundException, ServerResponseException;
+
+    /**
+     * GET the named file into a local file and continue interrupted transfers
+     * with REST, see HylaFAXClient.resumableGet().
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param file
+     *            the local file to write the data to
+     * @param retries
+     *            how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                an IO error occurred or the transfer was still
+     *                incomplete after the last retry
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public void resumableGet(String path, File file, int retries)
+	    throws IOException, FileNotFoundException, ServerResponseException;
+
+    /**
+     * GET the named file into a file channel, FTP style. Writing starts at the
+     * current position of the channel, which is left at the end of the data.
+     * The channel is not closed.
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param channel
+     *            the channel to write the data to
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public void get(String path, FileChannel channel) throws IOException,
+	    FileNotFoundException, ServerResponseException;
+
     /**
      * get a Job instance for the given job id
      * 
@@ -117,6 +181,25 @@ public interface Client extends ClientProtocol, TransferEventSource,
     public Vector getList(String path) throws IOException,
 	    FileNotFoundException, ServerResponseException;
 
+    /**
+     * get a long-style listing of files in the given directory, passing each
+     * entry to the handler while the listing is transferred. NOTE: this calls
+     * the list() method internally.
+     * 
+     * @param path
+     *            the path that we're interested in finding the contents of
+     * @param handler
+     *            the handler receiving the entries
+     * @exception IOException
+     *                an IO error occurred
+     * @exception FileNotFoundException
+     *                the given path doesn't exist
+     * @exception ServerResponseException
+     *                the server reported an error
+     */
+    public void getList(String path, ListingHandler handler)
+	    throws IOException, FileNotFoundException, ServerResponseException;
+
     /**
      * get name list of files in the current directory. Similar to getList() but
      * returns filenames only where getList() returns other, system dependant
@@ -151,6 +234,24 @@ public interface Client extends ClientProtocol, TransferEventSource,
     public Vector getNameList(String path) throws IOException,
 	    ServerResponseException, FileNotFoundException;
 
+    /**
+     * get name list of files in the given directory, passing each filename
+     * to the handler while the list is transferred.
+     * 
+     * @param path
+     *            the path of the directory that we want the name list of
+     * @param handler
+     *            the handler receiving the filenames
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the requested path does not exist
+     */
+    public void getNameList(String path, ListingHandler handler)
+	    throws IOException, ServerResponseException, FileNotFoundException;
+
     /**
      * check whether passive transfers have been enabled
      * 
@@ -233,6 +334,72 @@ public interface Client extends ClientProtocol, TransferEventSource,
     public String putTemporary(InputStream data) throws IOException,
 	    ServerResponseException;
 
+    /**
+     * store a local file and continue interrupted transfers with REST, see
+     * HylaFAXClient.resumablePut().
+     * 
+     * @param file
+     *            the file to send
+     * @param pathname
+     *            name of file to store on server (where to put the file on the
+     *            server)
+     * @param retries
+     *            how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                an IO error occurred or the transfer was still
+     *                incomplete after the last retry
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public void resumablePut(File file, String pathname, int retries)
+	    throws IOException, ServerResponseException;
+
+    /**
+     * put a local file with a unique name. NOTE: this calls stou() internally.
+     * 
+     * @param file
+     *            the file to send
+     * @exception IOException
+     *                a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                the server responded with an error code
+     * @return the name of the file created
+     */
+    public String put(File file) throws IOException, ServerResponseException;
+
+    /**
+     * store a local file. NOTE: this calls stor() internally.
+     * 
+     * @param file
+     *            the file to send
+     * @param pathname
+     *            name of file to store on server (where to put the file on the
+     *            server)
+     * @exception IOException
+     *                a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public void put(File file, String pathname) throws IOException,
+	    ServerResponseException;
+
+    /**
+     * put a local file as temp file, the data is stored in a uniquely named
+     * file on the server. The remote temp file is deleted when the connection
+     * is closed. NOTE: this calls stot() internally.
+     * 
+     * @param file
+     *            the file to send
+     * @exception IOException
+     *                io error occurred talking to the server or the file can
+     *                not be read
+     * @exception ServerResponseException
+     *                server replied with error code
+     * @return the filename of the temp file
+     */
+    public String putTemporary(File file) throws IOException,
+	    ServerResponseException;
+
     /**
      * enable or disable passive transfers
      * 
@@ -149,6 +149,23 @@ public interface ClientProtocol {
     public void config(String parm, String value) throws IOException,
 	    ServerResponseException;
 
+    /**
+     * execute a batch of job commands. The commands are written to the server
+     * without waiting for each reply, see Pipeline for details. The server
+     * replies are stored in the pipeline.
+     * 
+     * @param pipeline
+     *            the commands to execute
+     * @exception IOException
+     *                io error occurred
+     * @exception PipelineException
+     *                the server rejected one of the commands
+     * @exception ServerResponseException
+     *                server replied with an error code
+     */
+    public void execute(Pipeline pipeline) throws IOException,
+	    ServerResponseException;
+
     /**
      * get the FILEFMT string value. The FILEFMT string specifies how file
      * status information is formatted when returned by the LIST and STAT
@@ -645,6 +662,18 @@ public interface ClientProtocol {
     public void site(String parm, String value) throws IOException,
 	    ServerResponseException;
 
+    /**
+     * set the restart offset of the next RETR or STOR command.
+     * 
+     * @param offset
+     *            the offset in bytes
+     * @exception IOException
+     *                caused by a socket IO error
+     * @exception ServerResponseException
+     *                caused by a server response indicating an error
+     */
+    public void rest(long offset) throws IOException, ServerResponseException;
+
     /**
      * Returns the size (in bytes) of the given regular file. This is the size
      * on the server and may not accurately represent the file size once the
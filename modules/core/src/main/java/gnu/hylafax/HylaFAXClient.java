@@ -26,26 +26,35 @@ import gnu.inet.ftp.ActiveGetter;
 import gnu.inet.ftp.ActivePutter;
 import gnu.inet.ftp.ConnectionListener;
 import gnu.inet.ftp.Getter;
+import gnu.inet.ftp.ListingHandler;
+import gnu.inet.ftp.ListingOutputStream;
 import gnu.inet.ftp.PassiveConnection;
 import gnu.inet.ftp.PassiveGetter;
 import gnu.inet.ftp.PassivePutter;
 import gnu.inet.ftp.Putter;
+import gnu.inet.ftp.ResumableTransfer;
 import gnu.inet.ftp.ServerResponseException;
+import gnu.inet.ftp.SessionRecorder;
 import gnu.inet.ftp.TransferListener;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 /**
  * This class implements convenience methods that wrapper the ClientProtocol
  * methods for common functionality.
@@ -60,6 +69,8 @@ import java.util.Vector;
  */
 public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 
+    private final static Log log = LogFactory.getLog(HylaFAXClient.class);
+
     private static final int GET = 0;
 
     private static final int LIST = 1;
@@ -96,6 +107,12 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 
     private Vector transferListeners;
 
+    private UploadCache uploadCache = null;
+
+    // scope of the temporary uploads of the current session, replaced when
+    // the session ends.
+    private Object session = new Object();
+
     /**
      * default constructor. initialize class state.
      */
@@ -200,11 +217,115 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      */
     public synchronized void get(String path, OutputStream out)
 	    throws IOException, FileNotFoundException, ServerResponseException {
-	get(path, out, GET);
+	get(path, out, null, 0, GET);
     }
 
-    private synchronized void get(String path, OutputStream out, int type)
+    /**
+     * GET the named file into a local file, FTP style. The file is truncated
+     * first and the data is written with FileChannel.transferFrom().
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param file
+     *            the local file to write the data to
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public synchronized void get(String path, File file) throws IOException,
+	    FileNotFoundException, ServerResponseException {
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	try {
+	    out.setLength(0);
+	    get(path, out.getChannel());
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * GET the named file into a file channel, FTP style. The data is written
+     * with FileChannel.transferFrom() starting at the current position of the
+     * channel, which is left at the end of the data. This allows to receive
+     * into a preallocated file or after a header. The channel is not closed.
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param channel
+     *            the channel to write the data to
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public synchronized void get(String path, FileChannel channel)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	get(path, Channels.newOutputStream(channel), channel, 0, GET);
+    }
+
+    /**
+     * GET the named file into a local file and continue interrupted transfers
+     * with REST. A partial local file from an earlier call is continued if it
+     * was written after the last modification of the remote file (MDTM),
+     * otherwise it is replaced. SIZE and MDTM are checked again before every
+     * retry and a remote file that has changed is downloaded from the start.
+     * Only works for image type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried. The partial file
+     * is kept, so calling this method again on a new connection continues
+     * the download.
+     * 
+     * @param path
+     *            the name of the file to GET. This can be a full or partial
+     *            path.
+     * @param file
+     *            the local file to write the data to
+     * @param retries
+     *            how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                an IO error occurred or the transfer was still
+     *                incomplete after the last retry
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the given path does not exist
+     */
+    public synchronized void resumableGet(String path, File file, int retries)
 	    throws IOException, FileNotFoundException, ServerResponseException {
+	resumableTransfer().getFile(path, file, retries);
+    }
+
+    private ResumableTransfer resumableTransfer() {
+	return new ResumableTransfer(this) {
+	    protected void putAt(InputStream in, String pathname, long offset)
+		    throws IOException, ServerResponseException {
+		HylaFAXClient.this.put(in, pathname, false, offset);
+	    }
+
+	    protected void getAt(String path, FileChannel channel, long offset)
+		    throws IOException, FileNotFoundException,
+		    ServerResponseException {
+		HylaFAXClient.this.get(path, Channels.newOutputStream(channel),
+			channel, offset, GET);
+	    }
+
+	    protected void transferInterrupted() {
+		if (connection != null && connection.getSocket().isClosed())
+		    connection = null;
+	    }
+	};
+    }
+
+    private synchronized void get(String path, OutputStream out,
+	    FileChannel channel, long offset, int type) throws IOException,
+	    FileNotFoundException, ServerResponseException {
 
 	Getter getter;
 	if (passive == true) {
@@ -222,12 +343,17 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	// start transfer
 	getter.addConnectionListeners(connectionListeners);
 	getter.addTransferListeners(transferListeners);
+	getter.setExecutor(transferExecutor);
+	getter.setGovernor(transferGovernor, transferWeight);
+	getter.setChannel(channel);
 	getter.start();
 
 	// start transmission
 	try {
 	    switch (type) {
 	    case GET:
+		if (offset > 0)
+		    rest(offset);
 		retr(path);
 		break;
 	    case LIST:
@@ -308,35 +434,55 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	return getList(path, false);
     }
 
-    private synchronized Vector getList(String path, boolean namelist)
+    /**
+     * Get a long-style listing of files in the given directory, passing each
+     * entry to the handler while the listing is transferred instead of keeping
+     * the whole listing in memory. Entries continued on several lines are
+     * joined.
+     * 
+     * <b>NOTE:</b> this calls the list() method internally.
+     * 
+     * @param path
+     *            the path that we're interested in finding the contents of
+     * @param handler
+     *            the handler receiving the entries
+     * @exception IOException
+     *                an IO error occurred
+     * @exception FileNotFoundException
+     *                the given path doesn't exist
+     * @exception ServerResponseException
+     *                the server reported an error
+     */
+    public synchronized void getList(String path, ListingHandler handler)
 	    throws IOException, FileNotFoundException, ServerResponseException {
+	getList(path, handler, false);
+    }
 
-	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-	get(path, buffer, namelist ? NAMELIST : LIST);
+    private synchronized Vector getList(String path, boolean namelist)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	final Vector result = new Vector();
+	getList(path, new ListingHandler() {
+	    public void entry(String entry) {
+		result.add(entry);
+	    }
+	}, namelist);
+	return result;
+    }
 
-	Vector result = new Vector();
-	BufferedReader data = new BufferedReader(new InputStreamReader(
-		new ByteArrayInputStream(buffer.toByteArray()), getCharacterEncoding()));
+    private synchronized void getList(String path, ListingHandler handler,
+	    boolean namelist) throws IOException, FileNotFoundException,
+	    ServerResponseException {
+	ListingOutputStream listing = new ListingOutputStream(handler,
+		getCharacterEncoding(), true);
 	try {
-	    String line = null;
-	    String next = null;
-	    while ((next = data.readLine()) != null) {
-		next = next.trim();
-		if (next.endsWith("\\")) {
-		    next = next.substring(0, next.lastIndexOf("\\"));
-		    line = (line == null ? next : line + " " + next).trim();
-		    continue;
-		}
-		line = (line == null ? next : line + " " + next).trim();
-		result.add(line);
-		line = null;
-	    }
+	    get(path, listing, null, 0, namelist ? NAMELIST : LIST);
 	} finally {
-	    data.close();
+	    // a listing aborted by the handler has closed the data connection.
+	    if (connection != null && connection.getSocket().isClosed())
+		connection = null;
+	    // passes the last entry on, rethrows a failure of the handler.
+	    listing.close();
 	}
-
-	return result;
-
     }
 
     /**
@@ -377,6 +523,27 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	return getList(path, true);
     }
 
+    /**
+     * Get name list of files in the given directory, passing each filename
+     * to the handler while the list is transferred instead of keeping the
+     * whole list in memory.
+     * 
+     * @param path
+     *            the path of the directory that we want the name list of
+     * @param handler
+     *            the handler receiving the filenames
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server reported an error
+     * @exception FileNotFoundException
+     *                the requested path does not exist
+     */
+    public synchronized void getNameList(String path, ListingHandler handler)
+	    throws IOException, ServerResponseException, FileNotFoundException {
+	getList(path, handler, true);
+    }
+
     /**
      * Check whether passive transfers have been enabled
      * 
@@ -442,7 +609,7 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      */
     public synchronized String put(InputStream data) throws IOException,
 	    ServerResponseException {
-	return put(data, null, false);
+	return put(data, null, false, 0);
     }
 
     /**
@@ -460,7 +627,7 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      */
     public synchronized void put(InputStream in, String pathname)
 	    throws IOException, ServerResponseException {
-	put(in, pathname, false);
+	put(in, pathname, false, 0);
     }
 
     /**
@@ -475,6 +642,8 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      *            temporary file or no specific pathname is desired.
      * @param temporary
      *            is the file a temporary file?
+     * @param offset
+     *            the restart offset of a stor, 0 to store the whole file
      * @return the filename of the file. Will be NULL when pathname is not null.
      * @throws IOException
      *             io error occurred talking to the server
@@ -482,7 +651,8 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      *             server replied with error code
      */
     private synchronized String put(InputStream data, String pathname,
-	    boolean temporary) throws IOException, ServerResponseException {
+	    boolean temporary, long offset) throws IOException,
+	    ServerResponseException {
 	String filename;
 	Putter put;
 
@@ -501,15 +671,21 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	put.setMode(mode);
 	put.addConnectionListeners(connectionListeners);
 	put.addTransferListeners(transferListeners);
+	put.setExecutor(transferExecutor);
+	put.setGovernor(transferGovernor, transferWeight);
+	put.setCompression(compressionLevel, parallelCompression);
 	put.start();
 
 	// start transmission
 	try {
 	    if (pathname != null) {
+		if (offset > 0)
+		    rest(offset);
 		stor(data, pathname);
-		return null;
+		filename = null;
+	    } else {
+		filename = temporary ? stot(data) : stou(data);
 	    }
-	    filename = temporary ? stot(data) : stou(data);
 	} catch (IOException ioe) {
 	    put.cancel();
 	    throw ioe;
@@ -542,7 +718,155 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      */
     public synchronized String putTemporary(InputStream data)
 	    throws IOException, ServerResponseException {
-	return put(data, null, true);
+	return put(data, null, true, 0);
+    }
+
+    /**
+     * store a local file and continue interrupted transfers with REST. After
+     * every transfer the size of the remote file is checked with SIZE, the
+     * data the server has committed is not sent again. Only works for image
+     * type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried.
+     * 
+     * @param file
+     *            the file to send
+     * @param pathname
+     *            name of file to store on server (where to put the file on the
+     *            server)
+     * @param retries
+     *            how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                an IO error occurred or the transfer was still
+     *                incomplete after the last retry
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public synchronized void resumablePut(File file, String pathname,
+	    int retries) throws IOException, ServerResponseException {
+	resumableTransfer().putFile(file, pathname, retries);
+    }
+
+    /**
+     * put a local file with a unique name. NOTE: this calls stou() internally.
+     * The file is sent with FileChannel.transferTo() unless ASCII type or
+     * compressed mode is in effect. If an upload cache is set and the same
+     * content has been uploaded before, the name of that file is returned
+     * without sending the file again.
+     * 
+     * @param file
+     *            the file to send
+     * @exception IOException
+     *                a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                the server responded with an error code
+     * @return the name of the file created
+     */
+    public synchronized String put(File file) throws IOException,
+	    ServerResponseException {
+	if (uploadCache != null)
+	    return putCached(file, false);
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    return put(in);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * store a local file. NOTE: this calls stor() internally. The file is
+     * sent with FileChannel.transferTo() unless ASCII type or compressed mode
+     * is in effect.
+     * 
+     * @param file
+     *            the file to send
+     * @param pathname
+     *            name of file to store on server (where to put the file on
+     *            the server)
+     * @exception IOException
+     *                a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public synchronized void put(File file, String pathname)
+	    throws IOException, ServerResponseException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    put(in, pathname);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * put a local file as temp file, the data is stored in a uniquely named
+     * file on the server. The remote temp file is deleted when the connection
+     * is closed. NOTE: this calls stot() internally. The file is sent with
+     * FileChannel.transferTo() unless ASCII type or compressed mode is in
+     * effect. If an upload cache is set and the same content has been
+     * uploaded before on this connection, the name of that file is returned
+     * without sending the file again.
+     * 
+     * @param file
+     *            the file to send
+     * @exception IOException
+     *                io error occurred talking to the server or the file
+     *                can not be read
+     * @exception ServerResponseException
+     *                server replied with error code
+     * @return the filename of the temp file
+     */
+    public synchronized String putTemporary(File file) throws IOException,
+	    ServerResponseException {
+	if (uploadCache != null)
+	    return putCached(file, true);
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    return putTemporary(in);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * put a local file unless the upload cache knows a file with the same
+     * content on the server.
+     */
+    private String putCached(File file, boolean temporary) throws IOException,
+	    ServerResponseException {
+	// temporary files only exist as long as the session.
+	Object scope = temporary ? session : hylafaxServerHost + ":"
+		+ hylafaxServerPort + ":" + hylafaxServerUsername;
+	String digest = uploadCache.digest(file);
+	String filename = uploadCache.lookup(scope, digest);
+	if (filename != null) {
+	    if (!uploadCache.isVerify() || isStored(filename, file.length()))
+		return filename;
+	    log.debug("Cached upload " + filename + " is gone, sending again");
+	    uploadCache.invalidate(filename);
+	}
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    filename = put(in, null, temporary, 0);
+	} finally {
+	    in.close();
+	}
+	uploadCache.store(scope, digest, filename);
+	return filename;
+    }
+
+    /**
+     * check that a file exists on the server with the given length.
+     */
+    private boolean isStored(String filename, long length) throws IOException {
+	try {
+	    return size(filename) == length;
+	} catch (FileNotFoundException e) {
+	    return false;
+	} catch (ServerResponseException e) {
+	    return false;
+	}
     }
 
     /**
@@ -555,6 +879,22 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	connectionListeners.removeElement(listener);
     }
 
+    /**
+     * Sets the recorder of the control connection. The recorder is also
+     * registered as a transfer listener so the size of each data transfer is
+     * logged.
+     * 
+     * @param recorder
+     *            the recorder to use, or null to disable recording.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+	if (this.recorder != null)
+	    removeTransferListener(this.recorder);
+	super.setRecorder(recorder);
+	if (recorder != null)
+	    addTransferListener(recorder);
+    }
+
     /**
      * De-register a transfer listener with the event source.
      * 
@@ -609,6 +949,58 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
 	return jsubm();
     }
 
+    /**
+     * Sets the cache that lets put(File) and putTemporary(File) reuse files
+     * uploaded before instead of sending the same content again. Several
+     * clients may share one cache.
+     * 
+     * @param cache
+     *            the cache to use, or null to always upload.
+     */
+    public synchronized void setUploadCache(UploadCache cache) {
+	this.uploadCache = cache;
+    }
+
+    /**
+     * @return the upload cache, or null.
+     */
+    public synchronized UploadCache getUploadCache() {
+	return uploadCache;
+    }
+
+    /**
+     * end session. Temporary uploads of the session are removed from the
+     * upload cache, the server deletes them.
+     * 
+     * @exception IOException
+     *                io error occurred
+     * @exception ServerResponseException
+     *                server replied with an error code
+     */
+    public synchronized void quit() throws IOException, ServerResponseException {
+	try {
+	    super.quit();
+	} finally {
+	    endSession();
+	}
+    }
+
+    protected void connect(String host, int portnumber)
+	    throws UnknownHostException, IOException, ServerResponseException {
+	// a new connection is a new session even without quit().
+	endSession();
+	super.connect(host, portnumber);
+    }
+
+    /**
+     * forget the temporary uploads of the current session.
+     */
+    private synchronized void endSession() {
+	if (uploadCache != null)
+	    uploadCache.invalidateScope(session);
+	session = new Object();
+    }
+
     /**
      * enable or disable passive transfers
      * 
@@ -620,7 +1012,8 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
     }
 
     /**
-     * Submit the given job to the scheduler.
+     * Submit the given job to the scheduler. Pending changes of a buffered
+     * job are sent first.
      * 
      * @param job
      *            the Job to submit
@@ -629,6 +1022,8 @@ public class HylaFAXClient extends HylaFAXClientProtocol implements Client {
      *                an IO error occurred while communicating with the server
      */
     public void submit(Job job) throws ServerResponseException, IOException {
+	if (job instanceof gnu.hylafax.job.Job)
+	    ((gnu.hylafax.job.Job) job).flush();
 	jsubm(job.getId());
     }
 
@@ -22,6 +22,7 @@
 package gnu.hylafax;
 
 import gnu.inet.ftp.FtpClientProtocol;
+import gnu.inet.ftp.Reply;
 import gnu.inet.ftp.ServerResponseException;
 
 import java.io.FileNotFoundException;
@@ -31,8 +32,6 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -103,14 +102,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> admin " + password);
 
 	// get reply string
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("230")) {
+	if (reply.getCode() != 230) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -120,12 +117,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> answer " + modem);
 
-	String response = new String(istream.readLine());
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -168,9 +162,6 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
      */
     public synchronized void config(String parm, String value)
 	    throws IOException, ServerResponseException {
-	String response;
-	StringTokenizer st;
-
 	String cmd = "site config " + parm + " " + value + "\r\n";
 
 	ostream.write(cmd);
@@ -178,14 +169,53 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 
 	log.debug("-> " + cmd);
 
-	response = istream.readLine();
-	log.debug(response);
-
-	st = new StringTokenizer(response);
+	Reply reply = readReply();
+	if (reply.getCode() != 213 && reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
+	}
+    }
 
-	String return_code = st.nextToken();
-	if ((!return_code.equals("213")) && (!return_code.equals("200"))) {
-	    throw (new ServerResponseException(response));
+    /*
+     * (non-Javadoc)
+     * 
+     * @see gnu.hylafax.ClientProtocol#execute(gnu.hylafax.Pipeline)
+     */
+    public synchronized void execute(Pipeline pipeline) throws IOException,
+	    ServerResponseException {
+	int size = pipeline.size();
+	int sent = 0;
+	while (sent < size) {
+	    // write all commands up to the next synchronization point
+	    int end = sent;
+	    do {
+		Pipeline.Command command = pipeline.get(end);
+		if (command.isSyncBefore() && end > sent) {
+		    break;
+		}
+		ostream.write(command.getCommand() + "\r\n");
+		log.debug("-> " + command.getCommand());
+		end++;
+		if (command.isSyncAfter()) {
+		    break;
+		}
+	    } while (end < size);
+	    ostream.flush();
+
+	    // read all replies, even after a failure, to stay in sync
+	    PipelineException failure = null;
+	    for (int i = sent; i < end; i++) {
+		Pipeline.Command command = pipeline.get(i);
+		Reply reply = readReply();
+		command.setResponse(reply.getText().trim());
+		if (failure == null && !command.accepts(reply.getCode())) {
+		    failure = new PipelineException(command.getResponse(), i,
+			    command.getCommand());
+		}
+	    }
+	    if (failure != null) {
+		throw failure;
+	    }
+	    sent = end;
 	}
     }
 
@@ -200,13 +230,11 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> filefmt");
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
-	return response.substring(3);
+	return reply.getLine(0).substring(3);
 
     }
 
@@ -221,11 +249,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> filefmt \"" + value + "\"");
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -240,13 +266,10 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> form " + value);
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
 	    // problem
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -283,19 +306,16 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> idle");
 
 	// get response string
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("213")) {
+	if (reply.getCode() != 213) {
 	    // command failed for some reason
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// get the data to return
-	Long l = new Long(st.nextToken());
-	return l.longValue();
+	return reply.getNumber();
     }
 
     /*
@@ -311,14 +331,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> idle " + timeout);
 
 	// get reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("213")) {
+	if (reply.getCode() != 213) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -335,14 +353,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jdele " + jobid);
 
 	// get server reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result value
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -359,14 +375,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jintr " + jobid);
 
 	// get reply string
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -383,14 +397,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jkill " + jobid);
 
 	// get reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // job failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -419,14 +431,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jnew");
 
 	// get results
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -442,30 +452,19 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> job");
 
 	// get reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// command succeeded
-	// response should contain current job id
-	st.nextToken(); // skip "Current"
-	st.nextToken(); // skip "job:"
-	st.nextToken(); // skip ...
-
-	// now, next token contains the job id or does not exist at all
-	try {
-	    Long l = new Long(st.nextToken());
-	    return l.longValue();
-	} catch (Exception e) {
-	    // default job selected
-	    return 0;
-	}
+	// response should contain current job id, "200 Current job: jobid:
+	// 1234", or no id at all if the default job is selected.
+	long id = reply.getNumber();
+	return id < 0 ? 0 : id;
     }
 
     /*
@@ -482,14 +481,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> job " + value);
 
 	// get server reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -506,19 +503,16 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jobfmt");
 
 	// get server reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	String temp = new String(st.nextToken());
-	if (!temp.equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// get format string from response
-	return response.substring(temp.length());
+	return reply.getLine(0).substring(3);
     }
 
     /*
@@ -535,14 +529,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jobfmt " + value);
 
 	// get server reply
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed - why?
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -554,32 +546,23 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
      */
     public synchronized List jparm() throws IOException,
 	    ServerResponseException {
-	String response;
-
 	if (log.isDebugEnabled())
 	    log.debug("jparm");
 	ostream.write("jparm\r\n");
 	ostream.flush();
 
-	response = istream.readLine();
-	log.debug(response);
-	
-	if (response.startsWith("217")) {
-	    List res = new ArrayList();
-	    while (true) {
-		response = istream.readLine();
-		log.debug(response);
-		if (response.startsWith("    ")) { // The lines with the job state start with 4 blanks
-		    res.add(response.substring(4));
-		} else {
-		    break;
-		}
-	    }
-	    if (response.startsWith("217")) {
-		return res;
+	Reply reply = readReply();
+	if (reply.getCode() != 217) {
+	    throw (new ServerResponseException(reply.toString()));
+	}
+	List res = new ArrayList();
+	for (int i = 1; i < reply.getLineCount(); i++) {
+	    String line = reply.getLine(i);
+	    if (line.startsWith("    ")) { // The lines with the job state start with 4 blanks
+		res.add(line.substring(4));
 	    }
 	}
-	throw (new ServerResponseException(response));
+	return res;
     }
     
     /*
@@ -589,26 +572,26 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
      */
     public synchronized String jparm(String parm) throws IOException,
 	    ServerResponseException {
-	String response;
-
 	if (log.isDebugEnabled())
 	    log.debug("jparam " + parm);
 	ostream.write("jparm " + parm + "\r\n");
 	ostream.flush();
-	response = istream.readLine();
-	if (response.startsWith("213")) {
-	    // FIXME check response.length()
-	    String res = response.substring(4);
-	    while (response.charAt(3) == '-') {
-		response = istream.readLine();
-		if (!response.startsWith("213"))
-		    throw (new ServerResponseException(response));
-		// FIXME check response.length()
-		res += "\n" + response.substring(4);
-	    }
-	    return res;
+
+	Reply reply = readReply();
+	if (reply.getCode() != 213) {
+	    throw (new ServerResponseException(reply.toString()));
+	}
+	if (!reply.isMultiline()) {
+	    return reply.getMessage();
 	}
-	throw (new ServerResponseException(response));
+	StringBuffer res = new StringBuffer(reply.getMessage());
+	for (int i = 1; i < reply.getLineCount(); i++) {
+	    String line = reply.getLine(i);
+	    if (!line.startsWith("213"))
+		throw (new ServerResponseException(line));
+	    res.append('\n').append(line.length() > 4 ? line.substring(4) : "");
+	}
+	return res.toString();
     }
 
     /*
@@ -648,22 +631,14 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
      */
     public synchronized void jparm(String parm, String value)
 	    throws IOException, ServerResponseException {
-	String response;
-	StringTokenizer st;
-
 	ostream.write("jparm " + parm + " " + value + "\r\n");
 	ostream.flush();
 
 	log.debug("-> jparm " + parm + " " + value);
 
-	response = istream.readLine();
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-
-	String return_code = st.nextToken();
-	if ((!return_code.equals("213")) && (!return_code.equals("200"))) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 213 && reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -680,14 +655,12 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jrest");
 
 	// get result
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	if (reply.getCode() != 200) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -704,17 +677,15 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jsubm");
 
 	// get results
-	String response = new String(istream.readLine());
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
-	st.nextToken();
-	return (Long.parseLong(st.nextToken()));
+	// 200 Job 1234 submitted.
+	return reply.getNumber();
     }
 
     /*
@@ -730,28 +701,24 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> jsubm " + jobid);
 
 	// get result
-	String response = new String(istream.readLine());
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
+	Reply reply = readReply();
 	int jobID = 0;
 
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// third token is the stringified job id. return this.
 	// catch those messed up responses.
-
-	try {
-	    st.nextToken(); // waste this.
-	    String jobStr = st.nextToken();
-	    // only this matters. jobStr should be an int.
-	    jobID = Integer.parseInt(jobStr); // return that job id.
-	} catch (NumberFormatException nfe) {
-	    throw new ServerResponseException("Bad number format for job id");
-	} catch (NoSuchElementException nsee) {
-	    new ServerResponseException("Mangled server response to job submit");
+	String jobStr = reply.getToken(2);
+	if (jobStr != null) {
+	    try {
+		// only this matters. jobStr should be an int.
+		jobID = Integer.parseInt(jobStr); // return that job id.
+	    } catch (NumberFormatException nfe) {
+		throw new ServerResponseException(
+			"Bad number format for job id");
+	    }
 	}
 
 	return jobID;
@@ -768,12 +735,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> jsusp " + jobid);
 
-	String response = new String(istream.readLine());
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -788,12 +752,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> jwait " + jobid);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response, " -");
-	if (!st.nextToken().equals("216")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 216) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -808,15 +769,13 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> mdmfmt");
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("200")) {
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
 	    // error
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
-	return response.substring(3);
+	return reply.getLine(0).substring(3);
     }
 
     /*
@@ -830,13 +789,10 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> mdmfmt " + value);
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
 	    // problem
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -882,15 +838,13 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> rcvfmt");
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("200")) {
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
 	    // error setting rcvfmt
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
-	return response.substring(3);
+	return reply.getLine(0).substring(3);
     }
 
     /*
@@ -904,12 +858,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> rcvfmt \"" + value + "\"\n");
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -950,23 +901,15 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
      */
     public synchronized void site(String parm, String value)
 	    throws IOException, ServerResponseException {
-	String response;
-	StringTokenizer st;
-
 	ostream.write("site " + parm + " " + value + "\r\n");
 	ostream.flush();
 
 	log.debug("-> site " + parm + " " + value);
 
-	response = istream.readLine();
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-
-	String return_code = st.nextToken();
-	if ((!return_code.equals("213")) && (!return_code.equals("200"))
-		&& (!return_code.equals("150"))) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	int code = reply.getCode();
+	if (code != 213 && code != 200 && code != 150) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -981,20 +924,16 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> size " + pathname);
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	String return_code = st.nextToken();
-	if (!return_code.equals("213")) {
-	    if (return_code.equals("550")) {
-		throw (new FileNotFoundException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 213) {
+	    if (reply.getCode() == 550) {
+		throw (new FileNotFoundException(reply.toString()));
 	    }
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// get file size from response
-	return Long.parseLong(st.nextToken());
+	return reply.getNumber();
     }
 
     /*
@@ -1005,8 +944,6 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
     public synchronized String stot(InputStream data) throws IOException,
 	    ServerResponseException {
 	String filename;
-	String response;
-	StringTokenizer st;
 
 	// send stot command to server
 	ostream.write("stot\r\n");
@@ -1015,26 +952,19 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	log.debug("-> stot");
 
 	// get results
-	response = istream.readLine();
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("150")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
-	st.nextToken(); // ignore 'FILE:' string
-	filename = new String(st.nextToken()); // get filename value
+	filename = reply.getToken(2); // get filename value, skip 'FILE:'
 
 	// transfering ...
 
 	// next line tells us transfer completed
-	response = istream.readLine();
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("226")) {
+	reply = readReply();
+	if (reply.getCode() != 226) {
 	    // some sort of error
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	return filename;
@@ -1052,12 +982,9 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> tzone " + value);
 
-	String response = new String(istream.readLine());
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -1072,14 +999,11 @@ public class HylaFAXClientProtocol extends FtpClientProtocol implements
 	ostream.flush();
 	log.debug("-> vrfy " + dialstring);
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
-	return InetAddress.getByName(st.nextToken());
+	return InetAddress.getByName(reply.getToken(1));
     }
 
 }
\ No newline at end of file
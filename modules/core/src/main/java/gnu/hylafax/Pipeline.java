@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * $Id$
+ *
+ * Copyright 2009 Steven Jardine, MJN Services, Inc. <steve@mjnservices.com>
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the GNU Lesser Public License v2.1 which
+ * accompanies this distribution, and is available at
+ * 	http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the HylaFAX Fax Server please see
+ * 	HylaFAX  - http://www.hylafax.org or
+ * 	Hylafax+ - http://hylafax.sourceforge.net
+ *
+ * Contributors:
+ * 	Steven Jardine - Initial API and implementation
+ ******************************************************************************/
+package gnu.hylafax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * A batch of job commands that is sent to the server with
+ * ClientProtocol.execute(). Commands are written without waiting for the
+ * individual replies, the replies are read afterwards and matched to the
+ * commands in order.
+ * <P>
+ * Commands that change which job the following commands apply to are
+ * synchronization points. The batch is flushed and all outstanding replies are
+ * checked after a jnew and before a jsubm, so a failed jnew never lets the
+ * following jparm commands modify some other job and a job is never submitted
+ * with a parameter that was rejected.
+ * <P>
+ * Example:
+ *
+ * <pre>
+ * Pipeline pipeline = new Pipeline();
+ * pipeline.jnew();
+ * pipeline.jparm(&quot;DIALSTRING&quot;, &quot;5551212&quot;);
+ * pipeline.jparm(&quot;NOTIFYADDR&quot;, &quot;user@example.com&quot;);
+ * pipeline.jsubm();
+ * client.execute(pipeline);
+ * long id = pipeline.getJobId();
+ * </pre>
+ *
+ * A pipeline may be executed more than once, the replies of the last
+ * execution are kept.
+ *
+ * @version $Revision$
+ * @author Steven Jardine <steve@mjnservices.com>
+ */
+public class Pipeline {
+
+    /**
+     * a single command of the pipeline.
+     */
+    public static class Command {
+
+	private String command;
+
+	private int[] codes;
+
+	private boolean syncBefore;
+
+	private boolean syncAfter;
+
+	private String response = null;
+
+	Command(String command, int[] codes, boolean syncBefore,
+		boolean syncAfter) {
+	    this.command = command;
+	    this.codes = codes;
+	    this.syncBefore = syncBefore;
+	    this.syncAfter = syncAfter;
+	}
+
+	/**
+	 * @return true if the given reply code is one of the expected codes.
+	 */
+	boolean accepts(int code) {
+	    for (int i = 0; i < codes.length; i++) {
+		if (codes[i] == code)
+		    return true;
+	    }
+	    return false;
+	}
+
+	/**
+	 * @return the command line sent to the server.
+	 */
+	public String getCommand() {
+	    return command;
+	}
+
+	/**
+	 * @return the server reply or null if the command has not been executed.
+	 */
+	public String getResponse() {
+	    return response;
+	}
+
+	boolean isSyncAfter() {
+	    return syncAfter;
+	}
+
+	boolean isSyncBefore() {
+	    return syncBefore;
+	}
+
+	void setResponse(String response) {
+	    this.response = response;
+	}
+
+	public String toString() {
+	    return command;
+	}
+    }
+
+    private static final int[] JOB_CODES = { 200 };
+
+    private static final int[] JPARM_CODES = { 213, 200 };
+
+    private List commands = new ArrayList();
+
+    private int jnewIndex = -1;
+
+    private int jsubmIndex = -1;
+
+    /**
+     * add a command to the pipeline.
+     */
+    protected void add(String command, int[] codes, boolean syncBefore,
+	    boolean syncAfter) {
+	commands.add(new Command(command, codes, syncBefore, syncAfter));
+    }
+
+    /**
+     * remove all commands from the pipeline.
+     */
+    public void clear() {
+	commands.clear();
+	jnewIndex = -1;
+	jsubmIndex = -1;
+    }
+
+    /**
+     * @param index
+     *            the position of the command in the pipeline
+     * @return the command at the given position
+     */
+    public Command get(int index) {
+	return (Command) commands.get(index);
+    }
+
+    /**
+     * get the id of the job created by the last jnew in this pipeline. The id
+     * is taken from the jnew reply so no additional job command is needed.
+     *
+     * @return the job id or -1 if no job was created.
+     */
+    public long getJobId() {
+	if (jnewIndex < 0)
+	    return -1;
+	String response = get(jnewIndex).getResponse();
+	if (response == null)
+	    return -1;
+	// 200 New job created: jobid: 1234 groupid: 1234.
+	StringTokenizer st = new StringTokenizer(response, " .\n");
+	while (st.hasMoreTokens()) {
+	    if (st.nextToken().equals("jobid:") && st.hasMoreTokens()) {
+		try {
+		    return Long.parseLong(st.nextToken());
+		} catch (NumberFormatException e) {
+		    return -1;
+		}
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * get the job id returned by the last jsubm in this pipeline.
+     *
+     * @return the job id or -1 if no job was submitted.
+     */
+    public long getSubmittedJobId() {
+	if (jsubmIndex < 0)
+	    return -1;
+	String response = get(jsubmIndex).getResponse();
+	if (response == null)
+	    return -1;
+	// 200 Job 1234 submitted.
+	StringTokenizer st = new StringTokenizer(response);
+	try {
+	    st.nextToken();
+	    st.nextToken();
+	    return Long.parseLong(st.nextToken());
+	} catch (RuntimeException e) {
+	    return -1;
+	}
+    }
+
+    /**
+     * @return true if there are no commands in the pipeline.
+     */
+    public boolean isEmpty() {
+	return commands.isEmpty();
+    }
+
+    /**
+     * select a job.
+     *
+     * @param id
+     *            the job id, a value &lt;= 0 selects the default job
+     */
+    public void job(long id) {
+	String value = id <= 0 ? "default" : String.valueOf(id);
+	add("job " + value, JOB_CODES, false, false);
+    }
+
+    /**
+     * create a new job that inherits from the default job.
+     */
+    public void jnew() {
+	jnew(true);
+    }
+
+    /**
+     * create a new job. The following commands apply to the new job.
+     *
+     * @param inheritDefault
+     *            if true the default job is selected prior to the jnew.
+     */
+    public void jnew(boolean inheritDefault) {
+	if (inheritDefault)
+	    job(0);
+	jnewIndex = commands.size();
+	add("jnew", JOB_CODES, false, true);
+    }
+
+    /**
+     * set a job parameter of the current job.
+     */
+    public void jparm(String parm, int value) {
+	jparm(parm, Integer.toString(value));
+    }
+
+    /**
+     * set a job parameter of the current job.
+     */
+    public void jparm(String parm, long value) {
+	jparm(parm, Long.toString(value));
+    }
+
+    /**
+     * set a job parameter of the current job.
+     */
+    public void jparm(String parm, Object value) {
+	jparm(parm, value.toString());
+    }
+
+    /**
+     * set a job parameter of the current job.
+     *
+     * @param parm
+     *            the name of the job parameter
+     * @param value
+     *            the value of the parameter
+     */
+    public void jparm(String parm, String value) {
+	add("jparm " + parm + " " + value, JPARM_CODES, false, false);
+    }
+
+    /**
+     * submit the current job.
+     */
+    public void jsubm() {
+	jsubmIndex = commands.size();
+	add("jsubm", JOB_CODES, true, true);
+    }
+
+    /**
+     * submit the given job.
+     *
+     * @param jobid
+     *            the id of the job to submit
+     */
+    public void jsubm(long jobid) {
+	jsubmIndex = commands.size();
+	add("jsubm " + jobid, JOB_CODES, true, true);
+    }
+
+    /**
+     * @return the number of commands in the pipeline.
+     */
+    public int size() {
+	return commands.size();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * $Id$
+ *
+ * Copyright 2009 Steven Jardine, MJN Services, Inc. <steve@mjnservices.com>
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the GNU Lesser Public License v2.1 which
+ * accompanies this distribution, and is available at
+ * 	http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the HylaFAX Fax Server please see
+ * 	HylaFAX  - http://www.hylafax.org or
+ * 	Hylafax+ - http://hylafax.sourceforge.net
+ *
+ * Contributors:
+ * 	Steven Jardine - Initial API and implementation
+ ******************************************************************************/
+package gnu.hylafax;
+
+import gnu.inet.ftp.ServerResponseException;
+
+/**
+ * Thrown when a command of a Pipeline is rejected by the server. The message
+ * is the server reply to the first command that failed.
+ *
+ * @version $Revision$
+ * @author Steven Jardine <steve@mjnservices.com>
+ */
+public class PipelineException extends ServerResponseException {
+
+    private String command;
+
+    private int index;
+
+    /**
+     * @param response
+     *            the server reply
+     * @param index
+     *            the position of the failed command in the pipeline
+     * @param command
+     *            the failed command
+     */
+    public PipelineException(String response, int index, String command) {
+	super(response);
+	this.index = index;
+	this.command = command;
+    }
+
+    /**
+     * @return the command line that failed.
+     */
+    public String getCommand() {
+	return command;
+    }
+
+    /**
+     * @return the position of the failed command in the pipeline.
+     */
+    public int getIndex() {
+	return index;
+    }
+
+    public String toString() {
+	return getMessage() + " (" + command + ")";
+    }
+
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * $Id$
+ *
+ * Copyright 2009 Steven Jardine, MJN Services, Inc. <steve@mjnservices.com>
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the GNU Lesser Public License v2.1 which
+ * accompanies this distribution, and is available at
+ * 	http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the HylaFAX Fax Server please see
+ * 	HylaFAX  - http://www.hylafax.org or
+ * 	Hylafax+ - http://hylafax.sourceforge.net
+ *
+ * Contributors:
+ * 	Steven Jardine - Initial API and implementation
+ ******************************************************************************/
+package gnu.hylafax;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the server side names of uploaded documents by the SHA-1 hash of
+ * their content, so a document sent with many jobs is uploaded once per
+ * server and later jobs reference the same file with jparm document. Set the
+ * cache with HylaFAXClient.setUploadCache(), put(File) and putTemporary(File)
+ * then return the name of an earlier upload of the same content. One cache may
+ * be shared by any number of clients.
+ * <P>
+ * Uploads made with put(File) are remembered for the server, port and user
+ * they were sent with. Temporary uploads made with putTemporary(File) are
+ * deleted by the server when the connection is closed, they are only
+ * remembered for the session they were sent in and forgotten by quit().
+ * <P>
+ * Entries expire a fixed time after the upload, which should be shorter than
+ * the time after which faxcron removes files from the server's tmp directory.
+ * Before a cached name is used the client checks with SIZE that the file is
+ * still there and complete, a missing file removes the entry and the document
+ * is uploaded again. Where that check is turned off with setVerify(false),
+ * call invalidate() when the server rejects a cached document.
+ *
+ * @version $Revision$
+ * @author Steven Jardine <steve@mjnservices.com>
+ */
+public class UploadCache {
+
+    /**
+     * the default time in milliseconds an upload is remembered.
+     */
+    public static final long DEFAULT_EXPIRY = 60 * 60 * 1000; // 1 hour.
+
+    // local files whose digest is remembered
+    private static final int MAX_DIGESTS = 256;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * An upload of one document to one server or connection.
+     */
+    private static class Key {
+
+	private final Object scope;
+
+	private final String digest;
+
+	Key(Object scope, String digest) {
+	    this.scope = scope;
+	    this.digest = digest;
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Key))
+		return false;
+	    Key key = (Key) o;
+	    return scope.equals(key.scope) && digest.equals(key.digest);
+	}
+
+	public int hashCode() {
+	    return scope.hashCode() * 31 + digest.hashCode();
+	}
+    }
+
+    /**
+     * The remembered digest of a local file.
+     */
+    private static class Digest {
+
+	private final long length;
+
+	private final long lastModified;
+
+	private final String value;
+
+	Digest(long length, long lastModified, String value) {
+	    this.length = length;
+	    this.lastModified = lastModified;
+	    this.value = value;
+	}
+    }
+
+    private long expiry;
+
+    private boolean verify = true;
+
+    // Key -> Object[] { filename, expiry time }
+    private final Map entries = new HashMap();
+
+    // absolute path -> Digest, least recently used first
+    private final Map digests = new LinkedHashMap(16, 0.75f, true) {
+	protected boolean removeEldestEntry(Map.Entry eldest) {
+	    return size() > MAX_DIGESTS;
+	}
+    };
+
+    private long nextPurge = 0;
+
+    /**
+     * create a cache with the default expiry.
+     */
+    public UploadCache() {
+	this(DEFAULT_EXPIRY);
+    }
+
+    /**
+     * @param expiry
+     *            the time in milliseconds an upload is remembered
+     */
+    public UploadCache(long expiry) {
+	setExpiry(expiry);
+    }
+
+    /**
+     * @return the time in milliseconds an upload is remembered.
+     */
+    public synchronized long getExpiry() {
+	return expiry;
+    }
+
+    /**
+     * set the time in milliseconds an upload is remembered, applies to
+     * uploads stored from now on.
+     *
+     * @param expiry
+     *            the time in milliseconds, must be positive
+     */
+    public synchronized void setExpiry(long expiry) {
+	if (expiry <= 0)
+	    throw new IllegalArgumentException("Invalid expiry " + expiry);
+	this.expiry = expiry;
+    }
+
+    /**
+     * @return true if clients check with SIZE that a cached file still exists
+     *         before using it.
+     */
+    public synchronized boolean isVerify() {
+	return verify;
+    }
+
+    /**
+     * @param verify
+     *            true to check with SIZE that a cached file still exists
+     *            before using it
+     */
+    public synchronized void setVerify(boolean verify) {
+	this.verify = verify;
+    }
+
+    /**
+     * compute the SHA-1 digest of a file. The digest is remembered until the
+     * length or modification time of the file changes, so a document sent
+     * with many jobs is read once.
+     *
+     * @param file
+     *            the file to hash
+     * @exception IOException
+     *                the file could not be read
+     * @return the digest as hex string
+     */
+    public String digest(File file) throws IOException {
+	String path = file.getAbsolutePath();
+	long length = file.length();
+	long lastModified = file.lastModified();
+	synchronized (this) {
+	    Digest digest = (Digest) digests.get(path);
+	    if (digest != null && digest.length == length
+		    && digest.lastModified == lastModified)
+		return digest.value;
+	}
+
+	MessageDigest sha;
+	try {
+	    sha = MessageDigest.getInstance("SHA-1");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IllegalStateException("SHA-1 is not available");
+	}
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    byte[] buffer = new byte[8192];
+	    int len;
+	    while ((len = in.read(buffer)) != -1)
+		sha.update(buffer, 0, len);
+	} finally {
+	    in.close();
+	}
+	byte[] hash = sha.digest();
+	char[] value = new char[hash.length * 2];
+	for (int i = 0; i < hash.length; i++) {
+	    value[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+	    value[i * 2 + 1] = HEX[hash[i] & 0xf];
+	}
+	Digest digest = new Digest(length, lastModified, new String(value));
+	synchronized (this) {
+	    digests.put(path, digest);
+	}
+	return digest.value;
+    }
+
+    /**
+     * look up an earlier upload.
+     *
+     * @param scope
+     *            the server or connection the upload was sent to
+     * @param digest
+     *            the digest of the document
+     * @return the server side name of the file, null if the document has not
+     *         been uploaded or the entry has expired
+     */
+    public synchronized String lookup(Object scope, String digest) {
+	Key key = new Key(scope, digest);
+	Object[] entry = (Object[]) entries.get(key);
+	if (entry == null)
+	    return null;
+	if (((Long) entry[1]).longValue() <= System.currentTimeMillis()) {
+	    entries.remove(key);
+	    return null;
+	}
+	return (String) entry[0];
+    }
+
+    /**
+     * remember an upload.
+     *
+     * @param scope
+     *            the server or connection the upload was sent to
+     * @param digest
+     *            the digest of the document
+     * @param filename
+     *            the server side name of the file
+     */
+    public synchronized void store(Object scope, String digest,
+	    String filename) {
+	long now = System.currentTimeMillis();
+	if (now >= nextPurge) {
+	    purge(now);
+	    nextPurge = now + Math.min(expiry, 60 * 1000);
+	}
+	entries.put(new Key(scope, digest), new Object[] { filename,
+		new Long(now + expiry) });
+    }
+
+    /**
+     * forget every upload stored under the given server side name, e.g.
+     * after the server reported the file missing.
+     *
+     * @param filename
+     *            the server side name of the file
+     */
+    public synchronized void invalidate(String filename) {
+	Iterator i = entries.values().iterator();
+	while (i.hasNext()) {
+	    Object[] entry = (Object[]) i.next();
+	    if (entry[0].equals(filename))
+		i.remove();
+	}
+    }
+
+    /**
+     * forget every upload stored for the given server or connection, e.g.
+     * when the connection holding temporary uploads is closed.
+     *
+     * @param scope
+     *            the server or connection the uploads were sent to
+     */
+    public synchronized void invalidateScope(Object scope) {
+	Iterator i = entries.keySet().iterator();
+	while (i.hasNext()) {
+	    Key key = (Key) i.next();
+	    if (key.scope.equals(scope))
+		i.remove();
+	}
+    }
+
+    /**
+     * forget all uploads.
+     */
+    public synchronized void clear() {
+	entries.clear();
+    }
+
+    /**
+     * @return the number of uploads remembered, including expired ones not
+     *         removed yet.
+     */
+    public synchronized int size() {
+	return entries.size();
+    }
+
+    private void purge(long now) {
+	Iterator i = entries.values().iterator();
+	while (i.hasNext()) {
+	    Object[] entry = (Object[]) i.next();
+	    if (((Long) entry[1]).longValue() <= now)
+		i.remove();
+	}
+    }
+
+}
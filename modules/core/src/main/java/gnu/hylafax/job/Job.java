@@ -22,18 +22,29 @@ package gnu.hylafax.job;
 
 import gnu.hylafax.Client;
 import gnu.hylafax.ClientProtocol;
+import gnu.hylafax.Pipeline;
 import gnu.hylafax.job.TimeParser.ParseException;
 import gnu.inet.ftp.ServerResponseException;
 
 import java.awt.Dimension;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
  * This class is a light, unsynchronized implementation of gnu.hylafax.Job.
+ * <P>
+ * In buffered mode property changes are kept locally until flush() or
+ * submit() is called and are then sent to the server as one Pipeline.
+ * Repeated changes of the same property are merged, only DOCUMENT and POLL
+ * are sent once per call.
  * 
  * @version $Revision$
  * @author Joe Phillips <jaiger@innovationsw.com>
@@ -61,10 +72,23 @@ public class Job implements gnu.hylafax.Job {
 
     public static int RESOLUTION_MEDIUM = 196;
 
+    /**
+     * properties that add a value to the job instead of replacing it.
+     */
+    private static final String[] ADDITIVE_PROPERTIES = { "DOCUMENT", "POLL" };
+
     protected Client client;
 
     private long Id;
 
+    private boolean buffered = false;
+
+    /**
+     * pending property changes, a String value or a List of values for the
+     * additive properties.
+     */
+    private Map pending = new LinkedHashMap();
+
     /**
      * Creates a new job. All job parameters are inherited from the default job.
      * 
@@ -115,6 +139,64 @@ public class Job implements gnu.hylafax.Job {
 	}
     }
 
+    /**
+     * Send all pending property changes to the server in one batch. Does
+     * nothing if there are no pending changes. The pending changes are
+     * discarded even if the server rejects one of them.
+     * 
+     * @exception ServerResponseException
+     *                the server rejected one of the changes.
+     * @exception IOException
+     *                an i/o error occured
+     */
+    public void flush() throws ServerResponseException, IOException {
+	Pipeline pipeline = new Pipeline();
+	if (drainPending(pipeline))
+	    execute(pipeline);
+    }
+
+    /**
+     * Add the pending property changes to a pipeline.
+     * 
+     * @return false if there were no pending changes.
+     */
+    private boolean drainPending(Pipeline pipeline) {
+	synchronized (pending) {
+	    if (pending.isEmpty())
+		return false;
+	    pipeline.job(getId());
+	    Iterator i = pending.entrySet().iterator();
+	    while (i.hasNext()) {
+		Map.Entry entry = (Map.Entry) i.next();
+		String key = (String) entry.getKey();
+		if (entry.getValue() instanceof List) {
+		    Iterator values = ((List) entry.getValue()).iterator();
+		    while (values.hasNext())
+			pipeline.jparm(key, (String) values.next());
+		} else {
+		    pipeline.jparm(key, (String) entry.getValue());
+		}
+	    }
+	    pending.clear();
+	    return true;
+	}
+    }
+
+    /**
+     * Execute a pipeline of commands for this job on the client.
+     * 
+     * @param pipeline
+     *            the commands to execute
+     * @exception ServerResponseException
+     *                the server rejected one of the commands.
+     * @exception IOException
+     *                an i/o error occured
+     */
+    protected void execute(Pipeline pipeline) throws ServerResponseException,
+	    IOException {
+	client.execute(pipeline);
+    }
+
     public void addDocument(String value) throws ServerResponseException,
 	    IOException {
 	setProperty("DOCUMENT", value);
@@ -215,10 +297,30 @@ public class Job implements gnu.hylafax.Job {
      */
     public String getProperty(String key) throws ServerResponseException,
 	    IOException {
+	synchronized (pending) {
+	    Object value = pending.get(key.toUpperCase());
+	    if (value instanceof String)
+		return (String) value;
+	}
 	String tmp = client.jparm(key);
 	return tmp;
     }
 
+    /**
+     * Get all job parameters with a single jparm command. Each entry of the
+     * list is a "Key: value" line of the server reply.
+     * 
+     * @exception ServerResponseException
+     *                the server responded with an error.
+     * @exception IOException
+     *                an i/o error occured
+     * @return the job parameter lines
+     */
+    protected List getPropertyList() throws ServerResponseException,
+	    IOException {
+	return client.jparm();
+    }
+
     public String getRetrytime() throws ServerResponseException, IOException {
 	return getProperty("RETRYTIME");
     }
@@ -238,11 +340,55 @@ public class Job implements gnu.hylafax.Job {
 		: false);
     }
 
+    /**
+     * @return true if property changes are buffered until flush() or
+     *         submit().
+     */
+    public boolean isBuffered() {
+	return buffered;
+    }
+
+    private static boolean isAdditive(String key) {
+	for (int i = 0; i < ADDITIVE_PROPERTIES.length; i++) {
+	    if (ADDITIVE_PROPERTIES[i].equals(key))
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * @return true if there are property changes that have not been sent to
+     *         the server.
+     */
+    public boolean hasPendingChanges() {
+	synchronized (pending) {
+	    return !pending.isEmpty();
+	}
+    }
+
     public int getVerticalResolution() throws ServerResponseException,
 	    IOException {
 	return Integer.parseInt(getProperty("VRES"));
     }
 
+    /**
+     * Switch the buffered mode on or off. Switching it off sends the pending
+     * changes to the server.
+     * 
+     * @param value
+     *            true to buffer property changes until flush() or submit()
+     * @exception ServerResponseException
+     *                the server rejected one of the pending changes.
+     * @exception IOException
+     *                an i/o error occured
+     */
+    public void setBuffered(boolean value) throws ServerResponseException,
+	    IOException {
+	buffered = value;
+	if (!buffered)
+	    flush();
+    }
+
     public void setChopThreshold(int value) throws ServerResponseException,
 	    IOException {
 	setProperty("CHOPTHRESHOLD", value);
@@ -364,7 +510,23 @@ public class Job implements gnu.hylafax.Job {
      */
     public void setProperty(String parameter, String value)
 	    throws ServerResponseException, IOException {
-	client.jparm(parameter, value);
+	if (!buffered) {
+	    client.jparm(parameter, value);
+	    return;
+	}
+	String key = parameter.toUpperCase();
+	synchronized (pending) {
+	    if (isAdditive(key)) {
+		List values = (List) pending.get(key);
+		if (values == null) {
+		    values = new ArrayList();
+		    pending.put(key, values);
+		}
+		values.add(value);
+	    } else {
+		pending.put(key, value);
+	    }
+	}
     }
 
     public void setRetrytime(String value) throws ServerResponseException,
@@ -423,6 +585,37 @@ public class Job implements gnu.hylafax.Job {
 	setProperty("USETAGLINE", (value ? "YES" : "NO"));
     }
 
+    /**
+     * Submit this job to the scheduler. Pending property changes are sent in
+     * the same batch as the jsubm command, the job is not submitted if one of
+     * them is rejected.
+     * 
+     * @exception ServerResponseException
+     *                the server rejected a change or the job.
+     * @exception IOException
+     *                an i/o error occured
+     */
+    public void submit() throws ServerResponseException, IOException {
+	Pipeline pipeline = new Pipeline();
+	drainPending(pipeline);
+	pipeline.jsubm(getId());
+	execute(pipeline);
+    }
+
+    /**
+     * Load all parameters of this job in one round trip. Use the snapshot
+     * instead of the getters of this class when reading several values.
+     * 
+     * @exception ServerResponseException
+     *                the server responded with an error.
+     * @exception IOException
+     *                an i/o error occured
+     * @return a snapshot of the job parameters
+     */
+    public JobSnapshot snapshot() throws ServerResponseException, IOException {
+	return new JobSnapshot(this);
+    }
+
     public void setVerticalResolution(int value)
 	    throws ServerResponseException, IOException {
 	setProperty("VRES", value);
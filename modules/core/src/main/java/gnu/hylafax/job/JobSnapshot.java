@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * $Id$
+ *
+ * Copyright 2009 Steven Jardine, MJN Services, Inc. <steve@mjnservices.com>
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the GNU Lesser Public License v2.1 which
+ * accompanies this distribution, and is available at
+ * 	http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the HylaFAX Fax Server please see
+ * 	HylaFAX  - http://www.hylafax.org or
+ * 	Hylafax+ - http://hylafax.sourceforge.net
+ *
+ * Contributors:
+ * 	Steven Jardine - Initial API and implementation
+ ******************************************************************************/
+package gnu.hylafax.job;
+
+import gnu.inet.ftp.ServerResponseException;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parameters of a job as returned by a single jparm command without
+ * arguments. The getters are served from the last refresh(), so reading
+ * several values of a job costs one round trip instead of one per value.
+ * <P>
+ * Property keys are case-insensitive, i.e. "DIALSTRING" and "DialString"
+ * return the same value.
+ *
+ * @version $Revision$
+ * @author Steven Jardine <steve@mjnservices.com>
+ */
+public class JobSnapshot {
+
+    private Job job;
+
+    private Map properties = new HashMap();
+
+    private long time = 0;
+
+    /**
+     * Creates a snapshot of the given job. The job parameters are loaded
+     * immediately.
+     *
+     * @param job
+     *            the job to take the snapshot of
+     * @throws ServerResponseException
+     * @throws IOException
+     */
+    public JobSnapshot(Job job) throws ServerResponseException, IOException {
+	this.job = job;
+	refresh();
+    }
+
+    /**
+     * Reload all job parameters from the server with one jparm command.
+     *
+     * @exception ServerResponseException
+     *                the server responded with an error.
+     * @exception IOException
+     *                an i/o error occured
+     */
+    public void refresh() throws ServerResponseException, IOException {
+	List lines = job.getPropertyList();
+	Map map = new HashMap();
+	Iterator i = lines.iterator();
+	while (i.hasNext()) {
+	    String line = ((String) i.next()).trim();
+	    int pos = line.indexOf(':');
+	    if (pos <= 0)
+		continue;
+	    String key = line.substring(0, pos).trim().toUpperCase();
+	    map.put(key, line.substring(pos + 1).trim());
+	}
+	synchronized (this) {
+	    properties = map;
+	    time = System.currentTimeMillis();
+	}
+    }
+
+    /**
+     * @return true if the snapshot contains the given property.
+     */
+    public synchronized boolean containsProperty(String key) {
+	return properties.containsKey(key.toUpperCase());
+    }
+
+    public int getChopThreshold() {
+	return Integer.parseInt(getProperty("CHOPTHRESHOLD"));
+    }
+
+    public String getDialstring() {
+	return getProperty("DIALSTRING");
+    }
+
+    public String getFromUser() {
+	return getProperty("FROMUSER");
+    }
+
+    /**
+     * get the job-id of the job this snapshot was taken of.
+     *
+     * @return job id
+     */
+    public long getId() {
+	return job.getId();
+    }
+
+    /**
+     * @return the job this snapshot was taken of.
+     */
+    public Job getJob() {
+	return job;
+    }
+
+    public String getJobInfo() {
+	return getProperty("JOBINFO");
+    }
+
+    public String getKilltime() {
+	return getProperty("LASTTIME");
+    }
+
+    public int getMaximumDials() {
+	return Integer.parseInt(getProperty("MAXDIALS"));
+    }
+
+    public int getMaximumTries() {
+	return Integer.parseInt(getProperty("MAXTRIES"));
+    }
+
+    public String getNotifyAddress() {
+	return getProperty("NOTIFYADDR");
+    }
+
+    public String getNotifyType() {
+	return getProperty("NOTIFY");
+    }
+
+    public String getPageChop() {
+	return getProperty("PAGECHOP");
+    }
+
+    public Dimension getPageDimension() {
+	return new Dimension(getPageWidth(), getPageLength());
+    }
+
+    public int getPageLength() {
+	return Integer.parseInt(getProperty("PAGELENGTH"));
+    }
+
+    public int getPageWidth() {
+	return Integer.parseInt(getProperty("PAGEWIDTH"));
+    }
+
+    public int getPriority() {
+	return Integer.parseInt(getProperty("SCHEDPRI"));
+    }
+
+    /**
+     * @return a copy of all properties of the snapshot, the keys are upper
+     *         case.
+     */
+    public synchronized Map getProperties() {
+	return new HashMap(properties);
+    }
+
+    /**
+     * Get the value of an arbitrary property of the job.
+     *
+     * @param key
+     *            the property name
+     * @return the value or null if the server did not list the property
+     */
+    public synchronized String getProperty(String key) {
+	return (String) properties.get(key.toUpperCase());
+    }
+
+    public String getRetrytime() {
+	return getProperty("RETRYTIME");
+    }
+
+    public String getTagline() {
+	return getProperty("TAGLINE");
+    }
+
+    /**
+     * @return the time of the last refresh in milliseconds.
+     */
+    public synchronized long getTime() {
+	return time;
+    }
+
+    public boolean getUseTagline() {
+	return ("YES".equalsIgnoreCase(getProperty("USETAGLINE")) ? true
+		: false);
+    }
+
+    public int getVerticalResolution() {
+	return Integer.parseInt(getProperty("VRES"));
+    }
+
+    public synchronized String toString() {
+	return "Job " + job.getId() + " " + properties;
+    }
+
+}
@@ -21,9 +21,11 @@
 package gnu.hylafax.job;
 
 import gnu.hylafax.Client;
+import gnu.hylafax.Pipeline;
 import gnu.inet.ftp.ServerResponseException;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * This is a thread-safe implementation of the gnu.hylafax.Job interface.
@@ -60,6 +62,33 @@ public class ThreadSafeJob extends Job {
 	super(c, id);
     }
 
+    /**
+     * Execute a pipeline of commands for this job. The client is locked only
+     * while the pipeline is executed, the previously selected job is restored
+     * in the same batch. This method is thread-safe.
+     * 
+     * @exception ServerResponseException
+     *                    the server rejected one of the commands.
+     * @exception IOException
+     *                    an i/o error occured
+     */
+    protected void execute(Pipeline pipeline) throws ServerResponseException,
+	    IOException {
+	synchronized (client) {
+	    long j = client.job();
+	    pipeline.job(j);
+	    Pipeline.Command restore = pipeline.get(pipeline.size() - 1);
+	    try {
+		super.execute(pipeline);
+	    } catch (ServerResponseException e) {
+		// the batch stopped at a synchronization point.
+		if (restore.getResponse() == null)
+		    client.job(j);
+		throw e;
+	    }
+	}
+    }
+
     /**
      * Get the value for an arbitrary property for this job. Developers using
      * this method should be familiar with the HylaFAX client protocol in order
@@ -84,6 +113,27 @@ public class ThreadSafeJob extends Job {
 	}
     }
 
+    /**
+     * Get all job parameters with a single jparm command. This method is
+     * thread-safe.
+     * 
+     * @exception ServerResponseException
+     *                    the server responded with an error.
+     * @exception IOException
+     *                    an i/o error occured
+     * @return the job parameter lines
+     */
+    protected List getPropertyList() throws ServerResponseException,
+	    IOException {
+	synchronized (client) {
+	    long j = client.job();
+	    client.job(getId());
+	    List tmp = super.getPropertyList();
+	    client.job(j);
+	    return tmp;
+	}
+    }
+
     /**
      * Set any arbitrary property on this job. In order to use this method,
      * developers should be familiar with the HylaFAX client protocol. This
@@ -97,6 +147,10 @@ public class ThreadSafeJob extends Job {
      */
     public void setProperty(String parameter, String value)
 	    throws ServerResponseException, IOException {
+	if (isBuffered()) {
+	    super.setProperty(parameter, value);
+	    return;
+	}
 	synchronized (client) {
 	    long j = client.job();
 	    client.job(getId());
@@ -27,9 +27,11 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.logging.Log;
@@ -62,8 +64,10 @@ public class ActiveGetter extends Getter {
     public ActiveGetter(OutputStream out) throws IOException {
 	super();
 
-	// create server socket
-	this.server = new ServerSocket(0);
+	// create server socket, accepted sockets have a channel for
+	// transferFile()
+	this.server = ServerSocketChannel.open().socket();
+	this.server.bind(new InetSocketAddress(0));
 	this.timeout = 30 * 1000; // 30s timeout
 	// store the port that the server is listening on
 	this.port = server.getLocalPort();
@@ -114,7 +118,7 @@ public class ActiveGetter extends Getter {
 	InputStream istream = null;
 	long amount = 0;
 	long buffer_size = 0;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	byte buffer[] = null;
 	// this.cancelled= false; // reset cancelled flag
 
 	try {
@@ -133,39 +137,48 @@ public class ActiveGetter extends Getter {
 
 	    try {
 
-		// handle different type settings
-		switch (type) {
-		case FtpClientProtocol.TYPE_ASCII:
-		    istream = new AsciiInputStream(sock.getInputStream());
-		    break;
-		default:
+		if (isFileTransfer(sock)) {
+		    // closed below like the stream of a copied transfer.
 		    istream = sock.getInputStream();
-		    break;
-		}// switch
-
-		// handle different mode settings
-		switch (mode) {
-		case FtpClientProtocol.MODE_ZLIB:
-		    istream = new InflaterInputStream(istream);
-		    break;
-		case FtpClientProtocol.MODE_STREAM:
-		default:
-		    break;
-		}// switch
-
-		int len;
-		while (!cancelled && ((len = istream.read(buffer)) > 0)) {
-		    ostream.write(buffer, 0, len);
-		    amount += len;
-		    buffer_size += len;
-		    if (buffer_size >= BUFFER_SIZE) {
-			buffer_size = buffer_size % BUFFER_SIZE;
-			signalTransfered(amount);
+		    amount = transferFile(sock.getChannel());
+		} else {
+		    buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+
+		    // handle different type settings
+		    switch (type) {
+		    case FtpClientProtocol.TYPE_ASCII:
+			istream = new AsciiInputStream(getInputStream(sock));
+			break;
+		    default:
+			istream = getInputStream(sock);
+			break;
+		    }// switch
+
+		    // handle different mode settings
+		    switch (mode) {
+		    case FtpClientProtocol.MODE_ZLIB:
+			istream = new InflaterInputStream(istream);
+			break;
+		    case FtpClientProtocol.MODE_STREAM:
+		    default:
+			break;
+		    }// switch
+
+		    int len;
+		    while (!cancelled && ((len = istream.read(buffer)) > 0)) {
+			ostream.write(buffer, 0, len);
+			amount += len;
+			buffer_size += len;
+			if (buffer_size >= BUFFER_SIZE) {
+			    buffer_size = buffer_size % BUFFER_SIZE;
+			    signalTransfered(amount);
+			}
 		    }
-		    yield();
-		}
+		    if (buffer_size > 0)
+			signalTransfered(amount);
 
-		ostream.flush();
+		    ostream.flush();
+		}
 	    } catch (InterruptedIOException iioe) {
 		if (!cancelled) {
 		    log.error(iioe.getMessage(), iioe);
@@ -173,6 +186,7 @@ public class ActiveGetter extends Getter {
 	    } catch (Exception e) {
 		log.error(e.getMessage(), e);
 	    } finally {
+		BufferPool.getDefault().release(buffer);
 		log.debug("Closing inputstream");
 		if (istream != null) {
 		    istream.close();
@@ -24,10 +24,11 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.zip.DeflaterOutputStream;
+import java.nio.channels.ServerSocketChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,8 +62,10 @@ public class ActivePutter extends Putter {
     public ActivePutter(InputStream in) throws IOException {
 	super();
 
-	// create server socket
-	this.server = new ServerSocket(0);
+	// create server socket, accepted sockets have a channel for
+	// transferFile()
+	this.server = ServerSocketChannel.open().socket();
+	this.server.bind(new InetSocketAddress(0));
 	this.timeout = 30 * 1000; // 30s timeout
 	// store the port that the server is listening on
 	this.port = server.getLocalPort();
@@ -102,7 +105,7 @@ public class ActivePutter extends Putter {
 	OutputStream ostream = null;
 	long amount = 0;
 	int buffer_size = 0;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	byte buffer[] = null;
 	// this.cancelled= false; // reset cancelled flag
 
 	try {
@@ -120,36 +123,45 @@ public class ActivePutter extends Putter {
 
 	    try {
 
-		// handle different type settings
-		switch (type) {
-		case FtpClientProtocol.TYPE_ASCII:
-		    ostream = new AsciiOutputStream(sock.getOutputStream());
-		    break;
-		default:
+		if (isFileTransfer(sock)) {
+		    // closed below like the stream of a copied transfer.
 		    ostream = sock.getOutputStream();
-		    break;
-		}// switch
-
-		// handle different mode settings
-		switch (mode) {
-		case FtpClientProtocol.MODE_ZLIB:
-		    ostream = new DeflaterOutputStream(ostream);
-		    break;
-		case FtpClientProtocol.MODE_STREAM:
-		default:
-		    break;
-		}// switch
-
-		int len;
-		while ((len = istream.read(buffer)) != -1) {
-		    ostream.write(buffer, 0, len);
-		    amount += len;
-		    buffer_size += len;
-		    if (buffer_size >= BUFFER_SIZE) {
-			buffer_size = buffer_size % BUFFER_SIZE;
-			signalTransfered(amount);
+		    amount = transferFile(sock.getChannel());
+		} else {
+		    buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+
+		    // handle different type settings
+		    switch (type) {
+		    case FtpClientProtocol.TYPE_ASCII:
+			ostream = new AsciiOutputStream(getOutputStream(sock));
+			break;
+		    default:
+			ostream = getOutputStream(sock);
+			break;
+		    }// switch
+
+		    // handle different mode settings
+		    switch (mode) {
+		    case FtpClientProtocol.MODE_ZLIB:
+			ostream = compress(ostream);
+			break;
+		    case FtpClientProtocol.MODE_STREAM:
+		    default:
+			break;
+		    }// switch
+
+		    int len;
+		    while ((len = istream.read(buffer)) != -1) {
+			ostream.write(buffer, 0, len);
+			amount += len;
+			buffer_size += len;
+			if (buffer_size >= BUFFER_SIZE) {
+			    buffer_size = buffer_size % BUFFER_SIZE;
+			    signalTransfered(amount);
+			}
 		    }
-		    yield();
+		    if (buffer_size > 0)
+			signalTransfered(amount);
 		}
 	    } catch (InterruptedIOException iioe) {
 		if (!cancelled) {
@@ -158,6 +170,7 @@ public class ActivePutter extends Putter {
 	    } catch (Exception e) {
 		log.error(e.getMessage(), e);
 	    } finally {
+		BufferPool.getDefault().release(buffer);
 		log.debug("Closing inputstream");
 		if (ostream != null) {
 		    ostream.close();
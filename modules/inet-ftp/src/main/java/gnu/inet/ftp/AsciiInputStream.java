@@ -31,10 +31,19 @@ import java.io.*;
  */
 public class AsciiInputStream extends FilterInputStream {
 
+   /**
+    * the size of the internal buffer the input is read into.
+    */
+   public static final int CHUNK_SIZE = 8192;
+
    protected boolean active;
    protected int eol;
-   protected int buffer;
-   protected int markBuffer;
+   protected byte[] chunk;             // input read but not returned yet
+   protected int pos;                  // next unread byte in chunk
+   protected int limit;                // end of the data in chunk
+   protected boolean eof;              // underlying stream is exhausted
+
+   private byte[] single = new byte[1];
 
    /**
     * Creates an AsciiInputStream by passing <code>in</code> to its superclass'
@@ -55,8 +64,8 @@ public class AsciiInputStream extends FilterInputStream {
          throw new Exception("System line separator longer than 1 char");
       } else {
          active = true;
-	 eol = lineSeparator.charAt(0);
-	 buffer = -1;
+         eol = lineSeparator.charAt(0);
+         chunk = BufferPool.getDefault().acquire(CHUNK_SIZE);
       }
    }
   
@@ -70,23 +79,7 @@ public class AsciiInputStream extends FilterInputStream {
       if (!active)                     // no need to filter
          return in.read();
 
-      int cur;
-
-      if (buffer < 0) {                // buffer not filled
-         cur = in.read();              //  \-> read new value
-      } else {                         // buffer is filled
-         cur = buffer;                 //  |-> read from buffer
-	 buffer = -1;                  //  \-> empty buffer
-      }
-
-      if (cur != '\r') {               // test for first half of CR/LF
-         return cur;
-      } else if ((buffer = in.read()) != '\n') {           // test for 2nd half
-         return cur;
-      } else {                         // deal with CR/LF
-         buffer = -1;
-         return eol;
-      }
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
    }
 
    /**
@@ -104,7 +97,9 @@ public class AsciiInputStream extends FilterInputStream {
 
    /**
     * Reads up to <code>len</code> bytes of data from this input stream into an
-    * array of bytes.
+    * array of bytes. Runs of bytes without a CR are copied in one piece. Blocks
+    * only if no data is available at all, a CR at the end of the available
+    * data is kept until the next byte tells whether it starts a CR/LF.
     * 
     * @param  b    the buffer into which the data is read.
     * @param  off  the start offset of the data.
@@ -122,29 +117,42 @@ public class AsciiInputStream extends FilterInputStream {
 
       if (len == 0)                    // caller is asking for nothing
          return 0;
-      
-      int cur = read();                // no IOException trapping
-      if (cur < 0)                     // test for EOF
-         return 0;
-
-      b[off] = (byte)cur;
-      int count = 1;
 
+      int count = 0;
       while (count < len) {
-         try {
-            cur = read();
-         } catch (IOException e) {     // treat exceptions as EOF
-            cur = -1;
+         if (pos >= limit) {           // chunk is empty
+            if (count > 0 || !fill())  //  \-> don't block with data at hand
+               break;
+            continue;
          }
-      
-         if (cur < 0)                  // test for EOF
-            return count;
 
-         b[off+count] = (byte)cur;
-         count++;
+         if (chunk[pos] == '\r') {
+            if (pos+1 >= limit && !eof) {         // 2nd half not read yet
+               if (count > 0)
+                  break;
+               fill();
+               continue;
+            }
+            if (pos+1 < limit && chunk[pos+1] == '\n') {  // deal with CR/LF
+               b[off+count++] = (byte)eol;
+               pos += 2;
+            } else {                   // lone CR
+               b[off+count++] = '\r';
+               pos++;
+            }
+            continue;
+         }
+
+         int max = Math.min(limit, pos + len - count);
+         int end = pos + 1;            // copy up to the next CR
+         while (end < max && chunk[end] != '\r')
+            end++;
+         System.arraycopy(chunk, pos, b, off+count, end - pos);
+         count += end - pos;
+         pos = end;
       }
 
-      return count;
+      return count == 0 ? -1 : count;
    }
 
    /**
@@ -159,26 +167,51 @@ public class AsciiInputStream extends FilterInputStream {
       if (n <= 0L)                     // do nothing
          return 0;
 
-      if (!active || buffer < 0)       // no filter or buffer is empty
+      if (!active)                     // no filter
          return in.skip(n);
 
-      buffer = -1;                     // empty buffer & adjust accordingly.
-      return 1L + in.skip(n - 1L);
+      byte[] discard = BufferPool.getDefault().acquire(CHUNK_SIZE);
+      long skipped = 0;
+      try {
+         while (skipped < n) {
+            int count = read(discard, 0, (int)Math.min(n - skipped,
+                  discard.length));
+            if (count < 0)
+               break;
+            skipped += count;
+         }
+      } finally {
+         BufferPool.getDefault().release(discard);
+      }
+      return skipped;
    }
 
    /**
     * Returns the number of bytes that can be read from this input stream
-    * without blocking.
+    * without blocking. As CR/LF pairs are returned as a single byte this is a
+    * lower bound.
     * 
     * @return  the number of bytes that can be read from the input stream
     *          without blocking.
     * @throws  IOException  if an I/O error occurs.
     */
    public int available() throws IOException {
-      if (!active || buffer < 0)       // no filter or buffer is empty
+      if (!active)                     // no filter
          return in.available();
 
-      return 1 + in.available();    // account for buffer
+      if (pos < limit)                 // account for buffer
+         return (limit - pos) / 2;
+      return in.available() / 2;
+   }
+
+   /**
+    * Tests if this input stream supports the mark and reset methods, which it
+    * only does if no filtering is needed and the underlying stream does.
+    *
+    * @return  true if mark and reset are supported.
+    */
+   public boolean markSupported() {
+      return !active && in.markSupported();
    }
 
    /**
@@ -188,16 +221,8 @@ public class AsciiInputStream extends FilterInputStream {
     *                    mark position becomes invalid.
     */
    public void mark(int readlimit) {
-      if (readlimit <= 0)              // do nothing
-         return;
-
-      if (!active) {                   // no filter
+      if (!active)                     // no filter
          in.mark(readlimit);
-	 return;
-      }
-
-      markBuffer = buffer;             // hold onto buffer
-      in.mark(readlimit - 1);          // and adjust for buffer
    }
 
    /**
@@ -208,16 +233,56 @@ public class AsciiInputStream extends FilterInputStream {
     *                       if the mark has been invalidated.
     */
    public void reset() throws IOException {
-      if (!active) {                   // no filter
-         in.reset();
-	 return;
+      if (active)                      // buffered input can't be reset
+         throw new IOException("mark/reset not supported");
+
+      in.reset();
+   }
+
+   /**
+    * Closes the underlying stream and returns the internal buffer to the
+    * BufferPool.
+    *
+    * @throws  IOException  if an I/O error occurs.
+    */
+   public void close() throws IOException {
+      try {
+         super.close();
+      } finally {
+         if (chunk != null) {
+            BufferPool.getDefault().release(chunk);
+            chunk = null;
+            pos = limit = 0;
+         }
       }
+   }
 
-      if (!in.markSupported())         // can't handle this, panic.
-         throw new IOException();
+   /**
+    * Moves the unread input to the start of the chunk and reads more.
+    *
+    * @return  false if the underlying stream is at EOF and the chunk is empty.
+    * @throws  IOException  if an I/O error occurs or the stream is closed.
+    */
+   protected boolean fill() throws IOException {
+      if (chunk == null)
+         throw new IOException("Stream closed");
+
+      int remaining = limit - pos;
+      if (remaining > 0 && pos > 0)
+         System.arraycopy(chunk, pos, chunk, 0, remaining);
+      pos = 0;
+      limit = remaining;
 
-      buffer = markBuffer;             // restore old buffer
-      in.reset();                      // and continue.
+      if (eof)
+         return remaining > 0;
+
+      int count = in.read(chunk, limit, chunk.length - limit);
+      if (count < 0) {
+         eof = true;
+         return remaining > 0;
+      }
+      limit += count;
+      return true;
    }
 
 }
@@ -31,8 +31,15 @@ import java.io.*;
  */
 public class AsciiOutputStream extends FilterOutputStream {
 
+   /**
+    * the size of the internal buffer the output is collected in.
+    */
+   public static final int CHUNK_SIZE = 8192;
+
    protected boolean active;
    protected int eol;
+   protected byte[] chunk;             // translated output not written yet
+   protected int count;                // number of bytes in chunk
 
    /**
     * Creates an AsciiOutputStream by passing <code>out</code> to its
@@ -55,6 +62,7 @@ public class AsciiOutputStream extends FilterOutputStream {
       } else {
          active = true;
          eol = lineSeparator.charAt(0);
+         chunk = BufferPool.getDefault().acquire(CHUNK_SIZE);
       }
    }
   
@@ -66,11 +74,19 @@ public class AsciiOutputStream extends FilterOutputStream {
     * @throws  IOException  if an I/O error occurs.
     */
    public void write(int b) throws IOException {
-      if (active && b == eol) {
-         out.write('\r');
-	 out.write('\n');
-      } else {
+      if (!active) {
          out.write(b);
+         return;
+      }
+
+      ensureOpen();
+      if (count+2 > chunk.length)
+         flushChunk();
+      if ((byte)b == (byte)eol) {
+         chunk[count++] = '\r';
+         chunk[count++] = '\n';
+      } else {
+         chunk[count++] = (byte)b;
       }
    }
 
@@ -87,7 +103,8 @@ public class AsciiOutputStream extends FilterOutputStream {
 
    /**
     * Writes <code>len</code> bytes from the specified byte array starting at
-    * offset <code>off</code> to this output stream.
+    * offset <code>off</code> to this output stream. Runs of bytes without a
+    * line separator are copied into the internal buffer in one piece.
     * 
     * @param  b    the data.
     * @param  off  the start offset in the data.
@@ -96,8 +113,85 @@ public class AsciiOutputStream extends FilterOutputStream {
     * @throws  IOException  if an I/O error occurs.
     */
    public void write(byte[] b, int off, int len) throws IOException {
-      for (int i=off; i<off+len; i++)
-         write(b[i]);
+      if (!active) {                   // no need to filter
+         out.write(b, off, len);
+         return;
+      }
+
+      if (off < 0 || len < 0 || off+len > b.length)        // bad args
+         throw new IndexOutOfBoundsException();
+
+      ensureOpen();
+      byte separator = (byte)eol;
+      int end = off + len;
+      while (off < end) {
+         if (count+2 > chunk.length)
+            flushChunk();
+         if (b[off] == separator) {
+            chunk[count++] = '\r';
+            chunk[count++] = '\n';
+            off++;
+            continue;
+         }
+         int max = Math.min(end, off + chunk.length - count);
+         int run = off + 1;            // copy up to the next separator
+         while (run < max && b[run] != separator)
+            run++;
+         System.arraycopy(b, off, chunk, count, run - off);
+         count += run - off;
+         off = run;
+      }
+   }
+
+   /**
+    * Writes the buffered output and flushes the underlying stream.
+    *
+    * @throws  IOException  if an I/O error occurs.
+    */
+   public void flush() throws IOException {
+      if (active)
+         flushChunk();
+      out.flush();
+   }
+
+   /**
+    * Flushes and closes the underlying stream and returns the internal buffer
+    * to the BufferPool.
+    *
+    * @throws  IOException  if an I/O error occurs.
+    */
+   public void close() throws IOException {
+      try {
+         super.close();
+      } finally {
+         if (chunk != null) {
+            BufferPool.getDefault().release(chunk);
+            chunk = null;
+            count = 0;
+         }
+      }
+   }
+
+   /**
+    * Writes the buffered output to the underlying stream.
+    *
+    * @throws  IOException  if an I/O error occurs.
+    */
+   protected void flushChunk() throws IOException {
+      if (count > 0) {
+         out.write(chunk, 0, count);
+         count = 0;
+      }
+   }
+
+   /**
+    * Checks that the stream has not been closed.
+    *
+    * @throws  IOException  if the stream is closed.
+    */
+   protected void ensureOpen() throws IOException {
+      if (chunk == null)
+         throw new IOException("Stream closed");
    }
 
 }
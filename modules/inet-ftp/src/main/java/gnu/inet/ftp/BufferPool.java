@@ -0,0 +1,382 @@
+// BufferPool.java - reusable buffers for data transfers
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the buffers of finished data transfers for the next ones, so bulk
+ * transfers do not allocate a new buffer per transfer, per ASCII stream or
+ * per compressed block. Buffers come in size classes, the powers of two from
+ * the minimum to the maximum size. A request is served with a buffer of the
+ * smallest class that fits, i.e. the buffer may be larger than requested.
+ * Requests above the maximum size are allocated and never kept.
+ * <P>
+ * Heap buffers are handed out as byte arrays or as heap ByteBuffers backed by
+ * them, direct ByteBuffers are kept apart from heap buffers. The pool keeps at
+ * most capacity bytes of idle buffers, buffers released to a full pool are
+ * left to the garbage collector.
+ * <P>
+ * A released buffer must not be used any more by the code that released it.
+ * Buffers that are not released, e.g. after a failed transfer, are simply
+ * garbage collected.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class BufferPool {
+
+    /**
+     * the default size of the smallest size class.
+     */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    /**
+     * the default size of the largest size class.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    /**
+     * the default number of bytes kept in idle buffers.
+     */
+    public static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private static BufferPool defaultPool = null;
+
+    /**
+     * The idle buffers of one size class, the most recently released first.
+     */
+    private static class SizeClass {
+
+	private final int size;
+
+	private Object[] free = new Object[4];
+
+	private int count = 0;
+
+	SizeClass(int size) {
+	    this.size = size;
+	}
+
+	Object pop() {
+	    if (count == 0)
+		return null;
+	    Object buffer = free[--count];
+	    free[count] = null;
+	    return buffer;
+	}
+
+	void push(Object buffer) {
+	    if (count == free.length) {
+		Object[] grown = new Object[count * 2];
+		System.arraycopy(free, 0, grown, 0, count);
+		free = grown;
+	    }
+	    free[count++] = buffer;
+	}
+    }
+
+    private final int minShift;
+
+    private final int maxSize;
+
+    private final long capacity;
+
+    private final SizeClass[] heap;
+
+    private final SizeClass[] direct;
+
+    private long pooledBytes = 0;
+
+    private long acquired = 0;
+
+    private long reused = 0;
+
+    private long allocated = 0;
+
+    private long released = 0;
+
+    private long discarded = 0;
+
+    /**
+     * create a pool with the default sizes and capacity.
+     */
+    public BufferPool() {
+	this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param minSize
+     *            the size of the smallest size class, rounded up to a power
+     *            of two
+     * @param maxSize
+     *            the size of the largest size class, rounded up to a power of
+     *            two
+     * @param capacity
+     *            the number of bytes kept in idle buffers, 0 to keep none
+     */
+    public BufferPool(int minSize, int maxSize, long capacity) {
+	if (minSize < 1 || maxSize < minSize || maxSize > (1 << 30))
+	    throw new IllegalArgumentException("Invalid sizes " + minSize
+		    + "-" + maxSize);
+	this.minShift = shift(minSize);
+	this.maxSize = 1 << shift(maxSize);
+	this.capacity = Math.max(0, capacity);
+	int classes = shift(maxSize) - minShift + 1;
+	heap = new SizeClass[classes];
+	direct = new SizeClass[classes];
+	for (int i = 0; i < classes; i++) {
+	    heap[i] = new SizeClass(1 << (minShift + i));
+	    direct[i] = new SizeClass(1 << (minShift + i));
+	}
+    }
+
+    /**
+     * @return the pool used by all transfers.
+     */
+    public static synchronized BufferPool getDefault() {
+	if (defaultPool == null)
+	    defaultPool = new BufferPool();
+	return defaultPool;
+    }
+
+    /**
+     * replace the pool used by all transfers, e.g. to change its sizes.
+     * Buffers taken from the previous pool are returned to the new one.
+     *
+     * @param pool
+     *            the new default pool, null to restore a built-in one
+     */
+    public static synchronized void setDefault(BufferPool pool) {
+	defaultPool = pool;
+    }
+
+    /**
+     * take a heap buffer.
+     *
+     * @param size
+     *            the number of bytes needed
+     * @return a buffer of at least size bytes, its content is undefined
+     */
+    public byte[] acquire(int size) {
+	SizeClass sizeClass = sizeClass(heap, size);
+	if (sizeClass == null) {
+	    count(false);
+	    return new byte[size];
+	}
+	byte[] buffer = (byte[]) take(sizeClass);
+	return buffer != null ? buffer : new byte[sizeClass.size];
+    }
+
+    /**
+     * return a heap buffer to the pool.
+     *
+     * @param buffer
+     *            the buffer, null is ignored
+     */
+    public void release(byte[] buffer) {
+	if (buffer != null)
+	    put(sizeClass(heap, buffer.length), buffer, buffer.length);
+    }
+
+    /**
+     * take a ByteBuffer.
+     *
+     * @param size
+     *            the number of bytes needed
+     * @param isDirect
+     *            true for a direct buffer, false for a heap buffer
+     * @return a cleared buffer with a limit of size and a capacity of at
+     *         least size, its content is undefined
+     */
+    public ByteBuffer acquireBuffer(int size, boolean isDirect) {
+	if (!isDirect) {
+	    ByteBuffer buffer = ByteBuffer.wrap(acquire(size));
+	    buffer.limit(size);
+	    return buffer;
+	}
+	SizeClass sizeClass = sizeClass(direct, size);
+	if (sizeClass == null) {
+	    count(false);
+	    return ByteBuffer.allocateDirect(size);
+	}
+	ByteBuffer buffer = (ByteBuffer) take(sizeClass);
+	if (buffer == null)
+	    buffer = ByteBuffer.allocateDirect(sizeClass.size);
+	buffer.clear();
+	buffer.limit(size);
+	return buffer;
+    }
+
+    /**
+     * return a ByteBuffer taken with acquireBuffer() to the pool.
+     *
+     * @param buffer
+     *            the buffer, null is ignored
+     */
+    public void release(ByteBuffer buffer) {
+	if (buffer == null)
+	    return;
+	if (buffer.isDirect()) {
+	    int size = buffer.capacity();
+	    put(sizeClass(direct, size), buffer, size);
+	} else if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+	    release(buffer.array());
+	}
+    }
+
+    /**
+     * drop all idle buffers.
+     */
+    public synchronized void clear() {
+	for (int i = 0; i < heap.length; i++) {
+	    while (heap[i].pop() != null)
+		;
+	    while (direct[i].pop() != null)
+		;
+	}
+	pooledBytes = 0;
+    }
+
+    /**
+     * @return the number of bytes kept in idle buffers.
+     */
+    public synchronized long getPooledBytes() {
+	return pooledBytes;
+    }
+
+    /**
+     * @return the number of idle buffers.
+     */
+    public synchronized int getPooledBuffers() {
+	int buffers = 0;
+	for (int i = 0; i < heap.length; i++)
+	    buffers += heap[i].count + direct[i].count;
+	return buffers;
+    }
+
+    /**
+     * @return the number of buffers handed out.
+     */
+    public synchronized long getAcquired() {
+	return acquired;
+    }
+
+    /**
+     * @return the number of buffers handed out that were taken from the pool.
+     */
+    public synchronized long getReused() {
+	return reused;
+    }
+
+    /**
+     * @return the number of buffers handed out that had to be allocated.
+     */
+    public synchronized long getAllocated() {
+	return allocated;
+    }
+
+    /**
+     * @return the number of buffers released to the pool and kept.
+     */
+    public synchronized long getReleased() {
+	return released;
+    }
+
+    /**
+     * @return the number of buffers released to the pool but not kept,
+     *         because the pool was full or they did not fit a size class.
+     */
+    public synchronized long getDiscarded() {
+	return discarded;
+    }
+
+    /**
+     * reset the counters, the idle buffers are kept.
+     */
+    public synchronized void resetStatistics() {
+	acquired = 0;
+	reused = 0;
+	allocated = 0;
+	released = 0;
+	discarded = 0;
+    }
+
+    public synchronized String toString() {
+	return "acquired=" + acquired + ", reused=" + reused + ", allocated="
+		+ allocated + ", released=" + released + ", discarded="
+		+ discarded + ", pooled=" + getPooledBuffers() + " ("
+		+ pooledBytes + " bytes)";
+    }
+
+    // ***** private methods *****
+
+    private synchronized void count(boolean hit) {
+	acquired++;
+	if (hit)
+	    reused++;
+	else
+	    allocated++;
+    }
+
+    private synchronized void put(SizeClass sizeClass, Object buffer,
+	    int size) {
+	if (sizeClass == null || sizeClass.size != size
+		|| pooledBytes + size > capacity) {
+	    discarded++;
+	    return;
+	}
+	sizeClass.push(buffer);
+	pooledBytes += size;
+	released++;
+    }
+
+    /**
+     * the smallest size class of at least size bytes, null if size is above
+     * the maximum size.
+     */
+    private SizeClass sizeClass(SizeClass[] classes, int size) {
+	if (size > maxSize)
+	    return null;
+	return classes[Math.max(0, shift(size) - minShift)];
+    }
+
+    /**
+     * take an idle buffer and count the request.
+     */
+    private synchronized Object take(SizeClass sizeClass) {
+	Object buffer = sizeClass.pop();
+	if (buffer != null)
+	    pooledBytes -= sizeClass.size;
+	count(buffer != null);
+	return buffer;
+    }
+
+    /**
+     * the exponent of the smallest power of two of at least size.
+     */
+    private static int shift(int size) {
+	int shift = 0;
+	while ((1 << shift) < size)
+	    shift++;
+	return shift;
+    }
+
+}
@@ -0,0 +1,162 @@
+// CommandStatistics.java - latency and errors per command verb
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import EDU.oswego.cs.dl.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the time from sending a command to its final reply for every
+ * command verb, e.g. "stor", "jsubm" or "pasv". Replies with a 4xx or 5xx
+ * code and connection failures are counted as errors.
+ * <P>
+ * Statistics are collected by setting an instance on a protocol object with
+ * FtpClientProtocol.setStatistics(). One instance may be shared by several
+ * connections. Durations are measured with a resolution of one millisecond.
+ * <P>
+ * Example:
+ *
+ * <pre>
+ * CommandStatistics statistics = new CommandStatistics();
+ * client.setStatistics(statistics);
+ * statistics.startDump(60000);
+ * ...
+ * long p99 = statistics.getHistogram(&quot;jsubm&quot;).getPercentile(99);
+ * </pre>
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class CommandStatistics {
+
+    private final static Log log = LogFactory.getLog(CommandStatistics.class);
+
+    private final Map histograms = new ConcurrentHashMap();
+
+    private Timer timer = null;
+
+    /**
+     * add the duration of a command.
+     *
+     * @param verb
+     *            the command verb
+     * @param millis
+     *            the time from sending the command to its final reply
+     * @param error
+     *            true if the command failed
+     */
+    public void record(String verb, long millis, boolean error) {
+	LatencyHistogram histogram = (LatencyHistogram) histograms.get(verb);
+	if (histogram == null) {
+	    synchronized (histograms) {
+		histogram = (LatencyHistogram) histograms.get(verb);
+		if (histogram == null) {
+		    histogram = new LatencyHistogram();
+		    histograms.put(verb, histogram);
+		}
+	    }
+	}
+	histogram.record(millis, error);
+    }
+
+    /**
+     * @param verb
+     *            the command verb
+     * @return a copy of the histogram of the verb, empty if the verb has not
+     *         been used.
+     */
+    public LatencyHistogram getHistogram(String verb) {
+	LatencyHistogram histogram = (LatencyHistogram) histograms.get(verb);
+	return histogram == null ? new LatencyHistogram() : histogram.copy();
+    }
+
+    /**
+     * @return a sorted map of verbs to copies of their histograms.
+     */
+    public Map getSnapshot() {
+	Map snapshot = new TreeMap();
+	Iterator i = histograms.entrySet().iterator();
+	while (i.hasNext()) {
+	    Map.Entry entry = (Map.Entry) i.next();
+	    snapshot.put(entry.getKey(), ((LatencyHistogram) entry.getValue())
+		    .copy());
+	}
+	return snapshot;
+    }
+
+    /**
+     * remove all collected values.
+     */
+    public void reset() {
+	histograms.clear();
+    }
+
+    /**
+     * log the statistics periodically at info level. Replaces a previously
+     * started dump.
+     *
+     * @param interval
+     *            the time between two dumps in milliseconds
+     */
+    public synchronized void startDump(long interval) {
+	stopDump();
+	timer = new Timer(true);
+	timer.schedule(new TimerTask() {
+	    public void run() {
+		if (log.isInfoEnabled())
+		    log.info("Command statistics:\n" + CommandStatistics.this);
+	    }
+	}, interval, interval);
+    }
+
+    /**
+     * stop logging the statistics.
+     */
+    public synchronized void stopDump() {
+	if (timer != null) {
+	    timer.cancel();
+	    timer = null;
+	}
+    }
+
+    /**
+     * @return one line per verb with the count, errors, 50th and 99th
+     *         percentile and maximum in milliseconds.
+     */
+    public String toString() {
+	StringBuffer buffer = new StringBuffer();
+	Iterator i = getSnapshot().entrySet().iterator();
+	while (i.hasNext()) {
+	    Map.Entry entry = (Map.Entry) i.next();
+	    buffer.append(entry.getKey()).append(' ').append(entry.getValue())
+		    .append('\n');
+	}
+	return buffer.toString();
+    }
+
+}
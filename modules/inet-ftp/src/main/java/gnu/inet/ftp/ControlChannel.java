@@ -0,0 +1,370 @@
+// ControlChannel.java - a non-blocking FTP control connection
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A control connection serviced by a ControlChannelReactor. The reactor thread
+ * moves bytes between the socket and the buffers of this class while the
+ * protocol code uses the blocking streams returned by getInputStream() and
+ * getOutputStream().
+ * <P>
+ * Incoming data is buffered up to MAX_INPUT bytes. When the buffer is full the
+ * reactor stops reading from the socket until the application catches up.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ControlChannel {
+
+    /**
+     * initial size of the input and output buffers.
+     */
+    public static final int BUFFER_SIZE = 4096;
+
+    /**
+     * maximum number of unread bytes held for a channel.
+     */
+    public static final int MAX_INPUT = 65536;
+
+    private final ControlChannelReactor reactor;
+
+    private final SocketChannel channel;
+
+    private SelectionKey key = null;
+
+    private final int timeout;
+
+    // input is kept ready for the reactor to fill, output ready to drain.
+    private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private boolean reading = true;
+
+    private boolean writing = false;
+
+    private boolean eof = false;
+
+    private IOException failure = null;
+
+    private final InputStream inputStream = new ChannelInputStream();
+
+    private final OutputStream outputStream = new ChannelOutputStream();
+
+    ControlChannel(ControlChannelReactor reactor, SocketChannel channel,
+	    int timeout) {
+	this.reactor = reactor;
+	this.channel = channel;
+	this.timeout = timeout;
+	output.flip();
+    }
+
+    /**
+     * @return the blocking input stream of this connection.
+     */
+    public InputStream getInputStream() {
+	return inputStream;
+    }
+
+    /**
+     * @return the blocking output stream of this connection.
+     */
+    public OutputStream getOutputStream() {
+	return outputStream;
+    }
+
+    /**
+     * @return the socket of the underlying channel. Closing the socket closes
+     *         the channel.
+     */
+    public Socket socket() {
+	return channel.socket();
+    }
+
+    /**
+     * close the connection.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public void close() throws IOException {
+	try {
+	    channel.close();
+	} finally {
+	    fail(new SocketException("Socket closed"));
+	}
+    }
+
+    SocketChannel getChannel() {
+	return channel;
+    }
+
+    synchronized void setKey(SelectionKey key) {
+	this.key = key;
+	if (!channel.isOpen()) {
+	    key.cancel();
+	}
+	notifyAll();
+    }
+
+    /**
+     * record a failure and wake up any waiting application thread.
+     */
+    synchronized void fail(IOException e) {
+	if (failure == null) {
+	    failure = e;
+	}
+	if (key != null) {
+	    key.cancel();
+	}
+	notifyAll();
+    }
+
+    /**
+     * called by the reactor when the channel is readable.
+     */
+    synchronized void handleRead() throws IOException {
+	if (!input.hasRemaining()) {
+	    if (input.capacity() < MAX_INPUT) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_INPUT,
+			input.capacity() * 2));
+		input.flip();
+		larger.put(input);
+		input = larger;
+	    } else {
+		// stop reading until the application drains the buffer.
+		reading = false;
+		updateInterest();
+		return;
+	    }
+	}
+	int count = channel.read(input);
+	if (count < 0) {
+	    eof = true;
+	    key.cancel();
+	}
+	notifyAll();
+    }
+
+    /**
+     * called by the reactor when the channel is writable.
+     */
+    synchronized void handleWrite() throws IOException {
+	channel.write(output);
+	if (!output.hasRemaining()) {
+	    writing = false;
+	    updateInterest();
+	    notifyAll();
+	}
+    }
+
+    private void updateInterest() {
+	if (key == null || !key.isValid()) {
+	    return;
+	}
+	int ops = 0;
+	if (reading) {
+	    ops |= SelectionKey.OP_READ;
+	}
+	if (writing) {
+	    ops |= SelectionKey.OP_WRITE;
+	}
+	key.interestOps(ops);
+    }
+
+    private void requestInterestUpdate() {
+	reactor.invoke(new Runnable() {
+	    public void run() {
+		synchronized (ControlChannel.this) {
+		    updateInterest();
+		}
+	    }
+	});
+    }
+
+    /**
+     * wait for the reactor, honoring the read timeout.
+     *
+     * @return the remaining time or -1 if the timeout expired.
+     */
+    private long await(long deadline) throws InterruptedIOException {
+	try {
+	    if (deadline == 0) {
+		wait();
+		return 0;
+	    }
+	    long remaining = deadline - System.currentTimeMillis();
+	    if (remaining <= 0) {
+		return -1;
+	    }
+	    wait(remaining);
+	    return remaining;
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException(e.getMessage());
+	}
+    }
+
+    private long deadline() {
+	return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    private synchronized int read(byte[] b, int off, int len)
+	    throws IOException {
+	if (len == 0) {
+	    return 0;
+	}
+	long deadline = deadline();
+	while (input.position() == 0) {
+	    if (failure != null) {
+		throw failure;
+	    }
+	    if (eof) {
+		return -1;
+	    }
+	    if (await(deadline) < 0) {
+		throw new SocketTimeoutException("Read timed out");
+	    }
+	}
+	input.flip();
+	int count = Math.min(len, input.remaining());
+	input.get(b, off, count);
+	input.compact();
+	if (!reading) {
+	    reading = true;
+	    requestInterestUpdate();
+	}
+	return count;
+    }
+
+    private synchronized int available() throws IOException {
+	if (failure != null) {
+	    throw failure;
+	}
+	return input.position();
+    }
+
+    private synchronized void write(byte[] b, int off, int len)
+	    throws IOException {
+	if (failure != null) {
+	    throw failure;
+	}
+	if (output.capacity() - output.limit() < len) {
+	    if (output.capacity() >= output.remaining() + len) {
+		output.compact();
+		output.flip();
+	    } else {
+		ByteBuffer larger = ByteBuffer.allocate(output.remaining()
+			+ len);
+		larger.put(output);
+		larger.flip();
+		output = larger;
+	    }
+	}
+	int position = output.position();
+	output.position(output.limit());
+	output.limit(output.limit() + len);
+	output.put(b, off, len);
+	output.position(position);
+    }
+
+    private synchronized void flush() throws IOException {
+	if (failure != null) {
+	    throw failure;
+	}
+	if (!output.hasRemaining()) {
+	    return;
+	}
+	// most commands fit in the socket buffer, try to send them right
+	// away before involving the reactor.
+	if (!writing) {
+	    channel.write(output);
+	    if (!output.hasRemaining()) {
+		output.clear();
+		output.flip();
+		return;
+	    }
+	    writing = true;
+	    requestInterestUpdate();
+	}
+	long deadline = deadline();
+	while (output.hasRemaining()) {
+	    if (failure != null) {
+		throw failure;
+	    }
+	    if (await(deadline) < 0) {
+		throw new SocketTimeoutException("Write timed out");
+	    }
+	}
+	output.clear();
+	output.flip();
+    }
+
+    private class ChannelInputStream extends InputStream {
+
+	public int read() throws IOException {
+	    byte[] b = new byte[1];
+	    return (ControlChannel.this.read(b, 0, 1) < 0) ? -1
+		    : (b[0] & 0xff);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+	    return ControlChannel.this.read(b, off, len);
+	}
+
+	public int available() throws IOException {
+	    return ControlChannel.this.available();
+	}
+
+	public void close() throws IOException {
+	    ControlChannel.this.close();
+	}
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+
+	public void write(int b) throws IOException {
+	    ControlChannel.this.write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+	    ControlChannel.this.write(b, off, len);
+	}
+
+	public void flush() throws IOException {
+	    ControlChannel.this.flush();
+	}
+
+	public void close() throws IOException {
+	    ControlChannel.this.close();
+	}
+    }
+
+}
@@ -0,0 +1,259 @@
+// ControlChannelReactor.java - multiplexes FTP control connections
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A single I/O thread that services any number of non-blocking control
+ * connections. Each connection opened through a reactor is represented by a
+ * ControlChannel which offers ordinary blocking streams to the protocol code,
+ * so a session only ties up a thread while a command is actually waiting for
+ * its reply.
+ * <P>
+ * To use a reactor call FtpClientProtocol.setReactor() before opening the
+ * connection. Most applications will simply share the default reactor.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ControlChannelReactor implements Runnable {
+
+    private final static Log log = LogFactory
+	    .getLog(ControlChannelReactor.class);
+
+    private static ControlChannelReactor defaultReactor = null;
+
+    /**
+     * @return the shared reactor, started on first use.
+     * @exception IOException
+     *                the selector could not be opened
+     */
+    public static synchronized ControlChannelReactor getDefault()
+	    throws IOException {
+	if (defaultReactor == null || !defaultReactor.isRunning()) {
+	    defaultReactor = new ControlChannelReactor();
+	    defaultReactor.start();
+	}
+	return defaultReactor;
+    }
+
+    private final Selector selector;
+
+    private final LinkedList tasks = new LinkedList();
+
+    private Thread thread = null;
+
+    private volatile boolean running = false;
+
+    /**
+     * create a new reactor. The reactor must be started before any channels
+     * are opened with it.
+     *
+     * @exception IOException
+     *                the selector could not be opened
+     */
+    public ControlChannelReactor() throws IOException {
+	selector = Selector.open();
+    }
+
+    /**
+     * start the I/O thread.
+     */
+    public synchronized void start() {
+	if (running)
+	    return;
+	running = true;
+	thread = new Thread(this, "ControlChannelReactor");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * stop the I/O thread and close all channels still registered.
+     */
+    public void shutdown() {
+	synchronized (this) {
+	    if (!running)
+		return;
+	    running = false;
+	}
+	selector.wakeup();
+    }
+
+    /**
+     * @return true if the I/O thread is running.
+     */
+    public boolean isRunning() {
+	return running;
+    }
+
+    /**
+     * @return the number of channels currently registered with this reactor.
+     */
+    public int getChannelCount() {
+	try {
+	    return selector.keys().size();
+	} catch (ClosedSelectorException e) {
+	    return 0;
+	}
+    }
+
+    /**
+     * open a control connection to the given server. The connect itself is
+     * done in the calling thread; afterwards all I/O is performed by the
+     * reactor.
+     *
+     * @param address
+     *            the server address
+     * @param port
+     *            the server port
+     * @param timeout
+     *            read timeout for the channel in milliseconds, 0 = infinite
+     * @exception IOException
+     *                an IO error occurred
+     * @return the connected channel
+     */
+    public ControlChannel open(InetAddress address, int port, int timeout)
+	    throws IOException {
+	if (!running) {
+	    throw new IOException("Reactor is not running");
+	}
+	SocketChannel channel = SocketChannel.open();
+	try {
+	    channel.socket().connect(new InetSocketAddress(address, port));
+	    channel.configureBlocking(false);
+	} catch (IOException e) {
+	    channel.close();
+	    throw e;
+	}
+	ControlChannel result = new ControlChannel(this, channel, timeout);
+	register(result);
+	return result;
+    }
+
+    /**
+     * run a task on the I/O thread. Interest set changes have to be made
+     * there, otherwise they may block until the current select() returns.
+     */
+    void invoke(Runnable task) {
+	synchronized (tasks) {
+	    tasks.add(task);
+	}
+	selector.wakeup();
+    }
+
+    private void register(final ControlChannel channel) {
+	invoke(new Runnable() {
+	    public void run() {
+		try {
+		    channel.setKey(channel.getChannel().register(selector,
+			    SelectionKey.OP_READ, channel));
+		} catch (IOException e) {
+		    channel.fail(e);
+		}
+	    }
+	});
+    }
+
+    private void runTasks() {
+	while (true) {
+	    Runnable task;
+	    synchronized (tasks) {
+		if (tasks.isEmpty())
+		    return;
+		task = (Runnable) tasks.removeFirst();
+	    }
+	    try {
+		task.run();
+	    } catch (RuntimeException e) {
+		log.error("Reactor task failed", e);
+	    }
+	}
+    }
+
+    /**
+     * the I/O loop.
+     */
+    public void run() {
+	log.debug("Control channel reactor started");
+	try {
+	    while (running) {
+		runTasks();
+		selector.select();
+		Iterator i = selector.selectedKeys().iterator();
+		while (i.hasNext()) {
+		    SelectionKey key = (SelectionKey) i.next();
+		    i.remove();
+		    ControlChannel channel = (ControlChannel) key.attachment();
+		    try {
+			if (key.isReadable()) {
+			    channel.handleRead();
+			}
+			if (key.isValid() && key.isWritable()) {
+			    channel.handleWrite();
+			}
+		    } catch (CancelledKeyException e) {
+			channel.fail(new IOException("Channel closed"));
+		    } catch (IOException e) {
+			channel.fail(e);
+		    }
+		}
+	    }
+	} catch (IOException e) {
+	    log.error("Control channel reactor failed", e);
+	} catch (ClosedSelectorException e) {
+	    // shutting down.
+	} finally {
+	    running = false;
+	    closeAll();
+	    log.debug("Control channel reactor stopped");
+	}
+    }
+
+    private void closeAll() {
+	try {
+	    Iterator i = selector.keys().iterator();
+	    while (i.hasNext()) {
+		SelectionKey key = (SelectionKey) i.next();
+		((ControlChannel) key.attachment()).fail(new IOException(
+			"Reactor stopped"));
+	    }
+	    selector.close();
+	} catch (IOException e) {
+	    log.warn("Could not close selector", e);
+	} catch (ClosedSelectorException e) {
+	    // Don't care.
+	}
+    }
+
+}
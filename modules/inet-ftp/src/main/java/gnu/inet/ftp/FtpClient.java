@@ -20,17 +20,16 @@
 //
 package gnu.inet.ftp;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.Vector;
 
@@ -185,6 +184,22 @@ public class FtpClient extends FtpClientProtocol implements
 	}
     }
 
+    /**
+     * Sets the recorder of the control connection. The recorder is also
+     * registered as a transfer listener so the size of each data transfer is
+     * logged.
+     * 
+     * @param recorder
+     *            the recorder to use, or null to disable recording.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+	if (this.recorder != null)
+	    removeTransferListener(this.recorder);
+	super.setRecorder(recorder);
+	if (recorder != null)
+	    addTransferListener(recorder);
+    }
+
     /**
      * De-register a transfer listener with the event source.
      * 
@@ -227,6 +242,9 @@ public class FtpClient extends FtpClientProtocol implements
 	put.setType(fileType);
 	put.addConnectionListeners(connectionListeners);
 	put.addTransferListeners(transferListeners);
+	put.setExecutor(transferExecutor);
+	put.setGovernor(transferGovernor, transferWeight);
+	put.setCompression(compressionLevel, parallelCompression);
 	put.start();
 
 	// start transmission
@@ -251,6 +269,106 @@ public class FtpClient extends FtpClientProtocol implements
 	return filename;
     }
 
+    /**
+     * store a local file and continue interrupted transfers with REST. After
+     * every transfer the size of the remote file is checked with SIZE, the
+     * data the server has committed is not sent again. Only works for image
+     * type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried.
+     * 
+     * @param file
+     *                the file to send
+     * @param pathname
+     *                name of file to store on server (where to put the file on
+     *                the server)
+     * @param retries
+     *                how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                    an IO error occurred or the transfer was still
+     *                    incomplete after the last retry
+     * @exception ServerResponseException
+     *                    the server responded with an error
+     */
+    public synchronized void resumablePut(File file, String pathname,
+	    int retries) throws IOException, ServerResponseException {
+	resumableTransfer().putFile(file, pathname, retries);
+    }
+
+    /**
+     * put a local file with a unique name. NOTE: this calls stou() internally.
+     * The file is sent with FileChannel.transferTo() unless ASCII type or
+     * compressed mode is in effect.
+     * 
+     * @param file
+     *                the file to send
+     * @exception IOException
+     *                    a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                    the server responded with an error code
+     * @return the name of the file created
+     */
+    public synchronized String put(File file) throws IOException,
+	    ServerResponseException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    return put(in);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * store a local file. NOTE: this calls stor() internally. The file is
+     * sent with FileChannel.transferTo() unless ASCII type or compressed mode
+     * is in effect.
+     * 
+     * @param file
+     *                the file to send
+     * @param pathname
+     *                name of file to store on server (where to put the file on
+     *                the server)
+     * @exception IOException
+     *                    a socket IO error occurred or the file can not be read
+     * @exception ServerResponseException
+     *                    the server responded with an error
+     */
+    public synchronized void put(File file, String pathname)
+	    throws IOException, ServerResponseException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    put(in, pathname);
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * put a local file as temp file, the data is stored in a uniquely named
+     * file on the server. The remote temp file is deleted when the connection
+     * is closed. NOTE: this calls stot() internally. The file is sent with
+     * FileChannel.transferTo() unless ASCII type or compressed mode is in
+     * effect.
+     * 
+     * @param file
+     *                the file to send
+     * @exception IOException
+     *                    io error occurred talking to the server or the file
+     *                    can not be read
+     * @exception ServerResponseException
+     *                    server replied with error code
+     * @return the filename of the temp file
+     */
+    public synchronized String putTemporary(File file) throws IOException,
+	    ServerResponseException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    return putTemporary(in);
+	} finally {
+	    in.close();
+	}
+    }
+
     /**
      * put a file with a unique name. NOTE: this calls stou() internally.
      * 
@@ -283,6 +401,9 @@ public class FtpClient extends FtpClientProtocol implements
 	put.setType(fileType);
 	put.addConnectionListeners(connectionListeners);
 	put.addTransferListeners(transferListeners);
+	put.setExecutor(transferExecutor);
+	put.setGovernor(transferGovernor, transferWeight);
+	put.setCompression(compressionLevel, parallelCompression);
 	put.start();
 
 	// transfer file
@@ -320,7 +441,11 @@ public class FtpClient extends FtpClientProtocol implements
      */
     public synchronized void put(InputStream in, String pathname)
 	    throws IOException, ServerResponseException {
+	put(in, pathname, 0);
+    }
 
+    private void put(InputStream in, String pathname, long offset)
+	    throws IOException, ServerResponseException {
 	// prepare for transfer
 	Putter put;
 	if (passive == true) {
@@ -340,10 +465,15 @@ public class FtpClient extends FtpClientProtocol implements
 	put.setType(fileType);
 	put.addConnectionListeners(connectionListeners);
 	put.addTransferListeners(transferListeners);
+	put.setExecutor(transferExecutor);
+	put.setGovernor(transferGovernor, transferWeight);
+	put.setCompression(compressionLevel, parallelCompression);
 	put.start();
 
 	// transfer file
 	try {
+	    if (offset > 0)
+		rest(offset);
 	    stor(in, pathname);
 	} catch (IOException ioe) {
 	    put.cancel();
@@ -380,66 +510,37 @@ public class FtpClient extends FtpClientProtocol implements
      */
     public synchronized Vector getList(String path) throws IOException,
 	    FileNotFoundException, ServerResponseException {
-	Vector filenames = new Vector();
-	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-	Getter spot;
-
-	if (passive == true) {
-	    // do passive style transfers
-	    if (connection == null) {
-		connection = new PassiveConnection(pasv());
-	    }
-	    spot = new PassiveGetter(buffer, connection);
-	} else {
-	    ActiveGetter aget = new ActiveGetter(buffer);
-	    // tell server which port we'll listen on
-	    port(getInetAddress(), aget.getPort());
-	    spot = aget;
-	}
-
-	// start transfer
-	spot.addConnectionListeners(connectionListeners);
-	spot.addTransferListeners(transferListeners);
-	spot.start();
-
-	// start the listing ...
-	try {
-	    list(path);
-	} catch (FileNotFoundException fnfe) {
-	    spot.cancel();
-	    throw fnfe;
-	} catch (IOException ioe) {
-	    spot.cancel();
-	    throw ioe;
-	} catch (ServerResponseException sree) {
-	    spot.cancel();
-	    throw sree;
-	} finally {
-	    // wait for thread to complete
-	    try {
-		spot.join();
-	    } catch (InterruptedException ie) { /* no error */
+	final Vector filenames = new Vector();
+	getList(path, new ListingHandler() {
+	    public void entry(String entry) {
+		filenames.addElement(entry);
 	    }
-	}
-
-	connection = null;
-
-	// make list of filenames
-	BufferedReader data = new BufferedReader(new InputStreamReader(
-		new ByteArrayInputStream(buffer.toByteArray()), getCharacterEncoding()));
-	boolean done = false;
-	while (!done) {
-	    String line = data.readLine();
-	    if (line == null) {
-		done = true;
-	    } else {
-		filenames.addElement(line);
-	    }
-	}
-
+	});
 	return filenames;
     }
 
+    /**
+     * get a long-style listing of files in the given directory, passing each
+     * line to the handler while the listing is transferred instead of keeping
+     * the whole listing in memory. NOTE: this calls the list() method
+     * internally.
+     * 
+     * @param path
+     *                the path that we're interested in finding the contents of
+     * @param handler
+     *                the handler receiving the lines of the listing
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception FileNotFoundException
+     *                    the given path doesn't exist
+     * @exception ServerResponseException
+     *                    the server reported an error
+     */
+    public synchronized void getList(String path, ListingHandler handler)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	getList(path, handler, false);
+    }
+
     /**
      * get a long-style listing of files in the current directory. NOTE: this
      * calls the list() method internally with the "." path.
@@ -474,67 +575,94 @@ public class FtpClient extends FtpClientProtocol implements
      */
     public synchronized Vector getNameList(String path) throws IOException,
 	    ServerResponseException, FileNotFoundException {
-	Vector filenames = new Vector();
-	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-	Getter sparky;
+	final Vector filenames = new Vector();
+	getNameList(path, new ListingHandler() {
+	    public void entry(String entry) {
+		filenames.addElement(entry);
+	    }
+	});
+	return filenames;
+    }
+
+    /**
+     * get name list of files in the given directory, passing each filename
+     * to the handler while the list is transferred instead of keeping the
+     * whole list in memory.
+     * 
+     * @param path
+     *                the path of the directory that we want the name list of
+     * @param handler
+     *                the handler receiving the filenames
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception ServerResponseException
+     *                    the server reported an error
+     * @exception FileNotFoundException
+     *                    the requested path does not exist
+     */
+    public synchronized void getNameList(String path, ListingHandler handler)
+	    throws IOException, ServerResponseException, FileNotFoundException {
+	getList(path, handler, true);
+    }
+
+    /**
+     * transfer a listing into a ListingOutputStream.
+     */
+    private void getList(String path, ListingHandler handler, boolean namelist)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	ListingOutputStream listing = new ListingOutputStream(handler,
+		getCharacterEncoding(), false);
+	Getter getter;
 
 	if (passive == true) {
 	    // do passive style transfers
 	    if (connection == null) {
 		connection = new PassiveConnection(pasv());
 	    }
-	    sparky = new PassiveGetter(buffer, connection);
+	    getter = new PassiveGetter(listing, connection);
 	} else {
-	    ActiveGetter aget = new ActiveGetter(buffer);
+	    ActiveGetter aget = new ActiveGetter(listing);
 	    // tell server which port we'll listen on
 	    port(getInetAddress(), aget.getPort());
-	    sparky = aget;
+	    getter = aget;
 	}
 
 	// start transfer
-	sparky.addConnectionListeners(connectionListeners);
-	sparky.addTransferListeners(transferListeners);
-	sparky.start();
+	getter.addConnectionListeners(connectionListeners);
+	getter.addTransferListeners(transferListeners);
+	getter.setExecutor(transferExecutor);
+	getter.setGovernor(transferGovernor, transferWeight);
+	getter.start();
 
-	// initiate the nlst command...
+	// start the listing ...
 	try {
-	    nlst(path);
+	    if (namelist)
+		nlst(path);
+	    else
+		list(path);
 	} catch (FileNotFoundException fnfe) {
-	    sparky.cancel();
+	    getter.cancel();
 	    throw fnfe;
 	} catch (IOException ioe) {
-	    sparky.cancel();
+	    getter.cancel();
 	    throw ioe;
 	} catch (ServerResponseException sree) {
-	    sparky.cancel();
+	    getter.cancel();
 	    throw sree;
-	} catch (Exception e) {
-	    sparky.cancel();
-	    throw new ServerResponseException(e.getMessage());
 	} finally {
-	    // transfer complete
+	    // wait for thread to complete
 	    try {
-		sparky.join();
-	    } catch (InterruptedException ie) { /* it's ok */
+		getter.join();
+	    } catch (InterruptedException ie) { /* no error */
 	    }
+	    // a listing aborted by the handler has closed the data connection.
+	    if (connection != null && connection.getSocket().isClosed())
+		connection = null;
+	    // passes the last line on, rethrows a failure of the handler.
+	    listing.close();
 	}
 
 	connection = null;
-
-	// build file list
-	BufferedReader data = new BufferedReader(new InputStreamReader(
-		new ByteArrayInputStream(buffer.toByteArray()), getCharacterEncoding()));
-	boolean done = false;
-	while (!done) {
-	    String line = data.readLine();
-	    if (line == null) {
-		done = true;
-	    } else {
-		filenames.addElement(line);
-	    }
-	}
-
-	return filenames;
     }
 
     /**
@@ -572,6 +700,118 @@ public class FtpClient extends FtpClientProtocol implements
      */
     public synchronized void get(String path, OutputStream out)
 	    throws IOException, FileNotFoundException, ServerResponseException {
+	get(path, out, null, 0);
+    }
+
+    /**
+     * GET the named file into a local file, FTP style. The file is truncated
+     * first and, unless ASCII type or compressed mode is in effect, the data
+     * is written with FileChannel.transferFrom().
+     * 
+     * @param path
+     *                the name of the file to GET. This can be a full or partial
+     *                path.
+     * @param file
+     *                the local file to write the data to
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception ServerResponseException
+     *                    the server reported an error
+     * @exception FileNotFoundException
+     *                    the given path does not exist
+     */
+    public synchronized void get(String path, File file) throws IOException,
+	    FileNotFoundException, ServerResponseException {
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	try {
+	    out.setLength(0);
+	    get(path, out.getChannel());
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * GET the named file into a file channel, FTP style. Unless ASCII type or
+     * compressed mode is in effect, the data is written with
+     * FileChannel.transferFrom(). Writing starts at the current position of
+     * the channel, which is left at the end of the data. This allows to
+     * receive into a preallocated file or after a header. The channel is not
+     * closed.
+     * 
+     * @param path
+     *                the name of the file to GET. This can be a full or partial
+     *                path.
+     * @param channel
+     *                the channel to write the data to
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception ServerResponseException
+     *                    the server reported an error
+     * @exception FileNotFoundException
+     *                    the given path does not exist
+     */
+    public synchronized void get(String path, FileChannel channel)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	get(path, Channels.newOutputStream(channel), channel, 0);
+    }
+
+    /**
+     * GET the named file into a local file and continue interrupted transfers
+     * with REST. A partial local file from an earlier call is continued if it
+     * was written after the last modification of the remote file (MDTM),
+     * otherwise it is replaced. SIZE and MDTM are checked again before every
+     * retry and a remote file that has changed is downloaded from the start.
+     * Only works for image type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried. The partial file
+     * is kept, so calling this method again on a new connection continues
+     * the download.
+     * 
+     * @param path
+     *                the name of the file to GET. This can be a full or partial
+     *                path.
+     * @param file
+     *                the local file to write the data to
+     * @param retries
+     *                how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                    an IO error occurred or the transfer was still
+     *                    incomplete after the last retry
+     * @exception ServerResponseException
+     *                    the server reported an error
+     * @exception FileNotFoundException
+     *                    the given path does not exist
+     */
+    public synchronized void resumableGet(String path, File file, int retries)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	resumableTransfer().getFile(path, file, retries);
+    }
+
+    private ResumableTransfer resumableTransfer() {
+	return new ResumableTransfer(this) {
+	    protected void putAt(InputStream in, String pathname, long offset)
+		    throws IOException, ServerResponseException {
+		FtpClient.this.put(in, pathname, offset);
+	    }
+
+	    protected void getAt(String path, FileChannel channel, long offset)
+		    throws IOException, FileNotFoundException,
+		    ServerResponseException {
+		FtpClient.this.get(path, Channels.newOutputStream(channel),
+			channel, offset);
+	    }
+
+	    protected void transferInterrupted() {
+		if (connection != null && connection.getSocket().isClosed())
+		    connection = null;
+	    }
+	};
+    }
+
+    private void get(String path, OutputStream out, FileChannel channel,
+	    long offset) throws IOException, FileNotFoundException,
+	    ServerResponseException {
 	Getter get;
 	if (passive == true) {
 	    // do a passive transfer
@@ -589,10 +829,15 @@ public class FtpClient extends FtpClientProtocol implements
 	get.setType(fileType);
 	get.addConnectionListeners(connectionListeners);
 	get.addTransferListeners(transferListeners);
+	get.setExecutor(transferExecutor);
+	get.setGovernor(transferGovernor, transferWeight);
+	get.setChannel(channel);
 	get.start();
 
 	// start transmission
 	try {
+	    if (offset > 0)
+		rest(offset);
 	    retr(path);
 	} catch (FileNotFoundException fnfe) {
 	    get.cancel();
@@ -34,7 +34,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
@@ -43,16 +45,17 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.NoSuchElementException;
+import java.util.LinkedList;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+
 /**
  * This is the core implementation of the FTP client protocol, RFC0959. You
  * should be able to find the document via searches on the World Wide Web. At
@@ -88,8 +91,18 @@ public class FtpClientProtocol extends Object {
 
     protected int port; // port to use
 
+    /**
+     * reader over the control connection.
+     * 
+     * @deprecated replies are read with readReply(), reading from this
+     *             reader as well will mix up the replies.
+     */
     protected BufferedReader istream; // buffered input stream
 
+    protected ReplyDecoder decoder; // reads replies from the server
+
+    private final Reply reply = new Reply(); // the most recent reply
+
     protected OutputStreamWriter ostream; // output stream
 
     protected String greeting; // greeting string from server
@@ -108,6 +121,25 @@ public class FtpClientProtocol extends Object {
     
     // infinite.
 
+    protected ControlChannelReactor reactor = null; // null = blocking socket
+
+    protected CommandStatistics statistics = null; // null = disabled
+
+    protected SessionRecorder recorder = null; // null = disabled
+
+    protected Executor transferExecutor = null; // null = shared default
+
+    protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    protected boolean parallelCompression = false;
+
+    protected TransferGovernor transferGovernor = null; // null = shared default
+
+    protected int transferWeight = TransferGovernor.DEFAULT_WEIGHT;
+
+    // commands sent but not yet answered, only kept if statistics are enabled
+    private final LinkedList pendingCommands = new LinkedList();
+
     /**
      * @param socketTimeout
      *            timout in milliseconds.
@@ -123,6 +155,169 @@ public class FtpClientProtocol extends Object {
 	return socketTimeout;
     }
 
+    /**
+     * Sets the reactor used for the control connection. When a reactor is set
+     * the control connection is opened as a non-blocking channel serviced by
+     * the reactor's I/O thread instead of a plain blocking socket. This should
+     * be done before connecting to the server (i.e. before calling open()).
+     * 
+     * @param reactor
+     *            the reactor to use, or null for a blocking socket.
+     */
+    public void setReactor(ControlChannelReactor reactor) {
+	this.reactor = reactor;
+    }
+
+    /**
+     * @return the reactor used for the control connection, or null.
+     */
+    public ControlChannelReactor getReactor() {
+	return reactor;
+    }
+
+    /**
+     * Sets the statistics that record the latency of every command sent on
+     * this connection. The same statistics may be shared by several
+     * connections.
+     * 
+     * @param statistics
+     *            the statistics to record to, or null to disable recording.
+     */
+    public void setStatistics(CommandStatistics statistics) {
+	this.statistics = statistics;
+	if (statistics == null) {
+	    synchronized (pendingCommands) {
+		pendingCommands.clear();
+	    }
+	}
+    }
+
+    /**
+     * @return the statistics recorded for this connection, or null.
+     */
+    public CommandStatistics getStatistics() {
+	return statistics;
+    }
+
+    /**
+     * Sets the recorder that logs the exchange on the control connection. This
+     * should be done before connecting to the server (i.e. before calling
+     * open()).
+     * 
+     * @param recorder
+     *            the recorder to use, or null to disable recording.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+	this.recorder = recorder;
+    }
+
+    /**
+     * @return the recorder of the control connection, or null.
+     */
+    public SessionRecorder getRecorder() {
+	return recorder;
+    }
+
+    /**
+     * Sets the executor that runs the data transfers of this connection.
+     * Several connections may share one executor, the default is
+     * TransferExecutor.getDefault().
+     * 
+     * @param executor
+     *            the executor to use, or null for the shared default.
+     */
+    public void setTransferExecutor(Executor executor) {
+	this.transferExecutor = executor;
+    }
+
+    /**
+     * @return the executor set for the data transfers, or null.
+     */
+    public Executor getTransferExecutor() {
+	return transferExecutor;
+    }
+
+    /**
+     * Sets the compression level of uploads in MODE_ZLIB.
+     * 
+     * @param level
+     *            the level from 0 to 9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setCompressionLevel(int level) {
+	if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+	    throw new IllegalArgumentException("Invalid compression level "
+		    + level);
+	this.compressionLevel = level;
+    }
+
+    /**
+     * @return the compression level of uploads in MODE_ZLIB.
+     */
+    public int getCompressionLevel() {
+	return compressionLevel;
+    }
+
+    /**
+     * Enables compressing uploads in MODE_ZLIB on several threads, see
+     * ParallelDeflaterOutputStream. Ignored where the runtime does not
+     * support it.
+     * 
+     * @param parallel
+     *            true to compress on several threads
+     */
+    public void setParallelCompression(boolean parallel) {
+	this.parallelCompression = parallel;
+    }
+
+    /**
+     * @return true if uploads in MODE_ZLIB are compressed on several threads.
+     */
+    public boolean isParallelCompression() {
+	return parallelCompression;
+    }
+
+    /**
+     * Sets the governor that limits the bandwidth of the data transfers of
+     * this connection. Several connections may share one governor, the
+     * default is TransferGovernor.getDefault().
+     * 
+     * @param governor
+     *            the governor to use, or null for the shared default.
+     */
+    public void setTransferGovernor(TransferGovernor governor) {
+	this.transferGovernor = governor;
+    }
+
+    /**
+     * @return the governor set for the data transfers, or null.
+     */
+    public TransferGovernor getTransferGovernor() {
+	return transferGovernor;
+    }
+
+    /**
+     * Sets the weight of the data transfers of this connection. While
+     * transfers wait for bandwidth each gets a part in proportion to its
+     * weight, so connections submitting interactive faxes should have a
+     * higher weight than those sending bulk jobs.
+     * 
+     * @param weight
+     *            the weight, at least 1
+     */
+    public void setTransferWeight(int weight) {
+	if (weight < 1)
+	    throw new IllegalArgumentException("Invalid transfer weight "
+		    + weight);
+	this.transferWeight = weight;
+    }
+
+    /**
+     * @return the weight of the data transfers of this connection.
+     */
+    public int getTransferWeight() {
+	return transferWeight;
+    }
+
     // public static stuff
 
     /**
@@ -223,16 +418,13 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> user " + username);
 
 	// make sure command is accepted
-	String response = readResponse(istream); // read a multi-line
-	// response
-	log.debug(response);
-	String temp = new String(response.substring(0, 3));
-	if (temp.equals("230")) {
+	Reply reply = readReply();
+	if (reply.getCode() == 230) {
 	    return false;
-	} else if (temp.equals("331")) {
+	} else if (reply.getCode() == 331) {
 	    return true; // password required, see pass()
 	} else {
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -255,13 +447,9 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> pass");
 
 	// make sure command is accepted
-	String response = readResponse(istream);
-
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response, " -");
-	if (!st.nextToken().equals("230")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 230) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -280,12 +468,9 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> noop");
 
 	// make sure command is accepted
-	String response = readResponse(istream);
-	log.debug(response);
-
-	String temp = new String(response.substring(0, 3));
-	if (!temp.equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -305,17 +490,15 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> pwd");
 
 	// check reply string
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// Grab response code
-	String temp = new String(response.substring(0, 3));
-	if (!temp.equals("257")) {
+	if (reply.getCode() != 257) {
 	    // server didn't like command
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 	// get value of current directory
-	StringTokenizer st = new StringTokenizer(response, "\"");
+	StringTokenizer st = new StringTokenizer(reply.getLine(0), "\"");
 	st.nextToken();
 	return st.nextToken();
     }
@@ -338,14 +521,12 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> cwd " + value);
 
 	// get reply
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// get response code
-	String temp = response.substring(0, 3);
-	if (!"250".equals(temp)) {
+	if (reply.getCode() != 250) {
 	    // failed to change directories (probably doesn't exist)
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -364,13 +545,11 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> cdup");
 
 	// get reply
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// get response code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("250")) {
-	    throw (new ServerResponseException(response));
+	if (reply.getCode() != 250) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -390,18 +569,15 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> idle");
 
 	// get response string
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("213")) {
+	if (reply.getCode() != 213) {
 	    // command failed for some reason
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 	// get the data to return
-	Long l = new Long(st.nextToken());
-	return l.longValue();
+	return reply.getNumber();
     }
 
     /**
@@ -422,14 +598,12 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> idle " + timeout);
 
 	// get reply
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check result code
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("213")) {
+	if (reply.getCode() != 213) {
 	    // command failed
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -449,11 +623,9 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> dele " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("250")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 250) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -496,12 +668,9 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> type " + value);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 	fileType = value;
     }
@@ -556,12 +725,9 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> mode " + value);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -578,12 +744,9 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> abor");
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("225")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 225) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -604,12 +767,9 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> abor " + modem);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("225")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 225) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -651,12 +811,9 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> " + str + " (" + addr.replace(',', '.') + ":" + newPort
 		+ ")");
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -673,8 +830,6 @@ public class FtpClientProtocol extends Object {
     public synchronized String stot(InputStream data) throws IOException,
 	    ServerResponseException {
 	String filename;
-	String response;
-	StringTokenizer st;
 
 	// send stot command to server
 	ostream.write("stot\r\n");
@@ -683,26 +838,19 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> stot");
 
 	// get results
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("150")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
-	st.nextToken(); // ignore 'FILE:' string
-	filename = new String(st.nextToken()); // get filename value
+	filename = reply.getToken(2); // get filename value, skip 'FILE:'
 
 	// transfering ...
 
 	// next line tells us transfer completed
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("226")) {
+	reply = readReply();
+	if (reply.getCode() != 226) {
 	    // some sort of error
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	return filename;
@@ -720,8 +868,6 @@ public class FtpClientProtocol extends Object {
     public synchronized String stou(InputStream in) throws IOException,
 	    ServerResponseException {
 	String filename;
-	String response;
-	StringTokenizer st;
 
 	// send stou command to server
 	ostream.write("stou\r\n");
@@ -730,26 +876,19 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> stou");
 
 	// get results
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("150")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
-	st.nextToken(); // ignore 'FILE:' string
-	filename = new String(st.nextToken()); // get filename value
+	filename = reply.getToken(2); // get filename value, skip 'FILE:'
 
 	// transfering ...
 
 	// next line tell us transfer completed
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("226")) {
+	reply = readReply();
+	if (reply.getCode() != 226) {
 	    // some sort of error
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	return filename;
@@ -774,21 +913,17 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> stor " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("150")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// transfer is happening
 
 	// next line should indicate transfer is complete
-	response = readResponse(istream);
-	log.debug(response);
-
-	if (!response.substring(0, 3).equals("226")) {
-	    throw (new ServerResponseException(response));
+	reply = readReply();
+	if (reply.getCode() != 226) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// done
@@ -812,16 +947,13 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> syst");
 
 	// get response
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("215")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 215) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// get string to return
-	return response.substring(4);
+	return reply.getMessage();
     }
 
     // stru values
@@ -865,12 +997,9 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> stru " + value);
 
 	// check response
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("200")) {
-	    throw (new ServerResponseException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 200) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -909,34 +1038,27 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> " + command);
 
 	// get response
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response
-	StringTokenizer st = new StringTokenizer(response);
-	String result_code;
-	try {
-	    result_code = st.nextToken();
-	    if (!result_code.equals("150")) {
-		if (result_code.equals("550")) {
-		    // "No such file or directory"
-		    throw (new FileNotFoundException(response));
-		}
-		throw (new ServerResponseException(response));
+	if (reply.getCode() != 150) {
+	    if (reply.getCode() == 550) {
+		// "No such file or directory"
+		throw (new FileNotFoundException(reply.toString()));
 	    }
+	    if (reply.getCode() < 0) {
+		throw new ServerResponseException("No code found in response: \""
+			+ reply + "\"");
+	    }
+	    throw (new ServerResponseException(reply.toString()));
+	}
 
-	    // transferring ...
-
-	    // next line of response
-	    response = readResponse(istream);
-	    log.debug(response);
+	// transferring ...
 
-	    st = new StringTokenizer(response);
-	    if (!st.nextToken().equals("226")) {
-		throw (new ServerResponseException(response));
-	    }
-	} catch (NoSuchElementException e) {
-	    throw new ServerResponseException("No code found in response: \"" + response + "\"", e);
+	// next line of response
+	reply = readReply();
+	if (reply.getCode() != 226) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -993,28 +1115,21 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> " + command);
 
 	// check response
-	String response = readResponse(istream);
-	log.debug(response);
-
-	// check response
-	String result_code = response.substring(0, 3);
-	if (!"150".equals(result_code)) {
-	    if ("550".equals(result_code)) {
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    if (reply.getCode() == 550) {
 		// file not found - "no such file or directory"
-		throw (new FileNotFoundException(response));
+		throw (new FileNotFoundException(reply.toString()));
 	    }
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// transferring...
 
 	// check next line of response
-	response = readResponse(istream);
-	log.debug(response);
-
-	result_code = response.substring(0, 3);
-	if (!"226".equals(result_code)) {
-	    throw (new ServerResponseException(response));
+	reply = readReply();
+	if (reply.getCode() != 226) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// transfer complete
@@ -1051,9 +1166,6 @@ public class FtpClientProtocol extends Object {
      */
     public synchronized void retr(String path) throws IOException,
 	    FileNotFoundException, ServerResponseException {
-	String response;
-	StringTokenizer st;
-
 	// send retr command to server
 	ostream.write("retr " + path + "\r\n");
 	ostream.flush();
@@ -1061,29 +1173,47 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> retr " + path);
 
 	// get results
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	String code = st.nextToken();
-	if (!code.equals("150")) {
-	    if (code.equals("550")) {
+	Reply reply = readReply();
+	if (reply.getCode() != 150) {
+	    if (reply.getCode() == 550) {
 		// path not found
-		throw (new FileNotFoundException(response));
+		throw (new FileNotFoundException(reply.toString()));
 	    }
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// transfering ...
 
 	// next line tells us transfer completed
-	response = readResponse(istream);
-	log.debug(response);
-
-	st = new StringTokenizer(response);
-	if (!st.nextToken().equals("226")) {
+	reply = readReply();
+	if (reply.getCode() != 226) {
 	    // some sort of error
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
+	}
+    }
+
+    /**
+     * set the restart offset of the next RETR or STOR command. The server
+     * sends the file starting at the offset or writes the data to the file
+     * starting at the offset. Only meaningful for image type transfers in
+     * stream mode.
+     * 
+     * @param offset
+     *            the offset in bytes
+     * @exception IOException
+     *                caused by a socket IO error
+     * @exception ServerResponseException
+     *                caused by a server response indicating an error
+     */
+    public synchronized void rest(long offset) throws IOException,
+	    ServerResponseException {
+	ostream.write("rest " + offset + "\r\n");
+	ostream.flush();
+	log.debug("-> rest " + offset);
+
+	Reply reply = readReply();
+	if (reply.getCode() != 350) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
     }
 
@@ -1107,19 +1237,15 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> size " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	String return_code = st.nextToken();
-	if (!return_code.equals("213")) {
-	    if (return_code.equals("550")) {
-		throw (new FileNotFoundException(response));
+	Reply reply = readReply();
+	if (reply.getCode() != 213) {
+	    if (reply.getCode() == 550) {
+		throw (new FileNotFoundException(reply.toString()));
 	    }
-	    throw (new ServerResponseException(response));
+	    throw (new ServerResponseException(reply.toString()));
 	}
 	// get file size from response
-	return Long.parseLong(st.nextToken());
+	return reply.getNumber();
     }
 
     public final static String MDTM_TIME_FORMAT1 = "yyyyMMddHHmmss.SSS";
@@ -1155,19 +1281,15 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> mdtm " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	String return_code = st.nextToken();
-	if (!return_code.equals("213")) {
-	    if (return_code.equals("550")) {
-		throw new FileNotFoundException(response);
+	Reply reply = readReply();
+	if (reply.getCode() != 213) {
+	    if (reply.getCode() == 550) {
+		throw new FileNotFoundException(reply.toString());
 	    }
-	    throw new ServerResponseException(response);
+	    throw new ServerResponseException(reply.toString());
 	}
 
-	String time = st.nextToken();
+	String time = reply.getToken(1);
 	SimpleDateFormat sdf;
 	if (time.indexOf('.') == -1) {
 	    // no '.', using format2
@@ -1204,16 +1326,12 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> rnfr " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	String return_code = st.nextToken();
-	if (!return_code.equals("350")) {
-	    if (return_code.equals("550")) {
-		throw new FileNotFoundException(response);
+	Reply reply = readReply();
+	if (reply.getCode() != 350) {
+	    if (reply.getCode() == 550) {
+		throw new FileNotFoundException(reply.toString());
 	    }
-	    throw new ServerResponseException(response);
+	    throw new ServerResponseException(reply.toString());
 	}
 	return;
     }
@@ -1236,19 +1354,13 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> rnto " + pathname);
 
-	String response = readResponse(istream);
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response);
-	String return_code = st.nextToken();
-	if (!return_code.equals("250")) {
-	    throw new ServerResponseException(response);
+	Reply reply = readReply();
+	if (reply.getCode() != 250) {
+	    throw new ServerResponseException(reply.toString());
 	}
 	return;
     }
 
-    static final Pattern responsePattern = Pattern.compile("(\\d{3})(.)\\s*(.*)");
-    
     /**
      * Returns the status of the named file or directory.
      * 
@@ -1276,70 +1388,18 @@ public class FtpClientProtocol extends Object {
 	ostream.flush();
 	log.debug("-> " + command);
 
-	String response = istream.readLine();
-	log.debug(response);
-
-	StringTokenizer st = new StringTokenizer(response, "- ");
-	String return_code = st.nextToken();
-	String remainder = response.substring(4);
-	if (return_code.equals("550")) {
-	    throw new FileNotFoundException(remainder);
+	Reply reply = readReply();
+	if (reply.getCode() == 550) {
+	    throw new FileNotFoundException(reply.getMessage());
 	}
-	if (!return_code.equals("211")) {
-	    if (response.charAt(3) == '-') {
-		// it's a multi-line response, read the whole response
-		String first_token;
-		boolean done = false;
-		while (!done) {
-		    response = istream.readLine();
-		    if (response == null) {
-			// end of input, bail
-			done = true;
-		    } else {
-			log.debug(response);
-			remainder = remainder + "\n" + response;
-			Matcher m = responsePattern.matcher(response);
-			if (m.matches()) {
-			    first_token = m.group(1);
-			    if (return_code.equals(first_token)) {
-				// last line, we're done
-				done = true;
-			    }
-			}
-		    }
-		}
-	    }
+	if (reply.getCode() != 211) {
 	    // now indicate a protocol error
-	    throw new ServerResponseException(remainder);
+	    throw new ServerResponseException(reply.toString());
 	}
-	// read and return the server reply
+	// return the server reply without the first and last line
 	Vector status = new Vector();
-	if (response.charAt(3) == '-') {
-	    // it's a multi-line response, read the whole response
-	    String first_token;
-	    boolean done = false;
-	    while (!done) {
-		response = istream.readLine();
-		if (response == null) {
-		    // end of input, bail
-		    done = true;
-		} else {
-		    log.debug(response);
-
-		    Matcher m = responsePattern.matcher(response);
-		    if (m.matches()) {
-			first_token = m.group(1);
-			if (return_code.equals(first_token)) {
-			    // last line, we're done
-			    done = true;
-			} else {
-			    status.addElement(response);
-			}
-		    } else {
-			status.addElement(response);
-		    } 
-		}
-	    }
+	for (int i = 1; i < reply.getLineCount() - 1; i++) {
+	    status.addElement(reply.getLine(i));
 	}
 	return status;
     }
@@ -1376,24 +1436,22 @@ public class FtpClientProtocol extends Object {
 	log.debug("-> pasv");
 
 	// get reply
-	String response = readResponse(istream);
-	log.debug(response);
+	Reply reply = readReply();
 
 	// check response
-	StringTokenizer st = new StringTokenizer(response);
-	if (!st.nextToken().equals("227")) {
-	    throw (new ServerResponseException(response));
+	if (reply.getCode() != 227) {
+	    throw (new ServerResponseException(reply.toString()));
 	}
 
 	// get ip-address & port returned
-	st.nextToken("(,)");
-	String addr = new String(st.nextToken());
-	addr = addr + "." + st.nextToken();
-	addr = addr + "." + st.nextToken();
-	addr = addr + "." + st.nextToken();
-
-	int p = (((Integer.parseInt(st.nextToken()) << 8) & 0xff00) | (Integer
-		.parseInt(st.nextToken()) & 0x00ff));
+	int[] values = new int[6];
+	if (reply.getNumbers(values) < values.length) {
+	    throw (new ServerResponseException(reply.toString()));
+	}
+	String addr = values[0] + "." + values[1] + "." + values[2] + "."
+		+ values[3];
+
+	int p = (((values[4] << 8) & 0xff00) | (values[5] & 0x00ff));
 	return new PassiveParameters(addr, p);
 
     }
@@ -1414,12 +1472,9 @@ public class FtpClientProtocol extends Object {
 	    log.debug("-> quit");
 
 	    // make sure command is accepted
-	    String response = readResponse(istream);
-	    log.debug(response);
-
-	    String temp = new String(response.substring(0, 3));
-	    if (!temp.equals("221")) { // looking for 'Goodbye' message
-		throw (new ServerResponseException(response));
+	    Reply reply = readReply();
+	    if (reply.getCode() != 221) { // looking for 'Goodbye' message
+		throw (new ServerResponseException(reply.toString()));
 	    }
 	} finally {
 	    if (sock != null && !sock.isClosed()) {
@@ -1443,6 +1498,77 @@ public class FtpClientProtocol extends Object {
 
     // ***** protected methods *****
 
+    /**
+     * read the next (multi-line) reply from the server. The returned Reply is
+     * reused for every reply of this connection, it is only valid until the
+     * next call.
+     * 
+     * @exception IOException
+     *                an IO error occurred
+     * @return the reply
+     */
+    protected synchronized Reply readReply() throws IOException {
+	try {
+	    decoder.read(reply);
+	} catch (IOException e) {
+	    if (statistics != null) {
+		commandsFailed();
+	    }
+	    throw e;
+	}
+	if (log.isDebugEnabled()) {
+	    log.debug(reply);
+	}
+	if (statistics != null && !reply.isPreliminary()) {
+	    commandCompleted(reply.getCode() >= 400);
+	}
+	return reply;
+    }
+
+    /**
+     * remember the verb and start time of a command written to the server.
+     */
+    private void commandStarted(String command, int off, int len) {
+	int end = off;
+	int limit = off + len;
+	while (end < limit && command.charAt(end) != ' '
+		&& command.charAt(end) != '\r') {
+	    end++;
+	}
+	PendingCommand pending = new PendingCommand(command.substring(off, end)
+		.toLowerCase(), System.currentTimeMillis());
+	synchronized (pendingCommands) {
+	    pendingCommands.addLast(pending);
+	}
+    }
+
+    /**
+     * record the oldest pending command as answered.
+     */
+    private void commandCompleted(boolean error) {
+	PendingCommand pending;
+	synchronized (pendingCommands) {
+	    if (pendingCommands.isEmpty())
+		return; // the greeting or a reply we did not ask for
+	    pending = (PendingCommand) pendingCommands.removeFirst();
+	}
+	CommandStatistics target = statistics;
+	if (target != null) {
+	    target.record(pending.verb, System.currentTimeMillis()
+		    - pending.start, error);
+	}
+    }
+
+    /**
+     * record all pending commands as failed, their replies will never arrive.
+     */
+    private void commandsFailed() {
+	synchronized (pendingCommands) {
+	    while (!pendingCommands.isEmpty())
+		commandCompleted(true);
+	}
+    }
+
     /**
      * read a (multi-line) response
      * 
@@ -1451,6 +1577,7 @@ public class FtpClientProtocol extends Object {
      * @exception IOException
      *                an IO error occurred
      * @return the response in a Vector of Strings
+     * @deprecated use readReply()
      */
     protected synchronized String readResponse(BufferedReader input)
 	    throws IOException {
@@ -1575,42 +1702,100 @@ public class FtpClientProtocol extends Object {
 	if (inetAddress == null) {
 	    inetAddress = InetAddress.getByName(host);
 	}
-	// create and configure the socket.
-	sock = new Socket(inetAddress, portnumber);
-	sock.setSoTimeout(socketTimeout);
+	InputStream in;
+	OutputStream out;
+	if (reactor != null) {
+	    // let the reactor multiplex the control connection.
+	    ControlChannel channel = reactor.open(inetAddress, portnumber,
+		    socketTimeout);
+	    sock = channel.socket();
+	    in = channel.getInputStream();
+	    out = channel.getOutputStream();
+	} else {
+	    // create and configure the socket.
+	    sock = new Socket(inetAddress, portnumber);
+	    sock.setSoTimeout(socketTimeout);
+	    in = sock.getInputStream();
+	    out = sock.getOutputStream();
+	}
+
+	if (recorder != null) {
+	    in = recorder.wrapInput(in);
+	    out = recorder.wrapOutput(out);
+	}
 
 	// open streams for input and output to server
-	istream = new BufferedReader(new InputStreamReader(sock
+	decoder = new ReplyDecoder(in);
+	decoder.setEncoding(getCharacterEncoding());
+	istream = new BufferedReader(new InputStreamReader(decoder
 		.getInputStream(), getCharacterEncoding()));
 
 	// for international users, the following MAY need to be changed
 	// to specify the "US-ASCII" encoding as the second parameter.
 	// someone will need to test this, hint hint
-	ostream = new OutputStreamWriter(sock.getOutputStream(), getCharacterEncoding());
+	ostream = new CommandWriter(out, getCharacterEncoding());
+	synchronized (pendingCommands) {
+	    pendingCommands.clear();
+	}
 
 	// get greeting line(s) of text from server
-	greeting = readResponse(istream);
-
-	// make sure response starts with "220" before continuing
-	String temp = new String(greeting.substring(0, 3));
+	Reply reply = readReply();
 
 	// Log any connect warnings from hfaxd.
 	// There are two specifically we know are possibilities.
 	// 1. 130 Warning, no inverse address mapping for client host name
 	// 2. 130 Warning, client address is not listed for host name
-	while (temp.equals("130")) {
-	    log.warn(greeting);
-	    greeting = readResponse(istream);
-	    temp = new String(greeting.substring(0, 3));
+	while (reply.getCode() == 130) {
+	    log.warn(reply);
+	    reply = readReply();
 	}
+	greeting = reply.getText();
 
-	if (!temp.equals("220")) {
+	// make sure response starts with "220" before continuing
+	if (reply.getCode() != 220) {
 	    throw (new ServerResponseException(greeting));
 	}
 
 	port = portnumber;
     }
 
-}
+    /**
+     * a command waiting for its reply.
+     */
+    private static class PendingCommand {
+
+	final String verb;
+
+	final long start;
+
+	PendingCommand(String verb, long start) {
+	    this.verb = verb;
+	    this.start = start;
+	}
+    }
 
-// FtpClientProtocol.java
+    /**
+     * the writer for the control connection. Notes the start of each command
+     * line if statistics are enabled.
+     */
+    private class CommandWriter extends OutputStreamWriter {
+
+	private boolean lineStart = true;
+
+	CommandWriter(OutputStream out, String encoding)
+		throws UnsupportedEncodingException {
+	    super(out, encoding);
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+	    if (statistics != null && lineStart && len > 0) {
+		commandStarted(str, off, len);
+	    }
+	    if (len > 0) {
+		lineStart = str.charAt(off + len - 1) == '\n';
+	    }
+	    super.write(str, off, len);
+	}
+    }
+
+}
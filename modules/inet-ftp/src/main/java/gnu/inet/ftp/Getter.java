@@ -20,23 +20,44 @@
 //
 package gnu.inet.ftp;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
 import java.util.Vector;
 
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+
 /**
  * This class serves as a superclass to the ActiveGetter and PassiveGetter
  * classes, providing a common interface and data members.
  * <P>
  * This class is used internally to the FtpClient class.
+ * <P>
+ * Getters are no longer Threads: start() runs them on the transfer executor
+ * of the client. Code that used Thread methods such as setDaemon() or
+ * setName() on a Getter has to be changed.
  */
-public class Getter extends Thread implements ConnectionEventSource,
+public class Getter implements Runnable, ConnectionEventSource,
 		TransferEventSource {
 
 	public static final int BUFFER_SIZE = 1024;
 
+	/**
+	 * the largest amount handed to FileChannel.transferFrom() at once,
+	 * progress is signalled and cancel() is checked after each chunk.
+	 */
+	public static final int CHANNEL_CHUNK_SIZE = 256 * 1024;
+
 	protected OutputStream ostream;
 
+	protected FileChannel channel = null;
+
 	protected boolean cancelled = false;
 
 	protected Vector connectionListeners;
@@ -47,11 +68,23 @@ public class Getter extends Thread implements ConnectionEventSource,
 
 	protected char type;
 
+	protected TransferGovernor governor = null;
+
+	protected int weight = TransferGovernor.DEFAULT_WEIGHT;
+
+	private Executor executor = null;
+
+	private Thread worker = null;
+
+	// the data connection while transferFile() is running.
+	private SocketChannel dataChannel = null;
+
+	private boolean running = false;
+
 	/**
 	 * set the Getter initial state with debugging disabled.
 	 */
 	public Getter() {
-		super();
 		this.cancelled = false;
 		this.connectionListeners = new Vector();
 		this.transferListeners = new Vector();
@@ -73,6 +106,19 @@ public class Getter extends Thread implements ConnectionEventSource,
 		this.ostream = ostream;
 	}
 
+	/**
+	 * set a file channel to write the data to instead of the OutputStream.
+	 * The data is written at the current position of the channel, which is
+	 * left at the end of the data received. The OutputStream is only used if
+	 * the data can not be received with FileChannel.transferFrom().
+	 * 
+	 * @param channel
+	 *            the channel to write to, null to use the OutputStream
+	 */
+	public synchronized void setChannel(FileChannel channel) {
+		this.channel = channel;
+	}
+
 	/**
 	 * set the mode value
 	 * 
@@ -108,9 +154,240 @@ public class Getter extends Thread implements ConnectionEventSource,
 		}
 	}
 
-	public synchronized void start() {
-		this.cancelled = false; // Reset cancelled flag here and not in run!
-		super.start();
+	/**
+	 * set the executor that runs the transfer.
+	 * 
+	 * @param executor
+	 *            the executor to run the transfer on, null for
+	 *            TransferExecutor.getDefault()
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * set the governor that limits the bandwidth of the transfer.
+	 * 
+	 * @param governor
+	 *            the governor to acquire bandwidth from, null for
+	 *            TransferGovernor.getDefault()
+	 * @param weight
+	 *            the weight of the transfer, see TransferGovernor
+	 */
+	public synchronized void setGovernor(TransferGovernor governor,
+			int weight) {
+		this.governor = governor;
+		this.weight = weight;
+	}
+
+	/**
+	 * hand the transfer to the executor. Blocks while the executor has no
+	 * free thread.
+	 * 
+	 * @exception IllegalStateException
+	 *                the transfer is already running or could not be started
+	 */
+	public void start() {
+		Executor executor;
+		synchronized (this) {
+			if (running)
+				throw new IllegalStateException("Transfer already running");
+			this.cancelled = false; // Reset cancelled flag here and not in run!
+			running = true;
+			executor = this.executor == null ? TransferExecutor.getDefault()
+					: this.executor;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					synchronized (Getter.this) {
+						worker = Thread.currentThread();
+					}
+					try {
+						Getter.this.run();
+					} finally {
+						synchronized (Getter.this) {
+							worker = null;
+							running = false;
+							// don't leave a pending cancel on the pooled thread.
+							Thread.interrupted();
+							Getter.this.notifyAll();
+						}
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				running = false;
+				notifyAll();
+			}
+			throw new IllegalStateException("Interrupted starting transfer");
+		}
+	}
+
+	/**
+	 * transfer data, implemented by the subclasses.
+	 */
+	public void run() {
+	}
+
+	/**
+	 * interrupt the thread running the transfer, if any. While
+	 * transferFile() is running the data connection is closed instead, an
+	 * interrupt would also close the file channel of the caller.
+	 */
+	public synchronized void interrupt() {
+		if (dataChannel != null) {
+			try {
+				// closing alone does not wake a thread blocked in the
+				// transfer.
+				dataChannel.socket().shutdownInput();
+			} catch (IOException e) {
+				// closed already.
+			}
+			try {
+				dataChannel.close();
+			} catch (IOException e) {
+				// the transfer fails anyway.
+			}
+		} else if (worker != null)
+			worker.interrupt();
+	}
+
+	/**
+	 * @return true if the transfer has been started and has not finished yet.
+	 */
+	public synchronized boolean isAlive() {
+		return running;
+	}
+
+	/**
+	 * wait for the transfer to finish.
+	 * 
+	 * @exception InterruptedException
+	 *                the calling thread was interrupted
+	 */
+	public void join() throws InterruptedException {
+		join(0);
+	}
+
+	/**
+	 * wait for the transfer to finish.
+	 * 
+	 * @param millis
+	 *            the maximum time to wait, 0 to wait forever
+	 * @exception InterruptedException
+	 *                the calling thread was interrupted
+	 */
+	public synchronized void join(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		while (running) {
+			if (millis == 0) {
+				wait();
+			} else {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					break;
+				wait(wait);
+			}
+		}
+	}
+
+	/**
+	 * get the share of the bandwidth of this transfer.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @return the share, null if the transfer is not limited
+	 */
+	protected TransferGovernor.Share share(Socket sock) {
+		TransferGovernor governor = this.governor == null ? TransferGovernor
+				.getDefault() : this.governor;
+		return governor == null ? null : governor.share(sock
+				.getInetAddress(), weight);
+	}
+
+	/**
+	 * get the stream of the data connection, limited by the governor.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @exception IOException
+	 *                an IO error occurred
+	 * @return a stream reading from the data connection
+	 */
+	protected InputStream getInputStream(Socket sock) throws IOException {
+		TransferGovernor.Share share = share(sock);
+		return share == null ? sock.getInputStream() : share.limit(sock
+				.getInputStream());
+	}
+
+	/**
+	 * check whether the data can be received with FileChannel.transferFrom(),
+	 * that is a channel has been set or the output is a file, the socket has
+	 * a channel and neither ASCII translation nor compression is in effect.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @return true if transferFile() can be used
+	 */
+	protected boolean isFileTransfer(Socket sock) {
+		return (channel != null || ostream instanceof FileOutputStream)
+				&& sock.getChannel() != null
+				&& type != FtpClientProtocol.TYPE_ASCII
+				&& mode == FtpClientProtocol.MODE_STREAM;
+	}
+
+	/**
+	 * receive the data into the file channel, or the channel of the output
+	 * file, without copying it through a buffer.
+	 * 
+	 * @param source
+	 *            the channel of the data connection
+	 * @exception IOException
+	 *                an IO error occurred
+	 * @return the number of bytes received
+	 */
+	protected long transferFile(SocketChannel source) throws IOException {
+		FileChannel file = channel != null ? channel
+				: ((FileOutputStream) ostream).getChannel();
+		boolean interrupted;
+		synchronized (this) {
+			dataChannel = source;
+			// an interrupt from a cancel() before the transfer would close
+			// the file channel.
+			interrupted = Thread.interrupted();
+		}
+		long position = file.position();
+		long amount = 0;
+		TransferGovernor.Share share = share(source.socket());
+		try {
+			while (!cancelled) {
+				int chunk = share == null ? CHANNEL_CHUNK_SIZE : share
+						.acquire(CHANNEL_CHUNK_SIZE);
+				// returns 0 at the end of the data on a blocking channel.
+				long count = file.transferFrom(source, position, chunk);
+				if (share != null)
+					share.refund(chunk - (int) Math.max(0, count));
+				if (count <= 0)
+					break;
+				position += count;
+				amount += count;
+				signalTransfered(amount);
+			}
+		} catch (AsynchronousCloseException e) {
+			if (!cancelled)
+				throw e;
+		} finally {
+			synchronized (this) {
+				dataChannel = null;
+				interrupted |= Thread.interrupted();
+			}
+			file.position(position);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		return amount;
 	}
 
 	/**
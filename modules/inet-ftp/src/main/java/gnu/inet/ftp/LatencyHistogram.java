@@ -0,0 +1,211 @@
+// LatencyHistogram.java - a constant size histogram of durations
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+/**
+ * A histogram of durations in milliseconds with a fixed number of buckets.
+ * Values below 16 are counted exactly, larger values are counted in 8 buckets
+ * per power of two, so percentiles are accurate to within 12.5%. Recording a
+ * value never allocates memory.
+ * <P>
+ * A histogram calling decay() at a fixed interval weighs recent values more
+ * than old ones, with that interval as half-life, and describes the current
+ * behaviour of a long running process rather than its whole history.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+
+    private static final int BUCKETS = 29 * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count = 0;
+
+    private long errors = 0;
+
+    private long sum = 0;
+
+    private long max = 0;
+
+    /**
+     * add a value to the histogram.
+     *
+     * @param millis
+     *            the duration in milliseconds, negative values count as 0
+     * @param error
+     *            true if the value belongs to a failed operation
+     */
+    public synchronized void record(long millis, boolean error) {
+	if (millis < 0)
+	    millis = 0;
+	if (millis > Integer.MAX_VALUE)
+	    millis = Integer.MAX_VALUE;
+	buckets[index(millis)]++;
+	count++;
+	sum += millis;
+	if (millis > max)
+	    max = millis;
+	if (error)
+	    errors++;
+    }
+
+    /**
+     * add the values of another histogram to this one.
+     *
+     * @param other
+     *            the histogram to add, it is not changed
+     */
+    public void add(LatencyHistogram other) {
+	LatencyHistogram values = other.copy();
+	synchronized (this) {
+	    for (int i = 0; i < BUCKETS; i++)
+		buckets[i] += values.buckets[i];
+	    count += values.count;
+	    errors += values.errors;
+	    sum += values.sum;
+	    if (values.max > max)
+		max = values.max;
+	}
+    }
+
+    /**
+     * @return a copy of this histogram.
+     */
+    public synchronized LatencyHistogram copy() {
+	LatencyHistogram copy = new LatencyHistogram();
+	System.arraycopy(buckets, 0, copy.buckets, 0, BUCKETS);
+	copy.count = count;
+	copy.errors = errors;
+	copy.sum = sum;
+	copy.max = max;
+	return copy;
+    }
+
+    /**
+     * halve the weight of the values recorded so far. The maximum becomes
+     * the largest value still counted.
+     */
+    public synchronized void decay() {
+	long total = 0;
+	int highest = -1;
+	for (int i = 0; i < BUCKETS; i++) {
+	    buckets[i] >>= 1;
+	    total += buckets[i];
+	    if (buckets[i] > 0)
+		highest = i;
+	}
+	sum = count == 0 ? 0 : (long) (sum * ((double) total / count));
+	count = total;
+	errors = Math.min(errors >> 1, count);
+	max = highest < 0 ? 0 : Math.min(upperBound(highest), max);
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public synchronized long getCount() {
+	return count;
+    }
+
+    /**
+     * @return the number of values recorded as errors.
+     */
+    public synchronized long getErrors() {
+	return errors;
+    }
+
+    /**
+     * @return the largest recorded value.
+     */
+    public synchronized long getMax() {
+	return max;
+    }
+
+    /**
+     * @return the average of the recorded values or 0 if there are none.
+     */
+    public synchronized long getMean() {
+	return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * get the value below which the given percentage of the recorded values
+     * fall, i.e. getPercentile(99) for the 99th percentile.
+     *
+     * @param percent
+     *            the percentage, 0 to 100
+     * @return the upper bound of the bucket containing the percentile or 0 if
+     *         there are no values.
+     */
+    public synchronized long getPercentile(double percent) {
+	if (count == 0)
+	    return 0;
+	long target = (long) Math.ceil(count * Math.min(100, percent) / 100);
+	if (target < 1)
+	    target = 1;
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += buckets[i];
+	    if (seen >= target)
+		return Math.min(upperBound(i), max);
+	}
+	return max;
+    }
+
+    /**
+     * remove all values.
+     */
+    public synchronized void reset() {
+	for (int i = 0; i < BUCKETS; i++)
+	    buckets[i] = 0;
+	count = 0;
+	errors = 0;
+	sum = 0;
+	max = 0;
+    }
+
+    public synchronized String toString() {
+	return "count=" + count + " errors=" + errors + " p50="
+		+ getPercentile(50) + " p99=" + getPercentile(99) + " max="
+		+ max;
+    }
+
+    private static int index(long value) {
+	int shift = 0;
+	while (value >= 2 * SUB_BUCKETS) {
+	    value >>= 1;
+	    shift++;
+	}
+	return shift * SUB_BUCKETS + (int) value;
+    }
+
+    private static long upperBound(int index) {
+	if (index < 2 * SUB_BUCKETS)
+	    return index;
+	int shift = index / SUB_BUCKETS - 1;
+	long value = index - shift * SUB_BUCKETS;
+	return ((value + 1) << shift) - 1;
+    }
+
+}
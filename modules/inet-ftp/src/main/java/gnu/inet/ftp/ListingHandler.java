@@ -0,0 +1,43 @@
+// ListingHandler.java - receives the entries of a directory listing
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+/**
+ * This describes the interface used to receive a listing entry by entry while
+ * it is transferred, see FtpClient.getList(String, ListingHandler).
+ * <P>
+ * The entries are passed in order on the thread running the data transfer,
+ * not on the thread that requested the listing. The client is busy until the
+ * listing is complete and must not be used from the handler. An exception
+ * thrown by the handler aborts the transfer and is rethrown to the thread
+ * that requested the listing.
+ */
+public interface ListingHandler {
+
+    /**
+     * Receives the next entry of the listing.
+     * 
+     * @param entry
+     *                the entry without the line terminator
+     */
+    void entry(String entry);
+
+}
@@ -0,0 +1,159 @@
+// ListingOutputStream.java - splits a listing into entries while it arrives
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decodes the output of LIST and NLST line by line as it is written and
+ * passes every line to a ListingHandler, so a listing of any length is
+ * processed with the memory of its longest line. Lines end with CR LF, LF or
+ * CR like for BufferedReader.readLine().
+ * <P>
+ * HylaFAX continues long entries on the next line with a trailing backslash.
+ * With continuations enabled the lines are trimmed and continued lines are
+ * joined with a blank before they are passed on.
+ * <P>
+ * An exception thrown by the handler is kept, the following writes fail and
+ * close() rethrows it.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ListingOutputStream extends OutputStream {
+
+    private final ListingHandler handler;
+
+    private final String encoding;
+
+    private final boolean continuations;
+
+    private byte[] line = new byte[256];
+
+    private int length = 0;
+
+    // the last byte was a CR, skip a following LF
+    private boolean afterCR = false;
+
+    // the entry continued from previous lines, null if none
+    private String entry = null;
+
+    private RuntimeException failure = null;
+
+    private boolean closed = false;
+
+    /**
+     * @param handler
+     *                the handler receiving the entries
+     * @param encoding
+     *                the character encoding of the listing
+     * @param continuations
+     *                true to join lines ending with a backslash with the next
+     *                line
+     */
+    public ListingOutputStream(ListingHandler handler, String encoding,
+	    boolean continuations) {
+	this.handler = handler;
+	this.encoding = encoding;
+	this.continuations = continuations;
+    }
+
+    public void write(int b) throws IOException {
+	write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+	if (failure != null)
+	    throw new IOException("Listing aborted: " + failure);
+	if (closed)
+	    throw new IOException("Stream closed");
+	int end = off + len;
+	int start = off;
+	for (int i = off; i < end; i++) {
+	    byte c = b[i];
+	    if (c != '\n' && c != '\r') {
+		afterCR = false;
+		continue;
+	    }
+	    if (c == '\n' && afterCR) {
+		// the LF of a CR LF, the line has already ended.
+		afterCR = false;
+		start = i + 1;
+		continue;
+	    }
+	    append(b, start, i - start);
+	    endLine();
+	    afterCR = c == '\r';
+	    start = i + 1;
+	}
+	append(b, start, end - start);
+    }
+
+    /**
+     * pass on the last line if it was not terminated and rethrow an exception
+     * of the handler.
+     */
+    public void close() throws IOException {
+	if (!closed) {
+	    closed = true;
+	    if (length > 0 && failure == null)
+		endLine();
+	}
+	if (failure != null)
+	    throw failure;
+    }
+
+    private void append(byte[] b, int off, int len) {
+	if (len <= 0)
+	    return;
+	if (length + len > line.length) {
+	    byte[] grown = new byte[Math.max(line.length * 2, length + len)];
+	    System.arraycopy(line, 0, grown, 0, length);
+	    line = grown;
+	}
+	System.arraycopy(b, off, line, length, len);
+	length += len;
+    }
+
+    private void endLine() throws IOException {
+	String text = new String(line, 0, length, encoding);
+	length = 0;
+	if (continuations) {
+	    text = text.trim();
+	    if (text.endsWith("\\")) {
+		text = text.substring(0, text.lastIndexOf("\\"));
+		entry = (entry == null ? text : entry + " " + text).trim();
+		return;
+	    }
+	    if (entry != null) {
+		text = (entry + " " + text).trim();
+		entry = null;
+	    }
+	}
+	try {
+	    handler.entry(text);
+	} catch (RuntimeException e) {
+	    failure = e;
+	    throw new IOException("Listing aborted: " + e);
+	}
+    }
+
+}
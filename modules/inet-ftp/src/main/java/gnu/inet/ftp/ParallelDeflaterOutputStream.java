@@ -0,0 +1,426 @@
+// ParallelDeflaterOutputStream.java - zlib compression on several threads
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import EDU.oswego.cs.dl.util.concurrent.Callable;
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+import EDU.oswego.cs.dl.util.concurrent.FutureResult;
+
+/**
+ * Writes a zlib stream like java.util.zip.DeflaterOutputStream but compresses
+ * blocks of the input on several threads. Every block is compressed with the
+ * last 32k of the input before it as preset dictionary and ends on a byte
+ * boundary, so the concatenated blocks form a single valid deflate stream that
+ * any inflater can read. The compression ratio is close to that of a single
+ * deflater.
+ * <P>
+ * Ending a block on a byte boundary needs Deflater.SYNC_FLUSH, which is
+ * available from Java 7 on. Use isSupported() to check, the constructors throw
+ * UnsupportedOperationException on older runtimes.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+    /**
+     * the default size of the blocks compressed on one thread.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int SYNC_FLUSH = 2; // Deflater.SYNC_FLUSH
+
+    private static final Method deflateWithFlush = findDeflateWithFlush();
+
+    private static Executor defaultExecutor = null;
+
+    /**
+     * A compressed block in a pooled buffer.
+     */
+    private static class Compressed {
+
+	private final byte[] data;
+
+	private final int length;
+
+	Compressed(byte[] data, int length) {
+	    this.data = data;
+	    this.length = length;
+	}
+    }
+
+    private static int defaultThreads = 0;
+
+    private final int level;
+
+    private final int blockSize;
+
+    private final Executor executor;
+
+    private final int maxPending;
+
+    private final Adler32 adler = new Adler32();
+
+    private final BufferPool pool = BufferPool.getDefault();
+
+    // compressed blocks not written yet, in input order
+    private final LinkedList pending = new LinkedList();
+
+    private byte[] block;
+
+    private int count = 0;
+
+    private byte[] dictionary = null;
+
+    private int dictionaryLength = 0;
+
+    private boolean headerWritten = false;
+
+    private boolean finished = false;
+
+    /**
+     * create a stream with the default compression level, block size and
+     * executor.
+     *
+     * @param out
+     *            the stream to write the zlib stream to
+     */
+    public ParallelDeflaterOutputStream(OutputStream out) {
+	this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * create a stream with the default block size and executor.
+     *
+     * @param out
+     *            the stream to write the zlib stream to
+     * @param level
+     *            the compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level) {
+	this(out, level, DEFAULT_BLOCK_SIZE, getDefaultExecutor(),
+		getDefaultThreads() * 2);
+    }
+
+    /**
+     * @param out
+     *            the stream to write the zlib stream to
+     * @param level
+     *            the compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     * @param blockSize
+     *            the size of the blocks compressed on one thread, at least
+     *            32k
+     * @param executor
+     *            the executor compressing the blocks
+     * @param maxPending
+     *            the number of blocks compressed ahead of the output, limits
+     *            the memory used
+     * @exception UnsupportedOperationException
+     *                the runtime has no Deflater.SYNC_FLUSH
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level,
+	    int blockSize, Executor executor, int maxPending) {
+	super(out);
+	if (!isSupported())
+	    throw new UnsupportedOperationException(
+		    "Deflater.SYNC_FLUSH is not available");
+	if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+	    throw new IllegalArgumentException("Invalid compression level "
+		    + level);
+	this.level = level;
+	this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+	this.executor = executor;
+	this.maxPending = Math.max(1, maxPending);
+	this.block = pool.acquire(this.blockSize);
+    }
+
+    /**
+     * @return the executor used by streams created without one. It has one
+     *         daemon thread per processor.
+     */
+    public static synchronized Executor getDefaultExecutor() {
+	if (defaultExecutor == null)
+	    defaultExecutor = TransferExecutor.newDaemonExecutor("Compression",
+		    getDefaultThreads());
+	return defaultExecutor;
+    }
+
+    private static synchronized int getDefaultThreads() {
+	if (defaultThreads == 0)
+	    defaultThreads = Math.max(1, Runtime.getRuntime()
+		    .availableProcessors());
+	return defaultThreads;
+    }
+
+    /**
+     * @return true if the runtime supports parallel compression.
+     */
+    public static boolean isSupported() {
+	return deflateWithFlush != null;
+    }
+
+    /**
+     * finish and close the stream.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public void close() throws IOException {
+	try {
+	    finish();
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * write the remaining data and the zlib trailer without closing the
+     * underlying stream.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public void finish() throws IOException {
+	if (finished)
+	    return;
+	finished = true;
+	submit(true);
+	while (!pending.isEmpty())
+	    writeBlock();
+	long checksum = adler.getValue();
+	out.write((int) (checksum >>> 24));
+	out.write((int) (checksum >>> 16));
+	out.write((int) (checksum >>> 8));
+	out.write((int) checksum);
+    }
+
+    /**
+     * compress and write the data written so far. Ends the current block, so
+     * flushing often degrades the compression.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public void flush() throws IOException {
+	if (!finished) {
+	    if (count > 0)
+		submit(false);
+	    while (!pending.isEmpty())
+		writeBlock();
+	}
+	out.flush();
+    }
+
+    public void write(int b) throws IOException {
+	write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+	if (finished)
+	    throw new IOException("Stream finished");
+	if (off < 0 || len < 0 || off + len > b.length)
+	    throw new IndexOutOfBoundsException();
+	adler.update(b, off, len);
+	while (len > 0) {
+	    int copy = Math.min(len, blockSize - count);
+	    System.arraycopy(b, off, block, count, copy);
+	    count += copy;
+	    off += copy;
+	    len -= copy;
+	    if (count == blockSize)
+		submit(false);
+	}
+    }
+
+    // ***** private methods *****
+
+    /**
+     * compress a block into a buffer taken from the pool.
+     */
+    private static Compressed compress(BufferPool pool, byte[] data,
+	    int length, byte[] dictionary, int dictionaryLength, int level,
+	    boolean last) throws Exception {
+	Deflater deflater = new Deflater(level, true);
+	byte[] buffer = pool.acquire(length + length / 1000 + 64);
+	int size = 0;
+	try {
+	    if (dictionaryLength > 0)
+		deflater.setDictionary(dictionary, 0, dictionaryLength);
+	    deflater.setInput(data, 0, length);
+	    if (last) {
+		deflater.finish();
+		while (!deflater.finished()) {
+		    if (size == buffer.length)
+			buffer = grow(pool, buffer);
+		    size += deflater
+			    .deflate(buffer, size, buffer.length - size);
+		}
+	    } else {
+		do {
+		    if (size == buffer.length)
+			buffer = grow(pool, buffer);
+		    Object[] arguments = { buffer, new Integer(size),
+			    new Integer(buffer.length - size),
+			    new Integer(SYNC_FLUSH) };
+		    size += ((Integer) deflateWithFlush.invoke(deflater,
+			    arguments)).intValue();
+		} while (size == buffer.length);
+	    }
+	    Compressed result = new Compressed(buffer, size);
+	    buffer = null;
+	    return result;
+	} finally {
+	    pool.release(buffer);
+	    deflater.end();
+	}
+    }
+
+    /**
+     * replace a full buffer with one twice the size.
+     */
+    private static byte[] grow(BufferPool pool, byte[] buffer) {
+	byte[] grown = pool.acquire(buffer.length * 2);
+	System.arraycopy(buffer, 0, grown, 0, buffer.length);
+	pool.release(buffer);
+	return grown;
+    }
+
+    private static Method findDeflateWithFlush() {
+	try {
+	    return Deflater.class.getMethod("deflate", new Class[] {
+		    byte[].class, Integer.TYPE, Integer.TYPE, Integer.TYPE });
+	} catch (NoSuchMethodException e) {
+	    return null;
+	}
+    }
+
+    /**
+     * hand the buffered input to the executor and start a new block.
+     */
+    private void submit(boolean last) throws IOException {
+	if (!headerWritten) {
+	    writeHeader();
+	    headerWritten = true;
+	}
+	final byte[] data = block;
+	final int length = count;
+	final byte[] preset = dictionary;
+	final int presetLength = dictionaryLength;
+	final boolean end = last;
+
+	// the dictionary of the next block is the end of this one. The task
+	// returns the block and its dictionary to the pool, so both are copied
+	// from before it is queued.
+	if (last) {
+	    dictionary = null;
+	    dictionaryLength = 0;
+	} else if (length >= DICTIONARY_SIZE || preset == null) {
+	    dictionaryLength = Math.min(length, DICTIONARY_SIZE);
+	    dictionary = pool.acquire(dictionaryLength);
+	    System.arraycopy(data, length - dictionaryLength, dictionary, 0,
+		    dictionaryLength);
+	} else {
+	    int keep = Math.min(presetLength, DICTIONARY_SIZE - length);
+	    dictionaryLength = keep + length;
+	    dictionary = pool.acquire(dictionaryLength);
+	    System.arraycopy(preset, presetLength - keep, dictionary, 0, keep);
+	    System.arraycopy(data, 0, dictionary, keep, length);
+	}
+	block = last ? null : pool.acquire(blockSize);
+	count = 0;
+
+	FutureResult result = new FutureResult();
+	try {
+	    executor.execute(result.setter(new Callable() {
+		public Object call() throws Exception {
+		    try {
+			return compress(pool, data, length, preset,
+				presetLength, level, end);
+		    } finally {
+			pool.release(data);
+			pool.release(preset);
+		    }
+		}
+	    }));
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Interrupted queueing block");
+	}
+	pending.addLast(result);
+	while (pending.size() > maxPending)
+	    writeBlock();
+    }
+
+    /**
+     * wait for the oldest pending block and write it.
+     */
+    private void writeBlock() throws IOException {
+	FutureResult result = (FutureResult) pending.removeFirst();
+	try {
+	    Compressed compressed = (Compressed) result.get();
+	    try {
+		out.write(compressed.data, 0, compressed.length);
+	    } finally {
+		pool.release(compressed.data);
+	    }
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException("Interrupted compressing block");
+	} catch (InvocationTargetException e) {
+	    Throwable cause = e.getTargetException();
+	    if (cause instanceof InvocationTargetException)
+		cause = ((InvocationTargetException) cause)
+			.getTargetException();
+	    if (cause instanceof IOException)
+		throw (IOException) cause;
+	    IOException ioe = new IOException("Compression failed: " + cause);
+	    ioe.initCause(cause);
+	    throw ioe;
+	}
+    }
+
+    private void writeHeader() throws IOException {
+	int cmf = 0x78; // deflate, 32k window
+	int flevel;
+	if (level == Deflater.DEFAULT_COMPRESSION || level == 6)
+	    flevel = 2;
+	else if (level < 2)
+	    flevel = 0;
+	else if (level < 6)
+	    flevel = 1;
+	else
+	    flevel = 3;
+	int flg = flevel << 6;
+	flg += (31 - (cmf * 256 + flg) % 31) % 31;
+	out.write(cmf);
+	out.write(flg);
+    }
+
+}
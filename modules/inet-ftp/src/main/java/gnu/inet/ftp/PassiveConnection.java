@@ -21,8 +21,10 @@
 package gnu.inet.ftp;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 
 /**
  * This class encapsulates the parameters of a passive data connection.
@@ -46,8 +48,10 @@ public class PassiveConnection extends Object {
     public PassiveConnection(PassiveParameters parameters)
 	    throws UnknownHostException, IOException {
 	this.parameters = parameters;
-	this.sock = new Socket(parameters.getInetAddress(), parameters
-		.getPort());
+	// open a channel so uploads can use FileChannel.transferTo()
+	this.sock = SocketChannel.open(
+		new InetSocketAddress(parameters.getInetAddress(), parameters
+			.getPort())).socket();
     }
 
     /**
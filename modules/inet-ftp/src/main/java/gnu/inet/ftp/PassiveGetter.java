@@ -94,7 +94,7 @@ public class PassiveGetter extends Getter {
 	InputStream istream = null;
 	long amount = 0;
 	int buffer_size = 0;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	byte buffer[] = null;
 	// this.cancelled= false; // reset cancelled flag
 	PassiveParameters parameters = connection.getPassiveParameters();
 
@@ -110,39 +110,48 @@ public class PassiveGetter extends Getter {
 
 	    try {
 
-		// handle different type settings
-		switch (type) {
-		case FtpClientProtocol.TYPE_ASCII:
-		    istream = new AsciiInputStream(sock.getInputStream());
-		    break;
-		default:
+		if (isFileTransfer(sock)) {
+		    // closed below like the stream of a copied transfer.
 		    istream = sock.getInputStream();
-		    break;
-		}
+		    amount = transferFile(sock.getChannel());
+		} else {
+		    buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+
+		    // handle different type settings
+		    switch (type) {
+		    case FtpClientProtocol.TYPE_ASCII:
+			istream = new AsciiInputStream(getInputStream(sock));
+			break;
+		    default:
+			istream = getInputStream(sock);
+			break;
+		    }
 
-		// handle different mode settings
-		switch (mode) {
-		case FtpClientProtocol.MODE_ZLIB:
-		    istream = new InflaterInputStream(istream);
-		    break;
-		case FtpClientProtocol.MODE_STREAM:
-		default:
-		    break;
-		}
+		    // handle different mode settings
+		    switch (mode) {
+		    case FtpClientProtocol.MODE_ZLIB:
+			istream = new InflaterInputStream(istream);
+			break;
+		    case FtpClientProtocol.MODE_STREAM:
+		    default:
+			break;
+		    }
 
-		int len;
-		while (!cancelled && ((len = istream.read(buffer)) > 0)) {
-		    ostream.write(buffer, 0, len);
-		    amount += len;
-		    buffer_size += len;
-		    if (buffer_size >= BUFFER_SIZE) {
-			buffer_size = buffer_size % BUFFER_SIZE;
-			signalTransfered(amount);
+		    int len;
+		    while (!cancelled && ((len = istream.read(buffer)) > 0)) {
+			ostream.write(buffer, 0, len);
+			amount += len;
+			buffer_size += len;
+			if (buffer_size >= BUFFER_SIZE) {
+			    buffer_size = buffer_size % BUFFER_SIZE;
+			    signalTransfered(amount);
+			}
 		    }
-		    yield();
-		}
+		    if (buffer_size > 0)
+			signalTransfered(amount);
 
-		ostream.flush();
+		    ostream.flush();
+		}
 	    } catch (InterruptedIOException iioe) {
 		if (!cancelled) {
 		    log.error(iioe.getMessage(), iioe);
@@ -150,6 +159,7 @@ public class PassiveGetter extends Getter {
 	    } catch (Exception e) {
 		log.error(e.getMessage(), e);
 	    } finally {
+		BufferPool.getDefault().release(buffer);
 		log.debug("Closing inputstream");
 		if (istream != null) {
 		    istream.close();
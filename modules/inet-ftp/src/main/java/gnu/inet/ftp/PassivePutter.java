@@ -24,7 +24,6 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.zip.DeflaterOutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -74,7 +73,7 @@ public class PassivePutter extends Putter {
 	OutputStream ostream = null;
 	long amount = 0;
 	int buffer_size = 0;
-	byte buffer[] = new byte[BUFFER_SIZE];
+	byte buffer[] = null;
 	// this.cancelled= false; // reset cancelled flag
 	PassiveParameters parameters = connection.getPassiveParameters();
 
@@ -90,36 +89,45 @@ public class PassivePutter extends Putter {
 
 	    try {
 
-		// handle different type settings
-		switch (type) {
-		case FtpClientProtocol.TYPE_ASCII:
-		    ostream = new AsciiOutputStream(sock.getOutputStream());
-		    break;
-		default:
+		if (isFileTransfer(sock)) {
+		    // closed below like the stream of a copied transfer.
 		    ostream = sock.getOutputStream();
-		    break;
-		}
+		    amount = transferFile(sock.getChannel());
+		} else {
+		    buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+
+		    // handle different type settings
+		    switch (type) {
+		    case FtpClientProtocol.TYPE_ASCII:
+			ostream = new AsciiOutputStream(getOutputStream(sock));
+			break;
+		    default:
+			ostream = getOutputStream(sock);
+			break;
+		    }
 
-		// handle different mode settings
-		switch (mode) {
-		case FtpClientProtocol.MODE_ZLIB:
-		    ostream = new DeflaterOutputStream(ostream);
-		    break;
-		case FtpClientProtocol.MODE_STREAM:
-		default:
-		    break;
-		}
+		    // handle different mode settings
+		    switch (mode) {
+		    case FtpClientProtocol.MODE_ZLIB:
+			ostream = compress(ostream);
+			break;
+		    case FtpClientProtocol.MODE_STREAM:
+		    default:
+			break;
+		    }
 
-		int len;
-		while ((len = istream.read(buffer)) != -1) {
-		    ostream.write(buffer, 0, len);
-		    amount += len;
-		    buffer_size += len;
-		    if (buffer_size >= BUFFER_SIZE) {
-			buffer_size = buffer_size % BUFFER_SIZE;
-			signalTransfered(amount);
+		    int len;
+		    while ((len = istream.read(buffer)) != -1) {
+			ostream.write(buffer, 0, len);
+			amount += len;
+			buffer_size += len;
+			if (buffer_size >= BUFFER_SIZE) {
+			    buffer_size = buffer_size % BUFFER_SIZE;
+			    signalTransfered(amount);
+			}
 		    }
-		    yield();
+		    if (buffer_size > 0)
+			signalTransfered(amount);
 		}
 	    } catch (InterruptedIOException iioe) {
 		if (!cancelled) {
@@ -128,6 +136,7 @@ public class PassivePutter extends Putter {
 	    } catch (Exception e) {
 		log.error(e.getMessage(), e);
 	    } finally {
+		BufferPool.getDefault().release(buffer);
 		log.debug("Closing inputstream");
 		if (ostream != null) {
 		    ostream.close();
@@ -20,20 +20,41 @@
 //
 package gnu.inet.ftp;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import EDU.oswego.cs.dl.util.concurrent.Executor;
 
 /**
  * implements a FTP-style data connection server thread for PUTing files/data.
  * <P>
  * This class mainly serves as a superclass to ActivePutter and PassivePutter.
+ * <P>
+ * Putters are no longer Threads: start() runs them on the transfer executor
+ * of the client. Code that used Thread methods such as setDaemon() or
+ * setName() on a Putter has to be changed.
  */
-public class Putter extends Thread implements ConnectionEventSource,
+public class Putter implements Runnable, ConnectionEventSource,
 		TransferEventSource {
 
 	public static final int BUFFER_SIZE = 1024;
 
+	/**
+	 * the largest amount handed to FileChannel.transferTo() at once, progress
+	 * is signalled and cancel() is checked after each chunk.
+	 */
+	public static final int CHANNEL_CHUNK_SIZE = 256 * 1024;
+
 	protected InputStream istream;
 
 	protected boolean cancelled = false;
@@ -46,11 +67,27 @@ public class Putter extends Thread implements ConnectionEventSource,
 
 	protected char type;
 
+	protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+	protected boolean parallelCompression = false;
+
+	protected TransferGovernor governor = null;
+
+	protected int weight = TransferGovernor.DEFAULT_WEIGHT;
+
+	private Executor executor = null;
+
+	private Thread worker = null;
+
+	// the data connection while transferFile() is running.
+	private SocketChannel dataChannel = null;
+
+	private boolean running = false;
+
 	/**
 	 * default constructor
 	 */
 	public Putter() {
-		super();
 		connectionListeners = new Vector();
 		transferListeners = new Vector();
 		this.mode = FtpClientProtocol.MODE_STREAM;
@@ -61,9 +98,143 @@ public class Putter extends Thread implements ConnectionEventSource,
 	// public methods
 	//
 
-	public synchronized void start() {
-		this.cancelled = false; // Reset cancelled flag
-		super.start();
+	/**
+	 * set the executor that runs the transfer.
+	 * 
+	 * @param executor
+	 *            the executor to run the transfer on, null for
+	 *            TransferExecutor.getDefault()
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * set the governor that limits the bandwidth of the transfer.
+	 * 
+	 * @param governor
+	 *            the governor to acquire bandwidth from, null for
+	 *            TransferGovernor.getDefault()
+	 * @param weight
+	 *            the weight of the transfer, see TransferGovernor
+	 */
+	public synchronized void setGovernor(TransferGovernor governor,
+			int weight) {
+		this.governor = governor;
+		this.weight = weight;
+	}
+
+	/**
+	 * hand the transfer to the executor. Blocks while the executor has no
+	 * free thread.
+	 * 
+	 * @exception IllegalStateException
+	 *                the transfer is already running or could not be started
+	 */
+	public void start() {
+		Executor executor;
+		synchronized (this) {
+			if (running)
+				throw new IllegalStateException("Transfer already running");
+			this.cancelled = false; // Reset cancelled flag
+			running = true;
+			executor = this.executor == null ? TransferExecutor.getDefault()
+					: this.executor;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					synchronized (Putter.this) {
+						worker = Thread.currentThread();
+					}
+					try {
+						Putter.this.run();
+					} finally {
+						synchronized (Putter.this) {
+							worker = null;
+							running = false;
+							// don't leave a pending cancel on the pooled thread.
+							Thread.interrupted();
+							Putter.this.notifyAll();
+						}
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				running = false;
+				notifyAll();
+			}
+			throw new IllegalStateException("Interrupted starting transfer");
+		}
+	}
+
+	/**
+	 * transfer data, implemented by the subclasses.
+	 */
+	public void run() {
+	}
+
+	/**
+	 * interrupt the thread running the transfer, if any. While
+	 * transferFile() is running the data connection is closed instead, an
+	 * interrupt would also close the file channel of the caller.
+	 */
+	public synchronized void interrupt() {
+		if (dataChannel != null) {
+			try {
+				// closing alone does not wake a thread blocked in the
+				// transfer.
+				dataChannel.socket().shutdownOutput();
+			} catch (IOException e) {
+				// closed already.
+			}
+			try {
+				dataChannel.close();
+			} catch (IOException e) {
+				// the transfer fails anyway.
+			}
+		} else if (worker != null)
+			worker.interrupt();
+	}
+
+	/**
+	 * @return true if the transfer has been started and has not finished yet.
+	 */
+	public synchronized boolean isAlive() {
+		return running;
+	}
+
+	/**
+	 * wait for the transfer to finish.
+	 * 
+	 * @exception InterruptedException
+	 *                the calling thread was interrupted
+	 */
+	public void join() throws InterruptedException {
+		join(0);
+	}
+
+	/**
+	 * wait for the transfer to finish.
+	 * 
+	 * @param millis
+	 *            the maximum time to wait, 0 to wait forever
+	 * @exception InterruptedException
+	 *                the calling thread was interrupted
+	 */
+	public synchronized void join(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		while (running) {
+			if (millis == 0) {
+				wait();
+			} else {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					break;
+				wait(wait);
+			}
+		}
 	}
 
 	/**
@@ -109,6 +280,138 @@ public class Putter extends Thread implements ConnectionEventSource,
 		}
 	}
 
+	/**
+	 * set the compression used in MODE_ZLIB.
+	 * 
+	 * @param level
+	 *            the compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+	 * @param parallel
+	 *            compress on several threads if the runtime supports it
+	 * @see ParallelDeflaterOutputStream
+	 */
+	public synchronized void setCompression(int level, boolean parallel) {
+		this.compressionLevel = level;
+		this.parallelCompression = parallel;
+	}
+
+	/**
+	 * wrap the data connection for MODE_ZLIB.
+	 * 
+	 * @param out
+	 *            the stream of the data connection
+	 * @return a stream that writes a zlib stream to out and ends the deflater
+	 *         when closed.
+	 */
+	protected OutputStream compress(OutputStream out) {
+		if (parallelCompression && ParallelDeflaterOutputStream.isSupported())
+			return new ParallelDeflaterOutputStream(out, compressionLevel);
+		return new DeflaterOutputStream(out, new Deflater(compressionLevel)) {
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					def.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * get the share of the bandwidth of this transfer.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @return the share, null if the transfer is not limited
+	 */
+	protected TransferGovernor.Share share(Socket sock) {
+		TransferGovernor governor = this.governor == null ? TransferGovernor
+				.getDefault() : this.governor;
+		return governor == null ? null : governor.share(sock
+				.getInetAddress(), weight);
+	}
+
+	/**
+	 * get the stream of the data connection, limited by the governor.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @exception IOException
+	 *                an IO error occurred
+	 * @return a stream writing to the data connection
+	 */
+	protected OutputStream getOutputStream(Socket sock) throws IOException {
+		TransferGovernor.Share share = share(sock);
+		return share == null ? sock.getOutputStream() : share.limit(sock
+				.getOutputStream());
+	}
+
+	/**
+	 * check whether the data can be sent with FileChannel.transferTo(), that
+	 * is the input is a file, the socket has a channel and neither ASCII
+	 * translation nor compression is in effect.
+	 * 
+	 * @param sock
+	 *            the data connection
+	 * @return true if transferFile() can be used
+	 */
+	protected boolean isFileTransfer(Socket sock) {
+		return istream instanceof FileInputStream && sock.getChannel() != null
+				&& type != FtpClientProtocol.TYPE_ASCII
+				&& mode == FtpClientProtocol.MODE_STREAM;
+	}
+
+	/**
+	 * send the rest of the input file to the data connection without copying
+	 * it through a buffer. The input is left at the end of the data sent.
+	 * 
+	 * @param channel
+	 *            the channel of the data connection
+	 * @exception IOException
+	 *                an IO error occurred
+	 * @return the number of bytes sent
+	 */
+	protected long transferFile(SocketChannel channel) throws IOException {
+		FileChannel file = ((FileInputStream) istream).getChannel();
+		boolean interrupted;
+		synchronized (this) {
+			dataChannel = channel;
+			// an interrupt from a cancel() before the transfer would close
+			// the file channel.
+			interrupted = Thread.interrupted();
+		}
+		long position = file.position();
+		long size = file.size();
+		long amount = 0;
+		TransferGovernor.Share share = share(channel.socket());
+		try {
+			while (!cancelled && position < size) {
+				int chunk = (int) Math.min(CHANNEL_CHUNK_SIZE, size - position);
+				if (share != null)
+					chunk = share.acquire(chunk);
+				long count = file.transferTo(position, chunk, channel);
+				if (share != null)
+					share.refund(chunk - (int) Math.max(0, count));
+				if (count <= 0)
+					break; // the file has been truncated.
+				position += count;
+				amount += count;
+				signalTransfered(amount);
+			}
+		} catch (AsynchronousCloseException e) {
+			if (!cancelled)
+				throw e;
+		} finally {
+			synchronized (this) {
+				dataChannel = null;
+				interrupted |= Thread.interrupted();
+			}
+			file.position(position);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		return amount;
+	}
+
 	/**
 	 * add a ConnectionListener to the list of connectionListeners
 	 * 
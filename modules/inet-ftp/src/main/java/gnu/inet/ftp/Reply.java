@@ -0,0 +1,315 @@
+// Reply.java - a server reply on the control connection
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A (multi-line) server reply as read by a ReplyDecoder. The raw bytes of the
+ * reply are kept in a buffer that is reused for the next reply, so checking
+ * the reply code does not create any objects. The text of the reply is only
+ * decoded when it is asked for.
+ * <P>
+ * A Reply is only valid until the next reply is read into it. Callers that
+ * need to keep information must copy it, e.g. with getText().
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class Reply {
+
+    private byte[] data = new byte[256];
+
+    private int length = 0;
+
+    private int[] lineEnds = new int[8];
+
+    private int lineCount = 0;
+
+    private int code = -1;
+
+    private boolean multiline = false;
+
+    private String encoding = null;
+
+    private String text = null;
+
+    /**
+     * @return the 3 digit reply code or -1 if the reply did not start with
+     *         one.
+     */
+    public int getCode() {
+	return code;
+    }
+
+    /**
+     * @return true if the reply spanned more than one line.
+     */
+    public boolean isMultiline() {
+	return multiline;
+    }
+
+    /**
+     * @return the number of lines in the reply.
+     */
+    public int getLineCount() {
+	return lineCount;
+    }
+
+    /**
+     * @param index
+     *            the line to return, 0 is the first line
+     * @return the line including the reply code
+     */
+    public String getLine(int index) {
+	if (index < 0 || index >= lineCount) {
+	    throw new IndexOutOfBoundsException("Line " + index + " of "
+		    + lineCount);
+	}
+	int start = index == 0 ? 0 : lineEnds[index - 1];
+	return decode(start, lineEnds[index] - start);
+    }
+
+    /**
+     * get the text of the first line following the reply code and separator,
+     * i.e. "Command okay." for "200 Command okay."
+     *
+     * @return the message of the first line
+     */
+    public String getMessage() {
+	if (lineCount == 0)
+	    return "";
+	int end = lineEnds[0];
+	return end > 4 ? decode(4, end - 4) : "";
+    }
+
+    /**
+     * parse the first unsigned decimal number following the reply code on the
+     * first line, i.e. 1234 for "213 1234". The number is parsed straight
+     * from the reply buffer.
+     *
+     * @return the number or -1 if there is none
+     */
+    public long getNumber() {
+	if (lineCount == 0)
+	    return -1;
+	int end = lineEnds[0];
+	int i = Math.min(4, end);
+	while (i < end && (data[i] < '0' || data[i] > '9'))
+	    i++;
+	if (i == end)
+	    return -1;
+	long value = 0;
+	while (i < end && data[i] >= '0' && data[i] <= '9') {
+	    value = value * 10 + (data[i] - '0');
+	    i++;
+	}
+	return value;
+    }
+
+    /**
+     * parse the unsigned decimal numbers following the reply code on the first
+     * line, i.e. the address and port of "227 Entering Passive Mode
+     * (127,0,0,1,4,1)".
+     *
+     * @param values
+     *            receives the numbers, parsing stops when it is full
+     * @return the number of values found
+     */
+    public int getNumbers(int[] values) {
+	if (lineCount == 0)
+	    return 0;
+	int end = lineEnds[0];
+	int count = 0;
+	int i = Math.min(4, end);
+	while (i < end && count < values.length) {
+	    if (data[i] >= '0' && data[i] <= '9') {
+		int value = 0;
+		while (i < end && data[i] >= '0' && data[i] <= '9') {
+		    value = value * 10 + (data[i] - '0');
+		    i++;
+		}
+		values[count++] = value;
+	    } else {
+		i++;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * get a white space separated token of the first line. Token 0 is the
+     * reply code.
+     *
+     * @param index
+     *            the token to return
+     * @return the token or null if the line has fewer tokens
+     */
+    public String getToken(int index) {
+	if (lineCount == 0)
+	    return null;
+	int end = lineEnds[0];
+	int i = 0;
+	int current = -1;
+	while (i < end) {
+	    while (i < end && isWhitespace(data[i]))
+		i++;
+	    if (i == end)
+		break;
+	    int start = i;
+	    while (i < end && !isWhitespace(data[i]))
+		i++;
+	    // on a continued line the marker stays attached to the code
+	    if (++current == index)
+		return decode(start, i - start);
+	}
+	return null;
+    }
+
+    /**
+     * @return the whole reply, each line terminated by a newline. This is the
+     *         same format that FtpClientProtocol.readResponse() returns.
+     */
+    public String getText() {
+	if (text == null) {
+	    StringBuffer buffer = new StringBuffer(length + lineCount);
+	    int start = 0;
+	    for (int i = 0; i < lineCount; i++) {
+		buffer.append(decode(start, lineEnds[i] - start)).append('\n');
+		start = lineEnds[i];
+	    }
+	    text = buffer.toString();
+	}
+	return text;
+    }
+
+    /**
+     * @return true if the reply code is 1xx.
+     */
+    public boolean isPreliminary() {
+	return code >= 100 && code < 200;
+    }
+
+    /**
+     * @return true if the reply code is 2xx.
+     */
+    public boolean isPositive() {
+	return code >= 200 && code < 300;
+    }
+
+    public String toString() {
+	return getText();
+    }
+
+    // ***** decoder interface *****
+
+    /**
+     * start a new reply.
+     */
+    void reset(String encoding) {
+	this.encoding = encoding;
+	length = 0;
+	lineCount = 0;
+	code = -1;
+	multiline = false;
+	text = null;
+    }
+
+    /**
+     * append bytes to the current line.
+     */
+    void append(byte[] b, int off, int len) {
+	if (length + len > data.length) {
+	    byte[] larger = new byte[Math.max(data.length * 2, length + len)];
+	    System.arraycopy(data, 0, larger, 0, length);
+	    data = larger;
+	}
+	System.arraycopy(b, off, data, length, len);
+	length += len;
+    }
+
+    /**
+     * @return the length of the current, unterminated line.
+     */
+    int currentLineLength() {
+	return length - (lineCount == 0 ? 0 : lineEnds[lineCount - 1]);
+    }
+
+    /**
+     * drop a trailing carriage return from the current line.
+     */
+    void trimCarriageReturn() {
+	if (currentLineLength() > 0 && data[length - 1] == '\r')
+	    length--;
+    }
+
+    /**
+     * terminate the current line.
+     *
+     * @return true if the line completes the reply.
+     */
+    boolean endLine() {
+	int start = lineCount == 0 ? 0 : lineEnds[lineCount - 1];
+	int len = length - start;
+	if (lineCount == lineEnds.length) {
+	    int[] larger = new int[lineEnds.length * 2];
+	    System.arraycopy(lineEnds, 0, larger, 0, lineCount);
+	    lineEnds = larger;
+	}
+	lineEnds[lineCount++] = length;
+	if (lineCount == 1) {
+	    code = parseCode(start, len);
+	    multiline = len >= 4 && data[3] == '-';
+	    return !multiline;
+	}
+	// from rfc0959, a multiline reply ends with a line that starts with
+	// the same code followed by a space.
+	return len >= 4 && parseCode(start, len) == code
+		&& data[start + 3] == ' ';
+    }
+
+    private int parseCode(int start, int len) {
+	if (len < 3)
+	    return -1;
+	int value = 0;
+	for (int i = start; i < start + 3; i++) {
+	    if (data[i] < '0' || data[i] > '9')
+		return -1;
+	    value = value * 10 + (data[i] - '0');
+	}
+	return value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+	return b == ' ' || b == '\t';
+    }
+
+    private String decode(int start, int len) {
+	if (encoding != null) {
+	    try {
+		return new String(data, start, len, encoding);
+	    } catch (UnsupportedEncodingException e) {
+		// fall through to the platform default.
+	    }
+	}
+	return new String(data, start, len);
+    }
+
+}
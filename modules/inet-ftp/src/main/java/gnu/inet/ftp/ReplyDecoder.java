@@ -0,0 +1,182 @@
+// ReplyDecoder.java - reads server replies from the control connection
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads (multi-line) replies from the control connection into a reusable
+ * Reply. The reply code and the continuation marker are parsed from the raw
+ * bytes, no strings are created while reading.
+ * <P>
+ * Empty lines are ignored. Line terminators may be CRLF or a bare LF.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ReplyDecoder {
+
+    /**
+     * default size of the read buffer.
+     */
+    public static final int BUFFER_SIZE = 1024;
+
+    private final InputStream in;
+
+    private final byte[] buffer;
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private String encoding = null;
+
+    /**
+     * @param in
+     *            the control connection input stream
+     */
+    public ReplyDecoder(InputStream in) {
+	this(in, BUFFER_SIZE);
+    }
+
+    /**
+     * @param in
+     *            the control connection input stream
+     * @param size
+     *            the size of the read buffer
+     */
+    public ReplyDecoder(InputStream in, int size) {
+	this.in = in;
+	this.buffer = new byte[size];
+    }
+
+    /**
+     * @param encoding
+     *            the character encoding used to decode the reply text
+     */
+    public void setEncoding(String encoding) {
+	this.encoding = encoding;
+    }
+
+    /**
+     * @return the character encoding used to decode the reply text
+     */
+    public String getEncoding() {
+	return encoding;
+    }
+
+    /**
+     * read the next reply.
+     *
+     * @param reply
+     *            the reply to read into, its previous content is discarded
+     * @exception EOFException
+     *                the connection was closed before a reply was read
+     * @exception IOException
+     *                an IO error occurred
+     * @return the reply
+     */
+    public Reply read(Reply reply) throws IOException {
+	reply.reset(encoding);
+	while (true) {
+	    if (position == limit && !fill()) {
+		if (reply.getLineCount() == 0 && reply.currentLineLength() == 0) {
+		    throw new EOFException("Connection closed by server");
+		}
+		// return what we have got, like readLine() does.
+		if (reply.currentLineLength() > 0) {
+		    reply.endLine();
+		}
+		return reply;
+	    }
+	    // find the end of the line in the buffer
+	    int start = position;
+	    while (position < limit && buffer[position] != '\n') {
+		position++;
+	    }
+	    reply.append(buffer, start, position - start);
+	    if (position == limit) {
+		continue; // line continues in the next read
+	    }
+	    position++; // skip '\n'
+	    reply.trimCarriageReturn();
+	    if (reply.currentLineLength() == 0) {
+		continue; // ignore empty lines
+	    }
+	    if (reply.endLine()) {
+		return reply;
+	    }
+	}
+    }
+
+    /**
+     * @return the number of bytes read from the connection but not yet
+     *         decoded.
+     */
+    public int available() {
+	return limit - position;
+    }
+
+    /**
+     * get a stream that returns the undecoded bytes of this decoder followed
+     * by the rest of the connection. Reading from it and from the decoder at
+     * the same time will mix up the replies.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream() {
+	return new InputStream() {
+	    public int read() throws IOException {
+		if (position == limit && !fill())
+		    return -1;
+		return buffer[position++] & 0xff;
+	    }
+
+	    public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+		    return 0;
+		if (position == limit && !fill())
+		    return -1;
+		int count = Math.min(len, limit - position);
+		System.arraycopy(buffer, position, b, off, count);
+		position += count;
+		return count;
+	    }
+
+	    public int available() throws IOException {
+		return (limit - position) + in.available();
+	    }
+	};
+    }
+
+    private boolean fill() throws IOException {
+	int count = in.read(buffer, 0, buffer.length);
+	if (count <= 0) {
+	    position = limit = 0;
+	    return false;
+	}
+	position = 0;
+	limit = count;
+	return true;
+    }
+
+}
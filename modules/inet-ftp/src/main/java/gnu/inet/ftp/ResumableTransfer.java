@@ -0,0 +1,250 @@
+// ResumableTransfer.java - continue interrupted file transfers with REST
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The retry loop of resumable file transfers. The size of the remote file is
+ * checked with SIZE (and MDTM for downloads) after an aborted or incomplete
+ * transfer, and the transfer is continued with REST at the offset the server
+ * has committed. Subclasses do the actual transfer at an offset, so only
+ * clients that open data connections provide resumable transfers.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public abstract class ResumableTransfer {
+
+    private final static Log log = LogFactory.getLog(ResumableTransfer.class);
+
+    private final FtpClientProtocol protocol;
+
+    /**
+     * @param protocol
+     *                the connection used for SIZE and MDTM
+     */
+    protected ResumableTransfer(FtpClientProtocol protocol) {
+	this.protocol = protocol;
+    }
+
+    /**
+     * store a local file and continue interrupted transfers with REST. After
+     * every transfer the size of the remote file is checked with SIZE, the
+     * data the server has committed is not sent again. Only works for image
+     * type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried.
+     * 
+     * @param file
+     *                the file to send
+     * @param pathname
+     *                name of file to store on server (where to put the file on
+     *                the server)
+     * @param retries
+     *                how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                    an IO error occurred or the transfer was still
+     *                    incomplete after the last retry
+     * @exception ServerResponseException
+     *                    the server responded with an error
+     */
+    public void putFile(File file, String pathname, int retries)
+	    throws IOException, ServerResponseException {
+	long length = file.length();
+	long offset = 0;
+	for (int attempt = 0;; attempt++) {
+	    ServerResponseException failure = null;
+	    FileInputStream in = new FileInputStream(file);
+	    try {
+		in.getChannel().position(offset);
+		putAt(in, pathname, offset);
+	    } catch (ServerResponseException e) {
+		failure = e;
+	    } finally {
+		in.close();
+	    }
+
+	    long committed;
+	    try {
+		committed = protocol.size(pathname);
+	    } catch (FileNotFoundException e) {
+		committed = 0;
+	    }
+	    if (failure == null && committed == length)
+		return;
+	    if (attempt >= retries) {
+		if (failure != null)
+		    throw failure;
+		throw new IOException("Incomplete transfer of " + pathname
+			+ ", stored " + committed + " of " + length + " bytes");
+	    }
+	    log.warn("Transfer of " + pathname + " interrupted at "
+		    + committed + " of " + length + " bytes, resuming");
+	    transferInterrupted();
+	    offset = committed > length ? 0 : committed;
+	}
+    }
+
+    /**
+     * GET the named file into a local file and continue interrupted transfers
+     * with REST. A partial local file from an earlier call is continued if it
+     * was written after the last modification of the remote file (MDTM),
+     * otherwise it is replaced. SIZE and MDTM are checked again before every
+     * retry and a remote file that has changed is downloaded from the start.
+     * Only works for image type transfers in stream mode.
+     * <P>
+     * Failures of the control connection are not retried. The partial file
+     * is kept, so calling this method again on a new connection continues
+     * the download.
+     * 
+     * @param path
+     *                the name of the file to GET. This can be a full or partial
+     *                path.
+     * @param file
+     *                the local file to write the data to
+     * @param retries
+     *                how often an aborted or incomplete transfer is continued
+     * @exception IOException
+     *                    an IO error occurred or the transfer was still
+     *                    incomplete after the last retry
+     * @exception ServerResponseException
+     *                    the server reported an error
+     * @exception FileNotFoundException
+     *                    the given path does not exist
+     */
+    public void getFile(String path, File file, int retries)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	long size = protocol.size(path);
+	Date modified = modificationTime(path);
+	long offset = file.length();
+	if (offset > size || modified == null
+		|| file.lastModified() < modified.getTime())
+	    offset = 0;
+
+	RandomAccessFile out = new RandomAccessFile(file, "rw");
+	try {
+	    FileChannel channel = out.getChannel();
+	    for (int attempt = 0;; attempt++) {
+		out.setLength(offset);
+		channel.position(offset);
+		ServerResponseException failure = null;
+		if (offset < size) {
+		    try {
+			getAt(path, channel, offset);
+		    } catch (ServerResponseException e) {
+			failure = e;
+		    }
+		}
+		offset = channel.position();
+		if (failure == null && offset == size)
+		    return;
+		if (attempt >= retries) {
+		    if (failure != null)
+			throw failure;
+		    throw new IOException("Incomplete transfer of " + path
+			    + ", got " + offset + " of " + size + " bytes");
+		}
+		log.warn("Transfer of " + path + " interrupted at " + offset
+			+ " of " + size + " bytes, resuming");
+		transferInterrupted();
+
+		// start over if the file has changed on the server.
+		long newSize = protocol.size(path);
+		Date newModified = modificationTime(path);
+		if (newSize != size || modified == null
+			|| !modified.equals(newModified) || offset > newSize)
+		    offset = 0;
+		size = newSize;
+		modified = newModified;
+	    }
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * store data at an offset of a remote file with REST and STOR, used by
+     * putFile().
+     * 
+     * @param in
+     *                the data to send, positioned at offset
+     * @param pathname
+     *                name of the file on the server
+     * @param offset
+     *                the offset to store the data at
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception ServerResponseException
+     *                    the server responded with an error
+     */
+    protected abstract void putAt(InputStream in, String pathname,
+	    long offset) throws IOException, ServerResponseException;
+
+    /**
+     * retrieve a remote file from an offset with REST and RETR, used by
+     * getFile().
+     * 
+     * @param path
+     *                the name of the file to GET
+     * @param channel
+     *                the channel to write the data to, positioned at offset
+     * @param offset
+     *                the offset to start the transfer at
+     * @exception IOException
+     *                    an IO error occurred
+     * @exception ServerResponseException
+     *                    the server reported an error
+     */
+    protected abstract void getAt(String path, FileChannel channel,
+	    long offset) throws IOException, FileNotFoundException,
+	    ServerResponseException;
+
+    /**
+     * called by putFile() and getFile() before a transfer is
+     * continued. Clients keeping a passive data connection drop it here if
+     * the interrupted transfer has closed it.
+     */
+    protected abstract void transferInterrupted();
+
+    /**
+     * @return the MDTM of the file or null if the server does not support it.
+     */
+    private Date modificationTime(String path) throws IOException {
+	try {
+	    return protocol.mdtm(path);
+	} catch (ServerResponseException e) {
+	    return null;
+	} catch (ParseException e) {
+	    return null;
+	}
+    }
+}
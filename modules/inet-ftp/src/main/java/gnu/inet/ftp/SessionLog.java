@@ -0,0 +1,185 @@
+// SessionLog.java - reads a log written by SessionRecorder
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the records of a session log written by SessionRecorder.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class SessionLog {
+
+    /**
+     * a single entry of the log.
+     */
+    public static class Record {
+
+	private int type;
+
+	private long time;
+
+	private byte[] data;
+
+	private long amount;
+
+	Record(int type, long time, byte[] data, long amount) {
+	    this.type = type;
+	    this.time = time;
+	    this.data = data;
+	    this.amount = amount;
+	}
+
+	/**
+	 * @return the size of a DATA record or the length of the data.
+	 */
+	public long getAmount() {
+	    return amount;
+	}
+
+	/**
+	 * @return the bytes of a COMMAND or REPLY record, empty for DATA.
+	 */
+	public byte[] getData() {
+	    return data;
+	}
+
+	/**
+	 * @return the data as text, without line terminators for a COMMAND.
+	 */
+	public String getText() {
+	    String text = new String(data);
+	    return type == SessionRecorder.COMMAND ? text.trim() : text;
+	}
+
+	/**
+	 * @return the milliseconds since the start of the session.
+	 */
+	public long getTime() {
+	    return time;
+	}
+
+	/**
+	 * @return one of SessionRecorder.COMMAND, REPLY or DATA
+	 */
+	public int getType() {
+	    return type;
+	}
+
+	/**
+	 * @return the verb of a COMMAND record in lower case, i.e. "jparm".
+	 */
+	public String getVerb() {
+	    String text = getText();
+	    int end = text.indexOf(' ');
+	    return (end < 0 ? text : text.substring(0, end)).toLowerCase();
+	}
+
+	public String toString() {
+	    return time + " " + (char) type + " "
+		    + (type == SessionRecorder.DATA ? String.valueOf(amount)
+			    : getText().trim());
+	}
+    }
+
+    private final DataInputStream in;
+
+    private final long startTime;
+
+    private long time = 0;
+
+    /**
+     * @param in
+     *            the log to read
+     * @exception IOException
+     *                the stream is not a session log or could not be read
+     */
+    public SessionLog(InputStream in) throws IOException {
+	this.in = new DataInputStream(new BufferedInputStream(in));
+	for (int i = 0; i < SessionRecorder.MAGIC.length; i++) {
+	    if (this.in.read() != SessionRecorder.MAGIC[i])
+		throw new IOException("Not a session log");
+	}
+	int version = this.in.read();
+	if (version != SessionRecorder.VERSION)
+	    throw new IOException("Unsupported session log version " + version);
+	startTime = this.in.readLong();
+    }
+
+    /**
+     * close the log.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public void close() throws IOException {
+	in.close();
+    }
+
+    /**
+     * @return the time the recording was started in milliseconds.
+     */
+    public long getStartTime() {
+	return startTime;
+    }
+
+    /**
+     * read the next record.
+     *
+     * @exception IOException
+     *                the log is corrupt or could not be read
+     * @return the record or null at the end of the log
+     */
+    public Record read() throws IOException {
+	int type = in.read();
+	if (type < 0)
+	    return null;
+	time += readNumber();
+	if (type == SessionRecorder.DATA)
+	    return new Record(type, time, new byte[0], readNumber());
+	if (type != SessionRecorder.COMMAND && type != SessionRecorder.REPLY)
+	    throw new IOException("Unknown record type " + type);
+	int length = (int) readNumber();
+	byte[] data = new byte[length];
+	in.readFully(data);
+	return new Record(type, time, data, length);
+    }
+
+    private long readNumber() throws IOException {
+	long value = 0;
+	int shift = 0;
+	while (true) {
+	    int b = in.read();
+	    if (b < 0)
+		throw new EOFException("Truncated session log");
+	    value |= (long) (b & 0x7f) << shift;
+	    if ((b & 0x80) == 0)
+		return value;
+	    shift += 7;
+	}
+    }
+
+}
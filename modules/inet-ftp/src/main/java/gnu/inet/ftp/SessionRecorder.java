@@ -0,0 +1,294 @@
+// SessionRecorder.java - records the control connection to a binary log
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records the exchange on a control connection to a compact binary log that
+ * can be read with SessionLog. Set the recorder with
+ * FtpClientProtocol.setRecorder() before connecting. FtpClient and
+ * HylaFAXClient also register it as a TransferListener so the size of every
+ * data transfer is logged.
+ * <P>
+ * The log starts with the magic bytes "HFXR", a version byte and the start
+ * time in milliseconds (8 bytes, big endian). Each record consists of a type
+ * byte, the milliseconds since the previous record and either the length and
+ * the bytes of a command line or reply chunk, or the size of a data transfer.
+ * Numbers are written as unsigned varints, 7 bits per byte, low bits first.
+ * <P>
+ * The arguments of pass and admin commands are not recorded. Failures to write
+ * the log are logged once and stop the recording, they never affect the
+ * connection.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class SessionRecorder implements TransferListener {
+
+    private final static Log log = LogFactory.getLog(SessionRecorder.class);
+
+    /**
+     * the first bytes of a session log.
+     */
+    public static final byte[] MAGIC = { 'H', 'F', 'X', 'R' };
+
+    /**
+     * the version of the log format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * record type of a command line sent to the server.
+     */
+    public static final int COMMAND = 'C';
+
+    /**
+     * record type of bytes received from the server.
+     */
+    public static final int REPLY = 'S';
+
+    /**
+     * record type of a completed data transfer.
+     */
+    public static final int DATA = 'D';
+
+    private final OutputStream out;
+
+    private long last;
+
+    private long transferred = 0;
+
+    private boolean failed = false;
+
+    /**
+     * start a new log. The header is written immediately.
+     *
+     * @param out
+     *            the stream to write the log to
+     * @exception IOException
+     *                the header could not be written
+     */
+    public SessionRecorder(OutputStream out) throws IOException {
+	this.out = new BufferedOutputStream(out);
+	last = System.currentTimeMillis();
+	this.out.write(MAGIC);
+	this.out.write(VERSION);
+	for (int shift = 56; shift >= 0; shift -= 8)
+	    this.out.write((int) (last >>> shift));
+    }
+
+    /**
+     * flush and close the log.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public synchronized void close() throws IOException {
+	failed = true;
+	out.close();
+    }
+
+    /**
+     * write buffered records to the log.
+     *
+     * @exception IOException
+     *                an IO error occurred
+     */
+    public synchronized void flush() throws IOException {
+	out.flush();
+    }
+
+    /**
+     * record a command line sent to the server.
+     */
+    public synchronized void recordCommand(byte[] b, int off, int len) {
+	if (isSecret(b, off, len, "pass ") || isSecret(b, off, len, "admin ")) {
+	    int end = off;
+	    while (b[end] != ' ')
+		end++;
+	    byte[] masked = new byte[end - off + 4];
+	    System.arraycopy(b, off, masked, 0, end - off + 1);
+	    masked[masked.length - 3] = '*';
+	    masked[masked.length - 2] = '\r';
+	    masked[masked.length - 1] = '\n';
+	    b = masked;
+	    off = 0;
+	    len = masked.length;
+	}
+	record(COMMAND, b, off, len);
+    }
+
+    /**
+     * record the size of a completed data transfer.
+     *
+     * @param amount
+     *            the number of bytes transferred
+     */
+    public synchronized void recordData(long amount) {
+	if (failed)
+	    return;
+	try {
+	    out.write(DATA);
+	    writeDelay();
+	    writeNumber(amount);
+	} catch (IOException e) {
+	    fail(e);
+	}
+    }
+
+    /**
+     * record bytes received from the server.
+     */
+    public synchronized void recordReply(byte[] b, int off, int len) {
+	record(REPLY, b, off, len);
+    }
+
+    /**
+     * @param in
+     *            the input stream of the control connection
+     * @return a stream that records everything read from in.
+     */
+    public InputStream wrapInput(InputStream in) {
+	return new FilterInputStream(in) {
+	    public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0)
+		    recordReply(new byte[] { (byte) b }, 0, 1);
+		return b;
+	    }
+
+	    public int read(byte[] b, int off, int len) throws IOException {
+		int count = super.read(b, off, len);
+		if (count > 0)
+		    recordReply(b, off, count);
+		return count;
+	    }
+	};
+    }
+
+    /**
+     * @param out
+     *            the output stream of the control connection
+     * @return a stream that records every line written to out.
+     */
+    public OutputStream wrapOutput(OutputStream out) {
+	return new FilterOutputStream(out) {
+	    private ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+
+	    public void write(int b) throws IOException {
+		out.write(b);
+		line.write(b);
+		if (b == '\n') {
+		    byte[] bytes = line.toByteArray();
+		    line.reset();
+		    recordCommand(bytes, 0, bytes.length);
+		}
+	    }
+
+	    public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		int start = off;
+		for (int i = off; i < off + len; i++) {
+		    if (b[i] == '\n') {
+			line.write(b, start, i + 1 - start);
+			byte[] bytes = line.toByteArray();
+			line.reset();
+			recordCommand(bytes, 0, bytes.length);
+			start = i + 1;
+		    }
+		}
+		line.write(b, start, off + len - start);
+	    }
+	};
+    }
+
+    // ***** TransferListener *****
+
+    public synchronized void transferStarted() {
+	transferred = 0;
+    }
+
+    public synchronized void transfered(long amount) {
+	transferred = amount;
+    }
+
+    public synchronized void transferCompleted() {
+	recordData(transferred);
+    }
+
+    public synchronized void transferFailed() {
+	recordData(transferred);
+    }
+
+    // ***** private methods *****
+
+    private void fail(IOException e) {
+	failed = true;
+	log.warn("Session recording stopped: " + e.getMessage());
+    }
+
+    private static boolean isSecret(byte[] b, int off, int len, String command) {
+	if (len <= command.length())
+	    return false;
+	for (int i = 0; i < command.length(); i++) {
+	    if (Character.toLowerCase((char) b[off + i]) != command.charAt(i))
+		return false;
+	}
+	return true;
+    }
+
+    private void record(int type, byte[] b, int off, int len) {
+	if (failed)
+	    return;
+	try {
+	    out.write(type);
+	    writeDelay();
+	    writeNumber(len);
+	    out.write(b, off, len);
+	} catch (IOException e) {
+	    fail(e);
+	}
+    }
+
+    private void writeDelay() throws IOException {
+	long now = System.currentTimeMillis();
+	writeNumber(Math.max(0, now - last));
+	last = now;
+    }
+
+    private void writeNumber(long value) throws IOException {
+	while ((value & ~0x7fL) != 0) {
+	    out.write((int) ((value & 0x7f) | 0x80));
+	    value >>>= 7;
+	}
+	out.write((int) value);
+    }
+
+}
@@ -0,0 +1,132 @@
+// TransferExecutor.java - the shared pool of data transfer threads
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+import EDU.oswego.cs.dl.util.concurrent.LinkedQueue;
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+import EDU.oswego.cs.dl.util.concurrent.ThreadFactory;
+
+/**
+ * Provides the executor that runs the Getter and Putter tasks of all clients
+ * unless a client has been given its own with setTransferExecutor(). The
+ * default executor keeps idle threads for a minute and starts at most
+ * DEFAULT_MAXIMUM_POOL_SIZE threads. A transfer started while all threads are
+ * busy waits for a free thread.
+ * <P>
+ * Transfers must never run on the thread that started them, the control
+ * connection is still needed to send the command that opens the data
+ * connection. An executor that runs tasks in the calling thread can not be
+ * used.
+ * <P>
+ * newDaemonExecutor() and newDaemonThreadFactory() create the other thread
+ * pools of the library, e.g. for compression and pooled connections.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class TransferExecutor {
+
+    /**
+     * the maximum number of threads of the default executor.
+     */
+    public static final int DEFAULT_MAXIMUM_POOL_SIZE = 32;
+
+    private static final long KEEP_ALIVE = 60 * 1000; // 1 minute.
+
+    private static Executor defaultExecutor = null;
+
+    /**
+     * create a bounded executor with daemon threads.
+     *
+     * @param maximumPoolSize
+     *            the maximum number of concurrent transfers
+     * @return the new executor
+     */
+    public static PooledExecutor create(int maximumPoolSize) {
+	PooledExecutor executor = new PooledExecutor(Math.max(1,
+		maximumPoolSize));
+	executor.setKeepAliveTime(KEEP_ALIVE);
+	executor.waitWhenBlocked();
+	executor.setThreadFactory(newDaemonThreadFactory("Data Transfer"));
+	return executor;
+    }
+
+    /**
+     * create an executor with a fixed number of daemon threads and an
+     * unbounded queue. Idle threads are kept for a minute.
+     *
+     * @param name
+     *            the name of the threads
+     * @param threads
+     *            the number of threads, at least 1
+     * @return the new executor
+     */
+    public static PooledExecutor newDaemonExecutor(String name, int threads) {
+	int size = Math.max(1, threads);
+	PooledExecutor executor = new PooledExecutor(new LinkedQueue(), size);
+	// with an unbounded queue the pool never grows beyond its minimum
+	// size.
+	executor.setMinimumPoolSize(size);
+	executor.setKeepAliveTime(KEEP_ALIVE);
+	executor.setThreadFactory(newDaemonThreadFactory(name));
+	return executor;
+    }
+
+    /**
+     * @param name
+     *            the name of the threads
+     * @return a factory creating daemon threads with the given name
+     */
+    public static ThreadFactory newDaemonThreadFactory(final String name) {
+	return new ThreadFactory() {
+	    public Thread newThread(Runnable command) {
+		Thread thread = new Thread(command, name);
+		thread.setDaemon(true);
+		return thread;
+	    }
+	};
+    }
+
+    /**
+     * @return the executor used by clients without their own executor.
+     */
+    public static synchronized Executor getDefault() {
+	if (defaultExecutor == null)
+	    defaultExecutor = create(DEFAULT_MAXIMUM_POOL_SIZE);
+	return defaultExecutor;
+    }
+
+    /**
+     * replace the executor used by clients without their own executor. The
+     * previous executor is not shut down.
+     *
+     * @param executor
+     *            the new default executor, null to restore the built-in one
+     */
+    public static synchronized void setDefault(Executor executor) {
+	defaultExecutor = executor;
+    }
+
+    private TransferExecutor() {
+	// static methods only.
+    }
+
+}
@@ -0,0 +1,425 @@
+// TransferGovernor.java - shared bandwidth limits for data transfers
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Limits the bandwidth of the data transfers of all clients sharing it. There
+ * is a global budget and a budget per server host, both in bytes per second
+ * and both enforced with token buckets that allow bursts of a quarter of a
+ * second. Control connections are never limited, so a budget somewhat below
+ * the uplink capacity keeps commands like jsubm responsive while bulk uploads
+ * are running.
+ * <P>
+ * Transfers waiting for the same budget are served in turns. Each turn grants
+ * a transfer QUANTUM bytes times its weight, so a transfer with weight 4 gets
+ * four times the bandwidth of a transfer with weight 1 while both are
+ * running. Give interactive submissions a high weight and bulk campaigns the
+ * default weight of 1. A turn may exceed the burst size, the next turn then
+ * waits until the budget has caught up.
+ * <P>
+ * A rate of 0 means unlimited. Rates may be changed while transfers are
+ * running.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class TransferGovernor {
+
+    /**
+     * the weight of transfers that have not been given one.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * the bytes granted per turn and unit of weight.
+     */
+    public static final int QUANTUM = 4 * 1024;
+
+    private static final long BURST_MILLIS = 250;
+
+    private static TransferGovernor defaultGovernor = null;
+
+    /**
+     * A token bucket with a queue of the transfers waiting for it.
+     */
+    private static class Bucket {
+
+	private long rate = 0;
+
+	// false while the bucket follows the default host rate
+	private boolean explicit = false;
+
+	private long capacity = 0;
+
+	private double tokens = 0;
+
+	private long last = System.currentTimeMillis();
+
+	// one entry per waiting acquire() call, served in order
+	private final LinkedList queue = new LinkedList();
+
+	Bucket(long rate) {
+	    setRate(rate);
+	}
+
+	synchronized long getRate() {
+	    return rate;
+	}
+
+	synchronized void setRate(long rate) {
+	    refill();
+	    this.rate = Math.max(0, rate);
+	    this.capacity = Math.max(QUANTUM, this.rate * BURST_MILLIS / 1000);
+	    tokens = Math.min(tokens, capacity);
+	    notifyAll();
+	}
+
+	/**
+	 * wait for the turn of the caller and for enough tokens, then take
+	 * wanted tokens.
+	 */
+	synchronized void acquire(int wanted) throws InterruptedIOException {
+	    if (rate <= 0)
+		return;
+	    Object ticket = new Object();
+	    queue.addLast(ticket);
+	    try {
+		while (true) {
+		    if (rate <= 0)
+			return;
+		    if (queue.getFirst() != ticket) {
+			wait();
+			continue;
+		    }
+		    // a grant beyond the capacity leaves the bucket in debt,
+		    // which the next turn waits for. Capping the grant
+		    // instead would flatten the weights at low rates.
+		    long needed = Math.min(wanted, capacity);
+		    refill();
+		    if (tokens >= needed) {
+			tokens -= wanted;
+			return;
+		    }
+		    wait(Math.max(1, (long) ((needed - tokens) * 1000 / rate)));
+		}
+	    } catch (InterruptedException e) {
+		throw new InterruptedIOException(
+			"Interrupted waiting for bandwidth");
+	    } finally {
+		queue.remove(ticket);
+		notifyAll();
+	    }
+	}
+
+	/**
+	 * return tokens that have been granted but not used.
+	 */
+	synchronized void refund(int unused) {
+	    if (rate > 0 && unused > 0) {
+		tokens = Math.min(capacity, tokens + unused);
+		notifyAll();
+	    }
+	}
+
+	private void refill() {
+	    long now = System.currentTimeMillis();
+	    if (now > last) {
+		tokens = Math.min(capacity, tokens + (now - last) * rate / 1000.0);
+	    }
+	    last = now;
+	}
+    }
+
+    /**
+     * The part of the budgets given to one transfer.
+     */
+    public class Share {
+
+	private final Bucket host;
+
+	private final int weight;
+
+	private Share(Bucket host, int weight) {
+	    this.host = host;
+	    this.weight = weight;
+	}
+
+	/**
+	 * wait for the turn of this transfer and for bandwidth in both the
+	 * global and the host budget.
+	 *
+	 * @param wanted
+	 *            the number of bytes to transfer, at least 1
+	 * @return the number of bytes that may be transferred now, at least 1
+	 *         and at most wanted
+	 * @exception InterruptedIOException
+	 *                the thread was interrupted while waiting
+	 */
+	public int acquire(int wanted) throws InterruptedIOException {
+	    int quantum = (int) Math.min(Integer.MAX_VALUE, (long) QUANTUM
+		    * weight);
+	    int granted = Math.min(wanted, quantum);
+	    host.acquire(granted);
+	    try {
+		global.acquire(granted);
+	    } catch (InterruptedIOException e) {
+		host.refund(granted);
+		throw e;
+	    }
+	    return granted;
+	}
+
+	/**
+	 * return bytes acquired but not transferred, e.g. after a short read.
+	 *
+	 * @param unused
+	 *            the number of bytes not transferred
+	 */
+	public void refund(int unused) {
+	    host.refund(unused);
+	    global.refund(unused);
+	}
+
+	/**
+	 * @param out
+	 *            the stream of a data connection
+	 * @return a stream writing to out within the budgets
+	 */
+	public OutputStream limit(OutputStream out) {
+	    return new FilterOutputStream(out) {
+		public void write(int b) throws IOException {
+		    acquire(1);
+		    out.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+		    while (len > 0) {
+			int allowed = acquire(len);
+			out.write(b, off, allowed);
+			off += allowed;
+			len -= allowed;
+		    }
+		}
+	    };
+	}
+
+	/**
+	 * @param in
+	 *            the stream of a data connection
+	 * @return a stream reading from in within the budgets
+	 */
+	public InputStream limit(InputStream in) {
+	    return new FilterInputStream(in) {
+		public int read() throws IOException {
+		    acquire(1);
+		    int b = in.read();
+		    if (b < 0)
+			refund(1);
+		    return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+		    if (len == 0)
+			return 0;
+		    int allowed = acquire(len);
+		    int count = in.read(b, off, allowed);
+		    refund(allowed - Math.max(0, count));
+		    return count;
+		}
+
+		public long skip(long n) throws IOException {
+		    // skip through read() so skipped bytes are counted too.
+		    if (n <= 0)
+			return 0;
+		    BufferPool pool = BufferPool.getDefault();
+		    byte[] buffer = pool.acquire(QUANTUM);
+		    long skipped = 0;
+		    try {
+			while (skipped < n) {
+			    int count = read(buffer, 0, (int) Math.min(
+				    buffer.length, n - skipped));
+			    if (count < 0)
+				break;
+			    skipped += count;
+			}
+		    } finally {
+			pool.release(buffer);
+		    }
+		    return skipped;
+		}
+	    };
+	}
+    }
+
+    private final Bucket global;
+
+    private final Map hosts = new HashMap();
+
+    private long defaultHostRate = 0;
+
+    /**
+     * create a governor without limits.
+     */
+    public TransferGovernor() {
+	this(0);
+    }
+
+    /**
+     * @param rate
+     *            the global budget in bytes per second, 0 for unlimited
+     */
+    public TransferGovernor(long rate) {
+	global = new Bucket(rate);
+    }
+
+    /**
+     * @return the governor used by clients without their own governor, null
+     *         if transfers are not limited.
+     */
+    public static synchronized TransferGovernor getDefault() {
+	return defaultGovernor;
+    }
+
+    /**
+     * set the governor used by clients without their own governor.
+     *
+     * @param governor
+     *            the new default governor, null to not limit transfers
+     */
+    public static synchronized void setDefault(TransferGovernor governor) {
+	defaultGovernor = governor;
+    }
+
+    /**
+     * @return the global budget in bytes per second, 0 if unlimited.
+     */
+    public long getRate() {
+	return global.getRate();
+    }
+
+    /**
+     * @param rate
+     *            the global budget in bytes per second, 0 for unlimited
+     */
+    public void setRate(long rate) {
+	global.setRate(rate);
+    }
+
+    /**
+     * @return the budget of hosts without a budget of their own, 0 if
+     *         unlimited.
+     */
+    public synchronized long getDefaultHostRate() {
+	return defaultHostRate;
+    }
+
+    /**
+     * set the budget of every host without a budget of its own, including
+     * hosts with transfers running.
+     *
+     * @param rate
+     *            the budget in bytes per second, 0 for unlimited
+     */
+    public synchronized void setDefaultHostRate(long rate) {
+	defaultHostRate = Math.max(0, rate);
+	Iterator i = hosts.values().iterator();
+	while (i.hasNext()) {
+	    Bucket bucket = (Bucket) i.next();
+	    if (!bucket.explicit)
+		bucket.setRate(defaultHostRate);
+	}
+    }
+
+    /**
+     * set the budget of the transfers to and from one host.
+     *
+     * @param host
+     *            the server host
+     * @param rate
+     *            the budget in bytes per second, 0 for unlimited
+     */
+    public synchronized void setHostRate(InetAddress host, long rate) {
+	Bucket bucket = (Bucket) hosts.get(host);
+	if (bucket == null) {
+	    bucket = new Bucket(rate);
+	    hosts.put(host, bucket);
+	} else {
+	    bucket.setRate(rate);
+	}
+	bucket.explicit = true;
+    }
+
+    /**
+     * set the budget of the transfers to and from one host.
+     *
+     * @param host
+     *            the name or address of the server host
+     * @param rate
+     *            the budget in bytes per second, 0 for unlimited
+     * @exception UnknownHostException
+     *                the host name could not be resolved
+     */
+    public void setHostRate(String host, long rate)
+	    throws UnknownHostException {
+	setHostRate(InetAddress.getByName(host), rate);
+    }
+
+    /**
+     * @param host
+     *            the server host
+     * @return the budget of the host in bytes per second, 0 if unlimited
+     */
+    public synchronized long getHostRate(InetAddress host) {
+	Bucket bucket = (Bucket) hosts.get(host);
+	return bucket == null ? defaultHostRate : bucket.getRate();
+    }
+
+    /**
+     * get the share of a new transfer.
+     *
+     * @param host
+     *            the host at the other end of the data connection
+     * @param weight
+     *            the weight of the transfer, at least 1
+     * @return the share to acquire bandwidth from
+     */
+    public synchronized Share share(InetAddress host, int weight) {
+	Bucket bucket = (Bucket) hosts.get(host);
+	if (bucket == null) {
+	    bucket = new Bucket(defaultHostRate);
+	    hosts.put(host, bucket);
+	}
+	return new Share(bucket, Math.max(1, weight));
+    }
+
+}
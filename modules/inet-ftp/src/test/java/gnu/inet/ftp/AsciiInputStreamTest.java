@@ -0,0 +1,136 @@
+// AsciiInputStreamTest.java - tests for the ASCII input filter
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares AsciiInputStream with the byte at a time translation it replaced,
+ * for input split at every position and read with buffers of every size.
+ */
+public class AsciiInputStreamTest extends TestCase {
+
+    private static final int[][] PIECES = { { 1 }, { 2 }, { 3, 1 }, { 7 },
+	    { AsciiInputStream.CHUNK_SIZE - 1 }, { AsciiInputStream.CHUNK_SIZE },
+	    { 100000 } };
+
+    private static final int[] READS = { 1, 2, 5, 4096, 100000 };
+
+    protected void setUp() throws Exception {
+	// the filter is only active where the line separator is not CR LF.
+	assertTrue("Tests need a single character line separator", System
+		.getProperty("line.separator").length() == 1);
+    }
+
+    public void testCarriageReturns() throws Exception {
+	check("a\r\nb".getBytes());
+	check("\r\r\n\r".getBytes());
+	check("\r".getBytes());
+	check("\n\r\n\n".getBytes());
+	check(new byte[0]);
+    }
+
+    public void testCrLfAcrossChunks() throws Exception {
+	// a CR as the last byte of a chunk, its LF in the next one.
+	byte[] data = new byte[3 * AsciiInputStream.CHUNK_SIZE];
+	for (int i = 0; i < data.length; i++)
+	    data[i] = 'x';
+	for (int i = 1; i <= 3; i++) {
+	    data[i * AsciiInputStream.CHUNK_SIZE - 1] = '\r';
+	    if (i < 3)
+		data[i * AsciiInputStream.CHUNK_SIZE] = '\n';
+	}
+	check(data);
+    }
+
+    public void testRandomInput() throws Exception {
+	Random random = new Random(4711);
+	byte[] alphabet = { 'a', 'b', '\r', '\n' };
+	for (int round = 0; round < 5; round++) {
+	    byte[] data = new byte[20000 + random.nextInt(1000)];
+	    for (int i = 0; i < data.length; i++)
+		data[i] = alphabet[random.nextInt(alphabet.length)];
+	    check(data);
+	}
+    }
+
+    public void testSingleByteReads() throws Exception {
+	byte[] data = "one\r\ntwo\rthree\r\r\n".getBytes();
+	AsciiInputStream in = new AsciiInputStream(new SplitInputStream(data,
+		new int[] { 1 }));
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	int b;
+	while ((b = in.read()) != -1)
+	    out.write(b);
+	in.close();
+	assertEquals(new String(expected(data)), out.toString());
+    }
+
+    private void check(byte[] data) throws Exception {
+	String expected = new String(expected(data), "ISO-8859-1");
+	for (int p = 0; p < PIECES.length; p++) {
+	    for (int r = 0; r < READS.length; r++) {
+		String actual = new String(read(data, PIECES[p], READS[r]),
+			"ISO-8859-1");
+		assertEquals("pieces of " + PIECES[p][0] + ", reads of "
+			+ READS[r], expected, actual);
+	    }
+	}
+    }
+
+    private static byte[] read(byte[] data, int[] pieces, int size)
+	    throws Exception {
+	AsciiInputStream in = new AsciiInputStream(new SplitInputStream(data,
+		pieces));
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] buffer = new byte[size];
+	int count;
+	while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+	    assertTrue("read returned 0", count > 0);
+	    out.write(buffer, 0, count);
+	}
+	in.close();
+	return out.toByteArray();
+    }
+
+    /**
+     * the translation of the old byte at a time read(): CR LF becomes the
+     * line separator, any other CR is kept.
+     */
+    private static byte[] expected(byte[] data) throws IOException {
+	byte eol = (byte) System.getProperty("line.separator").charAt(0);
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	for (int i = 0; i < data.length; i++) {
+	    if (data[i] == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+		out.write(eol);
+		i++;
+	    } else {
+		out.write(data[i]);
+	    }
+	}
+	return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,65 @@
+// AsciiOutputStreamTest.java - tests for the ASCII output filter
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares AsciiOutputStream with the byte at a time translation it replaced,
+ * for writes of every size.
+ */
+public class AsciiOutputStreamTest extends TestCase {
+
+    public void testWrites() throws Exception {
+	byte eol = (byte) System.getProperty("line.separator").charAt(0);
+	Random random = new Random(42);
+	byte[] alphabet = { 'a', '\r', eol };
+	byte[] data = new byte[3 * AsciiOutputStream.CHUNK_SIZE + 17];
+	for (int i = 0; i < data.length; i++)
+	    data[i] = alphabet[random.nextInt(alphabet.length)];
+
+	ByteArrayOutputStream expected = new ByteArrayOutputStream();
+	for (int i = 0; i < data.length; i++) {
+	    if (data[i] == eol) {
+		expected.write('\r');
+		expected.write('\n');
+	    } else {
+		expected.write(data[i]);
+	    }
+	}
+
+	int[] sizes = { 1, 3, 1000, AsciiOutputStream.CHUNK_SIZE, data.length };
+	for (int s = 0; s < sizes.length; s++) {
+	    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+	    AsciiOutputStream out = new AsciiOutputStream(actual);
+	    for (int off = 0; off < data.length; off += sizes[s])
+		out.write(data, off, Math.min(sizes[s], data.length - off));
+	    out.close();
+	    assertEquals("writes of " + sizes[s], new String(expected
+		    .toByteArray(), "ISO-8859-1"), new String(actual
+		    .toByteArray(), "ISO-8859-1"));
+	}
+    }
+
+}
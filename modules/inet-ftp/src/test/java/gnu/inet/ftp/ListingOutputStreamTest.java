@@ -0,0 +1,126 @@
+// ListingOutputStreamTest.java - tests for the streaming listing decoder
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares ListingOutputStream with the BufferedReader based parsing of
+ * listings it replaced, for listings written in pieces of every size.
+ */
+public class ListingOutputStreamTest extends TestCase {
+
+    private static final int[] WRITES = { 1, 2, 3, 7, 100000 };
+
+    private static final String LISTING = "modem1 Running and idle\r\n"
+	    + "job 101 sending \\\r\n   page 2 of 3  \\\r\n to 5551212\r\n"
+	    + "\r\n" + "lf only\n" + "cr only\r" + "  padded  \r\n"
+	    + "trailing backslash\\\n" + "last line without terminator";
+
+    public void testLines() throws Exception {
+	check(LISTING, false);
+	check("", false);
+	check("\r\n\r\n", false);
+    }
+
+    public void testContinuations() throws Exception {
+	check(LISTING, true);
+	check("a \\\r\nb\\\r\n\\\r\nc\r\n", true);
+	// an entry still continued at the end is dropped, as before.
+	check("a\r\nb \\\r\n", true);
+    }
+
+    public void testHandlerFailure() throws Exception {
+	ListingOutputStream out = new ListingOutputStream(
+		new ListingHandler() {
+		    public void entry(String entry) {
+			throw new IllegalStateException("stop");
+		    }
+		}, "ISO-8859-1", false);
+	try {
+	    out.write("a\r\nb".getBytes());
+	    fail("IOException expected");
+	} catch (IOException e) {
+	    // expected
+	}
+	try {
+	    out.close();
+	    fail("IllegalStateException expected");
+	} catch (IllegalStateException e) {
+	    // expected
+	}
+    }
+
+    private void check(String listing, boolean continuations)
+	    throws Exception {
+	byte[] data = listing.getBytes("ISO-8859-1");
+	Vector expected = expected(data, continuations);
+	for (int w = 0; w < WRITES.length; w++) {
+	    final Vector actual = new Vector();
+	    ListingOutputStream out = new ListingOutputStream(
+		    new ListingHandler() {
+			public void entry(String entry) {
+			    actual.add(entry);
+			}
+		    }, "ISO-8859-1", continuations);
+	    for (int off = 0; off < data.length; off += WRITES[w])
+		out.write(data, off, Math.min(WRITES[w], data.length - off));
+	    out.close();
+	    assertEquals("writes of " + WRITES[w], expected, actual);
+	}
+    }
+
+    /**
+     * the parsing of listings before ListingOutputStream: plain lines, or
+     * with continuations the loop HylaFAXClient.getList() used.
+     */
+    private static Vector expected(byte[] data, boolean continuations)
+	    throws IOException {
+	Vector result = new Vector();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(
+		new ByteArrayInputStream(data), "ISO-8859-1"));
+	String line = null;
+	String next = null;
+	while ((next = reader.readLine()) != null) {
+	    if (!continuations) {
+		result.add(next);
+		continue;
+	    }
+	    next = next.trim();
+	    if (next.endsWith("\\")) {
+		next = next.substring(0, next.lastIndexOf("\\"));
+		line = (line == null ? next : line + " " + next).trim();
+		continue;
+	    }
+	    line = (line == null ? next : line + " " + next).trim();
+	    result.add(line);
+	    line = null;
+	}
+	return result;
+    }
+
+}
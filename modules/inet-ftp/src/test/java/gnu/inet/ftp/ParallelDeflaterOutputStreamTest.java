@@ -0,0 +1,179 @@
+// ParallelDeflaterOutputStreamTest.java - tests for parallel compression
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Compresses data of sizes around the 32k dictionary and the 128k block
+ * boundaries, with and without flushes between the writes, and inflates it
+ * with InflaterInputStream.
+ */
+public class ParallelDeflaterOutputStreamTest extends TestCase {
+
+    private static final int DICTIONARY = 32 * 1024;
+
+    private static final int BLOCK =
+	ParallelDeflaterOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private static final int[] SIZES = { 0, 1, DICTIONARY - 1, DICTIONARY,
+	    DICTIONARY + 1, BLOCK - 1, BLOCK, BLOCK + 1, BLOCK + DICTIONARY,
+	    2 * BLOCK + DICTIONARY + 1 };
+
+    // sizes of the writes between two flushes
+    private static final int[] WRITES = { 4096, DICTIONARY - 1,
+	    DICTIONARY + 1, BLOCK - 1, BLOCK + 1 };
+
+    public void testDefaultLevel() throws Exception {
+	check(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public void testNoCompression() throws Exception {
+	check(Deflater.NO_COMPRESSION);
+    }
+
+    public void testBestSpeed() throws Exception {
+	check(Deflater.BEST_SPEED);
+    }
+
+    public void testBestCompression() throws Exception {
+	check(Deflater.BEST_COMPRESSION);
+    }
+
+    private void check(int level) throws Exception {
+	if (!ParallelDeflaterOutputStream.isSupported())
+	    return;
+	for (int i = 0; i < SIZES.length; i++) {
+	    byte[] data = data(SIZES[i]);
+	    String name = "level " + level + ", " + data.length + " bytes";
+	    // one write, so only the stream splits the blocks.
+	    assertInflates(name, data,
+		    deflate(data, level, data.length, false));
+	    for (int j = 0; j < WRITES.length; j++) {
+		assertInflates(name + " in writes of " + WRITES[j], data,
+			deflate(data, level, WRITES[j], false));
+		assertInflates(name + " flushed every " + WRITES[j], data,
+			deflate(data, level, WRITES[j], true));
+	    }
+	}
+    }
+
+    /**
+     * @return text like data with repetitions further apart than the
+     *         dictionary and the blocks, and some random bytes.
+     */
+    private byte[] data(int size) {
+	Random random = new Random(size);
+	byte[][] words = new byte[64][];
+	for (int i = 0; i < words.length; i++) {
+	    words[i] = new byte[1 + random.nextInt(12)];
+	    random.nextBytes(words[i]);
+	}
+	byte[] data = new byte[size];
+	int length = 0;
+	while (length < size) {
+	    if (random.nextInt(8) == 0) {
+		data[length++] = (byte) random.nextInt();
+	    } else {
+		byte[] word = words[random.nextInt(words.length)];
+		int copy = Math.min(word.length, size - length);
+		System.arraycopy(word, 0, data, length, copy);
+		length += copy;
+	    }
+	}
+	return data;
+    }
+
+    private byte[] deflate(byte[] data, int level, int write, boolean flush)
+	    throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(
+		bytes, level);
+	int offset = 0;
+	while (offset < data.length) {
+	    int length = Math.min(write, data.length - offset);
+	    out.write(data, offset, length);
+	    offset += length;
+	    if (flush) {
+		out.flush();
+		assertFlushed(data, offset, bytes.toByteArray());
+	    }
+	}
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    /**
+     * check that everything written before a flush can be inflated.
+     */
+    private void assertFlushed(byte[] data, int length, byte[] deflated)
+	    throws IOException {
+	Inflater inflater = new Inflater();
+	inflater.setInput(deflated);
+	byte[] inflated = new byte[length + 1];
+	int count = 0;
+	try {
+	    int n;
+	    while ((n = inflater.inflate(inflated, count, inflated.length
+		    - count)) > 0)
+		count += n;
+	} catch (java.util.zip.DataFormatException e) {
+	    fail("flushed data is corrupt: " + e.getMessage());
+	} finally {
+	    inflater.end();
+	}
+	assertEquals("inflated after flush", length, count);
+	for (int i = 0; i < length; i++)
+	    if (inflated[i] != data[i])
+		fail("after flush of " + length + " bytes, differs at " + i);
+    }
+
+    private void assertInflates(String name, byte[] data, byte[] deflated)
+	    throws IOException {
+	Inflater inflater = new Inflater();
+	InflaterInputStream in = new InflaterInputStream(
+		new ByteArrayInputStream(deflated), inflater);
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	byte[] buffer = new byte[8192];
+	int n;
+	while ((n = in.read(buffer)) > 0)
+	    bytes.write(buffer, 0, n);
+	// the inflater has checked the adler32 trailer.
+	assertTrue(name + ": stream not finished", inflater.finished());
+	assertEquals(name + ": trailing bytes", 0, inflater.getRemaining());
+	in.close();
+
+	byte[] inflated = bytes.toByteArray();
+	assertEquals(name + ": length", data.length, inflated.length);
+	for (int i = 0; i < data.length; i++)
+	    if (inflated[i] != data[i])
+		fail(name + ": differs at " + i);
+    }
+}
@@ -0,0 +1,132 @@
+// ReplyDecoderTest.java - tests for the reply decoder
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares ReplyDecoder with the BufferedReader based readResponse() it
+ * replaced, for replies split at every position and decoded with buffers
+ * smaller than a line.
+ */
+public class ReplyDecoderTest extends TestCase {
+
+    private static final int[][] PIECES = { { 1 }, { 2 }, { 3, 5 },
+	    { 1000 } };
+
+    private static final int[] BUFFERS = { 1, 4, ReplyDecoder.BUFFER_SIZE };
+
+    public void testSingleLine() throws Exception {
+	check("220 stub hfaxd (HylaFAX (tm) Version 6.0.0) ready.\r\n", 1);
+	check("213 1234\n", 1);
+    }
+
+    public void testMultiLine() throws Exception {
+	check("230-first\r\n230-second\r\n  indented text\r\n230 done\r\n", 1);
+	// a line starting with another code does not end the reply.
+	check("214-help\r\n200 not the end\r\n214-more\r\n214 end\r\n", 1);
+    }
+
+    public void testEmptyLines() throws Exception {
+	check("\r\n\n200 ok\r\n", 1);
+	check("250-a\r\n\r\n250-b\r\n\n250 end\n", 1);
+    }
+
+    public void testConsecutiveReplies() throws Exception {
+	check("150 opening\r\n226-transfer\r\n226 complete\r\n221 bye\r\n", 3);
+    }
+
+    public void testUnterminatedLastLine() throws Exception {
+	check("200-partial\r\n200 no newline", 1);
+    }
+
+    public void testEndOfStream() throws Exception {
+	ReplyDecoder decoder = new ReplyDecoder(new ByteArrayInputStream(
+		"\r\n".getBytes()));
+	try {
+	    decoder.read(new Reply());
+	    fail("EOFException expected");
+	} catch (EOFException e) {
+	    // expected
+	}
+    }
+
+    private void check(String replies, int count) throws Exception {
+	byte[] data = replies.getBytes("ISO-8859-1");
+	BufferedReader reader = new BufferedReader(new InputStreamReader(
+		new ByteArrayInputStream(data), "ISO-8859-1"));
+	String[] expected = new String[count];
+	for (int i = 0; i < count; i++)
+	    expected[i] = readResponse(reader);
+
+	for (int p = 0; p < PIECES.length; p++) {
+	    for (int b = 0; b < BUFFERS.length; b++) {
+		ReplyDecoder decoder = new ReplyDecoder(new SplitInputStream(
+			data, PIECES[p]), BUFFERS[b]);
+		decoder.setEncoding("ISO-8859-1");
+		Reply reply = new Reply();
+		for (int i = 0; i < count; i++) {
+		    String where = "reply " + i + ", pieces of " + PIECES[p][0]
+			    + ", buffer " + BUFFERS[b];
+		    decoder.read(reply);
+		    assertEquals(where, expected[i], reply.getText());
+		    assertEquals(where, Integer.parseInt(expected[i].substring(
+			    0, 3)), reply.getCode());
+		}
+	    }
+	}
+    }
+
+    /**
+     * the reply parsing FtpClientProtocol used before ReplyDecoder.
+     */
+    private static String readResponse(BufferedReader input)
+	    throws IOException {
+	String rc = "";
+	String response = "";
+	boolean done = false;
+	boolean first = true;
+	String tmp = null;
+	while (!done && (tmp = input.readLine()) != null) {
+	    if (tmp.length() > 0) { // Ignore empty lines
+		response += tmp + '\n';
+		if (tmp.length() >= 4) {
+		    if (first == true) {
+			rc = response.substring(0, 3);
+			first = false;
+		    }
+		    if ((rc.equals(tmp.substring(0, 3)))
+			    && (tmp.charAt(3) == ' ')) {
+			done = true;
+		    }
+		}
+	    }
+	}
+	return response;
+    }
+
+}
@@ -0,0 +1,60 @@
+// SplitInputStream.java - hands out its data in pieces of given sizes
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Returns its data in pieces of the given sizes, used in turn, so tests can
+ * split the input at every position a network connection might.
+ */
+class SplitInputStream extends InputStream {
+
+    private final byte[] data;
+
+    private final int[] pieces;
+
+    private int position = 0;
+
+    private int next = 0;
+
+    SplitInputStream(byte[] data, int[] pieces) {
+	this.data = data;
+	this.pieces = pieces;
+    }
+
+    public int read() throws IOException {
+	byte[] b = new byte[1];
+	return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+	if (position >= data.length)
+	    return -1;
+	int count = Math.min(len, Math.min(pieces[next++ % pieces.length],
+		data.length - position));
+	System.arraycopy(data, position, b, off, count);
+	position += count;
+	return count;
+    }
+
+}
@@ -0,0 +1,113 @@
+// TransferGovernorTest.java - tests for the weighted bandwidth limits
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.inet.ftp;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs two transfers with different weights against one budget and compares
+ * the bytes they were granted.
+ */
+public class TransferGovernorTest extends TestCase {
+
+    // low enough that a turn of weight 4 exceeds the burst size.
+    private static final long RATE = 32 * 1024;
+
+    // bytes of one turn of both transfers
+    private static final int ROUND = TransferGovernor.QUANTUM * 5;
+
+    private static class Transfer extends Thread {
+
+	private final TransferGovernor.Share share;
+
+	private long count = 0;
+
+	Transfer(TransferGovernor.Share share) {
+	    this.share = share;
+	    setDaemon(true);
+	}
+
+	synchronized long getCount() {
+	    return count;
+	}
+
+	public void run() {
+	    try {
+		while (true) {
+		    int granted = share.acquire(Integer.MAX_VALUE);
+		    synchronized (this) {
+			count += granted;
+		    }
+		}
+	    } catch (InterruptedIOException e) {
+		// stopped
+	    }
+	}
+    }
+
+    public void testGlobalWeights() throws Exception {
+	TransferGovernor governor = new TransferGovernor(RATE);
+	check(governor, 4);
+    }
+
+    public void testHostWeights() throws Exception {
+	TransferGovernor governor = new TransferGovernor();
+	governor.setHostRate(InetAddress.getByName("127.0.0.1"), RATE);
+	check(governor, 4);
+    }
+
+    public void testUnlimited() throws Exception {
+	TransferGovernor governor = new TransferGovernor();
+	TransferGovernor.Share share = governor.share(InetAddress
+		.getByName("127.0.0.1"), 2);
+	assertEquals(2 * TransferGovernor.QUANTUM, share
+		.acquire(Integer.MAX_VALUE));
+	assertEquals(10, share.acquire(10));
+    }
+
+    private void check(TransferGovernor governor, int weight)
+	    throws Exception {
+	InetAddress host = InetAddress.getByName("127.0.0.1");
+	Transfer light = new Transfer(governor.share(host, 1));
+	Transfer heavy = new Transfer(governor.share(host, weight));
+	long start = System.currentTimeMillis();
+	light.start();
+	heavy.start();
+	// wait for five turns of both.
+	while (light.getCount() + heavy.getCount() < 5 * ROUND)
+	    Thread.sleep(20);
+	long elapsed = System.currentTimeMillis() - start;
+	light.interrupt();
+	heavy.interrupt();
+	light.join();
+	heavy.join();
+
+	double ratio = (double) heavy.getCount() / light.getCount();
+	assertTrue("ratio " + ratio, ratio > weight - 1 && ratio < weight + 1);
+	// everything beyond the first turn has been paid for.
+	long total = light.getCount() + heavy.getCount();
+	assertTrue("too fast: " + total + " bytes in " + elapsed + " ms",
+		total <= RATE * elapsed / 1000 + 2 * ROUND);
+    }
+}
@@ -27,105 +27,202 @@ import gnu.hylafax.pool.ClientPoolConfiguration;
 import gnu.hylafax.pool.ClientPoolException;
 import gnu.hylafax.pool.HylaFAXPooledClient;
 import gnu.hylafax.pool.PooledClient;
+import gnu.inet.ftp.LatencyHistogram;
+import gnu.inet.ftp.TransferExecutor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import EDU.oswego.cs.dl.util.concurrent.LinkedQueue;
-
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+
+/**
+ * A pool of connections to one HylaFAX server. Idle clients are kept in
+ * stripes, each with a lock of its own. A thread returns clients to its home
+ * stripe and takes them from there first, looking at the other stripes only
+ * when its own is empty, so checking out and returning idle clients never
+ * waits for a lock shared by all threads. Connections are opened without
+ * holding any lock: a thread that finds no idle client reserves a place
+ * below the maximum pool size and connects on its own, while other threads
+ * keep taking and returning idle clients. Only threads waiting for a client
+ * of an exhausted pool share a monitor.
+ * <P>
+ * Clients returned invalid, or opened before restart(), are closed and
+ * replaced on a thread of the keep alive scheduler, the thread returning
+ * them does not wait for the server.
+ * <P>
+ * The EndpointHealth of the pool records connects, noop commands and
+ * returned clients. While its circuit breaker is open getClient() throws a
+ * ServerUnavailableException at once instead of trying to connect until the
+ * blocking timeout expires, the idle clients are closed and the server is
+ * probed on a thread of the keep alive scheduler.
+ * <P>
+ * Connections are opened in the background by up to connectThreads threads
+ * at once: start() opens the minimum number of clients in parallel and waits
+ * for them, afterwards the pool is kept at minPoolSize clients and at minIdle
+ * idle clients besides the working ones, checked every replenishInterval and
+ * whenever a thread takes the last idle client of its stripe. restart()
+ * closes the idle clients and reopens them in the background as well.
+ * <P>
+ * getStatistics() returns histograms of connect, wait and hold times and of
+ * the number of clients, in constant memory and decaying with a half-life.
+ * registerMBean() makes them available through JMX on Java 5 and later, the
+ * rest of the pool does not need JMX.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
 public class ClientPool implements gnu.hylafax.ClientPool {
 
     private final static Log log = LogFactory.getLog(ClientPool.class);
 
-    private boolean blocked = false;
+    private static final int STRIPES = stripes();
 
-    private HashMap clientMap;
+    /**
+     * The idle clients returned by a subset of the threads.
+     */
+    private static class Stripe {
+
+	private final LinkedList idle = new LinkedList();
+
+	// clients checked out from or returned to this stripe, the sum over
+	// all stripes is the number of working clients.
+	private int working = 0;
+
+	synchronized PooledClient take() {
+	    if (idle.isEmpty())
+		return null;
+	    working++;
+	    return (PooledClient) idle.removeFirst();
+	}
+
+	synchronized void add(PooledClient client) {
+	    idle.addLast(client);
+	}
+
+	synchronized void put(PooledClient client) {
+	    idle.addLast(client);
+	    working--;
+	}
+
+	synchronized void checkedOut() {
+	    working++;
+	}
+
+	synchronized void checkedIn() {
+	    working--;
+	}
+
+	synchronized int getIdle() {
+	    return idle.size();
+	}
+
+	synchronized int getWorking() {
+	    return working;
+	}
+    }
+
+    // threads waiting for a client of an exhausted pool wait on this.
+    private final Object available = new Object();
 
-    private LinkedQueue clients;
+    private volatile boolean blocked = false;
+
+    // clients -> clients, guarded by registry.
+    private HashMap clientMap;
 
     private ClientPoolConfiguration configuration;
 
-    private ArrayList creationTimes;
+    // opens connections in the background.
+    private PooledExecutor connector = null;
+
+    // tasks of the connector running or queued, guarded by registry.
+    private int connectors = 0;
+
+    private int generation = 0;
+
+    private final EndpointHealth health = new EndpointHealth();
+
+    private KeepAliveScheduler keepAliveScheduler = null;
 
     private boolean logClientCreationTimes = true;
 
-    private Object mutex = new Object();
+    // the name the statistics are registered under, guarded by this.
+    private String mbeanName = null;
 
-    private int size = 0;
+    // a probe is scheduled, guarded by registry.
+    private boolean probing = false;
 
-    private boolean stopped = false;
+    // guards clientMap, totalSize and generation.
+    private final Object registry = new Object();
 
-    private int totalSize = 0;
+    private final Stripe[] stripes;
+
+    // the first failure of the connector tasks since start(), guarded by
+    // registry.
+    private ClientPoolException startFailure = null;
 
-    private HashSet workingClients;
+    private final PoolStatistics statistics;
 
-    private HashSet workingClientsToClose;
+    private volatile boolean stopped = false;
+
+    // registered clients and connections being opened.
+    private int totalSize = 0;
 
-    private int workingSize = 0;
+    private volatile int waiting = 0;
 
     public ClientPool(ClientPoolConfiguration configuration) {
 	this.configuration = configuration;
-	clients = new LinkedQueue();
 	clientMap = new HashMap();
-	workingClients = new HashSet();
-	workingClientsToClose = new HashSet();
-	creationTimes = new ArrayList();
-    }
-
-    private synchronized boolean addClient() throws ClientPoolException {
-	log.debug("Trying To Create Client, Total Connections: " + totalSize
-		+ ", Max Allowed: " + getConfiguration().getMaxPoolSize());
-	boolean maximumCapacityReached = getConfiguration().getMaxPoolSize() <= totalSize
-		&& getConfiguration().getMaxPoolSize() != 0
-		&& getConfiguration().isPooling();
-	if (maximumCapacityReached) {
-	    log.debug("Maximum Clients Reached.");
-	    return false;
-	}
-
-	PooledClient client = createClient();
-	log.debug("Client Created.");
-
-	put(client);
-	clientMap.put(client, client);
-	totalSize++;
+	stripes = new Stripe[STRIPES];
+	for (int i = 0; i < stripes.length; i++)
+	    stripes[i] = new Stripe();
+	statistics = new PoolStatistics(this, STRIPES);
+    }
 
+    /**
+     * Open a client and add it to the idle clients.
+     * 
+     * @return false if the pool has reached its maximum size.
+     */
+    private boolean addClient() throws ClientPoolException {
+	PooledClient client = newClient(false);
+	if (client == null)
+	    return false;
+	home().add(client);
+	signal();
 	return true;
     }
 
-    private PooledClient createClient() throws ClientPoolException {
+    /**
+     * Open a new connection to the server, replaced by a stub in the tests.
+     */
+    PooledClient createClient() throws ClientPoolException {
 	return openClient(new HylaFAXPooledClient(this));
     }
 
     private void destroyClient(PooledClient client) throws ClientPoolException {
+	// unregister first, even if destroying the client raises an exception
+	// (Thomas), and so that only one thread closes a client.
+	if (!unregister(client))
+	    return;
 	try {
 	    client.destroy();
 	} catch (Exception e) {
 	    throw new ClientPoolException("Could Not Destroy Client: "
 		    + e.getMessage());
-	} finally {
-	    // need to do this even if destroying the client raises an exception
-	    // (Thomas)
-	    totalSize--;
-	    workingClients.remove(client);
-	    clientMap.remove(client);
 	}
     }
 
+    /**
+     * @return the recent average time in milliseconds taken to open a
+     *         client, -1 if none has been opened.
+     */
     public long getAverageClientCreationTime() {
-	if (creationTimes.size() > 0) {
-	    long average = 0;
-	    for (int count = 0; count < creationTimes.size(); count++) {
-		average += ((Long) creationTimes.get(count)).longValue();
-	    }
-	    return average / creationTimes.size();
-	}
-	return -1;
+	LatencyHistogram creationTimes = statistics.getCreationTimes();
+	return creationTimes.getCount() == 0 ? -1 : creationTimes.getMean();
     }
 
     public long getBlockingTimeout() {
@@ -133,75 +230,134 @@ public class ClientPool implements gnu.hylafax.ClientPool {
     }
 
     public Client getClient() throws ClientPoolException {
+	return getClient(getConfiguration().getBlockingTimeout());
+    }
+
+    /**
+     * Take a client, blocking at most the given time instead of the blocking
+     * timeout of the pool. An idle client is returned and a new connection
+     * is tried even if the time is 0.
+     * 
+     * @param timeout
+     *            the time in milliseconds to wait for a client
+     * @return the client
+     * @exception ClientPoolException
+     *                no client could be taken in time
+     */
+    public Client getClient(long timeout) throws ClientPoolException {
 
 	long startTime = System.currentTimeMillis();
 
 	log.debug("Wants A Client.");
 
-	PooledClient client = null;
-
-	try {
-
-	    synchronized (mutex) {
-		if (clients.isEmpty()) {
-		    while (client == null) {
-			if (!keepBlocking(startTime)) {
-			    ClientPoolException e = new ClientPoolException(
-				    "Could Not Obtain Client During Blocking Timeout ("
-					    + getConfiguration()
-						    .getBlockingTimeout()
-					    + " ms)");
-			    throw e;
-			}
-
-			boolean clientAdded = false;
-			try {
-			    clientAdded = addClient();
-			} catch (ClientPoolException e) {
-			    log.warn("Could Not Create Connection: "
-				    + e.getMessage());
-			}
-
-			if (!clientAdded) {
-			    log.warn("Pool Is Empty And Will Block Here.");
-			    blocked = true;
-			}
-
-			client = (PooledClient) clients.poll(getConfiguration()
-				.getRetryInterval());
-			if (client == null)
-			    log.warn("No Clients Available.");
-			else if (!clientAdded)
-			    log.info("Obtained Connection.");
-		    }
+	if (!health.allowRequest())
+	    throw unavailable();
+
+	PooledClient client = poll();
+	if (client == null || getConfiguration().getMinIdle() > 0
+		&& home().getIdle() == 0)
+	    replenish();
+	while (client == null) {
+	    if (!health.isAvailable())
+		throw unavailable();
+	    boolean capacity = true;
+	    try {
+		client = newClient(false);
+		capacity = client != null;
+	    } catch (ClientPoolException e) {
+		log.warn("Could Not Create Connection: " + e.getMessage());
+	    }
+	    if (client != null) {
+		home().checkedOut();
+		break;
+	    }
+	    if (!health.isAvailable())
+		throw unavailable();
+
+	    long remaining = timeout
+		    - (System.currentTimeMillis() - startTime);
+	    if (remaining <= 0) {
+		statistics.timedOut(System.currentTimeMillis() - startTime);
+		ClientPoolException e = new ClientPoolException(
+			"Could Not Obtain Client During Blocking Timeout ("
+				+ timeout + " ms)");
+		throw e;
+	    }
+	    if (!capacity && !blocked) {
+		log.warn("Pool Is Empty And Will Block Here.");
+		blocked = true;
+	    }
 
-		} else {
-		    client = (PooledClient) clients.take();
-		}
+	    try {
+		client = await(Math.min(remaining, getConfiguration()
+			.getRetryInterval()));
+	    } catch (InterruptedException e) {
+		throw new ClientPoolException(
+			"Interrupted Thread and No Free Connection Available.");
 	    }
-	} catch (InterruptedException e) {
-	    throw new ClientPoolException(
-		    "Interrupted Thread and No Free Connection Available.");
+	    if (client == null)
+		log.warn("No Clients Available.");
+	    else if (!capacity)
+		log.info("Obtained Connection.");
 	}
 
-	size--;
-
 	((HylaFAXPooledClient) client).setWorking(true);
-	workingClients.add(client);
+	statistics.checkedOut(System.currentTimeMillis() - startTime);
 
 	log.debug("Got Client.");
 
 	return client;
     }
 
+    /**
+     * Take an idle client without waiting for one or opening a connection.
+     * 
+     * @return the client, null if no client is idle or the circuit breaker
+     *         does not let the request through
+     */
+    Client pollClient() {
+	if (!health.allowRequest())
+	    return null;
+	PooledClient client = poll();
+	if (client == null)
+	    return null;
+	if (getConfiguration().getMinIdle() > 0 && home().getIdle() == 0)
+	    replenish();
+	((HylaFAXPooledClient) client).setWorking(true);
+	statistics.checkedOut(0);
+	return client;
+    }
+
+    /**
+     * @return a copy of the map of all clients of the pool.
+     */
     public HashMap getClientMap() {
-	return clientMap;
+	synchronized (registry) {
+	    return new HashMap(clientMap);
+	}
     }
 
     public ClientPoolConfiguration getConfiguration() {
 	return configuration;
     }
 
+    /**
+     * @return the health of the server and its circuit breaker.
+     */
+    public EndpointHealth getHealth() {
+	return health;
+    }
+
+    /**
+     * @return the scheduler that keeps the idle clients of this pool alive.
+     */
+    public synchronized KeepAliveScheduler getKeepAliveScheduler() {
+	if (keepAliveScheduler == null)
+	    keepAliveScheduler = new KeepAliveScheduler(getConfiguration()
+		    .getKeepAliveThreads());
+	return keepAliveScheduler;
+    }
+
     public int getMaxPoolSize() {
 	return getConfiguration().getMaxPoolSize();
     }
@@ -210,24 +366,48 @@ public class ClientPool implements gnu.hylafax.ClientPool {
 	return getConfiguration().getMinPoolSize();
     }
 
+    /**
+     * @return the statistics of this pool.
+     */
+    public PoolStatistics getStatistics() {
+	return statistics;
+    }
+
     public long getNoopInterval() {
 	return getConfiguration().getMaxNoopTime();
     }
 
+    /**
+     * @return the number of idle clients.
+     */
     public int getSize() {
+	int size = 0;
+	for (int i = 0; i < stripes.length; i++)
+	    size += stripes[i].getIdle();
 	return size;
     }
 
+    /**
+     * @return the number of clients, including connections being opened.
+     */
     public int getTotalSize() {
-	return totalSize;
+	synchronized (registry) {
+	    return totalSize;
+	}
     }
 
     public String getUserName() {
 	return getConfiguration().getUserName();
     }
 
+    /**
+     * @return the number of clients given out and not returned yet.
+     */
     public int getWorkingSize() {
-	return workingSize;
+	int working = 0;
+	for (int i = 0; i < stripes.length; i++)
+	    working += stripes[i].getWorking();
+	return working;
     }
 
     public boolean isLogClientCreationTimes() {
@@ -271,75 +451,112 @@ public class ClientPool implements gnu.hylafax.ClientPool {
 	    if (config.getTimeZone() != null)
 		client.poolTzone(config.getTimeZone());
 
-	    if (isLogClientCreationTimes())
-		creationTimes.add(new Long(System.currentTimeMillis()
-			- startTime));
+	    long time = System.currentTimeMillis() - startTime;
+	    health.connected(time);
+	    statistics.connected(time, isLogClientCreationTimes());
 
 	    client.setPassive(true);
 	    client.start();
 	    return client;
 	} catch (Exception e) {
+	    statistics.connectFailed();
+	    if (health.connectFailed())
+		tripped();
 	    throw new ClientPoolException(e.getMessage());
 	}
     }
 
-    public void put(PooledClient client) throws ClientPoolException {
-	try {
-	    if (!client.isValid())
-		workingClientsToClose.add(client);
-	    ((HylaFAXPooledClient) client).setWorking(false);
+    /**
+     * Record a noop of an idle client, called by its keep alive task.
+     */
+    void noopDone(boolean answered) {
+	if (answered)
+	    health.noopSucceeded();
+	else if (health.noopFailed())
+	    tripped();
+    }
 
-	    /* stop the client so that GC can destroy the object. (Thomas) */
-	    // ((HylaFAXPooledClient) client).stop();
-	    if (blocked)
-		log.warn("Will Be Unblocked");
+    public void put(PooledClient client) throws ClientPoolException {
+	HylaFAXPooledClient pooled = (HylaFAXPooledClient) client;
+	if (!pooled.checkIn()) {
+	    log.warn("Client Returned Twice.");
+	    return;
+	}
+	statistics.returned(System.currentTimeMillis()
+		- pooled.getWorkingSince());
 
-	    if (getConfiguration().isPooling()) {
-		if (workingClientsToClose.remove(client)) {
-		    destroyClient(client);
-		    addClient();
-		} else {
-		    clients.put(client);
-		    size++;
-		}
-	    }
+	if (blocked) {
+	    log.warn("Will Be Unblocked");
 	    blocked = false;
+	}
 
-	    // Desctoy client if pooling is not enabled.
-	    if (!getConfiguration().isPooling())
-		destroyClient(client);
-
-	    log.debug("Released Client.");
+	if (client.isValid())
+	    health.succeeded();
+	else if (health.failed())
+	    tripped();
 
-	} catch (InterruptedException e) {
-	    log.warn("Was Interrupted.", e);
+	if (!getConfiguration().isPooling()) {
+	    // Destroy client if pooling is not enabled.
+	    home().checkedIn();
 	    destroyClient(client);
-	} finally {
-	    // need to remove the client from this list even if an error
-	    // occured. (Thomas)
-	    workingClients.remove(client);
+	} else if (!client.isValid() || stopped
+		|| pooled.getGeneration() != getGeneration()) {
+	    home().checkedIn();
+	    retire(client);
+	} else {
+	    home().put(client);
+	    signal();
 	}
+
+	log.debug("Released Client.");
+    }
+
+    /**
+     * Register the statistics of this pool with the platform MBean server as
+     * gnu.hylafax.pool:type=ClientPool,name="host:port".
+     * 
+     * @return the object name the statistics have been registered under
+     * @exception ClientPoolException
+     *                the statistics could not be registered, e.g. because
+     *                another pool for the same server is registered
+     */
+    public String registerMBean() throws ClientPoolException {
+	ClientPoolConfiguration config = getConfiguration();
+	String server = (config.getHost() != null ? config.getHost()
+		: "localhost")
+		+ (config.getPort() != -1 ? ":" + config.getPort() : "");
+	return registerMBean(PoolStatisticsRegistration.nameOf(server));
+    }
+
+    /**
+     * Register the statistics of this pool with the platform MBean server.
+     * They are unregistered by stop() or unregisterMBean().
+     * 
+     * @param name
+     *            the object name to register the statistics under
+     * @return the canonical object name the statistics have been registered
+     *         under
+     * @exception ClientPoolException
+     *                the name is invalid or the statistics could not be
+     *                registered
+     */
+    public synchronized String registerMBean(String name)
+	    throws ClientPoolException {
+	unregisterMBean();
+	mbeanName = PoolStatisticsRegistration.register(statistics, name);
+	return mbeanName;
     }
 
     public void restart() {
-	// Flag working clients for destruction when returned to the stack.
-	workingClientsToClose.addAll(workingClients);
+	// Clients given out now are closed and replaced when they are
+	// returned.
+	synchronized (registry) {
+	    generation++;
+	}
 
-	// Close all free clients
-	while (getSize() > 0)
-	    try {
-		PooledClient client = (PooledClient) getClient();
-		destroyClient(client);
-	    } catch (ClientPoolException e) {
-		log.warn("Could Not Close Connection.", e);
-	    }
-	// Create enough clients to restore the stack to minPoolSize.
-	while (getTotalSize() < getConfiguration().getMinPoolSize())
-	    try {
-		addClient();
-	    } catch (Exception e) {
-		log.warn("Could Not Add Connection.", e);
-	    }
+	// Close all free clients and open new ones in the background.
+	closeIdle();
+	replenish();
     }
 
     public void setBlockingTimeout(long blockingTimeout) {
@@ -347,7 +564,9 @@ public class ClientPool implements gnu.hylafax.ClientPool {
     }
 
     public void setClientMap(HashMap clientMap) {
-	this.clientMap = clientMap;
+	synchronized (registry) {
+	    this.clientMap = clientMap;
+	}
     }
 
     public void setConfiguration(ClientPoolConfiguration configuration) {
@@ -374,51 +593,483 @@ public class ClientPool implements gnu.hylafax.ClientPool {
 	getConfiguration().setPassword(password);
     }
 
+    /**
+     * @deprecated the sizes are counted by the pool, this method does
+     *             nothing.
+     */
     public void setSize(int size) {
-	this.size = size;
+	// counted by the stripes.
     }
 
+    /**
+     * @deprecated the sizes are counted by the pool, this method does
+     *             nothing.
+     */
     public void setTotalSize(int totalSize) {
-	this.totalSize = totalSize;
+	// counted by the registry.
     }
 
     public void setUserName(String userName) {
 	getConfiguration().setUserName(userName);
     }
 
+    /**
+     * @deprecated the sizes are counted by the pool, this method does
+     *             nothing.
+     */
     public void setWorkingSize(int workingSize) {
-	this.workingSize = workingSize;
+	// counted by the stripes.
     }
 
+    /**
+     * Open the minimum number of clients, connectThreads at a time, and wait
+     * until they are open.
+     * 
+     * @exception ClientPoolException
+     *                some of the clients could not be opened
+     */
     public void start() throws ClientPoolException {
 	stopped = false;
-	for (int i = 0; i < getConfiguration().getMinPoolSize(); i++) {
-	    addClient();
+	synchronized (registry) {
+	    startFailure = null;
+	}
+	replenish();
+	synchronized (registry) {
+	    try {
+		while (connectors > 0)
+		    registry.wait();
+	    } catch (InterruptedException e) {
+		throw new ClientPoolException(
+			"Interrupted Opening Connections.");
+	    }
+	    if (startFailure != null
+		    && totalSize < getConfiguration().getMinPoolSize())
+		throw startFailure;
 	}
+	scheduleReplenish();
+	scheduleSample();
+    }
+
+    /**
+     * Unregister the statistics registered by registerMBean(), if any.
+     */
+    public synchronized void unregisterMBean() {
+	if (mbeanName == null)
+	    return;
+	PoolStatisticsRegistration.unregister(mbeanName);
+	mbeanName = null;
     }
 
     public void stop() {
 	stopped = true;
-	// Close all working connections.
-	Iterator iter = workingClients.iterator();
-	while (iter.hasNext()) {
+	synchronized (registry) {
+	    generation++;
+	}
+
+	// Close all connections, working ones included.
+	Object[] all;
+	synchronized (registry) {
+	    all = clientMap.keySet().toArray();
+	}
+	for (int i = 0; i < all.length; i++) {
 	    try {
-		PooledClient item = (PooledClient) iter.next();
-		destroyClient(item);
+		destroyClient((PooledClient) all[i]);
 	    } catch (ClientPoolException e) {
 		log.warn("Could Not Close Connection.", e);
 	    }
 	}
 
-	// Close all free connections
-	while (getSize() > 0)
+	// Forget the free connections
+	while (poll() != null)
+	    home().checkedIn();
+
+	synchronized (this) {
+	    if (keepAliveScheduler != null) {
+		keepAliveScheduler.shutdown();
+		keepAliveScheduler = null;
+	    }
+	    if (connector != null) {
+		// queued tasks find the pool stopped and return at once.
+		connector.shutdownAfterProcessingCurrentlyQueuedTasks();
+		connector = null;
+	    }
+	}
+	unregisterMBean();
+    }
+
+    // ***** private methods *****
+
+    /**
+     * wait until a client is returned or opened by another thread.
+     * 
+     * @return the client or null if none became available in time.
+     */
+    private PooledClient await(long timeout) throws InterruptedException {
+	synchronized (available) {
+	    waiting++;
 	    try {
-		PooledClient item = (PooledClient) getClient();
-		destroyClient(item);
-	    } catch (ClientPoolException e) {
-		log.warn("Could Not Close Connection.", e);
+		// signal() takes the monitor, so a client returned after this
+		// poll is not missed.
+		PooledClient client = poll();
+		if (client != null)
+		    return client;
+		available.wait(Math.max(1, timeout));
+	    } finally {
+		waiting--;
+	    }
+	}
+	return poll();
+    }
+
+    /**
+     * Take all idle clients and close them on a thread of the keep alive
+     * scheduler.
+     */
+    private void closeIdle() {
+	final List idle = new ArrayList();
+	PooledClient client;
+	while ((client = poll()) != null) {
+	    home().checkedIn();
+	    idle.add(client);
+	}
+	if (idle.isEmpty())
+	    return;
+	Runnable task = new Runnable() {
+	    public void run() {
+		for (int i = 0; i < idle.size(); i++) {
+		    try {
+			destroyClient((PooledClient) idle.get(i));
+		    } catch (ClientPoolException e) {
+			log.debug("Could Not Close Connection: "
+				+ e.getMessage());
+		    }
+		}
+	    }
+	};
+	if (stopped || getKeepAliveScheduler().schedule(task, 0) == null)
+	    task.run();
+    }
+
+    /**
+     * Open clients until the pool has the size given by minPoolSize and
+     * minIdle, run by the tasks of the connector.
+     */
+    private void connect() {
+	try {
+	    PooledClient client;
+	    while ((client = newClient(true)) != null) {
+		if (stopped) {
+		    destroyClient(client); // missed by stop().
+		    break;
+		}
+		home().add(client);
+		signal();
+	    }
+	} catch (ClientPoolException e) {
+	    log.warn("Could Not Add Connection: " + e.getMessage());
+	    synchronized (registry) {
+		if (startFailure == null)
+		    startFailure = e;
+	    }
+	} finally {
+	    synchronized (registry) {
+		connectors--;
+		registry.notifyAll();
+	    }
+	}
+    }
+
+    private synchronized PooledExecutor getConnector() {
+	if (connector == null)
+	    connector = TransferExecutor.newDaemonExecutor("Client Connector",
+		    getConfiguration().getConnectThreads());
+	return connector;
+    }
+
+    private int getGeneration() {
+	synchronized (registry) {
+	    return generation;
+	}
+    }
+
+    /**
+     * @return the stripe of the calling thread.
+     */
+    private Stripe home() {
+	int hash = System.identityHashCode(Thread.currentThread());
+	hash ^= hash >>> 16;
+	return stripes[hash & (stripes.length - 1)];
+    }
+
+    /**
+     * Reserve a place in the pool and open a new client outside of any lock.
+     * 
+     * @param replenish
+     *            true to open the client only if the pool is below the size
+     *            given by minPoolSize and minIdle
+     * @return the client or null if the pool has reached its maximum size or,
+     *         when replenishing, that size.
+     */
+    private PooledClient newClient(boolean replenish)
+	    throws ClientPoolException {
+	int clientGeneration;
+	synchronized (registry) {
+	    if (replenish && (stopped || totalSize >= target()))
+		return null;
+	    log.debug("Trying To Create Client, Total Connections: "
+		    + totalSize + ", Max Allowed: "
+		    + getConfiguration().getMaxPoolSize());
+	    boolean maximumCapacityReached = getConfiguration()
+		    .getMaxPoolSize() <= totalSize
+		    && getConfiguration().getMaxPoolSize() != 0
+		    && getConfiguration().isPooling();
+	    if (maximumCapacityReached) {
+		log.debug("Maximum Clients Reached.");
+		return null;
+	    }
+	    totalSize++;
+	    clientGeneration = generation;
+	}
+
+	PooledClient client = null;
+	try {
+	    client = createClient();
+	    ((HylaFAXPooledClient) client).setGeneration(clientGeneration);
+	    log.debug("Client Created.");
+	} finally {
+	    synchronized (registry) {
+		if (client != null)
+		    clientMap.put(client, client);
+		else
+		    totalSize--;
+	    }
+	}
+	return client;
+    }
+
+    /**
+     * take an idle client, from the stripe of the calling thread if it has
+     * one.
+     */
+    private PooledClient poll() {
+	Stripe home = home();
+	PooledClient client = home.take();
+	for (int i = 0; client == null && i < stripes.length; i++) {
+	    if (stripes[i] != home)
+		client = stripes[i].take();
+	}
+	return client;
+    }
+
+    /**
+     * Try to open a client while the circuit breaker is open. The first
+     * client opened starts the recovery of the breaker, otherwise the next
+     * probe is scheduled.
+     */
+    private void probe() {
+	synchronized (registry) {
+	    probing = false;
+	}
+	if (stopped || health.isAvailable())
+	    return;
+	try {
+	    PooledClient client = newClient(false);
+	    if (client != null) {
+		health.recovered();
+		log.info("Server Recovered, Ramping Up.");
+		home().add(client);
+		signal();
+		// replacements were skipped while the server was down.
+		replenish();
+		return;
+	    }
+	} catch (ClientPoolException e) {
+	    log.debug("Probe Failed: " + e.getMessage());
+	}
+	health.probeFailed();
+	scheduleProbe();
+    }
+
+    /**
+     * Start connector tasks for the clients missing to the size given by
+     * minPoolSize and minIdle, at most connectThreads at a time.
+     */
+    private void replenish() {
+	int tasks;
+	synchronized (registry) {
+	    if (stopped || !health.isAvailable())
+		return;
+	    tasks = Math.min(target() - totalSize, Math.max(1,
+		    getConfiguration().getConnectThreads())
+		    - connectors);
+	    if (tasks <= 0)
+		return;
+	    connectors += tasks;
+	}
+	Runnable task = new Runnable() {
+	    public void run() {
+		connect();
+	    }
+	};
+	for (int i = 0; i < tasks; i++) {
+	    try {
+		getConnector().execute(task);
+	    } catch (InterruptedException e) {
+		synchronized (registry) {
+		    connectors -= tasks - i;
+		    registry.notifyAll();
+		}
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Check the size of the pool every replenishInterval on the keep alive
+     * scheduler.
+     */
+    private void scheduleReplenish() {
+	long interval = getConfiguration().getReplenishInterval();
+	if (interval <= 0 || stopped)
+	    return;
+	getKeepAliveScheduler().schedule(new Runnable() {
+	    public void run() {
+		replenish();
+		scheduleReplenish();
+	    }
+	}, interval);
+    }
+
+    /**
+     * Sample the number of clients every SAMPLE_INTERVAL on the keep alive
+     * scheduler.
+     */
+    private void scheduleSample() {
+	if (stopped)
+	    return;
+	getKeepAliveScheduler().schedule(new Runnable() {
+	    public void run() {
+		statistics.sample();
+		scheduleSample();
+	    }
+	}, PoolStatistics.SAMPLE_INTERVAL);
+    }
+
+    private void scheduleProbe() {
+	synchronized (registry) {
+	    if (probing || stopped)
+		return;
+	    probing = true;
+	}
+	Object task = getKeepAliveScheduler().schedule(new Runnable() {
+	    public void run() {
+		probe();
+	    }
+	}, health.getProbeDelay());
+	if (task == null) {
+	    synchronized (registry) {
+		probing = false;
+	    }
+	}
+    }
+
+    /**
+     * The circuit breaker has opened: close the idle clients, have the
+     * working ones closed when they are returned and start probing.
+     */
+    private void tripped() {
+	log.warn("Server Is Unhealthy, Failing Fast: " + health);
+	synchronized (registry) {
+	    generation++;
+	}
+	closeIdle();
+	scheduleProbe();
+    }
+
+    private ServerUnavailableException unavailable() {
+	statistics.rejected();
+	return new ServerUnavailableException("Server Unavailable ("
+		+ (health.getState() == EndpointHealth.OPEN ? "circuit open"
+			: "recovering") + ")");
+    }
+
+    /**
+     * Close a client that may not be used any more and, unless the pool is
+     * stopped, open a replacement. Both happen on a thread of the keep alive
+     * scheduler.
+     */
+    private void retire(final PooledClient client) {
+	Runnable task = new Runnable() {
+	    public void run() {
+		synchronized (registry) {
+		    if (!clientMap.containsKey(client))
+			return; // closed by stop() or restart().
+		}
+		try {
+		    destroyClient(client);
+		} catch (ClientPoolException e) {
+		    // expected for connections that broke.
+		    log.debug("Could Not Close Connection: " + e.getMessage());
+		}
+		if (stopped || !health.isAvailable())
+		    return;
+		try {
+		    addClient();
+		} catch (ClientPoolException e) {
+		    log.warn("Could Not Add Connection: " + e.getMessage());
+		}
 	    }
-	totalSize = 0;
+	};
+	if (stopped || getKeepAliveScheduler().schedule(task, 0) == null)
+	    task.run();
+    }
+
+    /**
+     * wake a thread waiting for a client, if there is one.
+     */
+    private void signal() {
+	if (waiting > 0) {
+	    synchronized (available) {
+		available.notify();
+	    }
+	}
+    }
+
+    private static int stripes() {
+	int stripes = 1;
+	int wanted = Math.min(64, Runtime.getRuntime()
+		.availableProcessors() * 2);
+	while (stripes < wanted)
+	    stripes <<= 1;
+	return stripes;
+    }
+
+    /**
+     * @return the number of clients the pool is kept at, called with the
+     *         registry lock held.
+     */
+    private int target() {
+	ClientPoolConfiguration config = getConfiguration();
+	int target = config.getMinPoolSize();
+	if (config.isPooling() && config.getMinIdle() > 0)
+	    target = Math.max(target, getWorkingSize() + config.getMinIdle());
+	if (config.isPooling() && config.getMaxPoolSize() != 0)
+	    target = Math.min(target, config.getMaxPoolSize());
+	return target;
+    }
+
+    /**
+     * Remove a client from the pool.
+     * 
+     * @return false if the client had already been removed.
+     */
+    private boolean unregister(PooledClient client) {
+	synchronized (registry) {
+	    if (clientMap.remove(client) == null)
+		return false;
+	    totalSize--;
+	    return true;
+	}
     }
 
 }
@@ -6,14 +6,20 @@ public class ClientPoolConfiguration {
 
     private long blockingTimeout = 0; // 0 seconds.
 
+    private int connectThreads = 4;
+
     private String host = null;
 
+    private int keepAliveThreads = 2;
+
     private long maxIdleTime = 10 * 60 * 1000; // 10 minutes.
 
     private long maxNoopTime = 10000; // 10 Seconds.
 
     private int maxPoolSize = 5;
 
+    private int minIdle = 0;
+
     private int minPoolSize = 1;
 
     private String password = null;
@@ -22,6 +28,8 @@ public class ClientPoolConfiguration {
 
     private int port = -1;
 
+    private long replenishInterval = 1000; // 1 second.
+
     private long retryInterval = 100; // 0.1 second.
 
     private String timeZone = null;
@@ -42,6 +50,13 @@ public class ClientPoolConfiguration {
         return blockingTimeout;
     }
 
+    /**
+     * @return the number of threads opening connections in the background.
+     */
+    public int getConnectThreads() {
+        return connectThreads;
+    }
+
     /**
      * @return the host string
      */
@@ -49,6 +64,14 @@ public class ClientPoolConfiguration {
         return host;
     }
 
+    /**
+     * @return the number of threads sending noop commands and reopening idle
+     *         clients.
+     */
+    public int getKeepAliveThreads() {
+        return keepAliveThreads;
+    }
+
     /**
      * @return the maximum time in milliseconds for a client to be idle before
      *         reopening a connection.
@@ -72,6 +95,14 @@ public class ClientPoolConfiguration {
         return maxPoolSize;
     }
 
+    /**
+     * @return the number of idle clients kept in addition to the working
+     *         ones.
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
     /**
      * @return the minimum number of clients in the client pool.
      */
@@ -93,6 +124,14 @@ public class ClientPoolConfiguration {
         return port;
     }
 
+    /**
+     * @return the number of milliseconds between checks of the number of
+     *         idle clients.
+     */
+    public long getReplenishInterval() {
+        return replenishInterval;
+    }
+
     /**
      * @return the number of milliseconds to wait before checking the stack for
      *         a returned client.
@@ -138,6 +177,14 @@ public class ClientPoolConfiguration {
         this.blockingTimeout = blockingTimeout;
     }
 
+    /**
+     * @param connectThreads the number of threads opening connections in the
+     *        background, at start up and to keep the pool at its size.
+     */
+    public void setConnectThreads(int connectThreads) {
+        this.connectThreads = connectThreads;
+    }
+
     /**
      * @param host the host string.
      */
@@ -145,6 +192,14 @@ public class ClientPoolConfiguration {
         this.host = host;
     }
 
+    /**
+     * @param keepAliveThreads the number of threads sending noop commands and
+     *        reopening idle clients.
+     */
+    public void setKeepAliveThreads(int keepAliveThreads) {
+        this.keepAliveThreads = keepAliveThreads;
+    }
+
     /**
      * @param maxIdleTime the number of milliseconds for idle clients to remain
      *        open before reopening.
@@ -168,6 +223,15 @@ public class ClientPoolConfiguration {
         this.maxPoolSize = maxPoolSize;
     }
 
+    /**
+     * @param minIdle the number of idle clients to keep in addition to the
+     *        working ones, within the maximum pool size. Missing clients are
+     *        opened in the background so callers find an open connection.
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
     /**
      * @param minPoolSize minimum number of connections to maintain in the pool.
      */
@@ -196,6 +260,15 @@ public class ClientPoolConfiguration {
         this.port = port;
     }
 
+    /**
+     * @param replenishInterval the number of milliseconds between checks of
+     *        the number of idle clients, 0 to check only when clients are
+     *        taken or closed.
+     */
+    public void setReplenishInterval(long replenishInterval) {
+        this.replenishInterval = replenishInterval;
+    }
+
     /**
      * @param retryInterval the number of milliseconds to wait before rechecking
      *        the pool for returned clients.
@@ -0,0 +1,328 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.AsyncClient;
+import gnu.hylafax.Client;
+import gnu.hylafax.Job;
+import gnu.inet.ftp.ServerResponseException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import EDU.oswego.cs.dl.util.concurrent.Executor;
+
+/**
+ * Uploads the documents of a job over several pooled connections at once and
+ * attaches them to the job. Documents are stored with put(File), i.e. stou,
+ * since files stored with stot are deleted with the connection that stored
+ * them and could not be used by a job on another connection.
+ * <P>
+ * Example:
+ *
+ * <pre>
+ * DocumentUploader uploader = new DocumentUploader(pool);
+ * Client client = pool.getClient();
+ * try {
+ *     Job job = client.createJob();
+ *     job.setDialstring(&quot;5551212&quot;);
+ *     uploader.addDocuments(job, client, files);
+ *     client.submit(job);
+ * } finally {
+ *     client.quit();
+ * }
+ * </pre>
+ *
+ * The calling thread takes part in the upload with the client that owns the
+ * job, the other documents are uploaded by tasks on the executor, each taking
+ * one connection from the pool for as many documents as it gets to. The pool
+ * therefore needs parallelism - 1 connections besides the one of the job. A
+ * task that gets no connection leaves its documents to the others, the upload
+ * only fails if no connection at all could be taken.
+ * Files of a failed upload are left on the server for faxcron to remove.
+ *
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class DocumentUploader {
+
+    private final static Log log = LogFactory.getLog(DocumentUploader.class);
+
+    /**
+     * the default number of connections uploading the documents of one job.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * The state of one call to upload().
+     */
+    private class Upload implements Runnable {
+
+	private final File[] documents;
+
+	private final String[] filenames;
+
+	private int next = 0;
+
+	private int running = 0;
+
+	private Exception failure = null;
+
+	// why a worker got no client, the others take over its documents
+	private ClientPoolException unavailable = null;
+
+	Upload(File[] documents) {
+	    this.documents = documents;
+	    this.filenames = new String[documents.length];
+	}
+
+	/**
+	 * upload documents with a pooled client until none are left.
+	 */
+	public void run() {
+	    Client client = null;
+	    try {
+		// take the client before claiming a document, a worker
+		// without one must not hold on to a document.
+		if (!remaining())
+		    return;
+		try {
+		    client = pool.getClient();
+		} catch (ClientPoolException e) {
+		    unavailable(e);
+		    return;
+		}
+		int index;
+		while ((index = next()) >= 0)
+		    store(client, index);
+	    } catch (Exception e) {
+		fail(e);
+		// a missing local file does not break the connection.
+		if (client instanceof HylaFAXPooledClient
+			&& e instanceof IOException
+			&& !(e instanceof FileNotFoundException))
+		    ((HylaFAXPooledClient) client).setValid(false);
+	    } finally {
+		if (client != null) {
+		    try {
+			client.quit(); // returns the client to the pool.
+		    } catch (Exception e) {
+			log.warn("Could not release client: " + e.getMessage());
+		    }
+		}
+		finished();
+	    }
+	}
+
+	/**
+	 * upload documents with the given client until none are left.
+	 */
+	void run(Client client) {
+	    try {
+		int index;
+		while ((index = next()) >= 0)
+		    store(client, index);
+	    } catch (Exception e) {
+		fail(e);
+	    } finally {
+		finished();
+	    }
+	}
+
+	synchronized void started() {
+	    running++;
+	}
+
+	/**
+	 * wait for all workers and return the file names.
+	 */
+	synchronized String[] join() throws ClientPoolException, IOException,
+		ServerResponseException {
+	    try {
+		while (running > 0)
+		    wait();
+	    } catch (InterruptedException e) {
+		// the workers stop with the next document.
+		fail(e);
+		throw new ClientPoolException(
+			"Interrupted uploading documents");
+	    }
+	    if (failure instanceof IOException)
+		throw (IOException) failure;
+	    if (failure instanceof ServerResponseException)
+		throw (ServerResponseException) failure;
+	    if (failure instanceof ClientPoolException)
+		throw (ClientPoolException) failure;
+	    if (failure != null)
+		throw new ClientPoolException("Upload failed: " + failure);
+	    if (next < documents.length)
+		throw unavailable; // no worker left with a client.
+	    return filenames;
+	}
+
+	private synchronized boolean remaining() {
+	    return failure == null && next < documents.length;
+	}
+
+	private synchronized int next() {
+	    if (failure != null || next >= documents.length)
+		return -1;
+	    return next++;
+	}
+
+	private void store(Client client, int index) throws IOException,
+		ServerResponseException {
+	    String filename = client.put(documents[index]);
+	    if (filename == null)
+		throw new IOException("No file name returned for "
+			+ documents[index]);
+	    synchronized (this) {
+		filenames[index] = filename;
+	    }
+	}
+
+	private synchronized void fail(Exception e) {
+	    if (failure == null)
+		failure = e;
+	}
+
+	private synchronized void unavailable(ClientPoolException e) {
+	    if (unavailable == null)
+		unavailable = e;
+	}
+
+	private synchronized void finished() {
+	    running--;
+	    notifyAll();
+	}
+    }
+
+    private final gnu.hylafax.ClientPool pool;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    /**
+     * create an uploader with the default parallelism that runs its tasks on
+     * AsyncClient.getDefaultExecutor().
+     *
+     * @param pool
+     *            the pool to take the uploading connections from
+     */
+    public DocumentUploader(gnu.hylafax.ClientPool pool) {
+	this(pool, AsyncClient.getDefaultExecutor(), DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param pool
+     *            the pool to take the uploading connections from
+     * @param executor
+     *            the executor running the upload tasks
+     * @param parallelism
+     *            the number of connections uploading the documents of one
+     *            job, including the calling thread
+     */
+    public DocumentUploader(gnu.hylafax.ClientPool pool, Executor executor,
+	    int parallelism) {
+	this.pool = pool;
+	this.executor = executor;
+	this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * upload documents in parallel and attach them to a job in the given
+     * order.
+     *
+     * @param job
+     *            the job to attach the documents to
+     * @param owner
+     *            the client the job was created with, it uploads documents as
+     *            well
+     * @param documents
+     *            the files to upload
+     * @return the names of the files on the server
+     * @exception ClientPoolException
+     *                no connection could be taken from the pool
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public String[] addDocuments(Job job, Client owner, File[] documents)
+	    throws ClientPoolException, IOException, ServerResponseException {
+	String[] filenames = upload(owner, documents);
+	for (int i = 0; i < filenames.length; i++)
+	    job.addDocument(filenames[i]);
+	return filenames;
+    }
+
+    /**
+     * upload documents in parallel using pooled connections only.
+     *
+     * @param documents
+     *            the files to upload
+     * @return the names of the files on the server, in the order of the
+     *         documents
+     * @exception ClientPoolException
+     *                no connection could be taken from the pool
+     * @exception IOException
+     *                an IO error occurred
+     * @exception ServerResponseException
+     *                the server responded with an error
+     */
+    public String[] upload(File[] documents) throws ClientPoolException,
+	    IOException, ServerResponseException {
+	return upload(null, documents);
+    }
+
+    /**
+     * upload documents in parallel, the calling thread uploads with owner or,
+     * if owner is null, with a pooled client.
+     */
+    private String[] upload(Client owner, File[] documents)
+	    throws ClientPoolException, IOException, ServerResponseException {
+	Upload upload = new Upload(documents);
+	int tasks = Math.min(parallelism, documents.length) - 1;
+	upload.started(); // the calling thread.
+	for (int i = 0; i < tasks; i++) {
+	    upload.started();
+	    try {
+		executor.execute(upload);
+	    } catch (InterruptedException e) {
+		upload.finished();
+		upload.fail(e);
+		break;
+	    }
+	}
+	if (owner != null)
+	    upload.run(owner);
+	else
+	    upload.run();
+	return upload.join();
+    }
+
+}
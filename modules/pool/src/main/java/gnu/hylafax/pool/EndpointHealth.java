@@ -0,0 +1,412 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+/**
+ * Tracks the health of the server of a ClientPool and decides whether the
+ * pool may give out clients. Connect latency and the error rate are
+ * exponentially weighted moving averages, the error rate counts failed
+ * connects, failed noop commands and clients returned invalid against
+ * successful ones.
+ * <P>
+ * The circuit breaker opens after a number of consecutive failures or when
+ * the error rate reaches a threshold. While it is open the pool fails fast
+ * with a ServerUnavailableException and probes the server in the background,
+ * first after the probe interval and then with a doubled delay after every
+ * failed probe. After a successful probe the breaker is recovering: the
+ * share of requests let through grows linearly from a tenth to all of them
+ * over the ramp time, then the breaker closes. A failure while recovering
+ * opens it again.
+ * <P>
+ * As long as the server is healthy recording a success does not take a lock.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class EndpointHealth {
+
+    /**
+     * all requests are let through.
+     */
+    public static final int CLOSED = 0;
+
+    /**
+     * requests fail fast, the server is probed in the background.
+     */
+    public static final int OPEN = 1;
+
+    /**
+     * a growing share of the requests is let through.
+     */
+    public static final int RECOVERING = 2;
+
+    /**
+     * the default number of consecutive failures that open the breaker.
+     */
+    public static final int DEFAULT_FAILURE_LIMIT = 3;
+
+    /**
+     * the default error rate that opens the breaker.
+     */
+    public static final double DEFAULT_ERROR_THRESHOLD = 0.5;
+
+    /**
+     * the default delay in milliseconds before the first probe.
+     */
+    public static final long DEFAULT_PROBE_INTERVAL = 5 * 1000;
+
+    /**
+     * the default longest delay in milliseconds between two probes.
+     */
+    public static final long DEFAULT_MAX_PROBE_INTERVAL = 60 * 1000;
+
+    /**
+     * the default time in milliseconds traffic takes to ramp back up.
+     */
+    public static final long DEFAULT_RAMP_TIME = 30 * 1000;
+
+    // weight of a new sample in the error rate and the connect latency
+    private static final double ALPHA = 0.1;
+
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private static final double MIN_SHARE = 0.1;
+
+    // samples before the error rate may open the breaker
+    private static final int MIN_SAMPLES = 10;
+
+    private volatile int state = CLOSED;
+
+    private volatile int consecutiveFailures = 0;
+
+    private volatile double errorRate = 0;
+
+    private long samples = 0;
+
+    private long connectLatency = -1;
+
+    private long noopFailures = 0;
+
+    private long trips = 0;
+
+    private long since = System.currentTimeMillis();
+
+    private long probeDelay = 0;
+
+    private long admitted = 0;
+
+    private long rejected = 0;
+
+    private int failureLimit = DEFAULT_FAILURE_LIMIT;
+
+    private double errorThreshold = DEFAULT_ERROR_THRESHOLD;
+
+    private long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    private long maxProbeInterval = DEFAULT_MAX_PROBE_INTERVAL;
+
+    private long rampTime = DEFAULT_RAMP_TIME;
+
+    /**
+     * Decide whether a request may go to the server.
+     * 
+     * @return true if the request is let through.
+     */
+    public boolean allowRequest() {
+	if (state == CLOSED)
+	    return true;
+	synchronized (this) {
+	    if (state == OPEN)
+		return false;
+	    if (state == CLOSED)
+		return true;
+	    long elapsed = System.currentTimeMillis() - since;
+	    if (elapsed >= rampTime) {
+		state = CLOSED;
+		return true;
+	    }
+	    double share = Math.max(MIN_SHARE, (double) elapsed / rampTime);
+	    if (admitted < share * (admitted + rejected + 1)) {
+		admitted++;
+		return true;
+	    }
+	    rejected++;
+	    return false;
+	}
+    }
+
+    /**
+     * @return true unless the breaker is open.
+     */
+    public boolean isAvailable() {
+	return state != OPEN;
+    }
+
+    /**
+     * @return CLOSED, OPEN or RECOVERING.
+     */
+    public int getState() {
+	return state;
+    }
+
+    /**
+     * @return the weighted error rate between 0 and 1.
+     */
+    public double getErrorRate() {
+	return errorRate;
+    }
+
+    /**
+     * @return the weighted time in milliseconds a connection takes to open,
+     *         -1 if none has been opened yet.
+     */
+    public synchronized long getConnectLatency() {
+	return connectLatency;
+    }
+
+    /**
+     * @return the number of failed noop commands.
+     */
+    public synchronized long getNoopFailures() {
+	return noopFailures;
+    }
+
+    /**
+     * @return the number of times the breaker has opened.
+     */
+    public synchronized long getTrips() {
+	return trips;
+    }
+
+    /**
+     * @return the delay in milliseconds before the next probe.
+     */
+    public synchronized long getProbeDelay() {
+	return probeDelay;
+    }
+
+    /**
+     * A score between 0 and 1 for strategies preferring healthy servers. It
+     * falls with the error rate and the connect latency, is 0 while the
+     * breaker is open and grows with the share of requests let through
+     * while the server recovers.
+     * 
+     * @return the score, 1 for a healthy server that connects at once.
+     */
+    public synchronized double getScore() {
+	if (state == OPEN)
+	    return 0;
+	double score = (1 - errorRate) * 1000.0
+		/ (1000.0 + Math.max(0, connectLatency));
+	if (state == RECOVERING)
+	    score *= Math.max(MIN_SHARE, Math.min(1.0, (double) (System
+		    .currentTimeMillis() - since)
+		    / rampTime));
+	return score;
+    }
+
+    /**
+     * Record a connection opened.
+     * 
+     * @param millis
+     *            the time it took to open and log in
+     */
+    public synchronized void connected(long millis) {
+	connectLatency = connectLatency < 0 ? millis : Math.round(LATENCY_ALPHA
+		* millis + (1 - LATENCY_ALPHA) * connectLatency);
+	success();
+    }
+
+    /**
+     * Record a connection that could not be opened.
+     * 
+     * @return true if the breaker has opened.
+     */
+    public synchronized boolean connectFailed() {
+	return failure();
+    }
+
+    /**
+     * Record a noop that was answered.
+     */
+    public void noopSucceeded() {
+	succeeded();
+    }
+
+    /**
+     * Record a noop that failed.
+     * 
+     * @return true if the breaker has opened.
+     */
+    public synchronized boolean noopFailed() {
+	noopFailures++;
+	return failure();
+    }
+
+    /**
+     * Record a client returned valid.
+     */
+    public void succeeded() {
+	if (state == CLOSED && consecutiveFailures == 0 && errorRate == 0)
+	    return; // healthy, nothing changes.
+	synchronized (this) {
+	    success();
+	}
+    }
+
+    /**
+     * Record a client returned invalid.
+     * 
+     * @return true if the breaker has opened.
+     */
+    public synchronized boolean failed() {
+	return failure();
+    }
+
+    /**
+     * Record a probe that could not connect, doubles the delay before the
+     * next probe.
+     */
+    public synchronized void probeFailed() {
+	probeDelay = Math.min(maxProbeInterval, probeDelay * 2);
+    }
+
+    /**
+     * Record a successful probe, the breaker starts recovering.
+     */
+    public synchronized void recovered() {
+	if (state != OPEN)
+	    return;
+	state = RECOVERING;
+	since = System.currentTimeMillis();
+	consecutiveFailures = 0;
+	errorRate = 0;
+	samples = 0;
+	admitted = 0;
+	rejected = 0;
+    }
+
+    /**
+     * Close the breaker and forget the error history.
+     */
+    public synchronized void reset() {
+	state = CLOSED;
+	since = System.currentTimeMillis();
+	consecutiveFailures = 0;
+	errorRate = 0;
+	samples = 0;
+    }
+
+    public synchronized int getFailureLimit() {
+	return failureLimit;
+    }
+
+    /**
+     * @param failureLimit
+     *            the number of consecutive failures that open the breaker
+     */
+    public synchronized void setFailureLimit(int failureLimit) {
+	this.failureLimit = Math.max(1, failureLimit);
+    }
+
+    public synchronized double getErrorThreshold() {
+	return errorThreshold;
+    }
+
+    /**
+     * @param errorThreshold
+     *            the error rate that opens the breaker, above 0 and at most 1
+     */
+    public synchronized void setErrorThreshold(double errorThreshold) {
+	if (errorThreshold <= 0 || errorThreshold > 1)
+	    throw new IllegalArgumentException("Invalid error threshold "
+		    + errorThreshold);
+	this.errorThreshold = errorThreshold;
+    }
+
+    public synchronized long getProbeInterval() {
+	return probeInterval;
+    }
+
+    /**
+     * @param probeInterval
+     *            the delay in milliseconds before the first probe
+     * @param maxProbeInterval
+     *            the longest delay in milliseconds between two probes
+     */
+    public synchronized void setProbeInterval(long probeInterval,
+	    long maxProbeInterval) {
+	this.probeInterval = Math.max(1, probeInterval);
+	this.maxProbeInterval = Math.max(this.probeInterval, maxProbeInterval);
+    }
+
+    public synchronized long getRampTime() {
+	return rampTime;
+    }
+
+    /**
+     * @param rampTime
+     *            the time in milliseconds traffic takes to ramp back up
+     */
+    public synchronized void setRampTime(long rampTime) {
+	this.rampTime = Math.max(1, rampTime);
+    }
+
+    public synchronized String toString() {
+	String name = state == OPEN ? "open"
+		: state == RECOVERING ? "recovering" : "closed";
+	return name + ", error rate " + Math.round(errorRate * 100)
+		+ "%, connect " + connectLatency + " ms, noop failures "
+		+ noopFailures + ", trips " + trips;
+    }
+
+    // ***** private methods *****
+
+    private void success() {
+	consecutiveFailures = 0;
+	samples++;
+	double rate = (1 - ALPHA) * errorRate;
+	errorRate = rate < 0.001 ? 0 : rate;
+    }
+
+    /**
+     * @return true if the failure opened the breaker.
+     */
+    private boolean failure() {
+	consecutiveFailures++;
+	samples++;
+	errorRate = ALPHA + (1 - ALPHA) * errorRate;
+	if (state == OPEN)
+	    return false;
+	if (state == RECOVERING || consecutiveFailures >= failureLimit
+		|| (samples >= MIN_SAMPLES && errorRate >= errorThreshold)) {
+	    probeDelay = state == RECOVERING ? Math.min(maxProbeInterval,
+		    Math.max(probeInterval, probeDelay * 2)) : probeInterval;
+	    state = OPEN;
+	    since = System.currentTimeMillis();
+	    trips++;
+	    return true;
+	}
+	return false;
+    }
+
+}
@@ -24,6 +24,8 @@ package gnu.hylafax.pool;
 
 import gnu.hylafax.HylaFAXClient;
 import gnu.hylafax.Job;
+import gnu.hylafax.Pipeline;
+import gnu.inet.ftp.ListingHandler;
 import gnu.inet.ftp.ServerResponseException;
 
 import java.io.FileNotFoundException;
@@ -52,14 +54,27 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 
     private ClientPool clientPool;
 
-    private boolean terminated = false;
+    /**
+     * delay before a failed client is reopened.
+     */
+    private static final long REOPEN_DELAY = 5000;
+
+    private int generation = 0;
+
+    // guards keepAliveTask and the hand over of working between threads
+    private Object keepAliveLock = new Object();
 
-    private Thread thread = new Thread(this);
+    private Object keepAliveTask = null;
+
+    private boolean terminated = false;
 
     private boolean valid = true;
 
     private boolean working = false;
 
+    // when the client was last given out, guarded by keepAliveLock.
+    private long workingSince = 0;
+
     /**
      * Default constructor.
      * 
@@ -79,6 +94,21 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	log.warn("Method ignored for pooled clients.");
     }
 
+    /**
+     * Mark the client as idle when it is returned to the pool.
+     * 
+     * @return false if the client already was idle, i.e. has been returned
+     *         twice.
+     */
+    boolean checkIn() {
+	synchronized (keepAliveLock) {
+	    if (!working)
+		return false;
+	    working = false;
+	    return true;
+	}
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -116,6 +146,17 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	}
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see gnu.hylafax.ClientProtocol#execute(gnu.hylafax.Pipeline)
+     */
+    public void execute(Pipeline pipeline) throws IOException,
+	    ServerResponseException {
+	if (valid && working)
+	    super.execute(pipeline);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -184,6 +225,18 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	return null;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see gnu.hylafax.Client#getList(java.lang.String,
+     *      gnu.inet.ftp.ListingHandler)
+     */
+    public void getList(String path, ListingHandler handler)
+	    throws IOException, FileNotFoundException, ServerResponseException {
+	if (valid && working)
+	    super.getList(path, handler);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -208,6 +261,18 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	return null;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see gnu.hylafax.Client#getNameList(java.lang.String,
+     *      gnu.inet.ftp.ListingHandler)
+     */
+    public void getNameList(String path, ListingHandler handler)
+	    throws IOException, ServerResponseException, FileNotFoundException {
+	if (valid && working)
+	    super.getNameList(path, handler);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -259,6 +324,13 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	return valid;
     }
 
+    /**
+     * @return the generation of the pool the client was opened in.
+     */
+    int getGeneration() {
+	return generation;
+    }
+
     /**
      * @return true if the client is given out for work.
      */
@@ -720,7 +792,6 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	    } catch (SocketException e) {
 		// Don't care.
 	    }
-	    stop();
 	    clientPool.openClient(this);
 
 	    log.debug("Reopen successful.");
@@ -733,48 +804,79 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 
     private long lastReopen = -1;
 
-    /*
-     * (non-Javadoc)
+    /**
+     * Send a noop or reopen the client if it is due and schedule the next
+     * maintenance. Called by the KeepAliveScheduler of the pool.
      * 
      * @see java.lang.Runnable#run()
      */
     public void run() {
-	Thread.currentThread().setName("Pooled Client");
-	while (!terminated) {
-	    try {
-		// Only send noop on idle connections every 10 seconds.
-		if (!working) {
-		    long time = System.currentTimeMillis();
-		    if (forceReopen
-			    || (time - lastReopen) >= clientPool
-				    .getConfiguration().getMaxIdleTime()) {
-			reopen();
-			lastReopen = System.currentTimeMillis();
-		    } else if ((time - lastNoop) >= clientPool
-			    .getConfiguration().getMaxNoopTime()) {
-			super.noop();
-			lastNoop = System.currentTimeMillis();
-		    }
-		}
-
-		Thread.sleep(1000);
-		if (clientPool.isStopped())
-		    terminated = true;
-	    } catch (InterruptedException e) {
-		// Do nothing.
-	    } catch (Exception e) {
-		log.debug(e.getMessage(), e);
-		// All other exceptions should initiate a reopen of the client.
-		valid = false;
-		forceReopen = true;
-		// Try and reopen the connection.
-		try {
-		    Thread.sleep(5000); // Wait before attempting to reopen
-		    // connection.
-		} catch (Exception e2) {
-		    // Do Nothing.
+	synchronized (keepAliveLock) {
+	    keepAliveTask = null;
+	}
+	if (terminated || clientPool.isStopped()) {
+	    terminated = true;
+	    return;
+	}
+	long delay;
+	boolean noop = false;
+	try {
+	    // Only send noop on idle connections.
+	    if (!working) {
+		long time = System.currentTimeMillis();
+		if (forceReopen
+			|| (time - lastReopen) >= clientPool.getConfiguration()
+				.getMaxIdleTime()) {
+		    reopen();
+		    lastReopen = System.currentTimeMillis();
+		} else if ((time - lastNoop) >= clientPool.getConfiguration()
+			.getMaxNoopTime()) {
+		    noop = true;
+		    super.noop();
+		    noop = false;
+		    clientPool.noopDone(true);
+		    lastNoop = System.currentTimeMillis();
 		}
 	    }
+	    delay = getKeepAliveDelay();
+	} catch (Exception e) {
+	    log.debug(e.getMessage(), e);
+	    if (noop)
+		clientPool.noopDone(false);
+	    // All other exceptions should initiate a reopen of the client.
+	    valid = false;
+	    forceReopen = true;
+	    delay = REOPEN_DELAY; // Wait before attempting to reopen
+	}
+	scheduleKeepAlive(delay);
+    }
+
+    /**
+     * @return the time in milliseconds until the next noop or reopen is due.
+     */
+    private long getKeepAliveDelay() {
+	long time = System.currentTimeMillis();
+	long noop = clientPool.getConfiguration().getMaxNoopTime();
+	if (working) {
+	    // the connection is in use, check again when a noop could be due.
+	    return noop;
+	}
+	long nextNoop = lastNoop + noop;
+	long nextReopen = lastReopen
+		+ clientPool.getConfiguration().getMaxIdleTime();
+	return Math.min(nextNoop, nextReopen) - time;
+    }
+
+    /**
+     * Schedule the next maintenance of this client unless it is already
+     * scheduled or the client has been stopped.
+     */
+    private void scheduleKeepAlive(long delay) {
+	synchronized (keepAliveLock) {
+	    if (terminated || keepAliveTask != null)
+		return;
+	    keepAliveTask = clientPool.getKeepAliveScheduler().schedule(this,
+		    delay);
 	}
     }
 
@@ -788,6 +890,16 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
 	    super.setPassive(passive);
     }
 
+    /**
+     * Set the generation of the pool the client was opened in. Clients of an
+     * older generation are closed when they are returned.
+     * 
+     * @param generation
+     */
+    void setGeneration(int generation) {
+	this.generation = generation;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -804,7 +916,20 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
      * @param working
      */
     void setWorking(boolean working) {
-	this.working = working;
+	synchronized (keepAliveLock) {
+	    this.working = working;
+	    if (working)
+		workingSince = System.currentTimeMillis();
+	}
+    }
+
+    /**
+     * @return the time the client was last given out of the pool.
+     */
+    long getWorkingSince() {
+	synchronized (keepAliveLock) {
+	    return workingSince;
+	}
     }
 
     /*
@@ -821,23 +946,27 @@ public class HylaFAXPooledClient extends HylaFAXClient implements PooledClient,
     }
 
     /**
-     * Start the maintaince thread for this client.
+     * Start the maintenance of this client by the keep alive scheduler of the
+     * pool.
      */
     public void start() {
-	if (thread.isAlive())
-	    return;
-
 	terminated = false;
 	lastNoop = lastReopen = System.currentTimeMillis();
-	thread.start();
+	scheduleKeepAlive(getKeepAliveDelay());
     }
 
     /**
-     * Stops the maintaince thread for this client.
+     * Stops the maintenance of this client.
      */
     public void stop() {
-	log.debug("stopping client thread");
-	terminated = true;
+	log.debug("stopping client maintenance");
+	synchronized (keepAliveLock) {
+	    terminated = true;
+	    if (keepAliveTask != null) {
+		KeepAliveScheduler.cancel(keepAliveTask);
+		keepAliveTask = null;
+	    }
+	}
     }
 
     /*
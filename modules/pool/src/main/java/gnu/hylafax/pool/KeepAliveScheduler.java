@@ -0,0 +1,115 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.inet.ftp.TransferExecutor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import EDU.oswego.cs.dl.util.concurrent.ClockDaemon;
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+
+/**
+ * Runs the maintenance of the idle clients of a pool. Every client has one
+ * pending task that is due when its next noop or reopen is, a single clock
+ * thread waits for the earliest task and hands it to a small set of worker
+ * threads. The number of threads does not depend on the size of the pool and
+ * nothing wakes up until a client is due.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class KeepAliveScheduler {
+
+    private final static Log log = LogFactory.getLog(KeepAliveScheduler.class);
+
+    private final ClockDaemon clock;
+
+    private final PooledExecutor workers;
+
+    private boolean shutdown = false;
+
+    /**
+     * @param threads
+     *            the number of threads sending noop and reopening clients
+     */
+    public KeepAliveScheduler(int threads) {
+	clock = new ClockDaemon();
+	clock.setThreadFactory(TransferExecutor
+		.newDaemonThreadFactory("Pooled Client"));
+	workers = TransferExecutor.newDaemonExecutor("Pooled Client", threads);
+    }
+
+    /**
+     * Cancel a task returned by schedule(). Does nothing if the task has
+     * already been started.
+     * 
+     * @param task
+     *            the handle returned by schedule()
+     */
+    public static void cancel(Object task) {
+	if (task != null)
+	    ClockDaemon.cancel(task);
+    }
+
+    /**
+     * @return true if shutdown() has been called.
+     */
+    public synchronized boolean isShutdown() {
+	return shutdown;
+    }
+
+    /**
+     * Run a task once after the given delay.
+     * 
+     * @param task
+     *            the task to run on a worker thread
+     * @param delay
+     *            the delay in milliseconds
+     * @return a handle that can be passed to cancel() or null if the
+     *         scheduler has been shut down.
+     */
+    public synchronized Object schedule(final Runnable task, long delay) {
+	if (shutdown)
+	    return null;
+	return clock.executeAfterDelay(Math.max(0, delay), new Runnable() {
+	    public void run() {
+		try {
+		    workers.execute(task);
+		} catch (InterruptedException e) {
+		    log.debug("Interrupted while queueing maintenance task.");
+		}
+	    }
+	});
+    }
+
+    /**
+     * Stop the clock and the worker threads. Pending tasks are discarded.
+     */
+    public synchronized void shutdown() {
+	shutdown = true;
+	clock.shutDown();
+	workers.shutdownNow();
+    }
+
+}
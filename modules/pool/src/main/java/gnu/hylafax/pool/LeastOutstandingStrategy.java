@@ -0,0 +1,63 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.pool.MultiHostClientPool.Host;
+
+/**
+ * Chooses the host with the fewest clients given out relative to its weight,
+ * i.e. a host with weight 2 gets twice as many outstanding clients as a host
+ * with weight 1. Ties are broken in turns.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class LeastOutstandingStrategy implements SelectionStrategy {
+
+    private int next = 0;
+
+    public Host select(Host[] hosts) {
+	int start;
+	synchronized (this) {
+	    start = next;
+	    next = (next + 1) & Integer.MAX_VALUE;
+	}
+	Host best = null;
+	long bestLoad = 0;
+	for (int i = 0; i < hosts.length; i++) {
+	    Host host = hosts[(start + i) % hosts.length];
+	    // compare (outstanding + 1) / weight without dividing.
+	    long load = host.getOutstanding() + 1;
+	    if (best == null
+		    || load * best.getWeight() < bestLoad * host.getWeight()) {
+		best = host;
+		bestLoad = load;
+	    }
+	}
+	return best;
+    }
+
+    public void hostRemoved(Host host) {
+	// no state per host.
+    }
+
+}
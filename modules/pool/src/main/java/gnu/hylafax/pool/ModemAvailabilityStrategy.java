@@ -0,0 +1,226 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.Client;
+import gnu.hylafax.pool.MultiHostClientPool.Host;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Prefers the hosts with the most idle modems. The modems of every host are
+ * counted from its status listing (LIST status) at most once per refresh
+ * interval, on a thread of the keep alive scheduler of the pool of the host,
+ * so getClient() never waits for the listing. The listing uses an idle client
+ * of the pool and is skipped while the pool has none, so it neither waits for
+ * a client nor opens a connection. Each client given out is assumed to take
+ * one of the idle modems until the next listing.
+ * <P>
+ * Hosts with the same number of free modems, and all hosts while no host is
+ * known to have a free modem, are left to the fallback strategy.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class ModemAvailabilityStrategy implements SelectionStrategy {
+
+    private final static Log log = LogFactory
+	    .getLog(ModemAvailabilityStrategy.class);
+
+    /**
+     * the default time in milliseconds between two status listings of a
+     * host.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 30 * 1000;
+
+    /**
+     * The modems of one host as of the last listing.
+     */
+    private static class Modems {
+
+	private int idle = -1;
+
+	private long updated = 0;
+
+	private boolean refreshing = false;
+
+	// true while the listing holds a client of the host
+	private boolean listing = false;
+    }
+
+    private final SelectionStrategy fallback;
+
+    private final long refreshInterval;
+
+    // Host -> Modems
+    private final Map modems = new HashMap();
+
+    /**
+     * create a strategy with the default refresh interval that falls back to
+     * the least outstanding host.
+     */
+    public ModemAvailabilityStrategy() {
+	this(DEFAULT_REFRESH_INTERVAL, new LeastOutstandingStrategy());
+    }
+
+    /**
+     * @param refreshInterval
+     *            the time in milliseconds between two status listings of a
+     *            host
+     * @param fallback
+     *            the strategy choosing among hosts with the same number of
+     *            free modems
+     */
+    public ModemAvailabilityStrategy(long refreshInterval,
+	    SelectionStrategy fallback) {
+	this.refreshInterval = refreshInterval;
+	this.fallback = fallback;
+    }
+
+    /**
+     * @param host
+     *            a host of the pool
+     * @return the number of idle modems of the host as of the last listing,
+     *         -1 if unknown.
+     */
+    public synchronized int getIdleModems(Host host) {
+	Modems state = (Modems) modems.get(host);
+	return state == null ? -1 : state.idle;
+    }
+
+    public Host select(Host[] hosts) {
+	List best = new ArrayList();
+	int bestFree = 0;
+	synchronized (this) {
+	    long now = System.currentTimeMillis();
+	    for (int i = 0; i < hosts.length; i++) {
+		Modems state = (Modems) modems.get(hosts[i]);
+		if (state == null) {
+		    state = new Modems();
+		    modems.put(hosts[i], state);
+		}
+		if (!state.refreshing
+			&& now - state.updated >= refreshInterval
+			&& hosts[i].getPool().getSize() > 0) {
+		    state.refreshing = true;
+		    refresh(hosts[i], state);
+		}
+		// the client of the listing does not take a modem.
+		int free = state.idle - hosts[i].getOutstanding()
+			+ (state.listing ? 1 : 0);
+		if (state.idle < 0 || free <= 0 || free < bestFree)
+		    continue;
+		if (free > bestFree)
+		    best.clear();
+		best.add(hosts[i]);
+		bestFree = free;
+	    }
+	}
+	if (best.isEmpty())
+	    return fallback.select(hosts);
+	if (best.size() == 1)
+	    return (Host) best.get(0);
+	return fallback.select((Host[]) best.toArray(new Host[best.size()]));
+    }
+
+    public synchronized void hostRemoved(Host host) {
+	modems.remove(host);
+	fallback.hostRemoved(host);
+    }
+
+    /**
+     * Count the idle modems in a status listing. Recognizes the modem lines
+     * of the default status format, e.g. "Modem ttyS0 (+1.555.1212): Running
+     * and idle".
+     * 
+     * @param status
+     *            the lines of the listing
+     * @return the number of idle modems
+     */
+    protected int countIdleModems(Vector status) {
+	int idle = 0;
+	for (Iterator i = status.iterator(); i.hasNext();) {
+	    String line = String.valueOf(i.next()).trim();
+	    if (line.startsWith("Modem")
+		    && line.toLowerCase().indexOf("idle") >= 0)
+		idle++;
+	}
+	return idle;
+    }
+
+    // ***** private methods *****
+
+    /**
+     * list the status of a host on a thread of its pool.
+     */
+    private void refresh(final Host host, final Modems state) {
+	Runnable task = new Runnable() {
+	    public void run() {
+		int idle = -1;
+		try {
+		    // the idle client may have been taken in the meantime.
+		    Client client = host.getPool().pollClient();
+		    if (client == null) {
+			synchronized (ModemAvailabilityStrategy.this) {
+			    state.refreshing = false;
+			}
+			return;
+		    }
+		    try {
+			setListing(state, true);
+			Vector status = client.getList("status");
+			if (status != null)
+			    idle = countIdleModems(status);
+		    } finally {
+			setListing(state, false);
+			client.quit();
+		    }
+		} catch (Exception e) {
+		    log.debug("Could Not List Status Of " + host + ": "
+			    + e.getMessage());
+		}
+		synchronized (ModemAvailabilityStrategy.this) {
+		    state.idle = idle;
+		    state.updated = System.currentTimeMillis();
+		    state.refreshing = false;
+		}
+	    }
+	};
+	if (host.getPool().getKeepAliveScheduler().schedule(task, 0) == null) {
+	    state.refreshing = false;
+	    state.updated = System.currentTimeMillis();
+	}
+    }
+
+    private synchronized void setListing(Modems state, boolean listing) {
+	state.listing = listing;
+    }
+
+}
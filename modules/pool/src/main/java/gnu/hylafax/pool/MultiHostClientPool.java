@@ -0,0 +1,459 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.Client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Spreads clients over several HylaFAX servers. Every host has a ClientPool
+ * of its own with its own configuration, i.e. its own limits, and a weight
+ * used by weighted strategies. getClient() asks the SelectionStrategy for a
+ * host and takes a client from its pool. Clients are returned to the pool of
+ * their host with quit() as usual.
+ * <P>
+ * Hosts whose circuit breaker is open are not offered to the strategy, nor
+ * are hosts without an idle client and without room for another connection
+ * unless all healthy hosts are exhausted. A host whose pool fails to give
+ * out a client, e.g. because it is still ramping up after a failure, is
+ * skipped and the strategy chooses again among the remaining hosts.
+ * <P>
+ * Example:
+ * 
+ * <pre>
+ * MultiHostClientPool pool = new MultiHostClientPool(
+ * 	new LeastOutstandingStrategy());
+ * pool.addHost(configurationOfFax1, 1);
+ * pool.addHost(configurationOfFax2, 2);
+ * pool.start();
+ * Client client = pool.getClient();
+ * try {
+ *     // ...
+ * } finally {
+ *     client.quit();
+ * }
+ * </pre>
+ * 
+ * The setters of the gnu.hylafax.ClientPool interface apply their value to
+ * the pool of every host, the getters report the value of the first host.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class MultiHostClientPool implements gnu.hylafax.ClientPool {
+
+    private final static Log log = LogFactory.getLog(MultiHostClientPool.class);
+
+    /**
+     * the weight of hosts added without one.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * A server of a MultiHostClientPool.
+     */
+    public static class Host {
+
+	private final String name;
+
+	private final ClientPool pool;
+
+	private final int weight;
+
+	private Host(String name, ClientPool pool, int weight) {
+	    this.name = name;
+	    this.pool = pool;
+	    this.weight = weight;
+	}
+
+	/**
+	 * @return the health of the server.
+	 */
+	public EndpointHealth getHealth() {
+	    return pool.getHealth();
+	}
+
+	/**
+	 * @return the host and port of the server.
+	 */
+	public String getName() {
+	    return name;
+	}
+
+	/**
+	 * @return the number of clients of this host given out and not
+	 *         returned yet.
+	 */
+	public int getOutstanding() {
+	    return pool.getWorkingSize();
+	}
+
+	/**
+	 * @return the pool of this host.
+	 */
+	public ClientPool getPool() {
+	    return pool;
+	}
+
+	/**
+	 * @return the weight of this host, at least 1.
+	 */
+	public int getWeight() {
+	    return weight;
+	}
+
+	/**
+	 * @return true if the pool has neither an idle client nor room for
+	 *         another connection.
+	 */
+	public boolean isExhausted() {
+	    int max = pool.getMaxPoolSize();
+	    return max != 0 && pool.getSize() == 0
+		    && pool.getTotalSize() >= max;
+	}
+
+	public String toString() {
+	    return name;
+	}
+    }
+
+    // copied on write, readers use the array without locking.
+    private volatile Host[] hosts = new Host[0];
+
+    private final SelectionStrategy strategy;
+
+    private boolean started = false;
+
+    /**
+     * @param strategy
+     *            the strategy choosing the host of each client
+     */
+    public MultiHostClientPool(SelectionStrategy strategy) {
+	if (strategy == null)
+	    throw new IllegalArgumentException("No selection strategy");
+	this.strategy = strategy;
+    }
+
+    /**
+     * Add a server with the default weight.
+     * 
+     * @param configuration
+     *            the configuration of the pool of the server
+     * @return the new host
+     * @exception ClientPoolException
+     *                the pool is running and the host could not be started
+     */
+    public Host addHost(ClientPoolConfiguration configuration)
+	    throws ClientPoolException {
+	return addHost(configuration, DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Add a server. If the pool is running the pool of the new host is
+     * started.
+     * 
+     * @param configuration
+     *            the configuration of the pool of the server
+     * @param weight
+     *            the weight of the host, at least 1
+     * @return the new host
+     * @exception ClientPoolException
+     *                the pool is running and the host could not be started
+     */
+    public Host addHost(ClientPoolConfiguration configuration, int weight)
+	    throws ClientPoolException {
+	return addHost(new ClientPool(configuration), weight);
+    }
+
+    /**
+     * Add a server with a pool of its own. If this pool is running the pool
+     * of the new host is started.
+     * 
+     * @param pool
+     *            the pool of the server
+     * @param weight
+     *            the weight of the host, at least 1
+     * @return the new host
+     * @exception ClientPoolException
+     *                the pool is running and the host could not be started
+     */
+    public synchronized Host addHost(ClientPool pool, int weight)
+	    throws ClientPoolException {
+	if (weight < 1)
+	    throw new IllegalArgumentException("Invalid weight " + weight);
+	ClientPoolConfiguration config = pool.getConfiguration();
+	String name = (config.getHost() == null ? "localhost" : config
+		.getHost())
+		+ (config.getPort() == -1 ? "" : ":" + config.getPort());
+	Host host = new Host(name, pool, weight);
+	if (started)
+	    pool.start();
+	Host[] grown = new Host[hosts.length + 1];
+	System.arraycopy(hosts, 0, grown, 0, hosts.length);
+	grown[hosts.length] = host;
+	hosts = grown;
+	return host;
+    }
+
+    /**
+     * Remove a server and stop its pool, clients given out are closed.
+     * 
+     * @param host
+     *            the host returned by addHost()
+     */
+    public void removeHost(Host host) {
+	synchronized (this) {
+	    Host[] remaining = without(hosts, host);
+	    if (remaining.length == hosts.length)
+		return;
+	    hosts = remaining;
+	}
+	strategy.hostRemoved(host);
+	host.getPool().stop();
+    }
+
+    /**
+     * @return the servers of this pool.
+     */
+    public Host[] getHosts() {
+	return (Host[]) hosts.clone();
+    }
+
+    /**
+     * @return the strategy choosing the host of each client.
+     */
+    public SelectionStrategy getStrategy() {
+	return strategy;
+    }
+
+    /**
+     * Take a client from the host chosen by the strategy. Blocks at most the
+     * blocking timeout of the first host chosen if all hosts are exhausted,
+     * hosts tried after it only get what is left of that time.
+     * 
+     * @see gnu.hylafax.ClientPool#getClient()
+     */
+    public Client getClient() throws ClientPoolException {
+	Host[] candidates = hosts;
+	if (candidates.length == 0)
+	    throw new ClientPoolException("No Hosts In Pool.");
+	ClientPoolException failure = null;
+	long timeout = 0;
+	long deadline = 0;
+	while (candidates.length > 0) {
+	    Host host = strategy.select(available(candidates));
+	    ClientPool pool = host.getPool();
+	    long now = System.currentTimeMillis();
+	    if (failure == null) {
+		timeout = pool.getBlockingTimeout();
+		deadline = now + timeout;
+	    }
+	    try {
+		return pool.getClient(Math.max(0, Math.min(pool
+			.getBlockingTimeout(), deadline - now)));
+	    } catch (ClientPoolException e) {
+		if (e instanceof ServerUnavailableException)
+		    log.debug(host + ": " + e.getMessage());
+		else
+		    log.warn("Could Not Obtain Client From " + host + ": "
+			    + e.getMessage());
+		failure = e;
+		Host[] remaining = without(candidates, host);
+		if (remaining.length == candidates.length)
+		    break; // not a candidate, the strategy is broken.
+		candidates = remaining;
+	    }
+	}
+	// the last host only got the rest of the time, report the whole.
+	if (!(failure instanceof ServerUnavailableException)
+		&& System.currentTimeMillis() >= deadline)
+	    throw new ClientPoolException(
+		    "Could Not Obtain Client During Blocking Timeout ("
+			    + timeout + " ms)");
+	throw failure;
+    }
+
+    /**
+     * Start the pools of all hosts. A host that can not be reached is
+     * logged, its pool opens connections when clients are taken from it.
+     * 
+     * @exception ClientPoolException
+     *                no pool could be started
+     */
+    public synchronized void start() throws ClientPoolException {
+	started = true;
+	ClientPoolException failure = null;
+	for (int i = 0; i < hosts.length; i++) {
+	    try {
+		hosts[i].getPool().start();
+	    } catch (ClientPoolException e) {
+		log.warn("Could Not Start " + hosts[i] + ": " + e.getMessage());
+		failure = e;
+	    }
+	}
+	if (failure != null && getTotalSize() == 0)
+	    throw failure;
+    }
+
+    /**
+     * Stop the pools of all hosts.
+     */
+    public synchronized void stop() {
+	started = false;
+	for (int i = 0; i < hosts.length; i++)
+	    hosts[i].getPool().stop();
+    }
+
+    /**
+     * @return the number of idle clients of all hosts.
+     */
+    public int getSize() {
+	Host[] all = hosts;
+	int size = 0;
+	for (int i = 0; i < all.length; i++)
+	    size += all[i].getPool().getSize();
+	return size;
+    }
+
+    /**
+     * @return the number of clients of all hosts.
+     */
+    public int getTotalSize() {
+	Host[] all = hosts;
+	int size = 0;
+	for (int i = 0; i < all.length; i++)
+	    size += all[i].getPool().getTotalSize();
+	return size;
+    }
+
+    /**
+     * @return the number of clients of all hosts given out and not returned
+     *         yet.
+     */
+    public int getWorkingSize() {
+	Host[] all = hosts;
+	int size = 0;
+	for (int i = 0; i < all.length; i++)
+	    size += all[i].getOutstanding();
+	return size;
+    }
+
+    public long getBlockingTimeout() throws ClientPoolException {
+	return first().getBlockingTimeout();
+    }
+
+    public int getMaxPoolSize() throws ClientPoolException {
+	return first().getMaxPoolSize();
+    }
+
+    public int getMinPoolSize() throws ClientPoolException {
+	return first().getMinPoolSize();
+    }
+
+    public long getNoopInterval() throws ClientPoolException {
+	return first().getNoopInterval();
+    }
+
+    public String getUserName() throws ClientPoolException {
+	return first().getUserName();
+    }
+
+    public void setBlockingTimeout(long blockingTimeout) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setBlockingTimeout(blockingTimeout);
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setMaxPoolSize(maxPoolSize);
+    }
+
+    public void setMinPoolSize(int minPoolSize) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setMinPoolSize(minPoolSize);
+    }
+
+    public void setNoopInterval(long noopInterval) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setNoopInterval(noopInterval);
+    }
+
+    public void setPassword(String password) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setPassword(password);
+    }
+
+    public void setUserName(String userName) {
+	Host[] all = hosts;
+	for (int i = 0; i < all.length; i++)
+	    all[i].getPool().setUserName(userName);
+    }
+
+    // ***** private methods *****
+
+    /**
+     * @return the healthy hosts that are not exhausted or, if there are
+     *         none, the healthy hosts or, if there are none, all hosts.
+     */
+    private static Host[] available(Host[] hosts) {
+	List healthy = new ArrayList();
+	List free = new ArrayList();
+	for (int i = 0; i < hosts.length; i++) {
+	    if (!hosts[i].getHealth().isAvailable())
+		continue;
+	    healthy.add(hosts[i]);
+	    if (!hosts[i].isExhausted())
+		free.add(hosts[i]);
+	}
+	List available = !free.isEmpty() ? free : healthy;
+	if (available.isEmpty() || available.size() == hosts.length)
+	    return hosts;
+	return (Host[]) available.toArray(new Host[available.size()]);
+    }
+
+    private ClientPool first() throws ClientPoolException {
+	Host[] all = hosts;
+	if (all.length == 0)
+	    throw new ClientPoolException("No Hosts In Pool.");
+	return all[0].getPool();
+    }
+
+    private static Host[] without(Host[] hosts, Host host) {
+	List remaining = new ArrayList();
+	for (int i = 0; i < hosts.length; i++) {
+	    if (hosts[i] != host)
+		remaining.add(hosts[i]);
+	}
+	return (Host[]) remaining.toArray(new Host[remaining.size()]);
+    }
+
+}
@@ -0,0 +1,409 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.inet.ftp.LatencyHistogram;
+
+/**
+ * Statistics of a ClientPool in constant memory: histograms of the time
+ * taken to open a connection, the time callers wait in getClient() and the
+ * time they hold a client, and histograms of the number of idle, working and
+ * all clients sampled every SAMPLE_INTERVAL. The histograms decay with a
+ * half-life, so they describe the recent behaviour of the pool. The counters
+ * count since the pool was created or reset() was called.
+ * <P>
+ * Like the idle clients, wait and hold times are recorded per stripe of
+ * threads, so callers of getClient() and quit() never wait for each other to
+ * update the statistics. The getters merge the stripes.
+ * <P>
+ * The histograms returned are copies, take them once and read the values you
+ * need from the copy:
+ * 
+ * <pre>
+ * LatencyHistogram wait = pool.getStatistics().getWaitTimes();
+ * long p99 = wait.getPercentile(99);
+ * long timeouts = wait.getErrors();
+ * </pre>
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class PoolStatistics implements PoolStatisticsMBean {
+
+    /**
+     * the default half-life of recorded values in milliseconds.
+     */
+    public static final long DEFAULT_HALF_LIFE = 5 * 60 * 1000; // 5 minutes.
+
+    /**
+     * the interval in milliseconds the number of clients is sampled at.
+     */
+    public static final long SAMPLE_INTERVAL = 1000;
+
+    /**
+     * The wait and hold times recorded by a subset of the threads.
+     */
+    private static class Stripe {
+
+	private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+	private final LatencyHistogram holdTimes = new LatencyHistogram();
+
+	private long checkouts = 0;
+
+	private long timeouts = 0;
+
+	synchronized void checkedOut(long wait) {
+	    waitTimes.record(wait, false);
+	    checkouts++;
+	}
+
+	synchronized void timedOut(long wait) {
+	    waitTimes.record(wait, true);
+	    timeouts++;
+	}
+
+	synchronized void returned(long hold) {
+	    holdTimes.record(hold, false);
+	}
+
+	synchronized void decay() {
+	    waitTimes.decay();
+	    holdTimes.decay();
+	}
+
+	synchronized void reset() {
+	    waitTimes.reset();
+	    holdTimes.reset();
+	    checkouts = 0;
+	    timeouts = 0;
+	}
+    }
+
+    private final ClientPool pool;
+
+    private final Stripe[] stripes;
+
+    private final LatencyHistogram creationTimes = new LatencyHistogram();
+
+    private final LatencyHistogram idleCounts = new LatencyHistogram();
+
+    private final LatencyHistogram workingCounts = new LatencyHistogram();
+
+    private final LatencyHistogram totalCounts = new LatencyHistogram();
+
+    private long halfLife = DEFAULT_HALF_LIFE;
+
+    private long lastDecay = System.currentTimeMillis();
+
+    private long connects = 0;
+
+    private long connectFailures = 0;
+
+    private long rejections = 0;
+
+    /**
+     * @param pool
+     *            the pool the statistics are kept for
+     * @param stripes
+     *            the number of stripes, a power of two
+     */
+    PoolStatistics(ClientPool pool, int stripes) {
+	this.pool = pool;
+	this.stripes = new Stripe[stripes];
+	for (int i = 0; i < stripes; i++)
+	    this.stripes[i] = new Stripe();
+    }
+
+    // ***** recording, called by the pool *****
+
+    void checkedOut(long wait) {
+	home().checkedOut(wait);
+    }
+
+    void timedOut(long wait) {
+	home().timedOut(wait);
+    }
+
+    void returned(long hold) {
+	home().returned(hold);
+    }
+
+    synchronized void rejected() {
+	rejections++;
+    }
+
+    synchronized void connected(long millis, boolean log) {
+	connects++;
+	if (log)
+	    creationTimes.record(millis, false);
+    }
+
+    synchronized void connectFailed() {
+	connectFailures++;
+    }
+
+    /**
+     * record the number of clients and decay the histograms once per
+     * half-life, called every SAMPLE_INTERVAL.
+     */
+    void sample() {
+	int idle = pool.getSize();
+	int working = pool.getWorkingSize();
+	int total = pool.getTotalSize();
+	boolean decay;
+	synchronized (this) {
+	    idleCounts.record(idle, false);
+	    workingCounts.record(working, false);
+	    totalCounts.record(total, false);
+	    long now = System.currentTimeMillis();
+	    decay = now - lastDecay >= halfLife;
+	    if (decay) {
+		lastDecay = now;
+		creationTimes.decay();
+		idleCounts.decay();
+		workingCounts.decay();
+		totalCounts.decay();
+	    }
+	}
+	if (decay) {
+	    for (int i = 0; i < stripes.length; i++)
+		stripes[i].decay();
+	}
+    }
+
+    // ***** histograms *****
+
+    /**
+     * @return the time taken to open connections, a copy.
+     */
+    public synchronized LatencyHistogram getCreationTimes() {
+	return creationTimes.copy();
+    }
+
+    /**
+     * @return the time callers waited in getClient(), a copy. Callers that
+     *         got no client within the blocking timeout are counted as
+     *         errors.
+     */
+    public LatencyHistogram getWaitTimes() {
+	LatencyHistogram merged = new LatencyHistogram();
+	for (int i = 0; i < stripes.length; i++)
+	    merged.add(stripes[i].waitTimes);
+	return merged;
+    }
+
+    /**
+     * @return the time callers held a client, from getClient() to quit(), a
+     *         copy.
+     */
+    public LatencyHistogram getHoldTimes() {
+	LatencyHistogram merged = new LatencyHistogram();
+	for (int i = 0; i < stripes.length; i++)
+	    merged.add(stripes[i].holdTimes);
+	return merged;
+    }
+
+    /**
+     * @return the sampled number of idle clients, a copy.
+     */
+    public synchronized LatencyHistogram getIdleCounts() {
+	return idleCounts.copy();
+    }
+
+    /**
+     * @return the sampled number of working clients, a copy.
+     */
+    public synchronized LatencyHistogram getWorkingCounts() {
+	return workingCounts.copy();
+    }
+
+    /**
+     * @return the sampled number of all clients, a copy.
+     */
+    public synchronized LatencyHistogram getTotalCounts() {
+	return totalCounts.copy();
+    }
+
+    // ***** PoolStatisticsMBean *****
+
+    public int getIdle() {
+	return pool.getSize();
+    }
+
+    public int getWorking() {
+	return pool.getWorkingSize();
+    }
+
+    public int getTotal() {
+	return pool.getTotalSize();
+    }
+
+    public String getState() {
+	switch (pool.getHealth().getState()) {
+	case EndpointHealth.OPEN:
+	    return "open";
+	case EndpointHealth.RECOVERING:
+	    return "recovering";
+	default:
+	    return "closed";
+	}
+    }
+
+    public double getErrorRate() {
+	return pool.getHealth().getErrorRate();
+    }
+
+    public long getCheckouts() {
+	long checkouts = 0;
+	for (int i = 0; i < stripes.length; i++) {
+	    synchronized (stripes[i]) {
+		checkouts += stripes[i].checkouts;
+	    }
+	}
+	return checkouts;
+    }
+
+    public long getTimeouts() {
+	long timeouts = 0;
+	for (int i = 0; i < stripes.length; i++) {
+	    synchronized (stripes[i]) {
+		timeouts += stripes[i].timeouts;
+	    }
+	}
+	return timeouts;
+    }
+
+    public synchronized long getRejections() {
+	return rejections;
+    }
+
+    public synchronized long getConnects() {
+	return connects;
+    }
+
+    public synchronized long getConnectFailures() {
+	return connectFailures;
+    }
+
+    public long getCreationTimeMean() {
+	return getCreationTimes().getMean();
+    }
+
+    public long getCreationTimeP99() {
+	return getCreationTimes().getPercentile(99);
+    }
+
+    public long getCreationTimeMax() {
+	return getCreationTimes().getMax();
+    }
+
+    public long getWaitTimeMean() {
+	return getWaitTimes().getMean();
+    }
+
+    public long getWaitTimeP50() {
+	return getWaitTimes().getPercentile(50);
+    }
+
+    public long getWaitTimeP99() {
+	return getWaitTimes().getPercentile(99);
+    }
+
+    public long getWaitTimeMax() {
+	return getWaitTimes().getMax();
+    }
+
+    public long getHoldTimeMean() {
+	return getHoldTimes().getMean();
+    }
+
+    public long getHoldTimeP50() {
+	return getHoldTimes().getPercentile(50);
+    }
+
+    public long getHoldTimeP99() {
+	return getHoldTimes().getPercentile(99);
+    }
+
+    public long getHoldTimeMax() {
+	return getHoldTimes().getMax();
+    }
+
+    public long getIdleMean() {
+	return getIdleCounts().getMean();
+    }
+
+    public long getWorkingMean() {
+	return getWorkingCounts().getMean();
+    }
+
+    public long getWorkingMax() {
+	return getWorkingCounts().getMax();
+    }
+
+    public long getTotalMax() {
+	return getTotalCounts().getMax();
+    }
+
+    public synchronized long getHalfLife() {
+	return halfLife;
+    }
+
+    public synchronized void setHalfLife(long halfLife) {
+	if (halfLife <= 0)
+	    throw new IllegalArgumentException("Invalid half-life " + halfLife);
+	this.halfLife = halfLife;
+    }
+
+    public void reset() {
+	synchronized (this) {
+	    creationTimes.reset();
+	    idleCounts.reset();
+	    workingCounts.reset();
+	    totalCounts.reset();
+	    connects = 0;
+	    connectFailures = 0;
+	    rejections = 0;
+	    lastDecay = System.currentTimeMillis();
+	}
+	for (int i = 0; i < stripes.length; i++)
+	    stripes[i].reset();
+    }
+
+    public String toString() {
+	return "total=" + getTotal() + " idle=" + getIdle() + " working="
+		+ getWorking() + " state=" + getState() + ", wait "
+		+ getWaitTimes() + ", hold " + getHoldTimes() + ", connect "
+		+ getCreationTimes();
+    }
+
+    /**
+     * @return the stripe of the calling thread.
+     */
+    private Stripe home() {
+	int hash = System.identityHashCode(Thread.currentThread());
+	hash ^= hash >>> 16;
+	return stripes[hash & (stripes.length - 1)];
+    }
+
+}
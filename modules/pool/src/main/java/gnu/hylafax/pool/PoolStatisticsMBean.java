@@ -0,0 +1,135 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+/**
+ * The attributes and operations of the statistics of a ClientPool as seen
+ * through JMX, see ClientPool.registerMBean(). Times are in milliseconds,
+ * means, percentiles and maxima describe the recent behaviour of the pool as
+ * weighted by the half-life, the counters count since the pool was created
+ * or the statistics were reset.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public interface PoolStatisticsMBean {
+
+    /**
+     * @return the number of idle clients.
+     */
+    public int getIdle();
+
+    /**
+     * @return the number of clients given out and not returned yet.
+     */
+    public int getWorking();
+
+    /**
+     * @return the number of clients, including connections being opened.
+     */
+    public int getTotal();
+
+    /**
+     * @return the state of the circuit breaker: closed, open or recovering.
+     */
+    public String getState();
+
+    /**
+     * @return the recent error rate of the server, 0 to 1.
+     */
+    public double getErrorRate();
+
+    /**
+     * @return the number of clients given out.
+     */
+    public long getCheckouts();
+
+    /**
+     * @return the number of callers that got no client within the blocking
+     *         timeout.
+     */
+    public long getTimeouts();
+
+    /**
+     * @return the number of callers turned away by the circuit breaker.
+     */
+    public long getRejections();
+
+    /**
+     * @return the number of connections opened.
+     */
+    public long getConnects();
+
+    /**
+     * @return the number of connections that could not be opened.
+     */
+    public long getConnectFailures();
+
+    public long getCreationTimeMean();
+
+    public long getCreationTimeP99();
+
+    public long getCreationTimeMax();
+
+    public long getWaitTimeMean();
+
+    public long getWaitTimeP50();
+
+    public long getWaitTimeP99();
+
+    public long getWaitTimeMax();
+
+    public long getHoldTimeMean();
+
+    public long getHoldTimeP50();
+
+    public long getHoldTimeP99();
+
+    public long getHoldTimeMax();
+
+    public long getIdleMean();
+
+    public long getWorkingMean();
+
+    public long getWorkingMax();
+
+    public long getTotalMax();
+
+    /**
+     * @return the time in milliseconds after which recorded values count
+     *         half.
+     */
+    public long getHalfLife();
+
+    /**
+     * @param halfLife
+     *            the time in milliseconds after which recorded values count
+     *            half
+     */
+    public void setHalfLife(long halfLife);
+
+    /**
+     * forget all recorded values and reset the counters.
+     */
+    public void reset();
+
+}
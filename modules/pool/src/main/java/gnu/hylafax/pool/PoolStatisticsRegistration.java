@@ -0,0 +1,97 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registers PoolStatistics with the platform MBean server. This is the only
+ * class of the pool using JMX, which needs Java 5. ClientPool only loads it
+ * when registerMBean() is called, the rest of the pool runs on Java 1.4.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+class PoolStatisticsRegistration {
+
+    private final static Log log = LogFactory
+	    .getLog(PoolStatisticsRegistration.class);
+
+    /**
+     * @param server
+     *            the host and port of the server of a pool
+     * @return the name gnu.hylafax.pool:type=ClientPool,name="server"
+     */
+    static String nameOf(String server) {
+	return "gnu.hylafax.pool:type=ClientPool,name="
+		+ ObjectName.quote(server);
+    }
+
+    /**
+     * Register statistics with the platform MBean server.
+     * 
+     * @param statistics
+     *            the statistics to register
+     * @param name
+     *            the object name to register the statistics under
+     * @return the canonical object name of the registration
+     * @exception ClientPoolException
+     *                the name is invalid or already registered
+     */
+    static String register(PoolStatistics statistics, String name)
+	    throws ClientPoolException {
+	try {
+	    return ManagementFactory.getPlatformMBeanServer().registerMBean(
+		    statistics, new ObjectName(name)).getObjectName()
+		    .getCanonicalName();
+	} catch (JMException e) {
+	    throw new ClientPoolException("Could Not Register MBean: "
+		    + e.getMessage());
+	}
+    }
+
+    /**
+     * Unregister statistics registered by register(), a failure is logged.
+     * 
+     * @param name
+     *            the name returned by register()
+     */
+    static void unregister(String name) {
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+		    new ObjectName(name));
+	} catch (JMException e) {
+	    log.warn("Could Not Unregister MBean: " + e.getMessage());
+	}
+    }
+
+    private PoolStatisticsRegistration() {
+	// static methods only.
+    }
+
+}
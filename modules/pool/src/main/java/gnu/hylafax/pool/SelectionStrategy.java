@@ -0,0 +1,52 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+/**
+ * Chooses the host a MultiHostClientPool takes the next client from.
+ * Implementations are called by many threads at once.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public interface SelectionStrategy {
+
+    /**
+     * Choose a host.
+     * 
+     * @param hosts
+     *            the hosts to choose from, at least one. Hosts without a free
+     *            client or room for a new connection are only offered when
+     *            all hosts are exhausted.
+     * @return one of the hosts
+     */
+    public MultiHostClientPool.Host select(MultiHostClientPool.Host[] hosts);
+
+    /**
+     * Forget a host removed from the pool.
+     * 
+     * @param host
+     *            the removed host
+     */
+    public void hostRemoved(MultiHostClientPool.Host host);
+
+}
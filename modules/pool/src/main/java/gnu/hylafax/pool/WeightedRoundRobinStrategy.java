@@ -0,0 +1,67 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.pool.MultiHostClientPool.Host;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out hosts in turns, each in proportion to its weight. The turns are
+ * interleaved, weights of 5, 1 and 1 give a, a, b, a, c, a, a rather than
+ * five times a in a row.
+ * 
+ * @author <a href="mailto:steve@mjnservices.com">Steven Jardine</a>
+ */
+public class WeightedRoundRobinStrategy implements SelectionStrategy {
+
+    // Host -> long[] { current weight }
+    private final Map current = new HashMap();
+
+    public synchronized Host select(Host[] hosts) {
+	Host best = null;
+	long[] bestWeight = null;
+	long total = 0;
+	for (int i = 0; i < hosts.length; i++) {
+	    long[] weight = (long[]) current.get(hosts[i]);
+	    if (weight == null) {
+		weight = new long[1];
+		current.put(hosts[i], weight);
+	    }
+	    weight[0] += hosts[i].getWeight();
+	    total += hosts[i].getWeight();
+	    if (best == null || weight[0] > bestWeight[0]) {
+		best = hosts[i];
+		bestWeight = weight;
+	    }
+	}
+	bestWeight[0] -= total;
+	return best;
+    }
+
+    public synchronized void hostRemoved(Host host) {
+	current.remove(host);
+    }
+
+}
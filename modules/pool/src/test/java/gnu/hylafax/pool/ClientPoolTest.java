@@ -0,0 +1,423 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import gnu.hylafax.Client;
+
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the checkout, retirement, blocking and replenishing of ClientPool with
+ * clients that do not connect to a server.
+ */
+public class ClientPoolTest extends TestCase {
+
+    /**
+     * A pooled client without a connection.
+     */
+    static class StubClient extends HylaFAXPooledClient {
+
+	private volatile boolean destroyed = false;
+
+	StubClient(ClientPool pool) {
+	    super(pool);
+	}
+
+	public void destroy() {
+	    destroyed = true;
+	    stop();
+	}
+
+	boolean isDestroyed() {
+	    return destroyed;
+	}
+    }
+
+    /**
+     * A pool creating stub clients, optionally slowly or failing.
+     */
+    static class StubPool extends ClientPool {
+
+	private int created = 0;
+
+	private int opening = 0;
+
+	private int maxOpening = 0;
+
+	private long delay = 0;
+
+	private boolean failing = false;
+
+	StubPool(ClientPoolConfiguration configuration) {
+	    super(configuration);
+	}
+
+	PooledClient createClient() throws ClientPoolException {
+	    long sleep;
+	    boolean fail;
+	    synchronized (this) {
+		opening++;
+		maxOpening = Math.max(maxOpening, opening);
+		sleep = delay;
+		fail = failing;
+	    }
+	    try {
+		if (sleep > 0)
+		    Thread.sleep(sleep);
+		if (fail)
+		    throw new ClientPoolException("Connection refused");
+		synchronized (this) {
+		    created++;
+		}
+		return new StubClient(this);
+	    } catch (InterruptedException e) {
+		throw new ClientPoolException("Interrupted");
+	    } finally {
+		synchronized (this) {
+		    opening--;
+		}
+	    }
+	}
+
+	synchronized int getCreated() {
+	    return created;
+	}
+
+	synchronized int getMaxOpening() {
+	    return maxOpening;
+	}
+
+	synchronized void setDelay(long delay) {
+	    this.delay = delay;
+	}
+
+	synchronized void setFailing(boolean failing) {
+	    this.failing = failing;
+	}
+    }
+
+    private StubPool pool;
+
+    protected void setUp() throws Exception {
+	pool = new StubPool(configuration());
+	pool.start();
+    }
+
+    protected void tearDown() throws Exception {
+	pool.stop();
+    }
+
+    public void testCheckout() throws Exception {
+	Client first = pool.getClient();
+	assertEquals(1, pool.getWorkingSize());
+	assertEquals(0, pool.getSize());
+	first.quit();
+	assertEquals(0, pool.getWorkingSize());
+	assertEquals(1, pool.getSize());
+	// the idle client is given out again.
+	assertSame(first, pool.getClient());
+	assertEquals(1, pool.getTotalSize());
+	assertEquals(1, pool.getCreated());
+    }
+
+    public void testPollClient() throws Exception {
+	// nothing is idle and no connection is opened.
+	assertNull(pool.pollClient());
+	assertEquals(0, pool.getTotalSize());
+
+	Client client = pool.getClient();
+	client.quit();
+	assertSame(client, pool.pollClient());
+	assertEquals(1, pool.getWorkingSize());
+	assertNull(pool.pollClient());
+	assertEquals(1, pool.getTotalSize());
+	client.quit();
+	assertEquals(0, pool.getWorkingSize());
+    }
+
+    public void testReturnedByOtherThread() throws Exception {
+	final Client client = pool.getClient();
+	// the working count of the stripe of this thread goes up, the one of
+	// the returning thread down.
+	run(new Task() {
+	    public void run() throws Exception {
+		client.quit();
+	    }
+	});
+	assertEquals(0, pool.getWorkingSize());
+	assertEquals(1, pool.getSize());
+
+	final Client[] taken = new Client[1];
+	run(new Task() {
+	    public void run() throws Exception {
+		taken[0] = pool.getClient();
+	    }
+	});
+	assertSame(client, taken[0]);
+	assertEquals(1, pool.getWorkingSize());
+	client.quit();
+	assertEquals(0, pool.getWorkingSize());
+    }
+
+    public void testStripes() throws Exception {
+	// every thread returns clients taken by the others.
+	final LinkedList handoff = new LinkedList();
+	Task task = new Task() {
+	    public void run() throws Exception {
+		for (int i = 0; i < 200; i++) {
+		    Client client = pool.getClient();
+		    synchronized (handoff) {
+			handoff.addLast(client);
+			client = (Client) handoff.removeFirst();
+		    }
+		    client.quit();
+		}
+	    }
+	};
+	run(task, 8);
+	assertEquals(0, pool.getWorkingSize());
+	assertEquals(pool.getTotalSize(), pool.getSize());
+	assertTrue(pool.getTotalSize() <= 4);
+	assertEquals(pool.getTotalSize(), pool.getCreated());
+    }
+
+    public void testRestart() throws Exception {
+	StubClient working = (StubClient) pool.getClient();
+	StubClient idle = (StubClient) pool.getClient();
+	idle.quit();
+	pool.restart();
+	waitFor(idle);
+	assertFalse(working.isDestroyed());
+
+	// clients of the old generation are closed when returned.
+	working.quit();
+	waitFor(working);
+	assertEquals(0, pool.getWorkingSize());
+	Client client = pool.getClient();
+	assertNotSame(working, client);
+	assertNotSame(idle, client);
+	client.quit();
+	assertTrue(pool.getTotalSize() <= 4);
+    }
+
+    public void testInvalid() throws Exception {
+	StubClient client = (StubClient) pool.getClient();
+	client.setValid(false);
+	client.quit();
+	waitFor(client);
+	assertEquals(0, pool.getWorkingSize());
+	assertNotSame(client, pool.getClient());
+    }
+
+    public void testBlockingTimeout() throws Exception {
+	pool.setMaxPoolSize(1);
+	pool.setBlockingTimeout(300);
+	final Client client = pool.getClient();
+
+	long start = System.currentTimeMillis();
+	try {
+	    pool.getClient();
+	    fail("ClientPoolException expected");
+	} catch (ClientPoolException e) {
+	    // expected
+	}
+	long elapsed = System.currentTimeMillis() - start;
+	assertTrue("waited " + elapsed + " ms", elapsed >= 250
+		&& elapsed < 3000);
+
+	start = System.currentTimeMillis();
+	try {
+	    pool.getClient(0);
+	    fail("ClientPoolException expected");
+	} catch (ClientPoolException e) {
+	    // expected
+	}
+	assertTrue(System.currentTimeMillis() - start < 250);
+
+	// a waiting thread gets the client as soon as it is returned.
+	pool.setBlockingTimeout(5000);
+	final Client[] taken = new Client[1];
+	Thread waiter = start(new Task() {
+	    public void run() throws Exception {
+		taken[0] = pool.getClient();
+	    }
+	});
+	Thread.sleep(100);
+	start = System.currentTimeMillis();
+	client.quit();
+	join(waiter);
+	assertSame(client, taken[0]);
+	assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    public void testStart() throws Exception {
+	ClientPoolConfiguration config = configuration();
+	config.setMinPoolSize(6);
+	config.setMaxPoolSize(10);
+	config.setConnectThreads(2);
+	restart(config, 50);
+	long start = System.currentTimeMillis();
+	startPool();
+	// six connections, two at a time.
+	assertTrue(System.currentTimeMillis() - start >= 140);
+	assertEquals(6, pool.getTotalSize());
+	assertEquals(6, pool.getSize());
+	assertEquals(2, pool.getMaxOpening());
+    }
+
+    public void testStartFailure() throws Exception {
+	ClientPoolConfiguration config = configuration();
+	config.setMinPoolSize(3);
+	config.setConnectThreads(2);
+	restart(config, 10);
+	pool.setFailing(true);
+	run(new Task() {
+	    public void run() throws Exception {
+		try {
+		    pool.start();
+		    fail("ClientPoolException expected");
+		} catch (ClientPoolException e) {
+		    // expected
+		}
+	    }
+	});
+	assertEquals(0, pool.getTotalSize());
+
+	// start() waits for the connector tasks, it would hang if the failed
+	// ones were still counted.
+	pool.setFailing(false);
+	startPool();
+	assertEquals(3, pool.getTotalSize());
+    }
+
+    public void testReplenishMinIdle() throws Exception {
+	ClientPoolConfiguration config = configuration();
+	config.setMinIdle(2);
+	config.setMaxPoolSize(10);
+	restart(config, 10);
+	startPool();
+	assertEquals(2, pool.getSize());
+
+	Client first = pool.getClient();
+	Client second = pool.getClient();
+	// taking the idle clients opens new ones in the background.
+	long deadline = System.currentTimeMillis() + 5000;
+	while (pool.getSize() < 2 && System.currentTimeMillis() < deadline)
+	    Thread.sleep(10);
+	assertEquals(2, pool.getSize());
+	assertEquals(4, pool.getTotalSize());
+	assertTrue(pool.getMaxOpening() <= config.getConnectThreads());
+	first.quit();
+	second.quit();
+	assertEquals(4, pool.getSize());
+    }
+
+    // ***** helpers *****
+
+    private static ClientPoolConfiguration configuration() {
+	ClientPoolConfiguration config = new ClientPoolConfiguration();
+	config.setMinPoolSize(0);
+	config.setMaxPoolSize(4);
+	config.setBlockingTimeout(5000);
+	config.setReplenishInterval(0);
+	return config;
+    }
+
+    /**
+     * start the pool, failing instead of hanging if start() does not return.
+     */
+    private void startPool() throws Exception {
+	run(new Task() {
+	    public void run() throws Exception {
+		pool.start();
+	    }
+	});
+    }
+
+    /**
+     * replace the pool of setUp() by one that is not started yet.
+     */
+    private void restart(ClientPoolConfiguration config, long delay) {
+	pool.stop();
+	pool = new StubPool(config);
+	pool.setDelay(delay);
+    }
+
+    interface Task {
+	void run() throws Exception;
+    }
+
+    private Throwable failure = null;
+
+    private Thread start(final Task task) {
+	Thread thread = new Thread() {
+	    public void run() {
+		try {
+		    task.run();
+		} catch (Throwable e) {
+		    synchronized (ClientPoolTest.this) {
+			if (failure == null)
+			    failure = e;
+		    }
+		}
+	    }
+	};
+	thread.start();
+	return thread;
+    }
+
+    private void join(Thread thread) throws Exception {
+	thread.join(30 * 1000);
+	assertFalse("thread did not finish", thread.isAlive());
+	synchronized (this) {
+	    if (failure instanceof Exception)
+		throw (Exception) failure;
+	    if (failure != null)
+		throw (Error) failure;
+	}
+    }
+
+    void run(Task task) throws Exception {
+	join(start(task));
+    }
+
+    void run(Task task, int threads) throws Exception {
+	Thread[] started = new Thread[threads];
+	for (int i = 0; i < threads; i++)
+	    started[i] = start(task);
+	for (int i = 0; i < threads; i++)
+	    join(started[i]);
+    }
+
+    /**
+     * wait until a client is closed on the keep alive scheduler.
+     */
+    static void waitFor(StubClient client) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + 5000;
+	while (!client.isDestroyed() && System.currentTimeMillis() < deadline)
+	    Thread.sleep(10);
+	assertTrue("client not closed", client.isDestroyed());
+    }
+}
@@ -0,0 +1,136 @@
+//$Id$
+//
+//Copyright 2009 Steven Jardine <steve@mjnservices.com>
+//Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+//for information on the HylaFAX FAX server see
+//http://www.hylafax.org/
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Library General Public
+//License as published by the Free Software Foundation; either
+//version 2 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Library General Public License for more details.
+//
+//You should have received a copy of the GNU Library General Public
+//License along with this library; if not, write to the Free
+//Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+package gnu.hylafax.pool;
+
+import junit.framework.TestCase;
+
+/**
+ * Walks the circuit breaker of EndpointHealth through its states.
+ */
+public class EndpointHealthTest extends TestCase {
+
+    private EndpointHealth health;
+
+    protected void setUp() {
+	health = new EndpointHealth();
+	health.setFailureLimit(3);
+	health.setProbeInterval(100, 1000);
+	health.setRampTime(200);
+    }
+
+    public void testTrip() {
+	assertEquals(EndpointHealth.CLOSED, health.getState());
+	assertFalse(health.connectFailed());
+	assertFalse(health.noopFailed());
+	assertTrue(health.allowRequest());
+	// the third consecutive failure opens the breaker, once.
+	assertTrue(health.failed());
+	assertFalse(health.failed());
+	assertEquals(EndpointHealth.OPEN, health.getState());
+	assertFalse(health.isAvailable());
+	assertFalse(health.allowRequest());
+	assertEquals(1, health.getTrips());
+	assertEquals(100, health.getProbeDelay());
+	assertEquals(0, health.getScore(), 0);
+    }
+
+    public void testSuccessResetsFailures() {
+	health.failed();
+	health.failed();
+	health.succeeded();
+	assertFalse(health.failed());
+	assertEquals(EndpointHealth.CLOSED, health.getState());
+    }
+
+    public void testErrorRate() {
+	health.setFailureLimit(100);
+	health.setErrorThreshold(0.3);
+	boolean tripped = false;
+	for (int i = 0; i < 20 && !tripped; i++) {
+	    health.succeeded();
+	    tripped = health.failed() || health.failed();
+	}
+	assertTrue(tripped);
+	assertEquals(EndpointHealth.OPEN, health.getState());
+    }
+
+    public void testProbeBackoff() {
+	trip();
+	health.probeFailed();
+	assertEquals(200, health.getProbeDelay());
+	for (int i = 0; i < 10; i++)
+	    health.probeFailed();
+	assertEquals(1000, health.getProbeDelay());
+    }
+
+    public void testRecovery() throws Exception {
+	trip();
+	health.recovered();
+	assertEquals(EndpointHealth.RECOVERING, health.getState());
+	assertTrue(health.isAvailable());
+
+	// about a tenth of the requests are let through at first.
+	int allowed = 0;
+	for (int i = 0; i < 100; i++) {
+	    if (health.allowRequest())
+		allowed++;
+	}
+	assertTrue("allowed " + allowed, allowed >= 5 && allowed <= 30);
+
+	Thread.sleep(250);
+	assertTrue(health.allowRequest());
+	assertEquals(EndpointHealth.CLOSED, health.getState());
+	assertTrue(health.allowRequest());
+    }
+
+    public void testTripWhileRecovering() {
+	trip();
+	health.recovered();
+	// a single failure opens the breaker again, with a longer delay.
+	assertTrue(health.connectFailed());
+	assertEquals(EndpointHealth.OPEN, health.getState());
+	assertEquals(2, health.getTrips());
+	assertEquals(200, health.getProbeDelay());
+	assertFalse(health.allowRequest());
+
+	health.recovered();
+	assertTrue(health.failed());
+	assertEquals(400, health.getProbeDelay());
+
+	// once closed the failure limit applies again.
+	health.reset();
+	assertFalse(health.failed());
+	assertEquals(EndpointHealth.CLOSED, health.getState());
+    }
+
+    public void testRecoveredOnlyWhenOpen() {
+	health.recovered();
+	assertEquals(EndpointHealth.CLOSED, health.getState());
+    }
+
+    private void trip() {
+	for (int i = 0; i < 3; i++)
+	    health.failed();
+	assertEquals(EndpointHealth.OPEN, health.getState());
+    }
+}
@@ -0,0 +1,216 @@
+// AsciiBenchmark.java - measures the throughput of the ASCII translation
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+//
+// for information on the HylaFAX FAX server see
+//  http://www.hylafax.org/
+//
+
+package gnu.hylafax.util;
+
+import gnu.getopt.Getopt;
+import gnu.inet.ftp.AsciiInputStream;
+import gnu.inet.ftp.AsciiOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Compares the throughput of AsciiInputStream and AsciiOutputStream with a
+ * byte at a time translation, the way both streams worked before, on a
+ * generated directory listing. The data is read from and written to memory,
+ * so only the cost of the translation is measured. The numbers are only
+ * meaningful where the line separator is a single character.
+ * <P>
+ *
+ * <PRE>
+ *
+ * -l <lines> lines of the listing (default: 200000) -r <rounds> measured
+ * rounds after one warm-up round (default: 5)
+ *
+ * </PRE>
+ */
+public class AsciiBenchmark {
+
+	/**
+	 * Byte at a time CR/LF to line separator translation.
+	 */
+	private static class ByteInputStream extends FilterInputStream {
+
+		private int pending = -1;
+
+		ByteInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			int cur = pending < 0 ? in.read() : pending;
+			pending = -1;
+			if (cur != '\r')
+				return cur;
+			if ((pending = in.read()) != '\n')
+				return cur;
+			pending = -1;
+			return '\n';
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = 0;
+			while (count < len) {
+				int cur = read();
+				if (cur < 0)
+					break;
+				b[off + count++] = (byte) cur;
+			}
+			return count == 0 ? -1 : count;
+		}
+	}
+
+	/**
+	 * Byte at a time line separator to CR/LF translation.
+	 */
+	private static class ByteOutputStream extends FilterOutputStream {
+
+		ByteOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			if (b == '\n') {
+				out.write('\r');
+				out.write('\n');
+			} else {
+				out.write(b);
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++)
+				write(b[i]);
+		}
+	}
+
+	public static void main(String arguments[]) throws Exception {
+		int lines = 200000; // -l
+		int rounds = 5; // -r
+
+		Getopt g = new Getopt("AsciiBenchmark", arguments, "l:r:");
+		char opt;
+		while ((short) (opt = (char) g.getopt()) != -1) {
+			switch (opt) {
+			case 'l':
+				lines = Integer.parseInt(g.getOptarg());
+				break;
+			case 'r':
+				rounds = Integer.parseInt(g.getOptarg());
+				break;
+			default:
+				usage(System.err);
+				System.exit(-1);
+				break;
+			}
+		}
+		if (!System.getProperty("line.separator").equals("\n"))
+			System.err.println("Warning: line separator is not LF, "
+					+ "AsciiInputStream does not translate.");
+
+		byte[] listing = listing(lines);
+		byte[] local = translate(new ByteInputStream(new ByteArrayInputStream(
+				listing)));
+		if (!Arrays.equals(local, translate(new AsciiInputStream(
+				new ByteArrayInputStream(listing)))))
+			throw new IllegalStateException("AsciiInputStream output differs");
+
+		System.out.println(lines + " lines, " + listing.length + " bytes");
+		for (int round = 0; round <= rounds; round++) {
+			long start = System.currentTimeMillis();
+			translate(new ByteInputStream(new ByteArrayInputStream(listing)));
+			long byteIn = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			translate(new AsciiInputStream(new ByteArrayInputStream(listing)));
+			long bulkIn = System.currentTimeMillis() - start;
+
+			ByteArrayOutputStream sink = new ByteArrayOutputStream(
+					listing.length);
+			start = System.currentTimeMillis();
+			write(new ByteOutputStream(sink), local);
+			long byteOut = System.currentTimeMillis() - start;
+
+			sink.reset();
+			start = System.currentTimeMillis();
+			write(new AsciiOutputStream(sink), local);
+			long bulkOut = System.currentTimeMillis() - start;
+
+			if (round == 0)
+				continue; // warm-up
+			System.out.println("round " + round + ": read "
+					+ rate(listing.length, byteIn) + " -> "
+					+ rate(listing.length, bulkIn) + " MB/s, write "
+					+ rate(listing.length, byteOut) + " -> "
+					+ rate(listing.length, bulkOut) + " MB/s");
+		}
+	}
+
+	public static void usage(PrintStream out) {
+		out.println("usage:\n\tAsciiBenchmark <options>\n");
+		out.println("where <options> can be:\n"
+				+ "\t-l <lines>   lines of the listing (default: 200000)\n"
+				+ "\t-r <rounds>  measured rounds (default: 5)\n");
+	}
+
+	private static byte[] listing(int lines) {
+		StringBuffer buffer = new StringBuffer(lines * 80);
+		for (int i = 0; i < lines; i++) {
+			buffer.append("-rw----  1 fax  uucp  ").append(1000 + i % 90000)
+					.append(" Jan 01 12:00 fax").append(100000 + i).append(
+							".tif\r\n");
+		}
+		return buffer.toString().getBytes();
+	}
+
+	private static String rate(long bytes, long millis) {
+		return String.valueOf(bytes * 1000 / 1024 / 1024 / Math.max(1, millis));
+	}
+
+	private static byte[] translate(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+		while ((len = in.read(buffer)) >= 0)
+			out.write(buffer, 0, len);
+		return out.toByteArray();
+	}
+
+	private static void write(OutputStream out, byte[] data)
+			throws IOException {
+		for (int off = 0; off < data.length; off += 8192)
+			out.write(data, off, Math.min(8192, data.length - off));
+		out.flush();
+	}
+
+}
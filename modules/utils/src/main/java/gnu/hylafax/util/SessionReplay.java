@@ -0,0 +1,326 @@
+// SessionReplay.java - plays recorded sessions back against a server
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+//
+// for information on the HylaFAX FAX server see
+//  http://www.hylafax.org/
+//
+
+package gnu.hylafax.util;
+
+import gnu.getopt.Getopt;
+import gnu.inet.ftp.CommandStatistics;
+import gnu.inet.ftp.Reply;
+import gnu.inet.ftp.ReplyDecoder;
+import gnu.inet.ftp.SessionLog;
+import gnu.inet.ftp.SessionRecorder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Plays session logs written by gnu.inet.ftp.SessionRecorder back against a
+ * server, usually a StubServer, to reproduce the load of a production client.
+ * Commands are sent with their original spacing divided by the speed factor.
+ * Where the recorded client waited for replies the replay waits as well, so
+ * pipelined bursts stay bursts. Data transfers are repeated with the recorded
+ * size, active (port) transfers are replayed as passive ones.
+ * <P>
+ *
+ * <PRE>
+ *
+ * -h <host> server hostname (default: localhost) -p <port> server port
+ * (default: 4559) -s <speed> speed factor, 0 for no delays (default: 1) -n
+ * <count> number of concurrent replays of every log (default: 1)
+ *
+ * </PRE>
+ */
+public class SessionReplay implements Runnable {
+
+	public static void main(String arguments[]) throws Exception {
+		String host = "localhost"; // -h
+		int port = 4559; // -p
+		double speed = 1; // -s
+		int count = 1; // -n
+
+		Getopt g = new Getopt("SessionReplay", arguments, "h:p:s:n:");
+		char opt;
+		while ((short) (opt = (char) g.getopt()) != -1) {
+			switch (opt) {
+			case 'h':
+				host = g.getOptarg();
+				break;
+			case 'p':
+				port = Integer.parseInt(g.getOptarg());
+				break;
+			case 's':
+				speed = Double.parseDouble(g.getOptarg());
+				break;
+			case 'n':
+				count = Integer.parseInt(g.getOptarg());
+				break;
+			default:
+				usage(System.err);
+				System.exit(-1);
+				break;
+			}
+		}
+		if (g.getOptind() >= arguments.length) {
+			usage(System.err);
+			System.exit(-1);
+		}
+
+		CommandStatistics statistics = new CommandStatistics();
+		List threads = new ArrayList();
+		for (int i = g.getOptind(); i < arguments.length; i++) {
+			List records = load(arguments[i]);
+			for (int n = 0; n < count; n++) {
+				Thread thread = new Thread(new SessionReplay(records, host,
+						port, speed, statistics), "SessionReplay");
+				threads.add(thread);
+			}
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads.size(); i++)
+			((Thread) threads.get(i)).start();
+		for (int i = 0; i < threads.size(); i++)
+			((Thread) threads.get(i)).join();
+
+		System.out.println(threads.size() + " sessions replayed in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		System.out.print(statistics);
+	}
+
+	/**
+	 * read all records of a session log.
+	 */
+	public static List load(String file) throws IOException {
+		SessionLog log = new SessionLog(new FileInputStream(file));
+		try {
+			List records = new ArrayList();
+			SessionLog.Record record;
+			while ((record = log.read()) != null)
+				records.add(record);
+			return records;
+		} finally {
+			log.close();
+		}
+	}
+
+	public static void usage(PrintStream out) {
+		out.println("usage:\n\tSessionReplay <options> log1 ...\n");
+		out.println("where <options> can be:\n"
+				+ "\t-h <host>    server hostname (default: localhost)\n"
+				+ "\t-p <port>    server port (default: 4559)\n"
+				+ "\t-s <speed>   speed factor, 0 for no delays (default: 1)\n"
+				+ "\t-n <count>   concurrent replays of every log (default: 1)\n");
+	}
+
+	private final List records;
+
+	private final String host;
+
+	private final int port;
+
+	private final double speed;
+
+	private final CommandStatistics statistics;
+
+	private final Reply reply = new Reply();
+
+	private ReplyDecoder decoder;
+
+	private OutputStream out;
+
+	// verbs and send times of the commands waiting for a reply
+	private final LinkedList pending = new LinkedList();
+
+	private boolean greeted = false;
+
+	private String passiveHost = null;
+
+	private int passivePort = -1;
+
+	/**
+	 * @param records
+	 *            the records of the session log
+	 * @param host
+	 *            the server to replay against
+	 * @param port
+	 *            the server port
+	 * @param speed
+	 *            the speed factor, 0 to send without delays
+	 * @param statistics
+	 *            receives the latency of the replayed commands
+	 */
+	public SessionReplay(List records, String host, int port, double speed,
+			CommandStatistics statistics) {
+		this.records = records;
+		this.host = host;
+		this.port = port;
+		this.speed = speed;
+		this.statistics = statistics;
+	}
+
+	public void run() {
+		Socket socket = null;
+		try {
+			socket = new Socket(host, port);
+			decoder = new ReplyDecoder(socket.getInputStream());
+			out = socket.getOutputStream();
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < records.size(); i++) {
+				SessionLog.Record record = (SessionLog.Record) records.get(i);
+				if (speed > 0) {
+					long due = start + (long) (record.getTime() / speed);
+					long wait = due - System.currentTimeMillis();
+					if (wait > 0)
+						Thread.sleep(wait);
+				}
+				switch (record.getType()) {
+				case SessionRecorder.COMMAND:
+					command(record, i);
+					break;
+				case SessionRecorder.REPLY:
+					// the client waited for the server here.
+					drain();
+					break;
+				default:
+					// data transfers are replayed with their command.
+					break;
+				}
+			}
+			drain();
+		} catch (Exception e) {
+			System.err.println("Replay failed: " + e);
+		} finally {
+			try {
+				if (socket != null)
+					socket.close();
+			} catch (IOException e) {
+				// Don't care.
+			}
+		}
+	}
+
+	private void command(SessionLog.Record record, int index)
+			throws IOException {
+		String verb = record.getVerb();
+		String line = record.getText();
+		if (verb.equals("port")) {
+			verb = "pasv";
+			line = "pasv";
+		}
+		if (isTransfer(verb)) {
+			// the address is in the reply to the preceding pasv.
+			drain();
+			Socket data = passivePort < 0 ? null : new Socket(passiveHost,
+					passivePort);
+			passivePort = -1;
+			send(verb, line);
+			if (data != null)
+				transfer(data, verb, findAmount(index));
+		} else {
+			send(verb, line);
+		}
+	}
+
+	/**
+	 * read replies until all commands sent so far are answered.
+	 */
+	private void drain() throws IOException {
+		while (!greeted || !pending.isEmpty()) {
+			decoder.read(reply);
+			if (reply.isPreliminary())
+				continue;
+			if (!greeted) {
+				greeted = true;
+				continue;
+			}
+			Object[] command = (Object[]) pending.removeFirst();
+			long time = System.currentTimeMillis()
+					- ((Long) command[1]).longValue();
+			statistics.record((String) command[0], time,
+					reply.getCode() >= 400);
+			if (reply.getCode() == 227) {
+				int[] numbers = new int[6];
+				if (reply.getNumbers(numbers) == 6) {
+					passiveHost = numbers[0] + "." + numbers[1] + "."
+							+ numbers[2] + "." + numbers[3];
+					passivePort = numbers[4] * 256 + numbers[5];
+				}
+			}
+		}
+	}
+
+	private long findAmount(int index) {
+		for (int i = index + 1; i < records.size(); i++) {
+			SessionLog.Record record = (SessionLog.Record) records.get(i);
+			if (record.getType() == SessionRecorder.DATA)
+				return record.getAmount();
+			if (record.getType() == SessionRecorder.COMMAND)
+				break;
+		}
+		return 0;
+	}
+
+	private static boolean isTransfer(String verb) {
+		return verb.equals("stot") || verb.equals("stou")
+				|| verb.equals("stor") || verb.equals("retr")
+				|| verb.equals("list") || verb.equals("nlst");
+	}
+
+	private void send(String verb, String line) throws IOException {
+		pending.addLast(new Object[] { verb,
+				new Long(System.currentTimeMillis()) });
+		out.write((line + "\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+	}
+
+	private void transfer(Socket data, String verb, long amount)
+			throws IOException {
+		byte[] buffer = new byte[8192];
+		try {
+			if (verb.startsWith("st")) {
+				OutputStream upload = data.getOutputStream();
+				while (amount > 0) {
+					int len = (int) Math.min(buffer.length, amount);
+					upload.write(buffer, 0, len);
+					amount -= len;
+				}
+				upload.flush();
+			} else {
+				InputStream download = data.getInputStream();
+				while (download.read(buffer) >= 0)
+					;
+			}
+		} finally {
+			data.close();
+		}
+	}
+
+}
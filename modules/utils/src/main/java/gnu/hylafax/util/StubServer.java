@@ -0,0 +1,285 @@
+// StubServer.java - a minimal hfaxd stand-in for performance tests
+// $Id$
+//
+// Copyright 2009 Steven Jardine <steve@mjnservices.com>
+// Copyright 2009 MJN Services, Inc - http://www.mjnservices.com
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Library General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public
+// License along with this library; if not, write to the Free
+// Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+//
+//
+// for information on the HylaFAX FAX server see
+//  http://www.hylafax.org/
+//
+
+package gnu.hylafax.util;
+
+import gnu.getopt.Getopt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A small server that answers the HylaFAX client protocol well enough to run
+ * recorded sessions and load tests against it without a real hfaxd. Jobs and
+ * their parameters are kept in memory, uploaded documents are read and
+ * discarded, downloads and listings are empty. Only passive data connections
+ * are supported.
+ * <P>
+ *
+ * <PRE>
+ *
+ * -p <port> port to listen on (default: 4559) -d <ms> delay every reply by
+ * <ms> milliseconds
+ *
+ * </PRE>
+ */
+public class StubServer implements Runnable {
+
+	private static int nextId = 1;
+
+	private static synchronized int nextId() {
+		return nextId++;
+	}
+
+	public static void main(String arguments[]) throws IOException {
+		int port = 4559; // -p
+		long delay = 0; // -d
+
+		Getopt g = new Getopt("StubServer", arguments, "p:d:");
+		char opt;
+		while ((short) (opt = (char) g.getopt()) != -1) {
+			switch (opt) {
+			case 'p':
+				port = Integer.parseInt(g.getOptarg());
+				break;
+			case 'd':
+				delay = Long.parseLong(g.getOptarg());
+				break;
+			default:
+				usage(System.err);
+				System.exit(-1);
+				break;
+			}
+		}
+
+		ServerSocket server = new ServerSocket(port, 1000);
+		System.out.println("StubServer listening on port "
+				+ server.getLocalPort());
+		while (true) {
+			Socket socket = server.accept();
+			Thread thread = new Thread(new StubServer(socket, delay),
+					"StubServer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public static void usage(PrintStream out) {
+		out.println("usage:\n\tStubServer <options>\n");
+		out.println("where <options> can be:\n"
+				+ "\t-p <port>    port to listen on (default: 4559)\n"
+				+ "\t-d <ms>      delay every reply by <ms> milliseconds\n");
+	}
+
+	private final Socket socket;
+
+	private final long delay;
+
+	private OutputStream out;
+
+	private ServerSocket passive = null;
+
+	private Map jobs = new HashMap();
+
+	private Map job = null;
+
+	private int jobId = 0;
+
+	/**
+	 * @param socket
+	 *            the control connection
+	 * @param delay
+	 *            the delay of every reply in milliseconds
+	 */
+	public StubServer(Socket socket, long delay) {
+		this.socket = socket;
+		this.delay = delay;
+	}
+
+	public void run() {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "ISO-8859-1"));
+			out = socket.getOutputStream();
+			reply("220 localhost server (HylaFAX (tm) Version 6.0) ready.");
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (delay > 0)
+					Thread.sleep(delay);
+				if (!handle(line.trim()))
+					break;
+			}
+		} catch (Exception e) {
+			// the client went away.
+		} finally {
+			try {
+				socket.close();
+				if (passive != null)
+					passive.close();
+			} catch (IOException e) {
+				// Don't care.
+			}
+		}
+	}
+
+	private boolean handle(String line) throws IOException {
+		int pos = line.indexOf(' ');
+		String verb = (pos < 0 ? line : line.substring(0, pos)).toLowerCase();
+		String argument = pos < 0 ? null : line.substring(pos + 1).trim();
+
+		if (verb.equals("quit")) {
+			reply("221 Goodbye.");
+			return false;
+		} else if (verb.equals("user") || verb.equals("pass")
+				|| verb.equals("admin")) {
+			reply("230 User logged in.");
+		} else if (verb.equals("jnew")) {
+			jobId = nextId();
+			job = new HashMap();
+			jobs.put(new Integer(jobId), job);
+			reply("200 New job created: jobid: " + jobId + " groupid: "
+					+ jobId + ".");
+		} else if (verb.equals("job")) {
+			if (argument != null) {
+				selectJob(argument);
+				reply("200 Job " + jobId + " selected.");
+			} else {
+				reply("200 Current job: jobid " + jobId + " groupid " + jobId
+						+ ".");
+			}
+		} else if (verb.equals("jparm")) {
+			jparm(argument);
+		} else if (verb.equals("jsubm")) {
+			int id = argument == null ? jobId : Integer.parseInt(argument);
+			reply("200 Job " + id + " submitted.");
+		} else if (verb.equals("pasv")) {
+			pasv();
+		} else if (verb.equals("stot") || verb.equals("stou")
+				|| verb.equals("stor")) {
+			String file = verb.equals("stor") ? argument : "/tmp/doc"
+					+ nextId() + ".ps";
+			reply("150 FILE: " + file + " (Opening new data connection).");
+			transfer(true);
+			reply("226 Transfer complete (FILE: " + file + ").");
+		} else if (verb.equals("retr") || verb.equals("list")
+				|| verb.equals("nlst")) {
+			reply("150 Opening new data connection.");
+			transfer(false);
+			reply("226 Transfer complete.");
+		} else if (verb.equals("size")) {
+			reply("213 0");
+		} else if (verb.equals("mdtm")) {
+			reply("213 20090101000000");
+		} else {
+			reply("200 Command okay.");
+		}
+		return true;
+	}
+
+	private void jparm(String argument) throws IOException {
+		if (job == null)
+			job = new HashMap();
+		if (argument == null) {
+			StringBuffer buffer = new StringBuffer("217-Job state: jobid "
+					+ jobId + "\r\n");
+			Iterator i = job.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry entry = (Map.Entry) i.next();
+				buffer.append("    ").append(entry.getKey()).append(": ")
+						.append(entry.getValue()).append("\r\n");
+			}
+			buffer.append("217 End of job state.");
+			reply(buffer.toString());
+			return;
+		}
+		int pos = argument.indexOf(' ');
+		if (pos < 0) {
+			Object value = job.get(argument.toUpperCase());
+			reply("213 " + (value == null ? "" : value));
+		} else {
+			job.put(argument.substring(0, pos).toUpperCase(), argument
+					.substring(pos + 1));
+			reply("213 Command okay.");
+		}
+	}
+
+	private void pasv() throws IOException {
+		if (passive != null)
+			passive.close();
+		passive = new ServerSocket(0, 1, socket.getLocalAddress());
+		byte[] address = socket.getLocalAddress().getAddress();
+		int port = passive.getLocalPort();
+		reply("227 Entering Passive Mode (" + (address[0] & 0xff) + ","
+				+ (address[1] & 0xff) + "," + (address[2] & 0xff) + ","
+				+ (address[3] & 0xff) + "," + (port >> 8) + ","
+				+ (port & 0xff) + ")");
+	}
+
+	private void reply(String text) throws IOException {
+		out.write((text + "\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+	}
+
+	private void selectJob(String argument) {
+		if (argument.equalsIgnoreCase("default")) {
+			jobId = 0;
+		} else {
+			jobId = Integer.parseInt(argument);
+		}
+		job = (Map) jobs.get(new Integer(jobId));
+		if (job == null) {
+			job = new HashMap();
+			jobs.put(new Integer(jobId), job);
+		}
+	}
+
+	private void transfer(boolean upload) throws IOException {
+		if (passive == null)
+			return;
+		Socket data = passive.accept();
+		try {
+			if (upload) {
+				InputStream in = data.getInputStream();
+				byte[] buffer = new byte[8192];
+				while (in.read(buffer) >= 0)
+					;
+			}
+		} finally {
+			data.close();
+			passive.close();
+			passive = null;
+		}
+	}
+
+}